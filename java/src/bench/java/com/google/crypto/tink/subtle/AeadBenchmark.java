@@ -0,0 +1,107 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.Aead;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the {@link Aead} implementations in this package.
+ *
+ * <p>The primitive is shared by all benchmark threads, as it would be in an application, so
+ * running with {@code -t 1} up to {@code -t max} shows how it scales. Throughput is reported in
+ * operations per second; multiply by {@code size} for bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AeadBenchmark {
+  @Param({
+    "AES128_GCM",
+    "AES256_GCM",
+    "AES128_EAX",
+    "AES128_CTR_HMAC_SHA256",
+    "CHACHA20_POLY1305",
+    "XCHACHA20_POLY1305",
+    "XSALSA20_POLY1305"
+  })
+  public String algorithm;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private Aead aead;
+  private byte[] plaintext;
+  private byte[] associatedData;
+  private byte[] ciphertext;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    aead = newAead(algorithm);
+    plaintext = Random.randBytes(size);
+    associatedData = Random.randBytes(16);
+    ciphertext = aead.encrypt(plaintext, associatedData);
+  }
+
+  @Benchmark
+  public byte[] encrypt() throws GeneralSecurityException {
+    return aead.encrypt(plaintext, associatedData);
+  }
+
+  @Benchmark
+  public byte[] decrypt() throws GeneralSecurityException {
+    return aead.decrypt(ciphertext, associatedData);
+  }
+
+  private static Aead newAead(String algorithm) throws GeneralSecurityException {
+    if (algorithm.equals("AES128_GCM")) {
+      return new AesGcmJce(Random.randBytes(16));
+    } else if (algorithm.equals("AES256_GCM")) {
+      return new AesGcmJce(Random.randBytes(32));
+    } else if (algorithm.equals("AES128_EAX")) {
+      return new AesEaxJce(Random.randBytes(16), 16);
+    } else if (algorithm.equals("AES128_CTR_HMAC_SHA256")) {
+      return new EncryptThenAuthenticate(
+          new AesCtrJceCipher(Random.randBytes(16), 16),
+          new MacJce("HMACSHA256", new SecretKeySpec(Random.randBytes(32), "HMAC"), 32),
+          32);
+    } else if (algorithm.equals("CHACHA20_POLY1305")) {
+      return SnuffleCipherPoly1305.constructChaCha20Poly1305Ietf(Random.randBytes(32));
+    } else if (algorithm.equals("XCHACHA20_POLY1305")) {
+      return SnuffleCipherPoly1305.constructXChaCha20Poly1305Ietf(Random.randBytes(32));
+    } else if (algorithm.equals("XSALSA20_POLY1305")) {
+      return SnuffleCipherPoly1305.constructXSalsa20Poly1305Nacl(Random.randBytes(32));
+    }
+    throw new GeneralSecurityException("unknown algorithm: " + algorithm);
+  }
+}
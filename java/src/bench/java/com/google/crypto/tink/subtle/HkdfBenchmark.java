@@ -0,0 +1,65 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link Hkdf}. The size is the size of the input key material; the output is
+ * always 32 bytes, as for a derived AES-256 key.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HkdfBenchmark {
+  @Param({"HMACSHA256", "HMACSHA512"})
+  public String macAlgorithm;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private byte[] ikm;
+  private byte[] salt;
+  private byte[] info;
+
+  @Setup
+  public void setUp() {
+    ikm = Random.randBytes(size);
+    salt = Random.randBytes(32);
+    info = Random.randBytes(16);
+  }
+
+  @Benchmark
+  public byte[] computeHkdf() throws GeneralSecurityException {
+    return Hkdf.computeHkdf(macAlgorithm, ikm, salt, info, 32);
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.HybridDecrypt;
+import com.google.crypto.tink.HybridEncrypt;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link EciesAeadHkdfHybridEncrypt} and {@link EciesAeadHkdfHybridDecrypt} with
+ * NIST P-256, HKDF-SHA256 and AES128-GCM. See {@link AeadBenchmark} for how to read the results.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HybridBenchmark {
+  /** The DEM, without going through the registry. */
+  private static final class AesGcmDemHelper implements EciesAeadHkdfDemHelper {
+    @Override
+    public int getSymmetricKeySizeInBytes() {
+      return 16;
+    }
+
+    @Override
+    public Aead getAead(final byte[] symmetricKeyValue) throws GeneralSecurityException {
+      return new AesGcmJce(symmetricKeyValue);
+    }
+  }
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private HybridEncrypt hybridEncrypt;
+  private HybridDecrypt hybridDecrypt;
+  private byte[] plaintext;
+  private byte[] contextInfo;
+  private byte[] ciphertext;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    KeyPair keyPair = EllipticCurves.generateKeyPair(EllipticCurves.CurveType.NIST_P256);
+    byte[] salt = Random.randBytes(16);
+    hybridEncrypt =
+        new EciesAeadHkdfHybridEncrypt(
+            (ECPublicKey) keyPair.getPublic(),
+            salt,
+            "HmacSha256",
+            EllipticCurves.PointFormatType.UNCOMPRESSED,
+            new AesGcmDemHelper());
+    hybridDecrypt =
+        new EciesAeadHkdfHybridDecrypt(
+            (ECPrivateKey) keyPair.getPrivate(),
+            salt,
+            "HmacSha256",
+            EllipticCurves.PointFormatType.UNCOMPRESSED,
+            new AesGcmDemHelper());
+    plaintext = Random.randBytes(size);
+    contextInfo = Random.randBytes(16);
+    ciphertext = hybridEncrypt.encrypt(plaintext, contextInfo);
+  }
+
+  @Benchmark
+  public byte[] encrypt() throws GeneralSecurityException {
+    return hybridEncrypt.encrypt(plaintext, contextInfo);
+  }
+
+  @Benchmark
+  public byte[] decrypt() throws GeneralSecurityException {
+    return hybridDecrypt.decrypt(ciphertext, contextInfo);
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks for {@link X25519} and ECDH on NIST P-256. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyAgreementBenchmark {
+  private byte[] x25519PrivateKey;
+  private byte[] x25519PeerPublicValue;
+  private ECPrivateKey ecPrivateKey;
+  private ECPublicKey ecPeerPublicKey;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    x25519PrivateKey = X25519.generatePrivateKey();
+    x25519PeerPublicValue = X25519.publicFromPrivate(X25519.generatePrivateKey());
+    ecPrivateKey =
+        (ECPrivateKey)
+            EllipticCurves.generateKeyPair(EllipticCurves.CurveType.NIST_P256).getPrivate();
+    KeyPair peer = EllipticCurves.generateKeyPair(EllipticCurves.CurveType.NIST_P256);
+    ecPeerPublicKey = (ECPublicKey) peer.getPublic();
+  }
+
+  @Benchmark
+  public byte[] x25519PublicFromPrivate() throws GeneralSecurityException {
+    return X25519.publicFromPrivate(x25519PrivateKey);
+  }
+
+  @Benchmark
+  public byte[] x25519ComputeSharedSecret() throws GeneralSecurityException {
+    return X25519.computeSharedSecret(x25519PrivateKey, x25519PeerPublicValue);
+  }
+
+  @Benchmark
+  public byte[] ecdhP256ComputeSharedSecret() throws GeneralSecurityException {
+    return EllipticCurves.computeSharedSecret(ecPrivateKey, ecPeerPublicKey);
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.Mac;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link AesCmac} and {@link MacJce}. See {@link AeadBenchmark} for how to read the
+ * results.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MacBenchmark {
+  @Param({"AES_CMAC", "HMACSHA256", "HMACSHA512"})
+  public String algorithm;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private Mac mac;
+  private byte[] data;
+  private byte[] tag;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    if (algorithm.equals("AES_CMAC")) {
+      mac = new AesCmac(Random.randBytes(32));
+    } else if (algorithm.equals("HMACSHA256")) {
+      mac = new MacJce(algorithm, new SecretKeySpec(Random.randBytes(32), "HMAC"), 32);
+    } else {
+      mac = new MacJce(algorithm, new SecretKeySpec(Random.randBytes(64), "HMAC"), 64);
+    }
+    data = Random.randBytes(size);
+    tag = mac.computeMac(data);
+  }
+
+  @Benchmark
+  public byte[] computeMac() throws GeneralSecurityException {
+    return mac.computeMac(data);
+  }
+
+  @Benchmark
+  public void verifyMac() throws GeneralSecurityException {
+    mac.verifyMac(tag, data);
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.PublicKeySign;
+import com.google.crypto.tink.PublicKeyVerify;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link EcdsaSignJce}, {@link EcdsaVerifyJce}, {@link Ed25519Sign} and {@link
+ * Ed25519Verify}. See {@link AeadBenchmark} for how to read the results.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureBenchmark {
+  @Param({"ECDSA_P256", "ED25519"})
+  public String algorithm;
+
+  @Param({"16", "1024", "65536", "1048576", "16777216"})
+  public int size;
+
+  private PublicKeySign signer;
+  private PublicKeyVerify verifier;
+  private byte[] data;
+  private byte[] signature;
+
+  @Setup
+  public void setUp() throws GeneralSecurityException {
+    if (algorithm.equals("ECDSA_P256")) {
+      KeyPair keyPair = EllipticCurves.generateKeyPair(EllipticCurves.CurveType.NIST_P256);
+      signer = new EcdsaSignJce((ECPrivateKey) keyPair.getPrivate(), "SHA256WithECDSA");
+      verifier = new EcdsaVerifyJce((ECPublicKey) keyPair.getPublic(), "SHA256WithECDSA");
+    } else {
+      Ed25519Sign.KeyPair keyPair = Ed25519Sign.KeyPair.newKeyPair();
+      signer = new Ed25519Sign(keyPair.getPrivateKey());
+      verifier = new Ed25519Verify(keyPair.getPublicKey());
+    }
+    data = Random.randBytes(size);
+    signature = signer.sign(data);
+  }
+
+  @Benchmark
+  public byte[] sign() throws GeneralSecurityException {
+    return signer.sign(data);
+  }
+
+  @Benchmark
+  public void verify() throws GeneralSecurityException {
+    verifier.verify(signature, data);
+  }
+}
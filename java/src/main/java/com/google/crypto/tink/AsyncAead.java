@@ -0,0 +1,49 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.util.concurrent.Future;
+
+/**
+ * The asynchronous counterpart of {@link Aead}.
+ *
+ * <p>Primitives backed by a remote key management system, e.g., the ones of {@code KmsAeadKey} or
+ * {@code KmsEnvelopeAeadKey}, need a network round trip per message. The methods of this interface
+ * return immediately with a {@link Future}, so that the calling thread is not blocked on the
+ * remote service and many messages can be in flight at the same time.
+ *
+ * <p>If encryption or decryption fails, {@link Future#get} throws an {@link
+ * java.util.concurrent.ExecutionException} whose cause is the {@link
+ * java.security.GeneralSecurityException} thrown by the underlying {@link Aead}.
+ */
+@Alpha
+public interface AsyncAead {
+  /**
+   * Encrypts {@code plaintext} with {@code associatedData} as associated authenticated data.
+   *
+   * @return a {@link Future} of the same ciphertext {@link Aead#encrypt} would return
+   */
+  Future<byte[]> encryptAsync(final byte[] plaintext, final byte[] associatedData);
+
+  /**
+   * Decrypts {@code ciphertext} with {@code associatedData} as associated authenticated data.
+   *
+   * @return a {@link Future} of the plaintext
+   */
+  Future<byte[]> decryptAsync(final byte[] ciphertext, final byte[] associatedData);
+}
@@ -0,0 +1,59 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+/**
+ * An {@link Aead} that can encrypt and decrypt many messages in one call.
+ *
+ * <p>Processing a batch at once lets implementations pay per-call setup, such as looking up and
+ * initializing a JCE engine or drawing a nonce from the random number generator, once per batch
+ * instead of once per message. The ciphertexts are identical to the ones produced by {@link
+ * Aead#encrypt}, and can be decrypted one by one with {@link Aead#decrypt}.
+ *
+ * <p>Use {@link com.google.crypto.tink.aead.AeadBatch} to split large batches over several
+ * threads.
+ */
+@Alpha
+public interface BatchAead extends Aead {
+  /**
+   * Encrypts {@code plaintexts.get(i)} with {@code associatedData.get(i)} as associated
+   * authenticated data, for every {@code i}.
+   *
+   * @return the ciphertexts, in the same order as {@code plaintexts}
+   * @throws IllegalArgumentException if {@code plaintexts} and {@code associatedData} do not have
+   *     the same size
+   */
+  List<byte[]> encryptBatch(List<byte[]> plaintexts, List<byte[]> associatedData)
+      throws GeneralSecurityException;
+
+  /**
+   * Decrypts {@code ciphertexts.get(i)} with {@code associatedData.get(i)} as associated
+   * authenticated data, for every {@code i}. A ciphertext that cannot be decrypted does not fail
+   * the batch.
+   *
+   * @return the plaintexts, in the same order as {@code ciphertexts}; the element for a ciphertext
+   *     that cannot be decrypted is null
+   * @throws IllegalArgumentException if {@code ciphertexts} and {@code associatedData} do not
+   *     have the same size
+   */
+  List<byte[]> decryptBatch(List<byte[]> ciphertexts, List<byte[]> associatedData)
+      throws GeneralSecurityException;
+}
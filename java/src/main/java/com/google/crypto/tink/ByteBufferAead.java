@@ -0,0 +1,100 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * An {@link Aead} that can encrypt and decrypt into caller-provided buffers.
+ *
+ * <p>The methods of {@link Aead} return a newly allocated array for every message. The methods of
+ * this interface instead write the output, i.e., the whole ciphertext including any nonce, tag or
+ * key prefix, or the plaintext, directly into a {@link ByteBuffer} (heap or direct) or into a
+ * region of a {@code byte[]} supplied by the caller. The ciphertexts are identical to the ones
+ * produced by {@link Aead#encrypt}.
+ *
+ * <p>Input and output may be regions of the same array, e.g., to encrypt or decrypt in place; the
+ * implementations take care of overlapping regions. Direct buffers must not overlap.
+ *
+ * <p>If decryption fails, the output is not modified.
+ */
+@Alpha
+public interface ByteBufferAead extends Aead {
+  /**
+   * Encrypts the remaining bytes of {@code plaintext} with the remaining bytes of {@code
+   * associatedData} as associated authenticated data, and writes the ciphertext to {@code
+   * ciphertext} starting at its position.
+   *
+   * <p>On success the positions of {@code plaintext} and {@code associatedData} are advanced to
+   * their limits, and the position of {@code ciphertext} is advanced by the size of the ciphertext.
+   *
+   * @throws GeneralSecurityException if {@code ciphertext} does not have enough room remaining
+   */
+  void encrypt(ByteBuffer plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+      throws GeneralSecurityException;
+
+  /**
+   * Decrypts the remaining bytes of {@code ciphertext} with the remaining bytes of {@code
+   * associatedData} as associated authenticated data, and writes the plaintext to {@code
+   * plaintext} starting at its position.
+   *
+   * <p>On success the positions of {@code ciphertext} and {@code associatedData} are advanced to
+   * their limits, and the position of {@code plaintext} is advanced by the size of the plaintext.
+   *
+   * @throws GeneralSecurityException if decryption fails, or if {@code plaintext} does not have
+   *     enough room remaining
+   */
+  void decrypt(ByteBuffer ciphertext, ByteBuffer associatedData, ByteBuffer plaintext)
+      throws GeneralSecurityException;
+
+  /**
+   * Encrypts {@code plaintextLength} bytes of {@code plaintext} starting at {@code
+   * plaintextOffset}, and writes the ciphertext to {@code ciphertext} starting at {@code
+   * ciphertextOffset}.
+   *
+   * @return the size of the ciphertext
+   * @throws GeneralSecurityException if the ciphertext does not fit into {@code ciphertext}
+   */
+  int encrypt(
+      final byte[] plaintext,
+      int plaintextOffset,
+      int plaintextLength,
+      final byte[] associatedData,
+      byte[] ciphertext,
+      int ciphertextOffset)
+      throws GeneralSecurityException;
+
+  /**
+   * Decrypts {@code ciphertextLength} bytes of {@code ciphertext} starting at {@code
+   * ciphertextOffset}, and writes the plaintext to {@code plaintext} starting at {@code
+   * plaintextOffset}.
+   *
+   * @return the size of the plaintext
+   * @throws GeneralSecurityException if decryption fails, or if the plaintext does not fit into
+   *     {@code plaintext}
+   */
+  int decrypt(
+      final byte[] ciphertext,
+      int ciphertextOffset,
+      int ciphertextLength,
+      final byte[] associatedData,
+      byte[] plaintext,
+      int plaintextOffset)
+      throws GeneralSecurityException;
+}
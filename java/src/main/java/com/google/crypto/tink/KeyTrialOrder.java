@@ -0,0 +1,184 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * The entries of a {@link PrimitiveSet} that share an output prefix, e.g., all {@link
+ * com.google.crypto.tink.proto.OutputPrefixType#RAW} keys, in the order in which they should be
+ * tried to decrypt or verify.
+ *
+ * <p>Initially, the entries are in keyset order. Every {@link #recordSuccess} moves the successful
+ * entry ahead of the entries that succeeded less often, so after some use the keys that currently
+ * decrypt most of the inputs are tried first. The success counts are halved periodically, so that
+ * a new key overtakes an old one soon after it starts being used, e.g., after a key rotation.
+ * Successes of the entry that is already tried first are sampled per instance, so that they
+ * usually only update a counter of the calling thread's stripe, not the shared success counts.
+ *
+ * <p>All methods are lock-free. Concurrent updates may lose a count or a reordering, which only
+ * delays the adaptation.
+ */
+@Alpha
+public final class KeyTrialOrder<P> {
+  private static final Logger logger = Logger.getLogger(KeyTrialOrder.class.getName());
+
+  /** The success counts are halved after this many successes. */
+  private static final int DECAY_PERIOD = 1024;
+
+  /** Successes of the entry that is already tried first are counted once per this many. */
+  private static final int SAMPLE_PERIOD = 16;
+
+  private static final long LOG_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  // Failures are logged at most once per LOG_INTERVAL_NANOS across all instances.
+  private static final AtomicLong unloggedFailures = new AtomicLong();
+  private static final AtomicLong nextLogTime = new AtomicLong(System.nanoTime());
+
+  /** Threads sample into this many stripes, each on its own cache line of 16 ints. */
+  private static final int STRIPES = 8;
+
+  private static final int STRIPE_SPACING = 16;
+
+  private static final KeyTrialOrder<Object> EMPTY =
+      new KeyTrialOrder<Object>(Collections.<PrimitiveSet.Entry<Object>>emptyList());
+
+  // The entries in keyset order; successes.get(i) counts the successes of keysetOrder.get(i).
+  private final List<PrimitiveSet.Entry<P>> keysetOrder;
+  private final AtomicLongArray successes;
+  private final AtomicInteger successesUntilDecay = new AtomicInteger(DECAY_PERIOD);
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicReference<List<PrimitiveSet.Entry<P>>> trialOrder;
+  // The successes of the first entry that have not been counted yet, striped by thread; null if
+  // there is only one entry.
+  private final AtomicIntegerArray unsampledSuccesses;
+
+  KeyTrialOrder(List<PrimitiveSet.Entry<P>> keysetOrder) {
+    this.keysetOrder = keysetOrder;
+    this.successes = new AtomicLongArray(keysetOrder.size());
+    this.trialOrder = new AtomicReference<List<PrimitiveSet.Entry<P>>>(keysetOrder);
+    this.unsampledSuccesses =
+        keysetOrder.size() < 2 ? null : new AtomicIntegerArray(STRIPES * STRIPE_SPACING);
+  }
+
+  /** @return an instance without entries. */
+  @SuppressWarnings("unchecked") // EMPTY has no entries of any type.
+  static <P> KeyTrialOrder<P> empty() {
+    return (KeyTrialOrder<P>) (KeyTrialOrder<?>) EMPTY;
+  }
+
+  /** @return the entries in keyset order. */
+  List<PrimitiveSet.Entry<P>> getEntriesInKeysetOrder() {
+    return keysetOrder;
+  }
+
+  /** @return an immutable snapshot of the entries, in the order in which to try them. */
+  public List<PrimitiveSet.Entry<P>> getEntries() {
+    return trialOrder.get();
+  }
+
+  /** Records that {@code entry} decrypted or verified an input, and moves it forward if needed. */
+  public void recordSuccess(PrimitiveSet.Entry<P> entry) {
+    int index = entry.getTrialIndex();
+    if (keysetOrder.size() < 2
+        || index < 0
+        || index >= keysetOrder.size()
+        || keysetOrder.get(index) != entry) {
+      return;
+    }
+    List<PrimitiveSet.Entry<P>> current = trialOrder.get();
+    if (current.get(0) == entry) {
+      // The entry stays first, which is the common case. Only every SAMPLE_PERIOD-th such success
+      // in a stripe is counted, with that weight, so that the others only write the stripe of the
+      // thread. Plain writes suffice, since a lost sample only delays the adaptation.
+      int stripe = (int) (Thread.currentThread().getId() % STRIPES) * STRIPE_SPACING;
+      int unsampled = unsampledSuccesses.get(stripe) + 1;
+      if (unsampled < SAMPLE_PERIOD) {
+        unsampledSuccesses.lazySet(stripe, unsampled);
+        return;
+      }
+      unsampledSuccesses.lazySet(stripe, 0);
+      count(index, SAMPLE_PERIOD);
+      return;
+    }
+    long count = count(index, 1);
+
+    int position = current.indexOf(entry);
+    int newPosition = position;
+    // Ties go to the entry that succeeded most recently.
+    while (newPosition > 0
+        && successes.get(current.get(newPosition - 1).getTrialIndex()) <= count) {
+      newPosition--;
+    }
+    if (newPosition == position) {
+      return;
+    }
+    List<PrimitiveSet.Entry<P>> reordered = new ArrayList<PrimitiveSet.Entry<P>>(current);
+    reordered.remove(position);
+    reordered.add(newPosition, entry);
+    // If another thread reordered in the meantime, its order wins.
+    trialOrder.compareAndSet(current, Collections.unmodifiableList(reordered));
+  }
+
+  /** Adds {@code weight} successes to the entry at {@code index}, and returns its new count. */
+  private long count(int index, int weight) {
+    long count = successes.addAndGet(index, weight);
+    int untilDecay = successesUntilDecay.addAndGet(-weight);
+    // Only the thread that reaches zero halves the counts.
+    if (untilDecay <= 0 && untilDecay + weight > 0) {
+      successesUntilDecay.addAndGet(DECAY_PERIOD);
+      for (int i = 0; i < successes.length(); i++) {
+        successes.set(i, successes.get(i) / 2);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Records that an entry could not decrypt or verify an input although its output prefix matched.
+   * Such failures are counted, and logged at most once per minute rather than one by one, since
+   * any number of them can be caused by corrupted or forged inputs.
+   */
+  public void recordFailure(Exception cause) {
+    failures.incrementAndGet();
+    unloggedFailures.incrementAndGet();
+    long now = System.nanoTime();
+    long next = nextLogTime.get();
+    if (now - next >= 0 && nextLogTime.compareAndSet(next, now + LOG_INTERVAL_NANOS)) {
+      logger.info(
+          unloggedFailures.getAndSet(0)
+              + " inputs matched the output prefix of a key, but could not be decrypted or"
+              + " verified with it; last error: "
+              + cause);
+    }
+  }
+
+  /** @return how many failures have been recorded. */
+  public long getFailureCount() {
+    return failures.get();
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.errorprone.annotations.Immutable;
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable, open-addressed hash map from output prefixes to values.
+ *
+ * <p>Every output prefix used by Tink is either empty (for {@code RAW} keys) or exactly {@link
+ * CryptoFormat#NON_RAW_PREFIX_SIZE} bytes long. The latter fits into the low 40 bits of a {@code
+ * long}, which allows looking up a ciphertext, MAC or signature prefix in place, without copying it
+ * into a new array or converting it into a {@code String}.
+ *
+ * <p>Updates return a new index, so readers only ever observe fully built tables.
+ */
+@Immutable(containerOf = {"V"})
+final class PrefixIndex<V> {
+  /** The packed key of the empty (RAW) prefix. Packed non-empty prefixes are never negative. */
+  static final long RAW_KEY = -1L;
+
+  /** The packed key of prefixes that cannot be produced by {@link CryptoFormat}. */
+  static final long INVALID_KEY = -2L;
+
+  private static final int MIN_CAPACITY = 8;
+
+  @SuppressWarnings("Immutable") // never modified after construction
+  private final long[] keys;
+
+  @SuppressWarnings("Immutable") // never modified after construction
+  private final Object[] values;
+
+  private final int size;
+
+  private PrefixIndex(long[] keys, Object[] values, int size) {
+    this.keys = keys;
+    this.values = values;
+    this.size = size;
+  }
+
+  /** @return an empty index. */
+  static <V> PrefixIndex<V> empty() {
+    return new PrefixIndex<V>(new long[MIN_CAPACITY], new Object[MIN_CAPACITY], 0);
+  }
+
+  /**
+   * Packs the {@code length} bytes at {@code offset} in {@code data} into a {@code long}.
+   *
+   * @return {@link #RAW_KEY} if {@code length} is 0, the packed prefix if {@code length} is {@link
+   *     CryptoFormat#NON_RAW_PREFIX_SIZE}, and {@link #INVALID_KEY} otherwise.
+   */
+  static long pack(final byte[] data, int offset, int length) {
+    if (length == CryptoFormat.RAW_PREFIX_SIZE) {
+      return RAW_KEY;
+    }
+    if (length != CryptoFormat.NON_RAW_PREFIX_SIZE) {
+      return INVALID_KEY;
+    }
+    return ((data[offset] & 0xffL) << 32)
+        | ((data[offset + 1] & 0xffL) << 24)
+        | ((data[offset + 2] & 0xffL) << 16)
+        | ((data[offset + 3] & 0xffL) << 8)
+        | (data[offset + 4] & 0xffL);
+  }
+
+  /**
+   * Packs the {@link CryptoFormat#NON_RAW_PREFIX_SIZE} bytes at absolute {@code index} in {@code
+   * data} into a {@code long}, without changing the position of {@code data}.
+   */
+  static long pack(ByteBuffer data, int index) {
+    return ((data.get(index) & 0xffL) << 32)
+        | ((data.get(index + 1) & 0xffL) << 24)
+        | ((data.get(index + 2) & 0xffL) << 16)
+        | ((data.get(index + 3) & 0xffL) << 8)
+        | (data.get(index + 4) & 0xffL);
+  }
+
+  /** @return the number of prefixes in this index. */
+  int size() {
+    return size;
+  }
+
+  /** @return the value associated with {@code key}, or null if there is none. */
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    int mask = keys.length - 1;
+    for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+      Object value = values[i];
+      if (value == null) {
+        return null;
+      }
+      if (keys[i] == key) {
+        return (V) value;
+      }
+    }
+  }
+
+  /**
+   * @return a new index that contains all mappings of this index, with {@code key} mapped to
+   *     {@code value}.
+   */
+  PrefixIndex<V> with(long key, V value) {
+    if (value == null) {
+      throw new IllegalArgumentException("value must be non-null.");
+    }
+    boolean present = get(key) != null;
+    int newSize = present ? size : size + 1;
+    int capacity = keys.length;
+    // Keep the load factor at or below 1/2, so that probe sequences stay short.
+    while (newSize * 2 > capacity) {
+      capacity *= 2;
+    }
+    long[] newKeys = new long[capacity];
+    Object[] newValues = new Object[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < keys.length; i++) {
+      if (values[i] != null && keys[i] != key) {
+        insert(newKeys, newValues, mask, keys[i], values[i]);
+      }
+    }
+    insert(newKeys, newValues, mask, key, value);
+    return new PrefixIndex<V>(newKeys, newValues, newSize);
+  }
+
+  private static void insert(long[] keys, Object[] values, int mask, long key, Object value) {
+    int i = slot(key, mask);
+    while (values[i] != null) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+  }
+
+  private static int slot(long key, int mask) {
+    // Fibonacci hashing, so that key ids that only differ in their high bits are spread out.
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.protobuf.ByteString;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of primitives, keyed by key type and serialized key material.
+ *
+ * <p>Instantiating a primitive from a key usually requires parsing the key proto and setting up
+ * JCE key objects, which for asymmetric keys can be expensive. When installed with {@link
+ * Registry#setPrimitiveCache}, {@link Registry#getPrimitives} looks up the primitive for each key
+ * in this cache before asking the key manager to build a new one, so that getting a primitive for
+ * the same keyset again, or for keysets that share keys, costs a hash lookup per key.
+ *
+ * <p>The cache evicts the least recently used primitive once it holds more than {@code maxSize}
+ * entries, and drops primitives that have not been used for longer than the configured idle time.
+ *
+ * <p><b>Warning</b>: the cache holds on to the serialized key material of all cached primitives,
+ * i.e., key material stays in memory as long as the corresponding primitive is cached.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class PrimitiveCache {
+  private final int maxSize;
+  private final long maxIdleNanos;
+  private final LinkedHashMap<CacheKey, CacheEntry> entries;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * Creates a cache with at most {@code maxSize} primitives, each of which is dropped if it has not
+   * been used for {@code maxIdleTime} in {@code unit}.
+   */
+  public PrimitiveCache(int maxSize, long maxIdleTime, TimeUnit unit) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive.");
+    }
+    if (maxIdleTime <= 0) {
+      throw new IllegalArgumentException("maxIdleTime must be positive.");
+    }
+    this.maxSize = maxSize;
+    this.maxIdleNanos = unit.toNanos(maxIdleTime);
+    // Access order, so that the first entry is always the least recently used one.
+    this.entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, /* accessOrder= */ true);
+  }
+
+  /**
+   * @return the primitive cached for the key of type {@code typeUrl} given in {@code
+   *     serializedKey}, or null if there is none.
+   */
+  Object get(String typeUrl, ByteString serializedKey) {
+    CacheKey cacheKey = new CacheKey(typeUrl, serializedKey);
+    long now = System.nanoTime();
+    synchronized (entries) {
+      CacheEntry entry = entries.get(cacheKey);
+      if (entry != null) {
+        if (now - entry.lastAccessNanos <= maxIdleNanos) {
+          entry.lastAccessNanos = now;
+          hitCount.incrementAndGet();
+          return entry.primitive;
+        }
+        entries.remove(cacheKey);
+        evictionCount.incrementAndGet();
+      }
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  /** Caches {@code primitive} for the key of type {@code typeUrl} in {@code serializedKey}. */
+  void put(String typeUrl, ByteString serializedKey, Object primitive) {
+    CacheKey cacheKey = new CacheKey(typeUrl, serializedKey);
+    long now = System.nanoTime();
+    synchronized (entries) {
+      entries.put(cacheKey, new CacheEntry(primitive, now));
+      Iterator<Map.Entry<CacheKey, CacheEntry>> it = entries.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<CacheKey, CacheEntry> eldest = it.next();
+        if (entries.size() <= maxSize && now - eldest.getValue().lastAccessNanos <= maxIdleNanos) {
+          // Entries are in access order, so all remaining ones are fresher than this one.
+          break;
+        }
+        it.remove();
+        evictionCount.incrementAndGet();
+      }
+    }
+  }
+
+  /** Removes all cached primitives. The statistics are not reset. */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /** @return the number of cached primitives. */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /** @return how often a primitive was found in the cache. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** @return how often a primitive was not found in the cache and had to be built. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** @return how many primitives have been evicted because of the size limit or the idle time. */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  private static final class CacheKey {
+    private final String typeUrl;
+    private final ByteString serializedKey;
+
+    CacheKey(String typeUrl, ByteString serializedKey) {
+      this.typeUrl = typeUrl;
+      this.serializedKey = serializedKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) o;
+      return typeUrl.equals(other.typeUrl) && serializedKey.equals(other.serializedKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * typeUrl.hashCode() + serializedKey.hashCode();
+    }
+  }
+
+  private static final class CacheEntry {
+    private final Object primitive;
+    private long lastAccessNanos;
+
+    CacheEntry(Object primitive, long lastAccessNanos) {
+      this.primitive = primitive;
+      this.lastAccessNanos = lastAccessNanos;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+
+/**
+ * Receives a record of the operations of the keyset primitives returned by the factories, e.g.,
+ * {@code AeadFactory} or {@code MacFactory}, to find out which keys are in use and how they
+ * perform.
+ *
+ * <p>A monitor is installed with {@link Registry#setPrimitiveMonitor}, and used by all primitives
+ * obtained from the factories afterwards. Subclasses override the {@code record} methods, e.g., to
+ * update counters and latency histograms per key id. The methods are called in the thread doing
+ * the operation, so they must be thread-safe and fast.
+ *
+ * <p>The default monitor {@link #NO_OP} ignores all records; with it, the factories do not even
+ * read the clock.
+ */
+@Alpha
+public abstract class PrimitiveMonitor {
+  /** How the key used for an operation was selected from the keyset. */
+  public enum KeySelection {
+    /** The primary key, which is used to encrypt, compute MACs and sign. */
+    PRIMARY,
+    /** A key whose output prefix matches the prefix of the ciphertext, MAC or signature. */
+    PREFIX,
+    /**
+     * A key with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}, tried because no key
+     * with a matching prefix succeeded.
+     */
+    RAW
+  }
+
+  /** A monitor that ignores all records. This is the default. */
+  public static final PrimitiveMonitor NO_OP = new PrimitiveMonitor() {};
+
+  /**
+   * Records that the key with id {@code keyId} was used for {@code operation} of {@code
+   * primitive}, e.g., {@code Aead.class} and {@code "decrypt"}.
+   *
+   * <p>To decrypt or verify, the keys are tried one after the other, and this method is called for
+   * every key that is tried. An unsuccessful {@link KeySelection#PREFIX} key means that the prefix
+   * matched, but the key could not decrypt or verify the input; unsuccessful {@link
+   * KeySelection#RAW} keys are the cost of trial decryption.
+   *
+   * @param bytes the size of the input, or -1 if unknown, e.g., for streams
+   * @param latencyNanos how long the operation with this key took
+   * @param success whether the operation with this key succeeded
+   */
+  public void recordKeyOperation(
+      Class<?> primitive,
+      String operation,
+      int keyId,
+      KeySelection selection,
+      long bytes,
+      long latencyNanos,
+      boolean success) {}
+
+  /**
+   * Records that {@code operation} of {@code primitive} failed because no key of the keyset could
+   * decrypt or verify the input.
+   *
+   * @param bytes the size of the input, or -1 if unknown
+   * @param latencyNanos how long it took to try all keys
+   */
+  public void recordFailure(Class<?> primitive, String operation, long bytes, long latencyNanos) {}
+
+  /**
+   * Returns the start time of an operation, to be passed to {@link #onKeyOperation} or {@link
+   * #onFailure}. This is meant for the factories; it returns 0 for {@link #NO_OP}.
+   */
+  public final long startTime() {
+    return this == NO_OP ? 0 : System.nanoTime();
+  }
+
+  /**
+   * Calls {@link #recordKeyOperation} for the key of {@code entry}, with the time elapsed since
+   * {@code startTime}. This is meant for the factories; it does nothing for {@link #NO_OP}.
+   */
+  public final void onKeyOperation(
+      Class<?> primitive,
+      String operation,
+      PrimitiveSet.Entry<?> entry,
+      KeySelection selection,
+      long bytes,
+      long startTime,
+      boolean success) {
+    if (this != NO_OP) {
+      recordKeyOperation(
+          primitive,
+          operation,
+          entry.getKeyId(),
+          selection,
+          bytes,
+          System.nanoTime() - startTime,
+          success);
+    }
+  }
+
+  /**
+   * Calls {@link #recordFailure} with the time elapsed since {@code startTime}. This is meant for
+   * the factories; it does nothing for {@link #NO_OP}.
+   */
+  public final void onFailure(Class<?> primitive, String operation, long bytes, long startTime) {
+    if (this != NO_OP) {
+      recordFailure(primitive, operation, bytes, System.nanoTime() - startTime);
+    }
+  }
+}
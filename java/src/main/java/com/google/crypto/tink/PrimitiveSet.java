@@ -20,14 +20,12 @@ import com.google.crypto.tink.proto.KeyStatusType;
 import com.google.crypto.tink.proto.Keyset;
 import com.google.crypto.tink.proto.OutputPrefixType;
 import com.google.errorprone.annotations.Immutable;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * A container class for a set of primitives -- implementations of cryptographic primitives offered
@@ -47,7 +45,6 @@ import java.util.concurrent.ConcurrentMap;
  * <p>PrimitiveSet is a public class to allow its use in implementations of custom primitives.
  */
 public final class PrimitiveSet<P> {
-  private static final Charset UTF_8 = Charset.forName("UTF-8");
   /**
    * A single entry in the set. In addition to the actual primitive it holds also some extra
    * information about the primitive.
@@ -64,16 +61,41 @@ public final class PrimitiveSet<P> {
     private final KeyStatusType status;
     // The output prefix type of the key represented by the primitive.
     private final OutputPrefixType outputPrefixType;
+    // The id of the key represented by the primitive.
+    private final int keyId;
+    // The position of the entry among the entries of its set that share its identifier, or -1.
+    private final int trialIndex;
 
     public Entry(
         P primitive,
         final byte[] identifier,
         KeyStatusType status,
         OutputPrefixType outputPrefixType) {
+      this(primitive, identifier, status, outputPrefixType, /* keyId= */ 0);
+    }
+
+    public Entry(
+        P primitive,
+        final byte[] identifier,
+        KeyStatusType status,
+        OutputPrefixType outputPrefixType,
+        int keyId) {
+      this(primitive, identifier, status, outputPrefixType, keyId, /* trialIndex= */ -1);
+    }
+
+    Entry(
+        P primitive,
+        final byte[] identifier,
+        KeyStatusType status,
+        OutputPrefixType outputPrefixType,
+        int keyId,
+        int trialIndex) {
       this.primitive = primitive;
       this.identifier = Arrays.copyOf(identifier, identifier.length);
       this.status = status;
       this.outputPrefixType = outputPrefixType;
+      this.keyId = keyId;
+      this.trialIndex = trialIndex;
     }
 
     public P getPrimitive() {
@@ -88,6 +110,16 @@ public final class PrimitiveSet<P> {
       return outputPrefixType;
     }
 
+    /** @return the id of the key represented by the primitive. */
+    public int getKeyId() {
+      return keyId;
+    }
+
+    /** @return the index of the entry in {@link KeyTrialOrder#getEntriesInKeysetOrder}, or -1. */
+    int getTrialIndex() {
+      return trialIndex;
+    }
+
     public final byte[] getIdentifier() {
       if (identifier == null) {
         return null;
@@ -95,6 +127,41 @@ public final class PrimitiveSet<P> {
         return Arrays.copyOf(identifier, identifier.length);
       }
     }
+
+    /** @return the length of the identifier, i.e., the size of the output prefix. */
+    public final int getIdentifierLength() {
+      return identifier.length;
+    }
+
+    /**
+     * Copies the identifier into {@code dest} at {@code destOffset}. Unlike {@link
+     * #getIdentifier}, this does not allocate.
+     */
+    public final void copyIdentifier(byte[] dest, int destOffset) {
+      System.arraycopy(identifier, 0, dest, destOffset, identifier.length);
+    }
+
+    /** Writes the identifier into {@code dest} at its position, and advances the position. */
+    public final void putIdentifier(ByteBuffer dest) {
+      dest.put(identifier);
+    }
+
+    /**
+     * @return {@code output} prefixed with the identifier. If the identifier is empty, {@code
+     *     output} is returned as is.
+     */
+    public final byte[] prependIdentifier(final byte[] output) throws GeneralSecurityException {
+      if (identifier.length == 0) {
+        return output;
+      }
+      if (output.length > Integer.MAX_VALUE - identifier.length) {
+        throw new GeneralSecurityException("exceeded size limit");
+      }
+      byte[] result = new byte[identifier.length + output.length];
+      System.arraycopy(identifier, 0, result, 0, identifier.length);
+      System.arraycopy(output, 0, result, identifier.length, output.length);
+      return result;
+    }
   }
 
   /** @return the entry with the primary primitive. */
@@ -104,22 +171,90 @@ public final class PrimitiveSet<P> {
 
   /** @return all primitives using RAW prefix. */
   public List<Entry<P>> getRawPrimitives() throws GeneralSecurityException {
-    return getPrimitive(CryptoFormat.RAW_PREFIX);
+    return lookup(PrefixIndex.RAW_KEY);
   }
 
   /** @return the entries with primitive identifed by {@code identifier}. */
   public List<Entry<P>> getPrimitive(final byte[] identifier) throws GeneralSecurityException {
-    List<Entry<P>> found = primitives.get(new String(identifier, UTF_8));
-    return found != null ? found : Collections.<Entry<P>>emptyList();
+    return lookup(PrefixIndex.pack(identifier, 0, identifier.length));
+  }
+
+  /**
+   * Returns the entries with primitive identified by the first {@link
+   * CryptoFormat#NON_RAW_PREFIX_SIZE} bytes of {@code output}, e.g., a ciphertext, a MAC tag or a
+   * signature. Unlike {@link #getPrimitive(byte[])}, this does not require the caller to copy the
+   * prefix out of {@code output}, and does not allocate.
+   *
+   * @return the matching entries, or an empty list if {@code output} is too short or there is no
+   *     match.
+   */
+  public List<Entry<P>> getPrimitiveByPrefix(final byte[] output) {
+    if (output.length < CryptoFormat.NON_RAW_PREFIX_SIZE) {
+      return Collections.<Entry<P>>emptyList();
+    }
+    return lookup(PrefixIndex.pack(output, 0, CryptoFormat.NON_RAW_PREFIX_SIZE));
   }
 
   /**
-   * The primitives are stored in a hash map of (ciphertext prefix, list of primivies sharing the
+   * Like {@link #getPrimitiveByPrefix(byte[])}, but reads the prefix from the remaining bytes of
+   * {@code output}. The position of {@code output} is not changed.
+   */
+  public List<Entry<P>> getPrimitiveByPrefix(ByteBuffer output) {
+    if (output.remaining() < CryptoFormat.NON_RAW_PREFIX_SIZE) {
+      return Collections.<Entry<P>>emptyList();
+    }
+    return lookup(PrefixIndex.pack(output, output.position()));
+  }
+
+  /**
+   * @return the RAW entries, in the order in which they should be tried to decrypt or verify an
+   *     input.
+   */
+  public KeyTrialOrder<P> getRawTrialOrder() {
+    return lookupTrialOrder(PrefixIndex.RAW_KEY);
+  }
+
+  /**
+   * Like {@link #getPrimitiveByPrefix(byte[])}, but returns the entries in the order in which they
+   * should be tried to decrypt or verify {@code output}.
+   */
+  public KeyTrialOrder<P> getTrialOrderByPrefix(final byte[] output) {
+    if (output.length < CryptoFormat.NON_RAW_PREFIX_SIZE) {
+      return KeyTrialOrder.empty();
+    }
+    return lookupTrialOrder(PrefixIndex.pack(output, 0, CryptoFormat.NON_RAW_PREFIX_SIZE));
+  }
+
+  /**
+   * Like {@link #getPrimitiveByPrefix(ByteBuffer)}, but returns the entries in the order in which
+   * they should be tried to decrypt or verify {@code output}.
+   */
+  public KeyTrialOrder<P> getTrialOrderByPrefix(ByteBuffer output) {
+    if (output.remaining() < CryptoFormat.NON_RAW_PREFIX_SIZE) {
+      return KeyTrialOrder.empty();
+    }
+    return lookupTrialOrder(PrefixIndex.pack(output, output.position()));
+  }
+
+  private List<Entry<P>> lookup(long prefix) {
+    return lookupTrialOrder(prefix).getEntriesInKeysetOrder();
+  }
+
+  private KeyTrialOrder<P> lookupTrialOrder(long prefix) {
+    KeyTrialOrder<P> found = primitives.get(prefix);
+    return found != null ? found : KeyTrialOrder.<P>empty();
+  }
+
+  /**
+   * The primitives are stored in an index of (ciphertext prefix, list of primivies sharing the
    * prefix). This allows quickly retrieving the list of primitives sharing some particular prefix.
    * Because all RAW keys are using an empty prefix, this also quickly allows retrieving them.
+   * Each list is kept in a {@link KeyTrialOrder}, which also tracks the order in which to try it.
+   *
+   * <p>The index is immutable and replaced as a whole when a primitive is added, so lookups need
+   * no locking.
    */
-  private ConcurrentMap<java.lang.String, List<Entry<P>>> primitives =
-      new ConcurrentHashMap<java.lang.String, List<Entry<P>>>();
+  private volatile PrefixIndex<KeyTrialOrder<P>> primitives = PrefixIndex.empty();
 
   private Entry<P> primary;
 
@@ -142,25 +277,25 @@ public final class PrimitiveSet<P> {
    *
    * @return the added entry
    */
-  protected Entry<P> addPrimitive(final P primitive, Keyset.Key key)
+  protected synchronized Entry<P> addPrimitive(final P primitive, Keyset.Key key)
       throws GeneralSecurityException {
+    byte[] identifier = CryptoFormat.getOutputPrefix(key);
+    long prefix = PrefixIndex.pack(identifier, 0, identifier.length);
+    List<Entry<P>> list = new ArrayList<Entry<P>>();
+    KeyTrialOrder<P> existing = primitives.get(prefix);
+    if (existing != null) {
+      list.addAll(existing.getEntriesInKeysetOrder());
+    }
     Entry<P> entry =
         new Entry<P>(
             primitive,
-            CryptoFormat.getOutputPrefix(key),
+            identifier,
             key.getStatus(),
-            key.getOutputPrefixType());
-    List<Entry<P>> list = new ArrayList<Entry<P>>();
+            key.getOutputPrefixType(),
+            key.getKeyId(),
+            list.size());
     list.add(entry);
-    // Cannot use [] as keys in hash map, convert to string.
-    String identifier = new String(entry.getIdentifier(), UTF_8);
-    List<Entry<P>> existing = primitives.put(identifier, Collections.unmodifiableList(list));
-    if (existing != null) {
-      List<Entry<P>> newList = new ArrayList<Entry<P>>();
-      newList.addAll(existing);
-      newList.add(entry);
-      primitives.put(identifier, Collections.unmodifiableList(newList));
-    }
+    primitives = primitives.with(prefix, new KeyTrialOrder<P>(Collections.unmodifiableList(list)));
     return entry;
   }
 }
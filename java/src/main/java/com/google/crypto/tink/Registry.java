@@ -23,8 +23,10 @@ import com.google.crypto.tink.proto.Keyset;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.MessageLite;
 import java.security.GeneralSecurityException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -64,20 +66,71 @@ import java.util.logging.Logger;
  * KeysetHandle keysetHandle = ...;
  * Aead aead = AeadFactory.getPrimitive(keysetHandle);
  * }</pre>
+ *
+ * <p>The registered key managers and catalogues are kept in an immutable snapshot, which is
+ * replaced as a whole on every registration. Lookups thus take no lock, and never observe a
+ * partially registered key type.
  */
-// TODO(przydatek): make the read only methods, e.g., getKeyManager, getCatalogue, etc.
-// thread-safe.
 public final class Registry {
   private static final Logger logger = Logger.getLogger(Registry.class.getName());
 
-  @SuppressWarnings("rawtypes")
-  private static final ConcurrentMap<String, KeyManager> keyManagerMap =
-      new ConcurrentHashMap<String, KeyManager>(); // typeUrl -> KeyManager mapping
+  /** A registered key manager, together with whether it may be used to create new keys. */
+  private static final class KeyManagerEntry {
+    @SuppressWarnings("rawtypes")
+    final KeyManager manager;
+
+    final boolean newKeyAllowed;
+
+    @SuppressWarnings("rawtypes")
+    KeyManagerEntry(KeyManager manager, boolean newKeyAllowed) {
+      this.manager = manager;
+      this.newKeyAllowed = newKeyAllowed;
+    }
+  }
+
+  /** An immutable view of all registered key managers and catalogues. */
+  private static final class Snapshot {
+    static final Snapshot EMPTY =
+        new Snapshot(
+            Collections.<String, KeyManagerEntry>emptyMap(),
+            Collections.<String, Catalogue>emptyMap());
+
+    final Map<String, KeyManagerEntry> keyManagers; // typeUrl -> KeyManagerEntry mapping
+
+    // name -> catalogue mapping. Names are case-insensitive, so they are lower-cased.
+    final Map<String, Catalogue> catalogues;
+
+    Snapshot(Map<String, KeyManagerEntry> keyManagers, Map<String, Catalogue> catalogues) {
+      this.keyManagers = keyManagers;
+      this.catalogues = catalogues;
+    }
+
+    Snapshot withKeyManager(String typeUrl, KeyManagerEntry entry) {
+      Map<String, KeyManagerEntry> newKeyManagers =
+          new HashMap<String, KeyManagerEntry>(keyManagers);
+      newKeyManagers.put(typeUrl, entry);
+      return new Snapshot(Collections.unmodifiableMap(newKeyManagers), catalogues);
+    }
+
+    Snapshot withCatalogue(String catalogueName, Catalogue catalogue) {
+      Map<String, Catalogue> newCatalogues = new HashMap<String, Catalogue>(catalogues);
+      newCatalogues.put(catalogueName.toLowerCase(Locale.ROOT), catalogue);
+      return new Snapshot(keyManagers, Collections.unmodifiableMap(newCatalogues));
+    }
+
+    Catalogue getCatalogue(String catalogueName) {
+      return catalogues.get(catalogueName.toLowerCase(Locale.ROOT));
+    }
+  }
+
+  // Writers hold the class lock and replace the snapshot; readers just read this field.
+  private static volatile Snapshot snapshot = Snapshot.EMPTY;
+
+  // Null unless enabled with setPrimitiveCache().
+  private static volatile PrimitiveCache primitiveCache = null;
+
+  private static volatile PrimitiveMonitor primitiveMonitor = PrimitiveMonitor.NO_OP;
 
-  private static final ConcurrentMap<String, Boolean> newKeyAllowedMap =
-      new ConcurrentHashMap<String, Boolean>(); // typeUrl -> newKeyAllowed mapping
-  private static final ConcurrentMap<String, Catalogue> catalogueMap =
-      new ConcurrentHashMap<String, Catalogue>(); //  name -> catalogue mapping
   /**
    * Resets the registry.
    *
@@ -87,9 +140,40 @@ public final class Registry {
    * <p>This method is intended for testing.
    */
   static synchronized void reset() {
-    keyManagerMap.clear();
-    newKeyAllowedMap.clear();
-    catalogueMap.clear();
+    snapshot = Snapshot.EMPTY;
+    primitiveCache = null;
+    primitiveMonitor = PrimitiveMonitor.NO_OP;
+  }
+
+  /**
+   * Installs {@code cache} as the cache used by {@link #getPrimitives} to reuse primitives of keys
+   * that have been seen before. Passing null disables caching, which is the default.
+   *
+   * <p>Primitives are only cached if they are created by registered key managers, i.e., keys
+   * handled by a custom key manager passed to {@link #getPrimitives(KeysetHandle, KeyManager)} are
+   * never cached.
+   */
+  public static void setPrimitiveCache(PrimitiveCache cache) {
+    primitiveCache = cache;
+  }
+
+  /** @return the cache installed with {@link #setPrimitiveCache}, or null if there is none. */
+  public static PrimitiveCache getPrimitiveCache() {
+    return primitiveCache;
+  }
+
+  /**
+   * Installs {@code monitor} as the monitor of the primitives that the factories, e.g., {@code
+   * AeadFactory}, return from now on. Primitives obtained earlier keep their monitor. Passing null
+   * installs {@link PrimitiveMonitor#NO_OP}, which is the default.
+   */
+  public static void setPrimitiveMonitor(PrimitiveMonitor monitor) {
+    primitiveMonitor = monitor == null ? PrimitiveMonitor.NO_OP : monitor;
+  }
+
+  /** @return the monitor installed with {@link #setPrimitiveMonitor}. */
+  public static PrimitiveMonitor getPrimitiveMonitor() {
+    return primitiveMonitor;
   }
 
   /**
@@ -110,8 +194,8 @@ public final class Registry {
     if (catalogue == null) {
       throw new IllegalArgumentException("catalogue must be non-null.");
     }
-    if (catalogueMap.containsKey(catalogueName.toLowerCase())) {
-      Catalogue existing = catalogueMap.get(catalogueName.toLowerCase());
+    Catalogue existing = snapshot.getCatalogue(catalogueName);
+    if (existing != null) {
       if (!catalogue.getClass().equals(existing.getClass())) {
         logger.warning(
             "Attempted overwrite of a catalogueName catalogue for name " + catalogueName);
@@ -119,7 +203,7 @@ public final class Registry {
             "catalogue for name " + catalogueName + " has been already registered");
       }
     }
-    catalogueMap.put(catalogueName.toLowerCase(), catalogue);
+    snapshot = snapshot.withCatalogue(catalogueName, catalogue);
   }
 
   /**
@@ -131,20 +215,23 @@ public final class Registry {
     if (catalogueName == null) {
       throw new IllegalArgumentException("catalogueName must be non-null.");
     }
-    Catalogue catalogue = catalogueMap.get(catalogueName.toLowerCase());
+    Catalogue catalogue = snapshot.getCatalogue(catalogueName);
     if (catalogue == null) {
       String error = String.format("no catalogue found for %s. ", catalogueName);
-      if (catalogueName.toLowerCase().startsWith("tinkaead")) {
+      String lowerCaseName = catalogueName.toLowerCase(Locale.ROOT);
+      if (lowerCaseName.startsWith("tinkaead")) {
         error += "Maybe call AeadConfig.init().";
-      } else if (catalogueName.toLowerCase().startsWith("tinkstreamingaead")) {
+      } else if (lowerCaseName.startsWith("tinkdeterministicaead")) {
+        error += "Maybe call DeterministicAeadConfig.init().";
+      } else if (lowerCaseName.startsWith("tinkstreamingaead")) {
         error += "Maybe call StreamingAeadConfig.init().";
-      } else if (catalogueName.toLowerCase().startsWith("tinkhybrid")) {
+      } else if (lowerCaseName.startsWith("tinkhybrid")) {
         error += "Maybe call HybridConfig.init().";
-      } else if (catalogueName.toLowerCase().startsWith("tinkmac")) {
+      } else if (lowerCaseName.startsWith("tinkmac")) {
         error += "Maybe call MacConfig.init().";
-      } else if (catalogueName.toLowerCase().startsWith("tinksignature")) {
+      } else if (lowerCaseName.startsWith("tinksignature")) {
         error += "Maybe call SignatureConfig.init().";
-      } else if (catalogueName.toLowerCase().startsWith("tink")) {
+      } else if (lowerCaseName.startsWith("tink")) {
         error += "Maybe call TinkConfig.init().";
       }
       throw new GeneralSecurityException(error);
@@ -184,9 +271,10 @@ public final class Registry {
     if (manager == null) {
       throw new IllegalArgumentException("key manager must be non-null.");
     }
-    if (keyManagerMap.containsKey(typeUrl)) {
-      KeyManager<P> existingManager = getKeyManager(typeUrl);
-      boolean existingNewKeyAllowed = newKeyAllowedMap.get(typeUrl).booleanValue();
+    KeyManagerEntry existing = snapshot.keyManagers.get(typeUrl);
+    if (existing != null) {
+      KeyManager<P> existingManager = existing.manager;
+      boolean existingNewKeyAllowed = existing.newKeyAllowed;
       if (!manager.getClass().equals(existingManager.getClass())
           // Disallow changing newKeyAllow from false to true.
           || (!existingNewKeyAllowed && newKeyAllowed)) {
@@ -197,8 +285,7 @@ public final class Registry {
                 typeUrl, existingManager.getClass().getName(), manager.getClass().getName()));
       }
     }
-    keyManagerMap.put(typeUrl, manager);
-    newKeyAllowedMap.put(typeUrl, Boolean.valueOf(newKeyAllowed));
+    snapshot = snapshot.withKeyManager(typeUrl, new KeyManagerEntry(manager, newKeyAllowed));
   }
 
   /**
@@ -207,14 +294,19 @@ public final class Registry {
    */
   @SuppressWarnings("unchecked")
   public static <P> KeyManager<P> getKeyManager(String typeUrl) throws GeneralSecurityException {
-    KeyManager<P> manager = keyManagerMap.get(typeUrl);
-    if (manager == null) {
+    return getKeyManagerEntry(typeUrl).manager;
+  }
+
+  private static KeyManagerEntry getKeyManagerEntry(String typeUrl)
+      throws GeneralSecurityException {
+    KeyManagerEntry entry = snapshot.keyManagers.get(typeUrl);
+    if (entry == null) {
       throw new GeneralSecurityException(
           "No key manager found for key type: "
               + typeUrl
               + ".  Check the configuration of the registry.");
     }
-    return manager;
+    return entry;
   }
 
   /**
@@ -228,9 +320,9 @@ public final class Registry {
    * @return a new {@link KeyData}
    */
   public static <P> KeyData newKeyData(KeyTemplate keyTemplate) throws GeneralSecurityException {
-    KeyManager<P> manager = getKeyManager(keyTemplate.getTypeUrl());
-    if (newKeyAllowedMap.get(keyTemplate.getTypeUrl()).booleanValue()) {
-      return manager.newKeyData(keyTemplate.getValue());
+    KeyManagerEntry entry = getKeyManagerEntry(keyTemplate.getTypeUrl());
+    if (entry.newKeyAllowed) {
+      return entry.manager.newKeyData(keyTemplate.getValue());
     } else {
       throw new GeneralSecurityException(
           "newKey-operation not permitted for key type " + keyTemplate.getTypeUrl());
@@ -246,9 +338,9 @@ public final class Registry {
    * @return a new key
    */
   public static <P> MessageLite newKey(KeyTemplate keyTemplate) throws GeneralSecurityException {
-    KeyManager<P> manager = getKeyManager(keyTemplate.getTypeUrl());
-    if (newKeyAllowedMap.get(keyTemplate.getTypeUrl()).booleanValue()) {
-      return manager.newKey(keyTemplate.getValue());
+    KeyManagerEntry entry = getKeyManagerEntry(keyTemplate.getTypeUrl());
+    if (entry.newKeyAllowed) {
+      return entry.manager.newKey(keyTemplate.getValue());
     } else {
       throw new GeneralSecurityException(
           "newKey-operation not permitted for key type " + keyTemplate.getTypeUrl());
@@ -265,9 +357,9 @@ public final class Registry {
    */
   public static <P> MessageLite newKey(String typeUrl, MessageLite format)
       throws GeneralSecurityException {
-    KeyManager<P> manager = getKeyManager(typeUrl);
-    if (newKeyAllowedMap.get(typeUrl).booleanValue()) {
-      return manager.newKey(format);
+    KeyManagerEntry entry = getKeyManagerEntry(typeUrl);
+    if (entry.newKeyAllowed) {
+      return entry.manager.newKey(format);
     } else {
       throw new GeneralSecurityException("newKey-operation not permitted for key type " + typeUrl);
     }
@@ -381,11 +473,14 @@ public final class Registry {
       throws GeneralSecurityException {
     Util.validateKeyset(keysetHandle.getKeyset());
     PrimitiveSet<P> primitives = PrimitiveSet.newPrimitiveSet();
+    PrimitiveCache cache = primitiveCache;
     for (Keyset.Key key : keysetHandle.getKeyset().getKeyList()) {
       if (key.getStatus() == KeyStatusType.ENABLED) {
         P primitive;
         if (customManager != null && customManager.doesSupport(key.getKeyData().getTypeUrl())) {
           primitive = customManager.getPrimitive(key.getKeyData().getValue());
+        } else if (cache != null) {
+          primitive = getCachedPrimitive(cache, key.getKeyData());
         } else {
           primitive = getPrimitive(key.getKeyData().getTypeUrl(), key.getKeyData().getValue());
         }
@@ -397,4 +492,16 @@ public final class Registry {
     }
     return primitives;
   }
+
+  @SuppressWarnings({"unchecked", "TypeParameterUnusedInFormals"})
+  private static <P> P getCachedPrimitive(PrimitiveCache cache, KeyData keyData)
+      throws GeneralSecurityException {
+    // The type URL determines the key manager, and thus the type of the cached primitive.
+    P primitive = (P) cache.get(keyData.getTypeUrl(), keyData.getValue());
+    if (primitive == null) {
+      primitive = getPrimitive(keyData.getTypeUrl(), keyData.getValue());
+      cache.put(keyData.getTypeUrl(), keyData.getValue(), primitive);
+    }
+    return primitive;
+  }
 }
@@ -0,0 +1,386 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.proto.Keyset;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A primitive for a keyset that is read from an external source, and rebuilt whenever the keyset
+ * changes, e.g., after a key rotation.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * ReloadingPrimitive<Aead> aead =
+ *     new ReloadingPrimitive.Builder<Aead>()
+ *         .setKeysetSource(ReloadingPrimitive.jsonKeysetFile(keysetFile))
+ *         .setMasterKey(masterKey)
+ *         .setPrimitiveFactory(
+ *             new ReloadingPrimitive.PrimitiveFactory<Aead>() {
+ *               public Aead getPrimitive(KeysetHandle keysetHandle)
+ *                   throws GeneralSecurityException {
+ *                 return AeadFactory.getPrimitive(keysetHandle);
+ *               }
+ *             })
+ *         .watchFile(keysetFile)
+ *         .setExecutor(scheduledExecutor, 10, TimeUnit.SECONDS)
+ *         .build();
+ * byte[] ciphertext = aead.get().encrypt(plaintext, aad);
+ * }</pre>
+ *
+ * <p>{@link Builder#build} reads the keyset and builds the first primitive in the calling thread.
+ * After that, the keyset source is checked periodically on the executor. If a file is watched, the
+ * keyset is only read again after the file system reported a change of the file; otherwise it is
+ * read on every check. The keyset is only decrypted if the encrypted bytes have changed since the
+ * previous read, so that unchanged keysets cost no call to the master key. If the keyset differs
+ * from the current one, a new primitive is built on the executor and published with a single
+ * volatile write. {@link #get} never blocks, and operations that are in progress keep using the
+ * primitive they started with.
+ *
+ * <p>If the keyset cannot be read or the primitive cannot be built, the current primitive stays in
+ * use and the error is logged. A watched file is then read again on every check until that
+ * succeeds, e.g., once a writer that was still writing the file has finished.
+ */
+@Alpha
+public final class ReloadingPrimitive<P> implements Closeable {
+  private static final Logger logger = Logger.getLogger(ReloadingPrimitive.class.getName());
+
+  /** The external source of an encrypted keyset, e.g., a file. */
+  public interface KeysetSource {
+    /** Opens a stream of the current contents of the source. The stream is closed after reading. */
+    InputStream open() throws IOException;
+
+    /** Returns a reader of the encrypted keyset in {@code contents}, as read from the stream. */
+    KeysetReader newReader(byte[] contents) throws IOException;
+  }
+
+  /** @return a source of an encrypted keyset in JSON format in {@code file}. */
+  public static KeysetSource jsonKeysetFile(final File file) {
+    return new KeysetSource() {
+      @Override
+      public InputStream open() throws IOException {
+        return new FileInputStream(file);
+      }
+
+      @Override
+      public KeysetReader newReader(byte[] contents) {
+        return JsonKeysetReader.withBytes(contents);
+      }
+    };
+  }
+
+  /** @return a source of an encrypted keyset in binary format in {@code file}. */
+  public static KeysetSource binaryKeysetFile(final File file) {
+    return new KeysetSource() {
+      @Override
+      public InputStream open() throws IOException {
+        return new FileInputStream(file);
+      }
+
+      @Override
+      public KeysetReader newReader(byte[] contents) {
+        return BinaryKeysetReader.withBytes(contents);
+      }
+    };
+  }
+
+  /** Builds a primitive from a keyset, e.g., with {@code AeadFactory.getPrimitive}. */
+  public interface PrimitiveFactory<P> {
+    P getPrimitive(KeysetHandle keysetHandle) throws GeneralSecurityException;
+  }
+
+  /** Builder for {@link ReloadingPrimitive}. */
+  public static final class Builder<P> {
+    private KeysetSource keysetSource;
+    private Aead masterKey;
+    private PrimitiveFactory<P> primitiveFactory;
+    private File watchedFile;
+    private ScheduledExecutorService executor;
+    private long interval;
+    private TimeUnit unit;
+
+    /** Sets the source of the keyset. Required. */
+    public Builder<P> setKeysetSource(KeysetSource val) {
+      keysetSource = val;
+      return this;
+    }
+
+    /** Sets the key that the keyset is encrypted with. Required. */
+    public Builder<P> setMasterKey(Aead val) {
+      masterKey = val;
+      return this;
+    }
+
+    /** Sets how primitives are built from the keyset. Required. */
+    public Builder<P> setPrimitiveFactory(PrimitiveFactory<P> val) {
+      primitiveFactory = val;
+      return this;
+    }
+
+    /**
+     * Only reads the keyset again after the file system reported that {@code file} has been
+     * created or modified. Optional.
+     */
+    public Builder<P> watchFile(File file) {
+      watchedFile = file;
+      return this;
+    }
+
+    /**
+     * Checks the keyset source for changes on {@code executor} every {@code interval} in {@code
+     * unit}. Optional; without an executor the keyset is only reloaded by {@link
+     * ReloadingPrimitive#reload}.
+     */
+    public Builder<P> setExecutor(ScheduledExecutorService executor, long interval, TimeUnit unit) {
+      if (interval <= 0) {
+        throw new IllegalArgumentException("interval must be positive");
+      }
+      this.executor = executor;
+      this.interval = interval;
+      this.unit = unit;
+      return this;
+    }
+
+    /**
+     * Reads the keyset, builds the first primitive and starts checking for changes.
+     *
+     * @throws GeneralSecurityException if the keyset cannot be decrypted or the primitive cannot be
+     *     built
+     * @throws IOException if the keyset cannot be read or the file cannot be watched
+     */
+    public ReloadingPrimitive<P> build() throws GeneralSecurityException, IOException {
+      if (keysetSource == null || masterKey == null || primitiveFactory == null) {
+        throw new IllegalArgumentException(
+            "keyset source, master key and primitive factory must be set");
+      }
+      ReloadingPrimitive<P> result = new ReloadingPrimitive<P>(this);
+      result.reload();
+      result.start(executor, interval, unit);
+      return result;
+    }
+  }
+
+  private final KeysetSource keysetSource;
+  private final Aead masterKey;
+  private final PrimitiveFactory<P> primitiveFactory;
+  private final Path watchedFile;
+  private final Object reloadLock = new Object();
+
+  private volatile P primitive;
+
+  // The encrypted keyset as last read from the source.
+  @GuardedBy("reloadLock")
+  private byte[] contents;
+
+  @GuardedBy("reloadLock")
+  private Keyset keyset;
+
+  // Whether the watched file has changed since the keyset was last read successfully. The watch
+  // events are drained before the keyset is read, so a failed read, e.g., of a file that is still
+  // being written, must be retried on the next check even if no further event arrives.
+  @GuardedBy("reloadLock")
+  private boolean dirty;
+
+  @GuardedBy("reloadLock")
+  private WatchService watchService;
+
+  @GuardedBy("reloadLock")
+  private ScheduledFuture<?> task;
+
+  // Whether the last check failed. Only used by the checks, which never overlap.
+  private boolean failing;
+
+  private ReloadingPrimitive(Builder<P> builder) {
+    this.keysetSource = builder.keysetSource;
+    this.masterKey = builder.masterKey;
+    this.primitiveFactory = builder.primitiveFactory;
+    this.watchedFile =
+        builder.watchedFile == null ? null : builder.watchedFile.getAbsoluteFile().toPath();
+  }
+
+  /** @return the primitive for the most recently loaded keyset. */
+  public P get() {
+    return primitive;
+  }
+
+  /**
+   * Reads the keyset and, if it differs from the current one, builds and publishes a new
+   * primitive.
+   *
+   * @return true if a new primitive has been published
+   */
+  public boolean reload() throws GeneralSecurityException, IOException {
+    synchronized (reloadLock) {
+      byte[] newContents;
+      InputStream in = keysetSource.open();
+      try {
+        newContents = Util.readAll(in);
+      } finally {
+        in.close();
+      }
+      boolean published = false;
+      if (!Arrays.equals(newContents, contents)) {
+        KeysetHandle keysetHandle =
+            KeysetHandle.read(keysetSource.newReader(newContents), masterKey);
+        // Unless the keyset has only been encrypted anew.
+        if (!keysetHandle.getKeyset().equals(keyset)) {
+          P newPrimitive = primitiveFactory.getPrimitive(keysetHandle);
+          keyset = keysetHandle.getKeyset();
+          primitive = newPrimitive;
+          published = true;
+        }
+        contents = newContents;
+      }
+      dirty = false;
+      return published;
+    }
+  }
+
+  /** Stops checking the keyset source for changes. {@link #get} keeps working. */
+  @Override
+  public void close() throws IOException {
+    synchronized (reloadLock) {
+      if (task != null) {
+        task.cancel(false);
+        task = null;
+      }
+      if (watchService != null) {
+        watchService.close();
+        watchService = null;
+      }
+    }
+  }
+
+  private void start(ScheduledExecutorService executor, long interval, TimeUnit unit)
+      throws IOException {
+    if (executor == null) {
+      return;
+    }
+    synchronized (reloadLock) {
+      if (watchedFile != null) {
+        watchService = FileSystems.getDefault().newWatchService();
+        watchedFile
+            .getParent()
+            .register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+      }
+      task =
+          executor.scheduleWithFixedDelay(
+              new Runnable() {
+                @Override
+                public void run() {
+                  check();
+                }
+              },
+              interval,
+              interval,
+              unit);
+    }
+  }
+
+  private void check() {
+    try {
+      if (hasChanged()) {
+        reload();
+        failing = false;
+      }
+    } catch (GeneralSecurityException e) {
+      logFailure(e);
+    } catch (IOException e) {
+      logFailure(e);
+    }
+  }
+
+  /** Logs the first of consecutive failures as a warning, and the retries only in detail. */
+  private void logFailure(Exception e) {
+    logger.log(
+        failing ? Level.FINE : Level.WARNING,
+        "cannot reload keyset, keeping the current primitive",
+        e);
+    failing = true;
+  }
+
+  /**
+   * @return true if the keyset should be read, i.e., if no file is watched, or if the file has
+   *     changed since it was last read successfully
+   */
+  private boolean hasChanged() {
+    WatchService service;
+    synchronized (reloadLock) {
+      service = watchService;
+      if (watchedFile == null) {
+        return true;
+      }
+      if (service == null) {
+        // Closed.
+        return false;
+      }
+    }
+    boolean changed = false;
+    try {
+      WatchKey key;
+      while ((key = service.poll()) != null) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (isChangeOf(watchedFile, event)) {
+            changed = true;
+          }
+        }
+        key.reset();
+      }
+    } catch (ClosedWatchServiceException e) {
+      return false;
+    }
+    synchronized (reloadLock) {
+      if (changed) {
+        dirty = true;
+      }
+      return dirty;
+    }
+  }
+
+  /**
+   * @return true if {@code event} of a watch of the directory of {@code file} may be a change of
+   *     {@code file}. Events may have been lost if the directory overflowed.
+   */
+  static boolean isChangeOf(Path file, WatchEvent<?> event) {
+    return event.kind() == StandardWatchEventKinds.OVERFLOW
+        || file.getFileName().equals(event.context());
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import com.google.crypto.tink.annotations.Alpha;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * A {@link Mac} that can also authenticate data that is fed in several parts, e.g., a large file
+ * that is read in chunks, without holding the whole data in memory.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * StreamingMac mac = (StreamingMac) MacFactory.getPrimitive(keysetHandle);
+ * StreamingMac.Computation computation = mac.newComputation();
+ * while (...) {
+ *   computation.update(chunk);
+ * }
+ * byte[] tag = computation.doFinal();
+ * }</pre>
+ *
+ * <p>The tags are identical to the ones computed by {@link Mac#computeMac} for the concatenation of
+ * all parts. A computation or verification must only be used by one thread at a time, and is done
+ * once {@code doFinal} or {@code verify} has been called.
+ */
+@Alpha
+public interface StreamingMac extends Mac {
+  /** An ongoing computation of a MAC. */
+  interface Computation {
+    /** Feeds {@code data} into the computation. */
+    void update(final byte[] data) throws GeneralSecurityException;
+
+    /** Feeds {@code length} bytes of {@code data} starting at {@code offset}. */
+    void update(final byte[] data, int offset, int length) throws GeneralSecurityException;
+
+    /** Feeds the remaining bytes of {@code data}, and advances its position to its limit. */
+    void update(ByteBuffer data) throws GeneralSecurityException;
+
+    /** @return the MAC of all data fed into the computation. */
+    byte[] doFinal() throws GeneralSecurityException;
+  }
+
+  /** An ongoing verification of a MAC. */
+  interface Verification {
+    /** Feeds {@code data} into the verification. */
+    void update(final byte[] data) throws GeneralSecurityException;
+
+    /** Feeds {@code length} bytes of {@code data} starting at {@code offset}. */
+    void update(final byte[] data, int offset, int length) throws GeneralSecurityException;
+
+    /** Feeds the remaining bytes of {@code data}, and advances its position to its limit. */
+    void update(ByteBuffer data) throws GeneralSecurityException;
+
+    /**
+     * Verifies whether the tag the verification was started with is a correct MAC for all data fed
+     * into the verification.
+     *
+     * @throws GeneralSecurityException if the tag is not a correct MAC
+     */
+    void verify() throws GeneralSecurityException;
+  }
+
+  /** @return a new computation of a MAC. */
+  Computation newComputation() throws GeneralSecurityException;
+
+  /** @return a new verification of {@code mac}. */
+  Verification newVerification(final byte[] mac) throws GeneralSecurityException;
+}
@@ -0,0 +1,281 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.aead;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Static methods for encrypting and decrypting batches of messages with an {@link Aead}, optionally
+ * spread over the threads of an {@link Executor}, e.g., a {@link
+ * java.util.concurrent.ForkJoinPool}.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * Aead aead = AeadFactory.getPrimitive(keysetHandle);
+ * AeadBatch.Result result =
+ *     AeadBatch.decrypt(aead, ciphertexts, associatedData, executor, AeadBatch.DEFAULT_CHUNK_SIZE);
+ * for (int i = 0; i < result.size(); i++) {
+ *   if (result.isSuccess(i)) {
+ *     byte[] plaintext = result.getOutput(i);
+ *     ...
+ *   }
+ * }
+ * }</pre>
+ *
+ * <p>The batch is split into chunks, which are processed concurrently. If the {@code Aead}
+ * implements {@link BatchAead}, as the primitives returned by {@link AeadFactory} do, each chunk is
+ * handed to it in one call, so that setup such as initializing a cipher or drawing nonces is paid
+ * once per chunk rather than once per message. Otherwise the messages are processed one by one.
+ *
+ * <p>Failures are reported per message: a ciphertext that cannot be decrypted does not affect the
+ * other messages of the batch.
+ */
+@Alpha
+public final class AeadBatch {
+  /** A chunk size that amortizes the per-chunk setup while still spreading work over threads. */
+  public static final int DEFAULT_CHUNK_SIZE = 256;
+
+  /** The outcome of a batch operation, with either an output or an exception per message. */
+  public static final class Result {
+    private final byte[][] outputs;
+    private final GeneralSecurityException[] exceptions;
+
+    private Result(byte[][] outputs, GeneralSecurityException[] exceptions) {
+      this.outputs = outputs;
+      this.exceptions = exceptions;
+    }
+
+    /** @return the number of messages in the batch. */
+    public int size() {
+      return outputs.length;
+    }
+
+    /** @return true if the message at {@code index} was processed successfully. */
+    public boolean isSuccess(int index) {
+      return exceptions[index] == null;
+    }
+
+    /**
+     * @return the ciphertext or plaintext of the message at {@code index}.
+     * @throws GeneralSecurityException the exception of the message, if it failed.
+     */
+    public byte[] getOutput(int index) throws GeneralSecurityException {
+      if (exceptions[index] != null) {
+        throw exceptions[index];
+      }
+      return outputs[index];
+    }
+
+    /** @return the exception of the message at {@code index}, or null if it succeeded. */
+    public GeneralSecurityException getException(int index) {
+      return exceptions[index];
+    }
+
+    /** @return the number of messages that failed. */
+    public int getFailureCount() {
+      int failures = 0;
+      for (GeneralSecurityException exception : exceptions) {
+        if (exception != null) {
+          failures++;
+        }
+      }
+      return failures;
+    }
+
+    /**
+     * @return the outputs of all messages, in order.
+     * @throws GeneralSecurityException the exception of the first message that failed, if any.
+     */
+    public List<byte[]> getOutputs() throws GeneralSecurityException {
+      for (GeneralSecurityException exception : exceptions) {
+        if (exception != null) {
+          throw exception;
+        }
+      }
+      return new ArrayList<byte[]>(Arrays.asList(outputs));
+    }
+  }
+
+  /**
+   * Encrypts {@code plaintexts.get(i)} with {@code associatedData.get(i)} for every {@code i}, in
+   * the calling thread.
+   */
+  public static Result encrypt(Aead aead, List<byte[]> plaintexts, List<byte[]> associatedData) {
+    return process(/* encrypt= */ true, aead, plaintexts, associatedData);
+  }
+
+  /**
+   * Encrypts {@code plaintexts.get(i)} with {@code associatedData.get(i)} for every {@code i}, in
+   * chunks of {@code chunkSize} messages that run on {@code executor}. The calling thread processes
+   * one of the chunks itself, and returns once all chunks are done.
+   */
+  public static Result encrypt(
+      Aead aead,
+      List<byte[]> plaintexts,
+      List<byte[]> associatedData,
+      Executor executor,
+      int chunkSize)
+      throws InterruptedException {
+    return process(/* encrypt= */ true, aead, plaintexts, associatedData, executor, chunkSize);
+  }
+
+  /**
+   * Decrypts {@code ciphertexts.get(i)} with {@code associatedData.get(i)} for every {@code i}, in
+   * the calling thread.
+   */
+  public static Result decrypt(Aead aead, List<byte[]> ciphertexts, List<byte[]> associatedData) {
+    return process(/* encrypt= */ false, aead, ciphertexts, associatedData);
+  }
+
+  /**
+   * Decrypts {@code ciphertexts.get(i)} with {@code associatedData.get(i)} for every {@code i}, in
+   * chunks of {@code chunkSize} messages that run on {@code executor}. The calling thread processes
+   * one of the chunks itself, and returns once all chunks are done.
+   */
+  public static Result decrypt(
+      Aead aead,
+      List<byte[]> ciphertexts,
+      List<byte[]> associatedData,
+      Executor executor,
+      int chunkSize)
+      throws InterruptedException {
+    return process(/* encrypt= */ false, aead, ciphertexts, associatedData, executor, chunkSize);
+  }
+
+  private static Result process(
+      boolean encrypt, Aead aead, List<byte[]> inputs, List<byte[]> associatedData) {
+    checkBatchSizes(inputs.size(), associatedData.size());
+    int count = inputs.size();
+    byte[][] outputs = new byte[count][];
+    GeneralSecurityException[] exceptions = new GeneralSecurityException[count];
+    processChunk(encrypt, aead, inputs, associatedData, 0, count, outputs, exceptions);
+    return new Result(outputs, exceptions);
+  }
+
+  private static Result process(
+      final boolean encrypt,
+      final Aead aead,
+      final List<byte[]> inputs,
+      final List<byte[]> associatedData,
+      Executor executor,
+      int chunkSize)
+      throws InterruptedException {
+    checkBatchSizes(inputs.size(), associatedData.size());
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive");
+    }
+    final int count = inputs.size();
+    final byte[][] outputs = new byte[count][];
+    final GeneralSecurityException[] exceptions = new GeneralSecurityException[count];
+    int chunks = (count + chunkSize - 1) / chunkSize;
+    final CountDownLatch done = new CountDownLatch(Math.max(0, chunks - 1));
+    final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+    for (int chunk = 1; chunk < chunks; chunk++) {
+      final int from = chunk * chunkSize;
+      final int to = Math.min(count, from + chunkSize);
+      Runnable task =
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                processChunk(encrypt, aead, inputs, associatedData, from, to, outputs, exceptions);
+              } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+              } finally {
+                done.countDown();
+              }
+            }
+          };
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    }
+    processChunk(
+        encrypt, aead, inputs, associatedData, 0, Math.min(count, chunkSize), outputs, exceptions);
+    // The latch also makes the outputs written by the other threads visible to this one.
+    done.await();
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    return new Result(outputs, exceptions);
+  }
+
+  private static void processChunk(
+      boolean encrypt,
+      Aead aead,
+      List<byte[]> inputs,
+      List<byte[]> associatedData,
+      int from,
+      int to,
+      byte[][] outputs,
+      GeneralSecurityException[] exceptions) {
+    if (aead instanceof BatchAead) {
+      BatchAead batchAead = (BatchAead) aead;
+      List<byte[]> chunkInputs = inputs.subList(from, to);
+      List<byte[]> chunkAssociatedData = associatedData.subList(from, to);
+      try {
+        List<byte[]> results =
+            encrypt
+                ? batchAead.encryptBatch(chunkInputs, chunkAssociatedData)
+                : batchAead.decryptBatch(chunkInputs, chunkAssociatedData);
+        for (int i = from; i < to; i++) {
+          byte[] result = results.get(i - from);
+          if (result == null) {
+            exceptions[i] = new GeneralSecurityException("decryption failed");
+          } else {
+            outputs[i] = result;
+          }
+        }
+        return;
+      } catch (GeneralSecurityException e) {
+        // The chunk failed as a whole; process its messages one by one to find the failing ones.
+      }
+    }
+    for (int i = from; i < to; i++) {
+      try {
+        outputs[i] =
+            encrypt
+                ? aead.encrypt(inputs.get(i), associatedData.get(i))
+                : aead.decrypt(inputs.get(i), associatedData.get(i));
+      } catch (GeneralSecurityException e) {
+        exceptions[i] = e;
+      }
+    }
+  }
+
+  static void checkBatchSizes(int inputCount, int associatedDataCount) {
+    if (inputCount != associatedDataCount) {
+      throw new IllegalArgumentException(
+          "got " + inputCount + " inputs but " + associatedDataCount + " associated data");
+    }
+  }
+
+  private AeadBatch() {}
+}
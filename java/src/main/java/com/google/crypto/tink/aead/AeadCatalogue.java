@@ -58,6 +58,8 @@ class AeadCatalogue implements Catalogue {
         return new AesEaxKeyManager();
       case AesGcmKeyManager.TYPE_URL:
         return new AesGcmKeyManager();
+      case AesGcmSivKeyManager.TYPE_URL:
+        return new AesGcmSivKeyManager();
       case ChaCha20Poly1305KeyManager.TYPE_URL:
         return new ChaCha20Poly1305KeyManager();
       case KmsAeadKeyManager.TYPE_URL:
@@ -44,6 +44,9 @@ public final class AeadConfig {
   @Alpha
   public static final String CHACHA20_POLY1305_TYPE_URL = ChaCha20Poly1305KeyManager.TYPE_URL;
 
+  @Alpha
+  public static final String AES_GCM_SIV_TYPE_URL = AesGcmSivKeyManager.TYPE_URL;
+
   private static final String CATALOGUE_NAME = "TinkAead";
   private static final String PRIMITIVE_NAME = "Aead";
 
@@ -64,6 +67,15 @@ public final class AeadConfig {
       .setConfigName("TINK_AEAD_1_0_0")
       .build();
 
+  /** All Aead key types of {@link #TINK_1_0_0}, and {@code AesGcmSivKey}. */
+  @Alpha
+  public static final RegistryConfig TINK_1_1_0 = RegistryConfig.newBuilder()
+      .mergeFrom(TINK_1_0_0)
+      .addEntry(Config.getTinkKeyTypeEntry(
+          CATALOGUE_NAME, PRIMITIVE_NAME, "AesGcmSivKey", 0, true))
+      .setConfigName("TINK_AEAD_1_1_0")
+      .build();
+
   static {
     try {
       init();
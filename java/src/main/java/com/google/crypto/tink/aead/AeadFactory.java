@@ -17,16 +17,23 @@
 package com.google.crypto.tink.aead;
 
 import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.ByteBufferAead;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeyManager;
+import com.google.crypto.tink.KeyTrialOrder;
 import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.Registry;
-import com.google.crypto.tink.subtle.Bytes;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
 
 /**
  * Static methods for obtaining {@link Aead} instances.
@@ -45,10 +52,20 @@ import java.util.logging.Logger;
  * it uses the primary key in the keyset, and prepends to the ciphertext a certain prefix associated
  * with the primary key. To decrypt, the primitive uses the prefix of the ciphertext to efficiently
  * select the right key in the set. If the keys associated with the prefix do not work, the
- * primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}.
+ * primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}. Keys
+ * are tried in {@link com.google.crypto.tink.KeyTrialOrder}, i.e., the keys that recently decrypted
+ * most ciphertexts come first.
+ *
+ * <p>The returned primitive also implements {@link ByteBufferAead}, i.e., it can encrypt and
+ * decrypt into caller-provided buffers. This avoids copying for keys whose primitives implement
+ * {@link ByteBufferAead} themselves; other keys fall back to the {@code byte[]} methods. Likewise,
+ * it implements {@link BatchAead}, and hands batches to the primitives of the matching keys.
  */
 public final class AeadFactory {
-  private static final Logger logger = Logger.getLogger(AeadFactory.class.getName());
+  private static final String ENCRYPT = "encrypt";
+  private static final String DECRYPT = "decrypt";
+  private static final String ENCRYPT_BATCH = "encryptBatch";
+  private static final String DECRYPT_BATCH = "decryptBatch";
 
   /**
    * @return a Aead primitive from a {@code keysetHandle}.
@@ -64,46 +81,408 @@ public final class AeadFactory {
    */
   public static Aead getPrimitive(KeysetHandle keysetHandle, final KeyManager<Aead> keyManager)
       throws GeneralSecurityException {
-    final PrimitiveSet<Aead> primitives = Registry.getPrimitives(keysetHandle, keyManager);
-    return new Aead() {
-      @Override
-      public byte[] encrypt(final byte[] plaintext, final byte[] associatedData)
-          throws GeneralSecurityException {
-        return Bytes.concat(
-            primitives.getPrimary().getIdentifier(),
-            primitives.getPrimary().getPrimitive().encrypt(plaintext, associatedData));
+    PrimitiveSet<Aead> primitives = Registry.getPrimitives(keysetHandle, keyManager);
+    return new WrappedAead(primitives, Registry.getPrimitiveMonitor());
+  }
+
+  private static final class WrappedAead implements ByteBufferAead, BatchAead {
+    private final PrimitiveSet<Aead> primitives;
+    private final PrimitiveMonitor monitor;
+
+    WrappedAead(PrimitiveSet<Aead> primitives, PrimitiveMonitor monitor) {
+      this.primitives = primitives;
+      this.monitor = monitor;
+    }
+
+    @Override
+    public byte[] encrypt(final byte[] plaintext, final byte[] associatedData)
+        throws GeneralSecurityException {
+      PrimitiveSet.Entry<Aead> primary = primitives.getPrimary();
+      long startTime = monitor.startTime();
+      boolean success = false;
+      try {
+        byte[] ciphertext = primary.getPrimitive().encrypt(plaintext, associatedData);
+        success = true;
+        return primary.prependIdentifier(ciphertext);
+      } finally {
+        monitor.onKeyOperation(
+            Aead.class,
+            ENCRYPT,
+            primary,
+            KeySelection.PRIMARY,
+            plaintext.length,
+            startTime,
+            success);
       }
+    }
+
+    @Override
+    public byte[] decrypt(final byte[] ciphertext, final byte[] associatedData)
+        throws GeneralSecurityException {
+      return decrypt(ciphertext, associatedData, null);
+    }
 
-      @Override
-      public byte[] decrypt(final byte[] ciphertext, final byte[] associatedData)
-          throws GeneralSecurityException {
-        if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
-          byte[] prefix = Arrays.copyOfRange(ciphertext, 0, CryptoFormat.NON_RAW_PREFIX_SIZE);
-          byte[] ciphertextNoPrefix =
-              Arrays.copyOfRange(ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
-          List<PrimitiveSet.Entry<Aead>> entries = primitives.getPrimitive(prefix);
-          for (PrimitiveSet.Entry<Aead> entry : entries) {
-            try {
-              return entry.getPrimitive().decrypt(ciphertextNoPrefix, associatedData);
-            } catch (GeneralSecurityException e) {
-              logger.info("ciphertext prefix matches a key, but cannot decrypt: " + e.toString());
-              continue;
-            }
+    /** Decrypts {@code ciphertext} with every key but {@code skipped}, which already failed. */
+    private byte[] decrypt(
+        final byte[] ciphertext, final byte[] associatedData, PrimitiveSet.Entry<Aead> skipped)
+        throws GeneralSecurityException {
+      long firstStartTime = monitor.startTime();
+      if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        KeyTrialOrder<Aead> prefixed = primitives.getTrialOrderByPrefix(ciphertext);
+        List<PrimitiveSet.Entry<Aead>> entries = prefixed.getEntries();
+        byte[] ciphertextNoPrefix =
+            entries.isEmpty()
+                ? null
+                : Arrays.copyOfRange(
+                    ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
+        for (PrimitiveSet.Entry<Aead> entry : entries) {
+          if (entry == skipped) {
+            continue;
+          }
+          long startTime = monitor.startTime();
+          try {
+            byte[] plaintext = entry.getPrimitive().decrypt(ciphertextNoPrefix, associatedData);
+            prefixed.recordSuccess(entry);
+            monitor.onKeyOperation(
+                Aead.class,
+                DECRYPT,
+                entry,
+                KeySelection.PREFIX,
+                ciphertext.length,
+                startTime,
+                true);
+            return plaintext;
+          } catch (GeneralSecurityException e) {
+            monitor.onKeyOperation(
+                Aead.class,
+                DECRYPT,
+                entry,
+                KeySelection.PREFIX,
+                ciphertext.length,
+                startTime,
+                false);
+            prefixed.recordFailure(e);
+            continue;
           }
         }
+      }
 
-        // Let's try all RAW keys.
-        List<PrimitiveSet.Entry<Aead>> entries = primitives.getRawPrimitives();
-        for (PrimitiveSet.Entry<Aead> entry : entries) {
+      // Let's try all RAW keys, the most successful ones first.
+      KeyTrialOrder<Aead> raw = primitives.getRawTrialOrder();
+      for (PrimitiveSet.Entry<Aead> entry : raw.getEntries()) {
+        if (entry == skipped) {
+          continue;
+        }
+        long startTime = monitor.startTime();
+        try {
+          byte[] plaintext = entry.getPrimitive().decrypt(ciphertext, associatedData);
+          raw.recordSuccess(entry);
+          monitor.onKeyOperation(
+              Aead.class, DECRYPT, entry, KeySelection.RAW, ciphertext.length, startTime, true);
+          return plaintext;
+        } catch (GeneralSecurityException e) {
+          monitor.onKeyOperation(
+              Aead.class, DECRYPT, entry, KeySelection.RAW, ciphertext.length, startTime, false);
+          continue;
+        }
+      }
+      // nothing works.
+      monitor.onFailure(Aead.class, DECRYPT, ciphertext.length, firstStartTime);
+      throw new GeneralSecurityException("decryption failed");
+    }
+
+    @Override
+    public void encrypt(ByteBuffer plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+        throws GeneralSecurityException {
+      PrimitiveSet.Entry<Aead> primary = primitives.getPrimary();
+      int prefixSize = primary.getIdentifierLength();
+      if (ciphertext.remaining() < prefixSize) {
+        throw new GeneralSecurityException("output buffer too small");
+      }
+      // The prefix is written last, so that it does not overwrite plaintext that has not been
+      // encrypted yet.
+      int firstPosition = ciphertext.position();
+      ciphertext.position(firstPosition + prefixSize);
+      int plaintextSize = plaintext.remaining();
+      long startTime = monitor.startTime();
+      try {
+        encryptWith(primary.getPrimitive(), plaintext, associatedData, ciphertext);
+      } catch (GeneralSecurityException e) {
+        monitor.onKeyOperation(
+            Aead.class, ENCRYPT, primary, KeySelection.PRIMARY, plaintextSize, startTime, false);
+        ciphertext.position(firstPosition);
+        throw e;
+      }
+      monitor.onKeyOperation(
+          Aead.class, ENCRYPT, primary, KeySelection.PRIMARY, plaintextSize, startTime, true);
+      int lastPosition = ciphertext.position();
+      ciphertext.position(firstPosition);
+      primary.putIdentifier(ciphertext);
+      ciphertext.position(lastPosition);
+    }
+
+    @Override
+    public void decrypt(ByteBuffer ciphertext, ByteBuffer associatedData, ByteBuffer plaintext)
+        throws GeneralSecurityException {
+      int ciphertextSize = ciphertext.remaining();
+      long firstStartTime = monitor.startTime();
+      if (ciphertextSize > CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        KeyTrialOrder<Aead> prefixed = primitives.getTrialOrderByPrefix(ciphertext);
+        for (PrimitiveSet.Entry<Aead> entry : prefixed.getEntries()) {
+          ByteBuffer ciphertextNoPrefix = ciphertext.duplicate();
+          ciphertextNoPrefix.position(ciphertext.position() + CryptoFormat.NON_RAW_PREFIX_SIZE);
+          long startTime = monitor.startTime();
           try {
-            return entry.getPrimitive().decrypt(ciphertext, associatedData);
+            decryptWith(
+                entry.getPrimitive(), ciphertextNoPrefix, associatedData.duplicate(), plaintext);
           } catch (GeneralSecurityException e) {
+            monitor.onKeyOperation(
+                Aead.class, DECRYPT, entry, KeySelection.PREFIX, ciphertextSize, startTime, false);
+            prefixed.recordFailure(e);
+            continue;
+          }
+          prefixed.recordSuccess(entry);
+          monitor.onKeyOperation(
+              Aead.class, DECRYPT, entry, KeySelection.PREFIX, ciphertextSize, startTime, true);
+          ciphertext.position(ciphertext.limit());
+          associatedData.position(associatedData.limit());
+          return;
+        }
+      }
+
+      // Let's try all RAW keys, the most successful ones first.
+      KeyTrialOrder<Aead> raw = primitives.getRawTrialOrder();
+      for (PrimitiveSet.Entry<Aead> entry : raw.getEntries()) {
+        long startTime = monitor.startTime();
+        try {
+          decryptWith(
+              entry.getPrimitive(), ciphertext.duplicate(), associatedData.duplicate(), plaintext);
+        } catch (GeneralSecurityException e) {
+          monitor.onKeyOperation(
+              Aead.class, DECRYPT, entry, KeySelection.RAW, ciphertextSize, startTime, false);
+          continue;
+        }
+        raw.recordSuccess(entry);
+        monitor.onKeyOperation(
+            Aead.class, DECRYPT, entry, KeySelection.RAW, ciphertextSize, startTime, true);
+        ciphertext.position(ciphertext.limit());
+        associatedData.position(associatedData.limit());
+        return;
+      }
+      // nothing works.
+      monitor.onFailure(Aead.class, DECRYPT, ciphertextSize, firstStartTime);
+      throw new GeneralSecurityException("decryption failed");
+    }
+
+    @Override
+    public int encrypt(
+        final byte[] plaintext,
+        int plaintextOffset,
+        int plaintextLength,
+        final byte[] associatedData,
+        byte[] ciphertext,
+        int ciphertextOffset)
+        throws GeneralSecurityException {
+      ByteBuffer output =
+          ByteBuffer.wrap(ciphertext, ciphertextOffset, ciphertext.length - ciphertextOffset);
+      encrypt(
+          ByteBuffer.wrap(plaintext, plaintextOffset, plaintextLength),
+          ByteBuffer.wrap(associatedData),
+          output);
+      return output.position() - ciphertextOffset;
+    }
+
+    @Override
+    public int decrypt(
+        final byte[] ciphertext,
+        int ciphertextOffset,
+        int ciphertextLength,
+        final byte[] associatedData,
+        byte[] plaintext,
+        int plaintextOffset)
+        throws GeneralSecurityException {
+      ByteBuffer output =
+          ByteBuffer.wrap(plaintext, plaintextOffset, plaintext.length - plaintextOffset);
+      decrypt(
+          ByteBuffer.wrap(ciphertext, ciphertextOffset, ciphertextLength),
+          ByteBuffer.wrap(associatedData),
+          output);
+      return output.position() - plaintextOffset;
+    }
+
+    @Override
+    public List<byte[]> encryptBatch(List<byte[]> plaintexts, List<byte[]> associatedData)
+        throws GeneralSecurityException {
+      AeadBatch.checkBatchSizes(plaintexts.size(), associatedData.size());
+      PrimitiveSet.Entry<Aead> primary = primitives.getPrimary();
+      if (!(primary.getPrimitive() instanceof BatchAead)) {
+        List<byte[]> ciphertexts = new ArrayList<byte[]>(plaintexts.size());
+        for (int i = 0; i < plaintexts.size(); i++) {
+          ciphertexts.add(encrypt(plaintexts.get(i), associatedData.get(i)));
+        }
+        return ciphertexts;
+      }
+      BatchAead batchAead = (BatchAead) primary.getPrimitive();
+      long startTime = monitor.startTime();
+      boolean success = false;
+      try {
+        List<byte[]> ciphertexts = new ArrayList<byte[]>(plaintexts.size());
+        for (byte[] ciphertext : batchAead.encryptBatch(plaintexts, associatedData)) {
+          ciphertexts.add(primary.prependIdentifier(ciphertext));
+        }
+        success = true;
+        return ciphertexts;
+      } finally {
+        monitor.onKeyOperation(
+            Aead.class,
+            ENCRYPT_BATCH,
+            primary,
+            KeySelection.PRIMARY,
+            totalSize(plaintexts),
+            startTime,
+            success);
+      }
+    }
+
+    @Override
+    public List<byte[]> decryptBatch(List<byte[]> ciphertexts, List<byte[]> associatedData)
+        throws GeneralSecurityException {
+      AeadBatch.checkBatchSizes(ciphertexts.size(), associatedData.size());
+      int count = ciphertexts.size();
+      byte[][] plaintexts = new byte[count][];
+
+      // Decrypts the ciphertexts whose prefix matches a key in one batch per key. The key is the
+      // first one in the trial order of the prefix.
+      Map<PrimitiveSet.Entry<Aead>, PrefixBatch> batches =
+          new IdentityHashMap<PrimitiveSet.Entry<Aead>, PrefixBatch>();
+      // failedKeys[i] already failed to decrypt ciphertext i.
+      @SuppressWarnings({"unchecked", "rawtypes"}) // Generic arrays cannot be created.
+      PrimitiveSet.Entry<Aead>[] failedKeys = new PrimitiveSet.Entry[count];
+      for (int i = 0; i < count; i++) {
+        byte[] ciphertext = ciphertexts.get(i);
+        if (ciphertext.length <= CryptoFormat.NON_RAW_PREFIX_SIZE) {
+          continue;
+        }
+        KeyTrialOrder<Aead> prefixed = primitives.getTrialOrderByPrefix(ciphertext);
+        List<PrimitiveSet.Entry<Aead>> entries = prefixed.getEntries();
+        if (entries.isEmpty() || !(entries.get(0).getPrimitive() instanceof BatchAead)) {
+          continue;
+        }
+        PrefixBatch batch = batches.get(entries.get(0));
+        if (batch == null) {
+          batch = new PrefixBatch(prefixed, entries.get(0));
+          batches.put(entries.get(0), batch);
+        }
+        batch.indices.add(i);
+      }
+      for (PrefixBatch batch : batches.values()) {
+        List<Integer> indices = batch.indices;
+        List<byte[]> ciphertextsNoPrefix = new ArrayList<byte[]>(indices.size());
+        List<byte[]> batchAssociatedData = new ArrayList<byte[]>(indices.size());
+        for (int i : indices) {
+          byte[] ciphertext = ciphertexts.get(i);
+          ciphertextsNoPrefix.add(
+              Arrays.copyOfRange(ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length));
+          batchAssociatedData.add(associatedData.get(i));
+        }
+        BatchAead batchAead = (BatchAead) batch.entry.getPrimitive();
+        long startTime = monitor.startTime();
+        List<byte[]> decrypted = batchAead.decryptBatch(ciphertextsNoPrefix, batchAssociatedData);
+        GeneralSecurityException failure = null;
+        for (int j = 0; j < indices.size(); j++) {
+          int i = indices.get(j);
+          plaintexts[i] = decrypted.get(j);
+          if (plaintexts[i] != null) {
+            batch.order.recordSuccess(batch.entry);
             continue;
           }
+          failedKeys[i] = batch.entry;
+          if (failure == null) {
+            failure = new GeneralSecurityException("batch decryption failed");
+          }
+          batch.order.recordFailure(failure);
         }
-        // nothing works.
-        throw new GeneralSecurityException("decryption failed");
+        monitor.onKeyOperation(
+            Aead.class,
+            DECRYPT_BATCH,
+            batch.entry,
+            KeySelection.PREFIX,
+            totalSize(ciphertextsNoPrefix),
+            startTime,
+            failure == null);
       }
-    };
+
+      // All other ciphertexts, and the ones that failed above, take the regular path, which also
+      // tries the remaining keys with a matching prefix and the RAW keys.
+      List<byte[]> result = new ArrayList<byte[]>(count);
+      for (int i = 0; i < count; i++) {
+        if (plaintexts[i] == null) {
+          try {
+            plaintexts[i] = decrypt(ciphertexts.get(i), associatedData.get(i), failedKeys[i]);
+          } catch (GeneralSecurityException e) {
+            // Reported as null.
+          }
+        }
+        result.add(plaintexts[i]);
+      }
+      return result;
+    }
+  }
+
+  /** The ciphertexts of a batch that are decrypted with the first key of a prefix. */
+  private static final class PrefixBatch {
+    final KeyTrialOrder<Aead> order;
+    final PrimitiveSet.Entry<Aead> entry;
+    final List<Integer> indices = new ArrayList<Integer>();
+
+    PrefixBatch(KeyTrialOrder<Aead> order, PrimitiveSet.Entry<Aead> entry) {
+      this.order = order;
+      this.entry = entry;
+    }
+  }
+
+  private static void encryptWith(
+      Aead aead, ByteBuffer plaintext, ByteBuffer associatedData, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    if (aead instanceof ByteBufferAead) {
+      ((ByteBufferAead) aead).encrypt(plaintext, associatedData, ciphertext);
+      return;
+    }
+    byte[] result = aead.encrypt(peekRemaining(plaintext), peekRemaining(associatedData));
+    if (ciphertext.remaining() < result.length) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    ciphertext.put(result);
+    plaintext.position(plaintext.limit());
+    associatedData.position(associatedData.limit());
+  }
+
+  private static void decryptWith(
+      Aead aead, ByteBuffer ciphertext, ByteBuffer associatedData, ByteBuffer plaintext)
+      throws GeneralSecurityException {
+    if (aead instanceof ByteBufferAead) {
+      ((ByteBufferAead) aead).decrypt(ciphertext, associatedData, plaintext);
+      return;
+    }
+    byte[] result = aead.decrypt(peekRemaining(ciphertext), peekRemaining(associatedData));
+    if (plaintext.remaining() < result.length) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    plaintext.put(result);
+  }
+
+  private static long totalSize(List<byte[]> inputs) {
+    long size = 0;
+    for (byte[] input : inputs) {
+      size += input.length;
+    }
+    return size;
+  }
+
+  /** @return the remaining bytes of {@code buffer}, without changing its position. */
+  private static byte[] peekRemaining(ByteBuffer buffer) {
+    byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
   }
 }
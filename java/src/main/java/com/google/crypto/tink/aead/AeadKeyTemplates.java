@@ -23,6 +23,7 @@ import com.google.crypto.tink.proto.AesCtrParams;
 import com.google.crypto.tink.proto.AesEaxKeyFormat;
 import com.google.crypto.tink.proto.AesEaxParams;
 import com.google.crypto.tink.proto.AesGcmKeyFormat;
+import com.google.crypto.tink.proto.AesGcmSivKeyFormat;
 import com.google.crypto.tink.proto.HashType;
 import com.google.crypto.tink.proto.HmacKeyFormat;
 import com.google.crypto.tink.proto.HmacParams;
@@ -55,6 +56,22 @@ public final class AeadKeyTemplates {
    */
   public static final KeyTemplate AES256_GCM = createAesGcmKeyTemplate(32);
 
+  /**
+   * A {@code KeyTemplate} that generates new instances of {@code AesGcmSivKey} with the following
+   * parameters:
+   *   - Key size: 16 bytes
+   */
+  @Alpha
+  public static final KeyTemplate AES128_GCM_SIV = createAesGcmSivKeyTemplate(16);
+
+  /**
+   * A {@code KeyTemplate} that generates new instances of {@code AesGcmSivKey} with the following
+   * parameters:
+   *   - Key size: 32 bytes
+   */
+  @Alpha
+  public static final KeyTemplate AES256_GCM_SIV = createAesGcmSivKeyTemplate(32);
+
   /**
    * A {@code KeyTemplate} that generates new instances of {@code AesEaxKey} with the following
    * parameters:
@@ -118,6 +135,21 @@ public final class AeadKeyTemplates {
         .build();
   }
 
+  /**
+   * @return a {@code KeyTemplate} containing a {@code AesGcmSivKeyFormat} with some specified
+   * parameters.
+   */
+  @Alpha
+  public static KeyTemplate createAesGcmSivKeyTemplate(int keySize) {
+    AesGcmSivKeyFormat format = AesGcmSivKeyFormat.newBuilder()
+        .setKeySize(keySize)
+        .build();
+    return KeyTemplate.newBuilder()
+        .setValue(format.toByteString())
+        .setTypeUrl(AesGcmSivKeyManager.TYPE_URL)
+        .build();
+  }
+
   /**
    * @return a {@code KeyTemplate} containing a {@code AesEaxKeyFormat} with some specified
    * parameters.
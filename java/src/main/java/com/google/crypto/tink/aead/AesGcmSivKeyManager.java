@@ -0,0 +1,138 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.aead;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.KeyManager;
+import com.google.crypto.tink.proto.AesGcmSivKey;
+import com.google.crypto.tink.proto.AesGcmSivKeyFormat;
+import com.google.crypto.tink.proto.KeyData;
+import com.google.crypto.tink.subtle.AesGcmSiv;
+import com.google.crypto.tink.subtle.Random;
+import com.google.crypto.tink.subtle.Validators;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import java.security.GeneralSecurityException;
+
+/**
+ * This key manager generates new {@code AesGcmSivKey} keys and produces new instances of {@code
+ * AesGcmSiv}.
+ */
+class AesGcmSivKeyManager implements KeyManager<Aead> {
+  private static final int VERSION = 0;
+
+  public static final String TYPE_URL = "type.googleapis.com/google.crypto.tink.AesGcmSivKey";
+
+  /** @param serializedKey serialized {@code AesGcmSivKey} proto */
+  @Override
+  public Aead getPrimitive(ByteString serializedKey) throws GeneralSecurityException {
+    try {
+      AesGcmSivKey keyProto = AesGcmSivKey.parseFrom(serializedKey);
+      return getPrimitive(keyProto);
+    } catch (InvalidProtocolBufferException e) {
+      throw new GeneralSecurityException("expected AesGcmSivKey proto");
+    }
+  }
+
+  /** @param key {@code AesGcmSivKey} proto */
+  @Override
+  public Aead getPrimitive(MessageLite key) throws GeneralSecurityException {
+    if (!(key instanceof AesGcmSivKey)) {
+      throw new GeneralSecurityException("expected AesGcmSivKey proto");
+    }
+    AesGcmSivKey keyProto = (AesGcmSivKey) key;
+    validate(keyProto);
+    return new AesGcmSiv(keyProto.getKeyValue().toByteArray());
+  }
+
+  /**
+   * @param serializedKeyFormat serialized {@code AesGcmSivKeyFormat} proto
+   * @return new {@code AesGcmSivKey} proto
+   */
+  @Override
+  public MessageLite newKey(ByteString serializedKeyFormat) throws GeneralSecurityException {
+    try {
+      AesGcmSivKeyFormat format = AesGcmSivKeyFormat.parseFrom(serializedKeyFormat);
+      return newKey(format);
+    } catch (InvalidProtocolBufferException e) {
+      throw new GeneralSecurityException("expected serialized AesGcmSivKeyFormat proto", e);
+    }
+  }
+
+  /**
+   * @param keyFormat {@code AesGcmSivKeyFormat} proto
+   * @return new {@code AesGcmSivKey} proto
+   */
+  @Override
+  public MessageLite newKey(MessageLite keyFormat) throws GeneralSecurityException {
+    if (!(keyFormat instanceof AesGcmSivKeyFormat)) {
+      throw new GeneralSecurityException("expected AesGcmSivKeyFormat proto");
+    }
+    AesGcmSivKeyFormat format = (AesGcmSivKeyFormat) keyFormat;
+    validate(format);
+    return AesGcmSivKey.newBuilder()
+        .setKeyValue(ByteString.copyFrom(Random.randBytes(format.getKeySize())))
+        .setVersion(VERSION)
+        .build();
+  }
+
+  /**
+   * @param serializedKeyFormat serialized {@code AesGcmSivKeyFormat} proto
+   * @return {@code KeyData} proto with a new {@code AesGcmSivKey} proto
+   */
+  @Override
+  public KeyData newKeyData(ByteString serializedKeyFormat) throws GeneralSecurityException {
+    AesGcmSivKey key = (AesGcmSivKey) newKey(serializedKeyFormat);
+    return KeyData.newBuilder()
+        .setTypeUrl(TYPE_URL)
+        .setValue(key.toByteString())
+        .setKeyMaterialType(KeyData.KeyMaterialType.SYMMETRIC)
+        .build();
+  }
+
+  @Override
+  public boolean doesSupport(String typeUrl) {
+    return typeUrl.equals(TYPE_URL);
+  }
+
+  @Override
+  public String getKeyType() {
+    return TYPE_URL;
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+
+  private void validate(AesGcmSivKey key) throws GeneralSecurityException {
+    Validators.validateVersion(key.getVersion(), VERSION);
+    validateKeySize(key.getKeyValue().size());
+  }
+
+  private void validate(AesGcmSivKeyFormat format) throws GeneralSecurityException {
+    validateKeySize(format.getKeySize());
+  }
+
+  private void validateKeySize(int keySize) throws GeneralSecurityException {
+    if (keySize != 16 && keySize != 32) {
+      throw new GeneralSecurityException(
+          "invalid key size; only 16-byte and 32-byte keys are supported");
+    }
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.aead;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.AsyncAead;
+import com.google.crypto.tink.KeyManager;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.KeysetInfo;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Static methods for obtaining {@link AsyncAead} instances.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * ExecutorService kmsExecutor = Executors.newFixedThreadPool(16);
+ * KeysetHandle keysetHandle = ...;
+ * AsyncAead aead = AsyncAeadFactory.getPrimitive(keysetHandle, kmsExecutor);
+ * Future<byte[]> ciphertext = aead.encryptAsync(plaintext, aad);
+ * }</pre>
+ *
+ * <p>The returned primitive works with a keyset, and produces the same ciphertexts as the primitive
+ * returned by {@link AeadFactory}. Operations that may need a key residing in a remote KMS, i.e.,
+ * a key of type {@link AeadConfig#KMS_AEAD_TYPE_URL} or {@link
+ * AeadConfig#KMS_ENVELOPE_AEAD_TYPE_URL}, run on the given executor. All other operations run in
+ * the calling thread and return a {@link Future} that is already done.
+ *
+ * <p>The executor should be bounded, e.g., a fixed thread pool, as it limits the number of
+ * concurrent requests to the KMS. If it rejects a task, the {@link
+ * java.util.concurrent.RejectedExecutionException} is thrown to the caller.
+ */
+@Alpha
+public final class AsyncAeadFactory {
+  private static final Executor DIRECT_EXECUTOR =
+      new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          command.run();
+        }
+      };
+
+  /**
+   * @return an AsyncAead primitive from a {@code keysetHandle}, which uses {@code executor} for
+   *     operations with remote keys.
+   * @throws GeneralSecurityException
+   */
+  public static AsyncAead getPrimitive(KeysetHandle keysetHandle, Executor executor)
+      throws GeneralSecurityException {
+    return getPrimitive(keysetHandle, /* keyManager= */ null, executor);
+  }
+
+  /**
+   * @return an AsyncAead primitive from a {@code keysetHandle} and a custom {@code keyManager},
+   *     which uses {@code executor} for operations with remote keys.
+   * @throws GeneralSecurityException
+   */
+  public static AsyncAead getPrimitive(
+      KeysetHandle keysetHandle, final KeyManager<Aead> keyManager, Executor executor)
+      throws GeneralSecurityException {
+    final Aead aead = AeadFactory.getPrimitive(keysetHandle, keyManager);
+    KeysetInfo keysetInfo = keysetHandle.getKeysetInfo();
+    boolean remotePrimary = false;
+    boolean remoteAny = false;
+    for (KeysetInfo.KeyInfo keyInfo : keysetInfo.getKeyInfoList()) {
+      if (keyInfo.getStatus() == KeyStatusType.ENABLED && isRemote(keyInfo.getTypeUrl())) {
+        remoteAny = true;
+        remotePrimary |= keyInfo.getKeyId() == keysetInfo.getPrimaryKeyId();
+      }
+    }
+    // Decryption may have to try any key of the keyset, so it goes to the executor if any of them
+    // is remote.
+    final Executor encryptExecutor = remotePrimary ? executor : DIRECT_EXECUTOR;
+    final Executor decryptExecutor = remoteAny ? executor : DIRECT_EXECUTOR;
+    return new AsyncAead() {
+      @Override
+      public Future<byte[]> encryptAsync(final byte[] plaintext, final byte[] associatedData) {
+        return submit(
+            encryptExecutor,
+            new Callable<byte[]>() {
+              @Override
+              public byte[] call() throws GeneralSecurityException {
+                return aead.encrypt(plaintext, associatedData);
+              }
+            });
+      }
+
+      @Override
+      public Future<byte[]> decryptAsync(final byte[] ciphertext, final byte[] associatedData) {
+        return submit(
+            decryptExecutor,
+            new Callable<byte[]>() {
+              @Override
+              public byte[] call() throws GeneralSecurityException {
+                return aead.decrypt(ciphertext, associatedData);
+              }
+            });
+      }
+    };
+  }
+
+  private static boolean isRemote(String typeUrl) {
+    return typeUrl.equals(KmsAeadKeyManager.TYPE_URL)
+        || typeUrl.equals(KmsEnvelopeAeadKeyManager.TYPE_URL);
+  }
+
+  private static Future<byte[]> submit(Executor executor, Callable<byte[]> callable) {
+    FutureTask<byte[]> task = new FutureTask<byte[]>(callable);
+    executor.execute(task);
+    return task;
+  }
+}
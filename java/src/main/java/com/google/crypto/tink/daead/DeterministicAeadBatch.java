@@ -0,0 +1,258 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.daead;
+
+import com.google.crypto.tink.DeterministicAead;
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Static methods for deterministically encrypting and decrypting batches of values with a {@link
+ * DeterministicAead}, optionally spread over the threads of an {@link Executor}, e.g., when
+ * building a blind index over the values of a column.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * DeterministicAead daead = DeterministicAeadFactory.getPrimitive(keysetHandle);
+ * DeterministicAeadBatch.Result result =
+ *     DeterministicAeadBatch.encrypt(
+ *         daead, values, associatedData, executor, DeterministicAeadBatch.DEFAULT_CHUNK_SIZE);
+ * for (int i = 0; i < result.size(); i++) {
+ *   byte[] ciphertext = result.getOutput(i);
+ *   ...
+ * }
+ * }</pre>
+ *
+ * <p>The batch is split into chunks, which are processed concurrently. The primitives of this
+ * package keep their cipher and MAC engines in pools, so every thread reuses the same engines for
+ * all values of its chunks rather than setting up new ones per value.
+ *
+ * <p>Failures are reported per value: a ciphertext that cannot be decrypted does not affect the
+ * other values of the batch.
+ */
+@Alpha
+public final class DeterministicAeadBatch {
+  /** A chunk size that amortizes scheduling a chunk while still spreading work over threads. */
+  public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+  /** The outcome of a batch operation, with either an output or an exception per value. */
+  public static final class Result {
+    private final byte[][] outputs;
+    private final GeneralSecurityException[] exceptions;
+
+    private Result(byte[][] outputs, GeneralSecurityException[] exceptions) {
+      this.outputs = outputs;
+      this.exceptions = exceptions;
+    }
+
+    /** @return the number of values in the batch. */
+    public int size() {
+      return outputs.length;
+    }
+
+    /** @return true if the value at {@code index} was processed successfully. */
+    public boolean isSuccess(int index) {
+      return exceptions[index] == null;
+    }
+
+    /**
+     * @return the ciphertext or plaintext of the value at {@code index}.
+     * @throws GeneralSecurityException the exception of the value, if it failed.
+     */
+    public byte[] getOutput(int index) throws GeneralSecurityException {
+      if (exceptions[index] != null) {
+        throw exceptions[index];
+      }
+      return outputs[index];
+    }
+
+    /** @return the exception of the value at {@code index}, or null if it succeeded. */
+    public GeneralSecurityException getException(int index) {
+      return exceptions[index];
+    }
+
+    /** @return the number of values that failed. */
+    public int getFailureCount() {
+      int failures = 0;
+      for (GeneralSecurityException exception : exceptions) {
+        if (exception != null) {
+          failures++;
+        }
+      }
+      return failures;
+    }
+
+    /**
+     * @return the outputs of all values, in order.
+     * @throws GeneralSecurityException the exception of the first value that failed, if any.
+     */
+    public List<byte[]> getOutputs() throws GeneralSecurityException {
+      for (GeneralSecurityException exception : exceptions) {
+        if (exception != null) {
+          throw exception;
+        }
+      }
+      return new ArrayList<byte[]>(Arrays.asList(outputs));
+    }
+  }
+
+  /**
+   * Encrypts {@code plaintexts.get(i)} with {@code associatedData.get(i)} for every {@code i}, in
+   * the calling thread.
+   */
+  public static Result encrypt(
+      DeterministicAead daead, List<byte[]> plaintexts, List<byte[]> associatedData) {
+    return process(/* encrypt= */ true, daead, plaintexts, associatedData);
+  }
+
+  /**
+   * Encrypts {@code plaintexts.get(i)} with {@code associatedData.get(i)} for every {@code i}, in
+   * chunks of {@code chunkSize} values that run on {@code executor}. The calling thread processes
+   * one of the chunks itself, and returns once all chunks are done.
+   */
+  public static Result encrypt(
+      DeterministicAead daead,
+      List<byte[]> plaintexts,
+      List<byte[]> associatedData,
+      Executor executor,
+      int chunkSize)
+      throws InterruptedException {
+    return process(/* encrypt= */ true, daead, plaintexts, associatedData, executor, chunkSize);
+  }
+
+  /**
+   * Decrypts {@code ciphertexts.get(i)} with {@code associatedData.get(i)} for every {@code i}, in
+   * the calling thread.
+   */
+  public static Result decrypt(
+      DeterministicAead daead, List<byte[]> ciphertexts, List<byte[]> associatedData) {
+    return process(/* encrypt= */ false, daead, ciphertexts, associatedData);
+  }
+
+  /**
+   * Decrypts {@code ciphertexts.get(i)} with {@code associatedData.get(i)} for every {@code i}, in
+   * chunks of {@code chunkSize} values that run on {@code executor}. The calling thread processes
+   * one of the chunks itself, and returns once all chunks are done.
+   */
+  public static Result decrypt(
+      DeterministicAead daead,
+      List<byte[]> ciphertexts,
+      List<byte[]> associatedData,
+      Executor executor,
+      int chunkSize)
+      throws InterruptedException {
+    return process(/* encrypt= */ false, daead, ciphertexts, associatedData, executor, chunkSize);
+  }
+
+  private static Result process(
+      boolean encrypt, DeterministicAead daead, List<byte[]> inputs, List<byte[]> associatedData) {
+    checkBatchSizes(inputs.size(), associatedData.size());
+    int count = inputs.size();
+    byte[][] outputs = new byte[count][];
+    GeneralSecurityException[] exceptions = new GeneralSecurityException[count];
+    processChunk(encrypt, daead, inputs, associatedData, 0, count, outputs, exceptions);
+    return new Result(outputs, exceptions);
+  }
+
+  private static Result process(
+      final boolean encrypt,
+      final DeterministicAead daead,
+      final List<byte[]> inputs,
+      final List<byte[]> associatedData,
+      Executor executor,
+      int chunkSize)
+      throws InterruptedException {
+    checkBatchSizes(inputs.size(), associatedData.size());
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive");
+    }
+    final int count = inputs.size();
+    final byte[][] outputs = new byte[count][];
+    final GeneralSecurityException[] exceptions = new GeneralSecurityException[count];
+    int chunks = (count + chunkSize - 1) / chunkSize;
+    final CountDownLatch done = new CountDownLatch(Math.max(0, chunks - 1));
+    final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+    for (int chunk = 1; chunk < chunks; chunk++) {
+      final int from = chunk * chunkSize;
+      final int to = Math.min(count, from + chunkSize);
+      Runnable task =
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                processChunk(encrypt, daead, inputs, associatedData, from, to, outputs, exceptions);
+              } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+              } finally {
+                done.countDown();
+              }
+            }
+          };
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    }
+    processChunk(
+        encrypt, daead, inputs, associatedData, 0, Math.min(count, chunkSize), outputs, exceptions);
+    // The latch also makes the outputs written by the other threads visible to this one.
+    done.await();
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    return new Result(outputs, exceptions);
+  }
+
+  private static void processChunk(
+      boolean encrypt,
+      DeterministicAead daead,
+      List<byte[]> inputs,
+      List<byte[]> associatedData,
+      int from,
+      int to,
+      byte[][] outputs,
+      GeneralSecurityException[] exceptions) {
+    for (int i = from; i < to; i++) {
+      try {
+        outputs[i] =
+            encrypt
+                ? daead.encryptDeterministically(inputs.get(i), associatedData.get(i))
+                : daead.decryptDeterministically(inputs.get(i), associatedData.get(i));
+      } catch (GeneralSecurityException e) {
+        exceptions[i] = e;
+      }
+    }
+  }
+
+  private static void checkBatchSizes(int inputCount, int associatedDataCount) {
+    if (inputCount != associatedDataCount) {
+      throw new IllegalArgumentException(
+          "got " + inputCount + " inputs but " + associatedDataCount + " associated data");
+    }
+  }
+
+  private DeterministicAeadBatch() {}
+}
@@ -0,0 +1,191 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.daead;
+
+import com.google.crypto.tink.CryptoFormat;
+import com.google.crypto.tink.DeterministicAead;
+import com.google.crypto.tink.KeyManager;
+import com.google.crypto.tink.KeyTrialOrder;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
+import com.google.crypto.tink.PrimitiveSet;
+import com.google.crypto.tink.Registry;
+import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Static methods for obtaining {@link DeterministicAead} instances.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * KeysetHandle keysetHandle = ...;
+ * DeterministicAead daead = DeterministicAeadFactory.getPrimitive(keysetHandle);
+ * byte[] plaintext = ...;
+ * byte[] aad = ...;
+ * byte[] ciphertext = daead.encryptDeterministically(plaintext, aad);
+ * }</pre>
+ *
+ * <p>The returned primitive works with a keyset (rather than a single key). To encrypt a plaintext,
+ * it uses the primary key in the keyset, and prepends to the ciphertext a certain prefix associated
+ * with the primary key. To decrypt, the primitive uses the prefix of the ciphertext to efficiently
+ * select the right key in the set. If the keys associated with the prefix do not work, the
+ * primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}. Keys
+ * are tried in {@link com.google.crypto.tink.KeyTrialOrder}, i.e., the keys that recently decrypted
+ * most ciphertexts come first.
+ */
+@Alpha
+public final class DeterministicAeadFactory {
+  private static final String ENCRYPT = "encryptDeterministically";
+  private static final String DECRYPT = "decryptDeterministically";
+
+  /**
+   * @return a DeterministicAead primitive from a {@code keysetHandle}.
+   * @throws GeneralSecurityException
+   */
+  public static DeterministicAead getPrimitive(KeysetHandle keysetHandle)
+      throws GeneralSecurityException {
+    return getPrimitive(keysetHandle, /* keyManager= */ null);
+  }
+
+  /**
+   * @return a DeterministicAead primitive from a {@code keysetHandle} and a custom {@code
+   *     keyManager}.
+   * @throws GeneralSecurityException
+   */
+  public static DeterministicAead getPrimitive(
+      KeysetHandle keysetHandle, final KeyManager<DeterministicAead> keyManager)
+      throws GeneralSecurityException {
+    PrimitiveSet<DeterministicAead> primitives = Registry.getPrimitives(keysetHandle, keyManager);
+    return new WrappedDeterministicAead(primitives, Registry.getPrimitiveMonitor());
+  }
+
+  private static final class WrappedDeterministicAead implements DeterministicAead {
+    private final PrimitiveSet<DeterministicAead> primitives;
+    private final PrimitiveMonitor monitor;
+
+    WrappedDeterministicAead(
+        PrimitiveSet<DeterministicAead> primitives, PrimitiveMonitor monitor) {
+      this.primitives = primitives;
+      this.monitor = monitor;
+    }
+
+    @Override
+    public byte[] encryptDeterministically(final byte[] plaintext, final byte[] associatedData)
+        throws GeneralSecurityException {
+      PrimitiveSet.Entry<DeterministicAead> primary = primitives.getPrimary();
+      long startTime = monitor.startTime();
+      boolean success = false;
+      try {
+        byte[] ciphertext =
+            primary.getPrimitive().encryptDeterministically(plaintext, associatedData);
+        success = true;
+        return primary.prependIdentifier(ciphertext);
+      } finally {
+        monitor.onKeyOperation(
+            DeterministicAead.class,
+            ENCRYPT,
+            primary,
+            KeySelection.PRIMARY,
+            plaintext.length,
+            startTime,
+            success);
+      }
+    }
+
+    @Override
+    public byte[] decryptDeterministically(final byte[] ciphertext, final byte[] associatedData)
+        throws GeneralSecurityException {
+      long firstStartTime = monitor.startTime();
+      if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        KeyTrialOrder<DeterministicAead> prefixed = primitives.getTrialOrderByPrefix(ciphertext);
+        List<PrimitiveSet.Entry<DeterministicAead>> entries = prefixed.getEntries();
+        byte[] ciphertextNoPrefix =
+            entries.isEmpty()
+                ? null
+                : Arrays.copyOfRange(
+                    ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
+        for (PrimitiveSet.Entry<DeterministicAead> entry : entries) {
+          long startTime = monitor.startTime();
+          try {
+            byte[] plaintext =
+                entry.getPrimitive().decryptDeterministically(ciphertextNoPrefix, associatedData);
+            prefixed.recordSuccess(entry);
+            monitor.onKeyOperation(
+                DeterministicAead.class,
+                DECRYPT,
+                entry,
+                KeySelection.PREFIX,
+                ciphertext.length,
+                startTime,
+                true);
+            return plaintext;
+          } catch (GeneralSecurityException e) {
+            monitor.onKeyOperation(
+                DeterministicAead.class,
+                DECRYPT,
+                entry,
+                KeySelection.PREFIX,
+                ciphertext.length,
+                startTime,
+                false);
+            prefixed.recordFailure(e);
+            continue;
+          }
+        }
+      }
+
+      // Let's try all RAW keys, the most successful ones first.
+      KeyTrialOrder<DeterministicAead> raw = primitives.getRawTrialOrder();
+      for (PrimitiveSet.Entry<DeterministicAead> entry : raw.getEntries()) {
+        long startTime = monitor.startTime();
+        try {
+          byte[] plaintext =
+              entry.getPrimitive().decryptDeterministically(ciphertext, associatedData);
+          raw.recordSuccess(entry);
+          monitor.onKeyOperation(
+              DeterministicAead.class,
+              DECRYPT,
+              entry,
+              KeySelection.RAW,
+              ciphertext.length,
+              startTime,
+              true);
+          return plaintext;
+        } catch (GeneralSecurityException e) {
+          monitor.onKeyOperation(
+              DeterministicAead.class,
+              DECRYPT,
+              entry,
+              KeySelection.RAW,
+              ciphertext.length,
+              startTime,
+              false);
+          continue;
+        }
+      }
+      // nothing works.
+      monitor.onFailure(DeterministicAead.class, DECRYPT, ciphertext.length, firstStartTime);
+      throw new GeneralSecurityException("decryption failed");
+    }
+  }
+
+  private DeterministicAeadFactory() {}
+}
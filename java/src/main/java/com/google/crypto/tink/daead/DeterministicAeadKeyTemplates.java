@@ -0,0 +1,57 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.daead;
+
+import com.google.crypto.tink.annotations.Alpha;
+import com.google.crypto.tink.proto.AesSivKeyFormat;
+import com.google.crypto.tink.proto.KeyTemplate;
+
+/**
+ * Pre-generated {@code KeyTemplate} for {@code DeterministicAead}. One can use these templates to
+ * generate new {@code Keyset} with {@code KeysetHandle}. To generate a new keyset that contains a
+ * single {@code AesSivKey}, one can do:
+ *
+ * <pre>{@code
+ * Config.register(DeterministicAeadConfig.TINK_1_1_0);
+ * KeysetHandle handle = KeysetHandle.generateNew(DeterministicAeadKeyTemplates.AES256_SIV);
+ * DeterministicAead daead = DeterministicAeadFactory.getPrimitive(handle);
+ * }</pre>
+ */
+@Alpha
+public final class DeterministicAeadKeyTemplates {
+  /**
+   * A {@code KeyTemplate} that generates new instances of {@code AesSivKey} with the following
+   * parameters:
+   *
+   * <ul>
+   *   <li>Key size: 32 bytes
+   * </ul>
+   */
+  public static final KeyTemplate AES256_SIV = createAesSivKeyTemplate(32);
+
+  /**
+   * @return a {@code KeyTemplate} containing a {@code AesSivKeyFormat} with some specified
+   *     parameters.
+   */
+  public static KeyTemplate createAesSivKeyTemplate(int keySize) {
+    AesSivKeyFormat format = AesSivKeyFormat.newBuilder().setKeySize(keySize).build();
+    return KeyTemplate.newBuilder()
+        .setValue(format.toByteString())
+        .setTypeUrl(AesSivKeyManager.TYPE_URL)
+        .build();
+  }
+}
@@ -18,13 +18,15 @@ package com.google.crypto.tink.hybrid;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.HybridDecrypt;
 import com.google.crypto.tink.KeyManager;
+import com.google.crypto.tink.KeyTrialOrder;
 import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.Registry;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * Static methods for obtaining {@link HybridDecrypt} instances.
@@ -42,10 +44,12 @@ import java.util.logging.Logger;
  * <p>The returned primitive works with a keyset (rather than a single key). To decrypt, the
  * primitive uses the prefix of the ciphertext to efficiently select the right key in the set. If
  * the keys associated with the prefix do not work, the primitive tries all keys with {@link
- * com.google.crypto.tink.proto.OutputPrefixType#RAW}.
+ * com.google.crypto.tink.proto.OutputPrefixType#RAW}. Keys are tried in {@link
+ * com.google.crypto.tink.KeyTrialOrder}, i.e., the keys that recently decrypted most ciphertexts
+ * come first.
  */
 public final class HybridDecryptFactory {
-  private static final Logger logger = Logger.getLogger(HybridDecryptFactory.class.getName());
+  private static final String DECRYPT = "decrypt";
 
   /**
    * @return a HybridDecrypt primitive from a {@code keysetHandle}.
@@ -63,34 +67,78 @@ public final class HybridDecryptFactory {
       KeysetHandle keysetHandle, final KeyManager<HybridDecrypt> keyManager)
       throws GeneralSecurityException {
     final PrimitiveSet<HybridDecrypt> primitives = Registry.getPrimitives(keysetHandle, keyManager);
+    final PrimitiveMonitor monitor = Registry.getPrimitiveMonitor();
     return new HybridDecrypt() {
       @Override
       public byte[] decrypt(final byte[] ciphertext, final byte[] contextInfo)
           throws GeneralSecurityException {
+        long firstStartTime = monitor.startTime();
         if (ciphertext.length > CryptoFormat.NON_RAW_PREFIX_SIZE) {
-          byte[] prefix = Arrays.copyOfRange(ciphertext, 0, CryptoFormat.NON_RAW_PREFIX_SIZE);
+          KeyTrialOrder<HybridDecrypt> prefixed = primitives.getTrialOrderByPrefix(ciphertext);
+          List<PrimitiveSet.Entry<HybridDecrypt>> entries = prefixed.getEntries();
           byte[] ciphertextNoPrefix =
-              Arrays.copyOfRange(ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
-          List<PrimitiveSet.Entry<HybridDecrypt>> entries = primitives.getPrimitive(prefix);
+              entries.isEmpty()
+                  ? null
+                  : Arrays.copyOfRange(
+                      ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE, ciphertext.length);
           for (PrimitiveSet.Entry<HybridDecrypt> entry : entries) {
+            long startTime = monitor.startTime();
             try {
-              return entry.getPrimitive().decrypt(ciphertextNoPrefix, contextInfo);
+              byte[] plaintext = entry.getPrimitive().decrypt(ciphertextNoPrefix, contextInfo);
+              prefixed.recordSuccess(entry);
+              monitor.onKeyOperation(
+                  HybridDecrypt.class,
+                  DECRYPT,
+                  entry,
+                  KeySelection.PREFIX,
+                  ciphertext.length,
+                  startTime,
+                  true);
+              return plaintext;
             } catch (GeneralSecurityException e) {
-              logger.info("ciphertext prefix matches a key, but cannot decrypt: " + e.toString());
+              monitor.onKeyOperation(
+                  HybridDecrypt.class,
+                  DECRYPT,
+                  entry,
+                  KeySelection.PREFIX,
+                  ciphertext.length,
+                  startTime,
+                  false);
+              prefixed.recordFailure(e);
               continue;
             }
           }
         }
-        // Let's try all RAW keys.
-        List<PrimitiveSet.Entry<HybridDecrypt>> entries = primitives.getRawPrimitives();
-        for (PrimitiveSet.Entry<HybridDecrypt> entry : entries) {
+        // Let's try all RAW keys, the most successful ones first.
+        KeyTrialOrder<HybridDecrypt> raw = primitives.getRawTrialOrder();
+        for (PrimitiveSet.Entry<HybridDecrypt> entry : raw.getEntries()) {
+          long startTime = monitor.startTime();
           try {
-            return entry.getPrimitive().decrypt(ciphertext, contextInfo);
+            byte[] plaintext = entry.getPrimitive().decrypt(ciphertext, contextInfo);
+            raw.recordSuccess(entry);
+            monitor.onKeyOperation(
+                HybridDecrypt.class,
+                DECRYPT,
+                entry,
+                KeySelection.RAW,
+                ciphertext.length,
+                startTime,
+                true);
+            return plaintext;
           } catch (GeneralSecurityException e) {
+            monitor.onKeyOperation(
+                HybridDecrypt.class,
+                DECRYPT,
+                entry,
+                KeySelection.RAW,
+                ciphertext.length,
+                startTime,
+                false);
             continue;
           }
         }
         // nothing works.
+        monitor.onFailure(HybridDecrypt.class, DECRYPT, ciphertext.length, firstStartTime);
         throw new GeneralSecurityException("decryption failed");
       }
     };
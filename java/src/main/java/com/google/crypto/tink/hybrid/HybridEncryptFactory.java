@@ -18,9 +18,10 @@ package com.google.crypto.tink.hybrid;
 import com.google.crypto.tink.HybridEncrypt;
 import com.google.crypto.tink.KeyManager;
 import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.Registry;
-import com.google.crypto.tink.subtle.Bytes;
 import java.security.GeneralSecurityException;
 import java.util.logging.Logger;
 
@@ -61,13 +62,28 @@ public final class HybridEncryptFactory {
       KeysetHandle keysetHandle, final KeyManager<HybridEncrypt> keyManager)
       throws GeneralSecurityException {
     final PrimitiveSet<HybridEncrypt> primitives = Registry.getPrimitives(keysetHandle, keyManager);
+    final PrimitiveMonitor monitor = Registry.getPrimitiveMonitor();
     return new HybridEncrypt() {
       @Override
       public byte[] encrypt(final byte[] plaintext, final byte[] contextInfo)
           throws GeneralSecurityException {
-        return Bytes.concat(
-            primitives.getPrimary().getIdentifier(),
-            primitives.getPrimary().getPrimitive().encrypt(plaintext, contextInfo));
+        PrimitiveSet.Entry<HybridEncrypt> primary = primitives.getPrimary();
+        long startTime = monitor.startTime();
+        boolean success = false;
+        try {
+          byte[] ciphertext = primary.getPrimitive().encrypt(plaintext, contextInfo);
+          success = true;
+          return primary.prependIdentifier(ciphertext);
+        } finally {
+          monitor.onKeyOperation(
+              HybridEncrypt.class,
+              "encrypt",
+              primary,
+              KeySelection.PRIMARY,
+              plaintext.length,
+              startTime,
+              success);
+        }
       }
     };
   }
@@ -18,16 +18,21 @@ package com.google.crypto.tink.mac;
 
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeyManager;
+import com.google.crypto.tink.KeyTrialOrder;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.Mac;
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.Registry;
+import com.google.crypto.tink.StreamingMac;
 import com.google.crypto.tink.proto.OutputPrefixType;
-import com.google.crypto.tink.subtle.Bytes;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * Static methods for obtaining {@link Mac} instances.
@@ -46,10 +51,20 @@ import java.util.logging.Logger;
  * it uses the primary key in the keyset, and prepends to the tag a certain prefix associated with
  * the primary key. To verify a tag, the primitive uses the prefix of the tag to efficiently select
  * the right key in the set. If the keys associated with the prefix do not validate the tag, the
- * primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}.
+ * primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}. Keys
+ * are tried in {@link com.google.crypto.tink.KeyTrialOrder}, i.e., the keys that recently validated
+ * most tags come first.
+ *
+ * <p>The returned primitive also implements {@link StreamingMac}, i.e., it can compute and verify
+ * tags of data that is fed in several parts, see {@link MacStreams}. A verification feeds the data
+ * to all keys that may have computed the tag at once. Keys whose primitives do not implement
+ * {@link StreamingMac} themselves buffer the data.
  */
 public final class MacFactory {
-  private static final Logger logger = Logger.getLogger(MacFactory.class.getName());
+  private static final String COMPUTE_MAC = "computeMac";
+  private static final String VERIFY_MAC = "verifyMac";
+  // LEGACY keys compute the MAC of the data followed by this byte.
+  private static final byte[] FORMAT_VERSION = new byte[] {CryptoFormat.LEGACY_START_BYTE};
 
   /**
    * @return a Mac primitive from a {@code keysetHandle}.
@@ -65,60 +80,318 @@ public final class MacFactory {
    */
   public static Mac getPrimitive(KeysetHandle keysetHandle, final KeyManager<Mac> keyManager)
       throws GeneralSecurityException {
-    final PrimitiveSet<Mac> primitives = Registry.getPrimitives(keysetHandle, keyManager);
-    final byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
-    return new Mac() {
-      @Override
-      public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
-        if (primitives.getPrimary().getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
-          return Bytes.concat(
-              primitives.getPrimary().getIdentifier(),
-              primitives.getPrimary().getPrimitive().computeMac(Bytes.concat(data, formatVersion)));
+    PrimitiveSet<Mac> primitives = Registry.getPrimitives(keysetHandle, keyManager);
+    return new WrappedMac(primitives, Registry.getPrimitiveMonitor());
+  }
+
+  private static final class WrappedMac implements StreamingMac {
+    private final PrimitiveSet<Mac> primitives;
+    private final PrimitiveMonitor monitor;
+
+    WrappedMac(PrimitiveSet<Mac> primitives, PrimitiveMonitor monitor) {
+      this.primitives = primitives;
+      this.monitor = monitor;
+    }
+
+    @Override
+    public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
+      PrimitiveSet.Entry<Mac> primary = primitives.getPrimary();
+      long startTime = monitor.startTime();
+      boolean success = false;
+      try {
+        byte[] tag;
+        if (primary.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+          // Feed the format version separately rather than copy the data to append it.
+          StreamingMac.Computation computation = startComputation(primary.getPrimitive());
+          computation.update(data);
+          computation.update(FORMAT_VERSION);
+          tag = computation.doFinal();
+        } else {
+          tag = primary.getPrimitive().computeMac(data);
         }
-        return Bytes.concat(
-            primitives.getPrimary().getIdentifier(),
-            primitives.getPrimary().getPrimitive().computeMac(data));
+        success = true;
+        return primary.prependIdentifier(tag);
+      } finally {
+        monitor.onKeyOperation(
+            Mac.class,
+            COMPUTE_MAC,
+            primary,
+            KeySelection.PRIMARY,
+            data.length,
+            startTime,
+            success);
       }
+    }
 
-      @Override
-      public void verifyMac(final byte[] mac, final byte[] data) throws GeneralSecurityException {
-        if (mac.length <= CryptoFormat.NON_RAW_PREFIX_SIZE) {
-          // This also rejects raw MAC with size of 4 bytes or fewer. Those MACs are
-          // clearly insecure, thus should be discouraged.
-          throw new GeneralSecurityException("tag too short");
+    @Override
+    public void verifyMac(final byte[] mac, final byte[] data) throws GeneralSecurityException {
+      if (mac.length <= CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        // This also rejects raw MAC with size of 4 bytes or fewer. Those MACs are
+        // clearly insecure, thus should be discouraged.
+        throw new GeneralSecurityException("tag too short");
+      }
+      long firstStartTime = monitor.startTime();
+      KeyTrialOrder<Mac> prefixed = primitives.getTrialOrderByPrefix(mac);
+      List<PrimitiveSet.Entry<Mac>> entries = prefixed.getEntries();
+      byte[] macNoPrefix =
+          entries.isEmpty()
+              ? null
+              : Arrays.copyOfRange(mac, CryptoFormat.NON_RAW_PREFIX_SIZE, mac.length);
+      for (PrimitiveSet.Entry<Mac> entry : entries) {
+        long startTime = monitor.startTime();
+        try {
+          if (entry.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+            StreamingMac.Verification verification =
+                startVerification(entry.getPrimitive(), macNoPrefix);
+            verification.update(data);
+            verification.update(FORMAT_VERSION);
+            verification.verify();
+          } else {
+            entry.getPrimitive().verifyMac(macNoPrefix, data);
+          }
+          // If there is no exception, the MAC is valid and we can return.
+          prefixed.recordSuccess(entry);
+          monitor.onKeyOperation(
+              Mac.class, VERIFY_MAC, entry, KeySelection.PREFIX, data.length, startTime, true);
+          return;
+        } catch (GeneralSecurityException e) {
+          monitor.onKeyOperation(
+              Mac.class, VERIFY_MAC, entry, KeySelection.PREFIX, data.length, startTime, false);
+          prefixed.recordFailure(e);
+          // Ignored as we want to continue verification with the remaining keys.
         }
-        byte[] prefix = Arrays.copyOfRange(mac, 0, CryptoFormat.NON_RAW_PREFIX_SIZE);
-        byte[] macNoPrefix = Arrays.copyOfRange(mac, CryptoFormat.NON_RAW_PREFIX_SIZE, mac.length);
-        List<PrimitiveSet.Entry<Mac>> entries = primitives.getPrimitive(prefix);
-        for (PrimitiveSet.Entry<Mac> entry : entries) {
+      }
+
+      // None "non-raw" key matched, so let's try the raw keys (if any exist), the most successful
+      // ones first.
+      KeyTrialOrder<Mac> raw = primitives.getRawTrialOrder();
+      for (PrimitiveSet.Entry<Mac> entry : raw.getEntries()) {
+        long startTime = monitor.startTime();
+        try {
+          entry.getPrimitive().verifyMac(mac, data);
+          // If there is no exception, the MAC is valid and we can return.
+          raw.recordSuccess(entry);
+          monitor.onKeyOperation(
+              Mac.class, VERIFY_MAC, entry, KeySelection.RAW, data.length, startTime, true);
+          return;
+        } catch (GeneralSecurityException ignored) {
+          monitor.onKeyOperation(
+              Mac.class, VERIFY_MAC, entry, KeySelection.RAW, data.length, startTime, false);
+          // Ignored as we want to continue verification with other raw keys.
+        }
+      }
+      // nothing works.
+      monitor.onFailure(Mac.class, VERIFY_MAC, data.length, firstStartTime);
+      throw new GeneralSecurityException("invalid MAC");
+    }
+
+    @Override
+    public StreamingMac.Computation newComputation() throws GeneralSecurityException {
+      final PrimitiveSet.Entry<Mac> primary = primitives.getPrimary();
+      final long startTime = monitor.startTime();
+      final StreamingMac.Computation computation = startComputation(primary.getPrimitive());
+      return new StreamingMac.Computation() {
+        private long bytes = 0;
+
+        @Override
+        public void update(final byte[] data) throws GeneralSecurityException {
+          update(data, 0, data.length);
+        }
+
+        @Override
+        public void update(final byte[] data, int offset, int length)
+            throws GeneralSecurityException {
+          computation.update(data, offset, length);
+          bytes += length;
+        }
+
+        @Override
+        public void update(ByteBuffer data) throws GeneralSecurityException {
+          bytes += data.remaining();
+          computation.update(data);
+        }
+
+        @Override
+        public byte[] doFinal() throws GeneralSecurityException {
+          boolean success = false;
           try {
-            if (entry.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
-              entry.getPrimitive().verifyMac(macNoPrefix, Bytes.concat(data, formatVersion));
-            } else {
-              entry.getPrimitive().verifyMac(macNoPrefix, data);
+            if (primary.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+              computation.update(FORMAT_VERSION);
             }
-            // If there is no exception, the MAC is valid and we can return.
-            return;
-          } catch (GeneralSecurityException e) {
-            logger.info("tag prefix matches a key, but cannot verify: " + e.toString());
-            // Ignored as we want to continue verification with the remaining keys.
+            byte[] tag = primary.prependIdentifier(computation.doFinal());
+            success = true;
+            return tag;
+          } finally {
+            monitor.onKeyOperation(
+                Mac.class, COMPUTE_MAC, primary, KeySelection.PRIMARY, bytes, startTime, success);
           }
         }
+      };
+    }
 
-        // None "non-raw" key matched, so let's try the raw keys (if any exist).
-        entries = primitives.getRawPrimitives();
-        for (PrimitiveSet.Entry<Mac> entry : entries) {
-          try {
-            entry.getPrimitive().verifyMac(mac, data);
-            // If there is no exception, the MAC is valid and we can return.
-            return;
-          } catch (GeneralSecurityException ignored) {
-            // Ignored as we want to continue verification with other raw keys.
+    @Override
+    public StreamingMac.Verification newVerification(final byte[] mac)
+        throws GeneralSecurityException {
+      if (mac.length <= CryptoFormat.NON_RAW_PREFIX_SIZE) {
+        // See verifyMac.
+        throw new GeneralSecurityException("tag too short");
+      }
+      KeyTrialOrder<Mac> prefixed = primitives.getTrialOrderByPrefix(mac);
+      byte[] macNoPrefix = Arrays.copyOfRange(mac, CryptoFormat.NON_RAW_PREFIX_SIZE, mac.length);
+      List<Candidate> candidates = new ArrayList<Candidate>();
+      for (PrimitiveSet.Entry<Mac> entry : prefixed.getEntries()) {
+        candidates.add(
+            new Candidate(
+                entry,
+                prefixed,
+                KeySelection.PREFIX,
+                startVerification(entry.getPrimitive(), macNoPrefix)));
+      }
+      KeyTrialOrder<Mac> raw = primitives.getRawTrialOrder();
+      for (PrimitiveSet.Entry<Mac> entry : raw.getEntries()) {
+        candidates.add(
+            new Candidate(
+                entry, raw, KeySelection.RAW, startVerification(entry.getPrimitive(), mac)));
+      }
+      return new WrappedVerification(candidates, monitor);
+    }
+  }
+
+  /** A key that may have computed the tag of a verification, with its ongoing verification. */
+  private static final class Candidate {
+    final PrimitiveSet.Entry<Mac> entry;
+    final KeyTrialOrder<Mac> trialOrder;
+    final KeySelection selection;
+    final StreamingMac.Verification verification;
+
+    Candidate(
+        PrimitiveSet.Entry<Mac> entry,
+        KeyTrialOrder<Mac> trialOrder,
+        KeySelection selection,
+        StreamingMac.Verification verification) {
+      this.entry = entry;
+      this.trialOrder = trialOrder;
+      this.selection = selection;
+      this.verification = verification;
+    }
+  }
+
+  /** Feeds the data to all candidates, and then tries them in the order of {@link #verifyMac}. */
+  private static final class WrappedVerification implements StreamingMac.Verification {
+    private final List<Candidate> candidates;
+    private final PrimitiveMonitor monitor;
+    private final long firstStartTime;
+    private long bytes = 0;
+
+    WrappedVerification(List<Candidate> candidates, PrimitiveMonitor monitor) {
+      this.candidates = candidates;
+      this.monitor = monitor;
+      this.firstStartTime = monitor.startTime();
+    }
+
+    @Override
+    public void update(final byte[] data) throws GeneralSecurityException {
+      update(data, 0, data.length);
+    }
+
+    @Override
+    public void update(final byte[] data, int offset, int length)
+        throws GeneralSecurityException {
+      for (Candidate candidate : candidates) {
+        candidate.verification.update(data, offset, length);
+      }
+      bytes += length;
+    }
+
+    @Override
+    public void update(ByteBuffer data) throws GeneralSecurityException {
+      for (Candidate candidate : candidates) {
+        candidate.verification.update(data.duplicate());
+      }
+      bytes += data.remaining();
+      data.position(data.limit());
+    }
+
+    @Override
+    public void verify() throws GeneralSecurityException {
+      for (Candidate candidate : candidates) {
+        long startTime = monitor.startTime();
+        try {
+          if (candidate.entry.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+            candidate.verification.update(FORMAT_VERSION);
           }
+          candidate.verification.verify();
+          candidate.trialOrder.recordSuccess(candidate.entry);
+          monitor.onKeyOperation(
+              Mac.class, VERIFY_MAC, candidate.entry, candidate.selection, bytes, startTime, true);
+          return;
+        } catch (GeneralSecurityException e) {
+          monitor.onKeyOperation(
+              Mac.class, VERIFY_MAC, candidate.entry, candidate.selection, bytes, startTime, false);
+          if (candidate.selection == KeySelection.PREFIX) {
+            candidate.trialOrder.recordFailure(e);
+          }
+          // Ignored as we want to continue verification with the remaining keys.
         }
-        // nothing works.
-        throw new GeneralSecurityException("invalid MAC");
       }
-    };
+      monitor.onFailure(Mac.class, VERIFY_MAC, bytes, firstStartTime);
+      throw new GeneralSecurityException("invalid MAC");
+    }
+  }
+
+  private static StreamingMac.Computation startComputation(Mac mac)
+      throws GeneralSecurityException {
+    if (mac instanceof StreamingMac) {
+      return ((StreamingMac) mac).newComputation();
+    }
+    return new BufferedMac(mac, /* tag= */ null);
+  }
+
+  private static StreamingMac.Verification startVerification(Mac mac, final byte[] tag)
+      throws GeneralSecurityException {
+    if (mac instanceof StreamingMac) {
+      return ((StreamingMac) mac).newVerification(tag);
+    }
+    return new BufferedMac(mac, tag);
+  }
+
+  /** Buffers the data for a primitive that does not implement {@link StreamingMac}. */
+  private static final class BufferedMac
+      implements StreamingMac.Computation, StreamingMac.Verification {
+    private final Mac mac;
+    private final byte[] tag;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    BufferedMac(Mac mac, final byte[] tag) {
+      this.mac = mac;
+      this.tag = tag;
+    }
+
+    @Override
+    public void update(final byte[] data) {
+      buffer.write(data, 0, data.length);
+    }
+
+    @Override
+    public void update(final byte[] data, int offset, int length) {
+      buffer.write(data, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      buffer.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public byte[] doFinal() throws GeneralSecurityException {
+      return mac.computeMac(buffer.toByteArray());
+    }
+
+    @Override
+    public void verify() throws GeneralSecurityException {
+      mac.verifyMac(tag, buffer.toByteArray());
+    }
   }
 }
@@ -0,0 +1,121 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.mac;
+
+import com.google.crypto.tink.StreamingMac;
+import com.google.crypto.tink.annotations.Alpha;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Static methods for computing and verifying the MAC of everything that can be read from an {@link
+ * InputStream} or a {@link ReadableByteChannel}, in constant memory.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * StreamingMac mac = (StreamingMac) MacFactory.getPrimitive(keysetHandle);
+ * try (InputStream in = new FileInputStream(file)) {
+ *   byte[] tag = MacStreams.computeMac(mac, in);
+ * }
+ * }</pre>
+ *
+ * <p>The streams and channels are read to their end, but not closed.
+ */
+@Alpha
+public final class MacStreams {
+  private static final int BUFFER_SIZE = 16384;
+
+  /** @return the MAC of the bytes read from {@code in}. */
+  public static byte[] computeMac(StreamingMac mac, InputStream in)
+      throws GeneralSecurityException, IOException {
+    StreamingMac.Computation computation = mac.newComputation();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      computation.update(buffer, 0, read);
+    }
+    return computation.doFinal();
+  }
+
+  /**
+   * Verifies whether {@code tag} is a correct MAC for the bytes read from {@code in}.
+   *
+   * @throws GeneralSecurityException if {@code tag} is not a correct MAC
+   */
+  public static void verifyMac(StreamingMac mac, final byte[] tag, InputStream in)
+      throws GeneralSecurityException, IOException {
+    StreamingMac.Verification verification = mac.newVerification(tag);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      verification.update(buffer, 0, read);
+    }
+    verification.verify();
+  }
+
+  /**
+   * @return the MAC of the bytes read from {@code channel}.
+   * @throws IOException if {@code channel} is non-blocking and has no bytes available
+   */
+  public static byte[] computeMac(StreamingMac mac, ReadableByteChannel channel)
+      throws GeneralSecurityException, IOException {
+    StreamingMac.Computation computation = mac.newComputation();
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    while (read(channel, buffer)) {
+      computation.update(buffer);
+      buffer.clear();
+    }
+    return computation.doFinal();
+  }
+
+  /**
+   * Verifies whether {@code tag} is a correct MAC for the bytes read from {@code channel}.
+   *
+   * @throws GeneralSecurityException if {@code tag} is not a correct MAC
+   * @throws IOException if {@code channel} is non-blocking and has no bytes available
+   */
+  public static void verifyMac(StreamingMac mac, final byte[] tag, ReadableByteChannel channel)
+      throws GeneralSecurityException, IOException {
+    StreamingMac.Verification verification = mac.newVerification(tag);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    while (read(channel, buffer)) {
+      verification.update(buffer);
+      buffer.clear();
+    }
+    verification.verify();
+  }
+
+  /**
+   * Reads from {@code channel} into {@code buffer}, and flips it.
+   *
+   * @return false at the end of {@code channel}
+   */
+  private static boolean read(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    int read = channel.read(buffer);
+    if (read == 0) {
+      throw new IOException("no bytes available from a non-blocking channel");
+    }
+    buffer.flip();
+    return read > 0;
+  }
+
+  private MacStreams() {}
+}
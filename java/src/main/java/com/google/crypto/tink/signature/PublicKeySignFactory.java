@@ -19,6 +19,8 @@ package com.google.crypto.tink.signature;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeyManager;
 import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.PublicKeySign;
 import com.google.crypto.tink.Registry;
@@ -60,18 +62,33 @@ public final class PublicKeySignFactory {
       KeysetHandle keysetHandle, final KeyManager<PublicKeySign> keyManager)
       throws GeneralSecurityException {
     final PrimitiveSet<PublicKeySign> primitives = Registry.getPrimitives(keysetHandle, keyManager);
+    final PrimitiveMonitor monitor = Registry.getPrimitiveMonitor();
     return new PublicKeySign() {
       @Override
       public byte[] sign(final byte[] data) throws GeneralSecurityException {
-        if (primitives.getPrimary().getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
-          byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
-          return Bytes.concat(
-              primitives.getPrimary().getIdentifier(),
-              primitives.getPrimary().getPrimitive().sign(Bytes.concat(data, formatVersion)));
+        PrimitiveSet.Entry<PublicKeySign> primary = primitives.getPrimary();
+        long startTime = monitor.startTime();
+        boolean success = false;
+        try {
+          byte[] signature;
+          if (primary.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
+            byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
+            signature = primary.getPrimitive().sign(Bytes.concat(data, formatVersion));
+          } else {
+            signature = primary.getPrimitive().sign(data);
+          }
+          success = true;
+          return primary.prependIdentifier(signature);
+        } finally {
+          monitor.onKeyOperation(
+              PublicKeySign.class,
+              "sign",
+              primary,
+              KeySelection.PRIMARY,
+              data.length,
+              startTime,
+              success);
         }
-        return Bytes.concat(
-            primitives.getPrimary().getIdentifier(),
-            primitives.getPrimary().getPrimitive().sign(data));
       }
     };
   }
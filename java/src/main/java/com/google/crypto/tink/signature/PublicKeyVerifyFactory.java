@@ -18,7 +18,10 @@ package com.google.crypto.tink.signature;
 
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeyManager;
+import com.google.crypto.tink.KeyTrialOrder;
 import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.PublicKeyVerify;
 import com.google.crypto.tink.Registry;
@@ -27,7 +30,6 @@ import com.google.crypto.tink.subtle.Bytes;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * Static methods for obtaining {@link PublicKeyVerify} instances.
@@ -44,9 +46,11 @@ import java.util.logging.Logger;
  * the primitive uses the prefix of the signature to efficiently select the right key in the set. If
  * there is no key associated with the prefix or if the keys associated with the prefix do not work,
  * the primitive tries all keys with {@link com.google.crypto.tink.proto.OutputPrefixType#RAW}.
+ * Keys are tried in {@link com.google.crypto.tink.KeyTrialOrder}, i.e., the keys that recently
+ * verified most signatures come first.
  */
 public final class PublicKeyVerifyFactory {
-  private static final Logger logger = Logger.getLogger(PublicKeyVerifyFactory.class.getName());
+  private static final String VERIFY = "verify";
 
   /**
    * @return a PublicKeyVerify primitive from a {@code keysetHandle}.
@@ -67,6 +71,7 @@ public final class PublicKeyVerifyFactory {
       throws GeneralSecurityException {
     final PrimitiveSet<PublicKeyVerify> primitives =
         Registry.getPrimitives(keysetHandle, keyManager);
+    final PrimitiveMonitor monitor = Registry.getPrimitiveMonitor();
     return new PublicKeyVerify() {
       @Override
       public void verify(final byte[] signature, final byte[] data)
@@ -76,11 +81,15 @@ public final class PublicKeyVerifyFactory {
           // schemes that output signatures that small.
           throw new GeneralSecurityException("signature too short");
         }
-        byte[] prefix = Arrays.copyOfRange(signature, 0, CryptoFormat.NON_RAW_PREFIX_SIZE);
+        long firstStartTime = monitor.startTime();
+        KeyTrialOrder<PublicKeyVerify> prefixed = primitives.getTrialOrderByPrefix(signature);
+        List<PrimitiveSet.Entry<PublicKeyVerify>> entries = prefixed.getEntries();
         byte[] sigNoPrefix =
-            Arrays.copyOfRange(signature, CryptoFormat.NON_RAW_PREFIX_SIZE, signature.length);
-        List<PrimitiveSet.Entry<PublicKeyVerify>> entries = primitives.getPrimitive(prefix);
+            entries.isEmpty()
+                ? null
+                : Arrays.copyOfRange(signature, CryptoFormat.NON_RAW_PREFIX_SIZE, signature.length);
         for (PrimitiveSet.Entry<PublicKeyVerify> entry : entries) {
+          long startTime = monitor.startTime();
           try {
             if (entry.getOutputPrefixType().equals(OutputPrefixType.LEGACY)) {
               final byte[] formatVersion = new byte[] {CryptoFormat.LEGACY_START_BYTE};
@@ -90,25 +99,62 @@ public final class PublicKeyVerifyFactory {
               entry.getPrimitive().verify(sigNoPrefix, data);
             }
             // If there is no exception, the signature is valid and we can return.
+            prefixed.recordSuccess(entry);
+            monitor.onKeyOperation(
+                PublicKeyVerify.class,
+                VERIFY,
+                entry,
+                KeySelection.PREFIX,
+                data.length,
+                startTime,
+                true);
             return;
           } catch (GeneralSecurityException e) {
-            logger.info("signature prefix matches a key, but cannot verify: " + e.toString());
+            monitor.onKeyOperation(
+                PublicKeyVerify.class,
+                VERIFY,
+                entry,
+                KeySelection.PREFIX,
+                data.length,
+                startTime,
+                false);
+            prefixed.recordFailure(e);
             // Ignored as we want to continue verification with the remaining keys.
           }
         }
 
-        // None "non-raw" key matched, so let's try the raw keys (if any exist).
-        entries = primitives.getRawPrimitives();
-        for (PrimitiveSet.Entry<PublicKeyVerify> entry : entries) {
+        // None "non-raw" key matched, so let's try the raw keys (if any exist), the most successful
+        // ones first.
+        KeyTrialOrder<PublicKeyVerify> raw = primitives.getRawTrialOrder();
+        for (PrimitiveSet.Entry<PublicKeyVerify> entry : raw.getEntries()) {
+          long startTime = monitor.startTime();
           try {
             entry.getPrimitive().verify(signature, data);
             // If there is no exception, the signature is valid and we can return.
+            raw.recordSuccess(entry);
+            monitor.onKeyOperation(
+                PublicKeyVerify.class,
+                VERIFY,
+                entry,
+                KeySelection.RAW,
+                data.length,
+                startTime,
+                true);
             return;
           } catch (GeneralSecurityException e) {
+            monitor.onKeyOperation(
+                PublicKeyVerify.class,
+                VERIFY,
+                entry,
+                KeySelection.RAW,
+                data.length,
+                startTime,
+                false);
             // Ignored as we want to continue verification with raw keys.
           }
         }
         // nothing works.
+        monitor.onFailure(PublicKeyVerify.class, VERIFY, data.length, firstStartTime);
         throw new GeneralSecurityException("invalid signature");
       }
     };
@@ -16,6 +16,8 @@
 
 package com.google.crypto.tink.streamingaead;
 
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.StreamingAead;
 import com.google.crypto.tink.subtle.RewindableReadableByteChannel;
@@ -30,6 +32,8 @@ import javax.annotation.concurrent.GuardedBy;
  * A decrypter for ciphertext given in a {@link ReadableByteChannel}.
  */
 final class ReadableByteChannelDecrypter implements ReadableByteChannel {
+  private static final String OPERATION = "newDecryptingChannel";
+
   @GuardedBy("this")
   boolean attemptedMatching;
   @GuardedBy("this")
@@ -38,6 +42,7 @@ final class ReadableByteChannelDecrypter implements ReadableByteChannel {
   RewindableReadableByteChannel ciphertextChannel;
 
   PrimitiveSet<StreamingAead> primitives;
+  PrimitiveMonitor monitor;
   byte[] associatedData;
 
   /**
@@ -56,10 +61,12 @@ final class ReadableByteChannelDecrypter implements ReadableByteChannel {
    * is removed once the matching is successful.
    */
   public ReadableByteChannelDecrypter(PrimitiveSet<StreamingAead> primitives,
-      ReadableByteChannel ciphertextChannel, final byte[] associatedData) {
+      PrimitiveMonitor monitor, ReadableByteChannel ciphertextChannel,
+      final byte[] associatedData) {
     this.attemptedMatching = false;
     this.matchingChannel = null;
     this.primitives = primitives;
+    this.monitor = monitor;
     this.ciphertextChannel = new RewindableReadableByteChannel(ciphertextChannel);
     this.associatedData = associatedData.clone();
   }
@@ -77,6 +84,7 @@ final class ReadableByteChannelDecrypter implements ReadableByteChannel {
         throw new IOException("No matching key found for the ciphertext in the stream.");
       }
       attemptedMatching = true;
+      long firstStartTime = monitor.startTime();
       List<PrimitiveSet.Entry<StreamingAead>> entries;
       try {
         entries = primitives.getRawPrimitives();
@@ -84,6 +92,7 @@ final class ReadableByteChannelDecrypter implements ReadableByteChannel {
         throw new IOException("Keyset failure: ", e);
       }
       for (PrimitiveSet.Entry<StreamingAead> entry : entries) {
+        long startTime = monitor.startTime();
         try {
           ReadableByteChannel attemptedChannel =
               entry.getPrimitive().newDecryptingChannel(ciphertextChannel, associatedData);
@@ -101,6 +110,10 @@ final class ReadableByteChannelDecrypter implements ReadableByteChannel {
             ciphertextChannel.rewind();
             attemptedMatching = false;
           }
+          if (retValue != 0) {
+            monitor.onKeyOperation(
+                StreamingAead.class, OPERATION, entry, KeySelection.RAW, -1, startTime, true);
+          }
           return retValue;
         } catch (IOException e) {
           // Try another key.
@@ -108,13 +121,18 @@ final class ReadableByteChannelDecrypter implements ReadableByteChannel {
           // of I/O failures.
           // TODO(b/66098906): Use a subclass of IOException.
           ciphertextChannel.rewind();
+          monitor.onKeyOperation(
+              StreamingAead.class, OPERATION, entry, KeySelection.RAW, -1, startTime, false);
           continue;
         } catch (GeneralSecurityException e) {
           // Try another key.
           ciphertextChannel.rewind();
+          monitor.onKeyOperation(
+              StreamingAead.class, OPERATION, entry, KeySelection.RAW, -1, startTime, false);
           continue;
         }
       }
+      monitor.onFailure(StreamingAead.class, OPERATION, -1, firstStartTime);
       throw new IOException("No matching key found for the ciphertext in the stream.");
     }
   }
@@ -16,6 +16,8 @@
 
 package com.google.crypto.tink.streamingaead;
 
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.StreamingAead;
 import java.io.IOException;
@@ -30,6 +32,8 @@ import javax.annotation.concurrent.GuardedBy;
  * A decrypter for ciphertext given in a {@link SeekableByteChannel}.
  */
 final class SeekableByteChannelDecrypter implements SeekableByteChannel {
+  private static final String OPERATION = "newSeekableDecryptingChannel";
+
   @GuardedBy("this")
   boolean attemptedMatching;
   @GuardedBy("this")
@@ -42,6 +46,7 @@ final class SeekableByteChannelDecrypter implements SeekableByteChannel {
   long startingPosition;  // Position at which the ciphertext should begin.
 
   PrimitiveSet<StreamingAead> primitives;
+  PrimitiveMonitor monitor;
   byte[] associatedData;
 
   /**
@@ -56,10 +61,12 @@ final class SeekableByteChannelDecrypter implements SeekableByteChannel {
    * is then used exclusively on subsequent {@code read()}-calls.
    */
   public SeekableByteChannelDecrypter(PrimitiveSet<StreamingAead> primitives,
-      SeekableByteChannel ciphertextChannel, final byte[] associatedData) throws IOException {
+      PrimitiveMonitor monitor, SeekableByteChannel ciphertextChannel,
+      final byte[] associatedData) throws IOException {
     this.attemptedMatching = false;
     this.matchingChannel = null;
     this.primitives = primitives;
+    this.monitor = monitor;
     this.ciphertextChannel = ciphertextChannel;
     this.cachedPosition = -1;
     this.startingPosition = ciphertextChannel.position();
@@ -79,6 +86,7 @@ final class SeekableByteChannelDecrypter implements SeekableByteChannel {
         throw new IOException("No matching key found for the ciphertext in the stream.");
       }
       attemptedMatching = true;
+      long firstStartTime = monitor.startTime();
       List<PrimitiveSet.Entry<StreamingAead>> entries;
       try {
         entries = primitives.getRawPrimitives();
@@ -86,6 +94,7 @@ final class SeekableByteChannelDecrypter implements SeekableByteChannel {
         throw new IOException("Keyset failure: ", e);
       }
       for (PrimitiveSet.Entry<StreamingAead> entry : entries) {
+        long startTime = monitor.startTime();
         try {
           SeekableByteChannel attemptedChannel =
               entry.getPrimitive().newSeekableDecryptingChannel(ciphertextChannel, associatedData);
@@ -106,6 +115,10 @@ final class SeekableByteChannelDecrypter implements SeekableByteChannel {
             attemptedMatching = false;
           }
           matchingChannel = attemptedChannel;
+          if (retValue != 0) {
+            monitor.onKeyOperation(
+                StreamingAead.class, OPERATION, entry, KeySelection.RAW, -1, startTime, true);
+          }
           return retValue;
         } catch (IOException e) {
           // Try another key.
@@ -113,13 +126,18 @@ final class SeekableByteChannelDecrypter implements SeekableByteChannel {
           // of I/O failures.
           // TODO(b/66098906): Use a subclass of IOException.
           ciphertextChannel.position(startingPosition);
+          monitor.onKeyOperation(
+              StreamingAead.class, OPERATION, entry, KeySelection.RAW, -1, startTime, false);
           continue;
         } catch (GeneralSecurityException e) {
           // Try another key.
           ciphertextChannel.position(startingPosition);
+          monitor.onKeyOperation(
+              StreamingAead.class, OPERATION, entry, KeySelection.RAW, -1, startTime, false);
           continue;
         }
       }
+      monitor.onFailure(StreamingAead.class, OPERATION, -1, firstStartTime);
       throw new IOException("No matching key found for the ciphertext in the stream.");
     }
   }
@@ -72,6 +72,6 @@ public final class StreamingAeadFactory {
       final KeyManager<StreamingAead> keyManager)
       throws GeneralSecurityException {
     final PrimitiveSet<StreamingAead> primitives = Registry.getPrimitives(keysetHandle, keyManager);
-    return new StreamingAeadHelper(primitives);
+    return new StreamingAeadHelper(primitives, Registry.getPrimitiveMonitor());
   }
 }
@@ -16,6 +16,8 @@
 
 package com.google.crypto.tink.streamingaead;
 
+import com.google.crypto.tink.PrimitiveMonitor;
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
 import com.google.crypto.tink.PrimitiveSet;
 import com.google.crypto.tink.StreamingAead;
 import java.io.IOException;
@@ -31,6 +33,7 @@ import java.security.GeneralSecurityException;
  */
 final class StreamingAeadHelper implements StreamingAead {
   PrimitiveSet<StreamingAead> primitives;
+  PrimitiveMonitor monitor;
 
   /**
    * Creates a helper that uses the provided primitives for encryption
@@ -38,34 +41,53 @@ final class StreamingAeadHelper implements StreamingAead {
    * For encryption it uses the primitive corresponding to the primary key.
    * For decryption it uses an enabled primitive that matches the given ciphertext.
    */
-  public StreamingAeadHelper(PrimitiveSet<StreamingAead> primitives)
+  public StreamingAeadHelper(PrimitiveSet<StreamingAead> primitives, PrimitiveMonitor monitor)
       throws GeneralSecurityException {
     if (primitives.getPrimary() == null) {
       throw new GeneralSecurityException("Missing primary primitive.");
     }
     this.primitives = primitives;
+    this.monitor = monitor;
   }
 
   @Override
   public WritableByteChannel newEncryptingChannel(
       WritableByteChannel ciphertextDestination, byte[] associatedData)
       throws GeneralSecurityException, IOException {
-    return primitives.getPrimary().getPrimitive()
-        .newEncryptingChannel(ciphertextDestination, associatedData);
+    PrimitiveSet.Entry<StreamingAead> primary = primitives.getPrimary();
+    long startTime = monitor.startTime();
+    boolean success = false;
+    try {
+      WritableByteChannel channel =
+          primary.getPrimitive().newEncryptingChannel(ciphertextDestination, associatedData);
+      success = true;
+      return channel;
+    } finally {
+      monitor.onKeyOperation(
+          StreamingAead.class,
+          "newEncryptingChannel",
+          primary,
+          KeySelection.PRIMARY,
+          /* bytes= */ -1,
+          startTime,
+          success);
+    }
   }
 
   @Override
   public ReadableByteChannel newDecryptingChannel(
       ReadableByteChannel ciphertextChannel, byte[] associatedData)
       throws GeneralSecurityException, IOException {
-    return new ReadableByteChannelDecrypter(primitives, ciphertextChannel, associatedData);
+    return new ReadableByteChannelDecrypter(
+        primitives, monitor, ciphertextChannel, associatedData);
   }
 
   @Override
   public SeekableByteChannel newSeekableDecryptingChannel(
       SeekableByteChannel ciphertextChannel, byte[] associatedData)
       throws GeneralSecurityException, IOException {
-    return new SeekableByteChannelDecrypter(primitives, ciphertextChannel, associatedData);
+    return new SeekableByteChannelDecrypter(
+        primitives, monitor, ciphertextChannel, associatedData);
   }
 
   @Override
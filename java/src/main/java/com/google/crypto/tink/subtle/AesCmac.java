@@ -23,70 +23,125 @@ import java.util.Arrays;
 import java.util.Collection;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
-/** An implementation of CMAC following https://tools.ietf.org/html/rfc4493 */
+/**
+ * An implementation of CMAC following https://tools.ietf.org/html/rfc4493
+ *
+ * <p>The CMAC chain over all blocks but the last is a CBC encryption with a zero IV, whose last
+ * ciphertext block is the chaining value. It is computed with {@code AES/CBC/NoPadding} in a few
+ * large calls, rather than one call per block.
+ */
 public final class AesCmac implements Mac {
   private static final Collection<Integer> KEY_SIZES = Arrays.asList(16, 24, 32);
+  // The number of bytes passed to the CBC engine at once.
+  private static final int CHUNK_SIZE = 4096;
+
+  /** A CBC engine with the buffers of a computation, which are reused. */
+  private static final class CbcEngine {
+    final Cipher cbc;
+    // The discarded CBC output of all blocks before the tail.
+    final byte[] chunk = new byte[CHUNK_SIZE];
+    // The last two blocks of the data, at most.
+    final byte[] tail = new byte[2 * AesUtil.BLOCK_SIZE];
+
+    CbcEngine(Cipher cbc) {
+      this.cbc = cbc;
+    }
+  }
 
   private final SecretKey keySpec;
+  // CBC engines initialized with the key and a zero IV, which are put back after successful
+  // operations.
+  private final EnginePool<CbcEngine> engines;
   private byte[] subKey1;
   private byte[] subKey2;
 
-  private static Cipher instance() throws GeneralSecurityException {
-    return EngineFactory.CIPHER.getInstance("AES/ECB/NoPadding");
-  }
-
   public AesCmac(final byte[] key) throws GeneralSecurityException {
     if (!KEY_SIZES.contains(key.length)) {
       throw new InvalidKeyException("invalid key size");
     }
 
     keySpec = new SecretKeySpec(key, "AES");
+    engines =
+        new EnginePool<CbcEngine>(
+            new EnginePool.EngineSource<CbcEngine>() {
+              @Override
+              public CbcEngine newEngine() throws GeneralSecurityException {
+                Cipher aes = EngineFactory.CIPHER.getInstance("AES/CBC/NoPadding");
+                byte[] zeroIv = new byte[AesUtil.BLOCK_SIZE];
+                aes.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(zeroIv));
+                return new CbcEngine(aes);
+              }
+            });
     generateSubKeys();
   }
 
   // https://tools.ietf.org/html/rfc4493#section-2.4
   @Override
   public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
-    Cipher aes = instance();
-    aes.init(Cipher.ENCRYPT_MODE, keySpec);
+    return computeMac(data, null);
+  }
+
+  /**
+   * Computes the CMAC of {@code data} with its last 16 bytes xored with {@code xorEnd}, if not
+   * null, without copying {@code data}. This is the last step of S2V in AES-SIV.
+   */
+  byte[] computeMac(final byte[] data, final byte[] xorEnd) throws GeneralSecurityException {
+    if (xorEnd != null && data.length < AesUtil.BLOCK_SIZE) {
+      throw new IllegalArgumentException("data must be at least a block");
+    }
+    CbcEngine engine = engines.take();
 
     // n is the number of blocks (including partial blocks) into which the data
     // is divided. Empty data is divided into 1 empty block.
     // Step 2: n = ceil(length / blocksize)
     // TODO(b/68969256): Adding a test that computes a CMAC of length 2**31-1.
-    int n = Math.max(1, (int) Math.ceil((double) data.length / AesUtil.BLOCK_SIZE));
+    int n =
+        Math.max(1, (int) (((long) data.length + AesUtil.BLOCK_SIZE - 1) / AesUtil.BLOCK_SIZE));
 
     // Step 3
     boolean flag = (n * AesUtil.BLOCK_SIZE == data.length);
 
-    // Step 4
-    byte[] mLast;
-    if (flag) {
-      mLast =
-          Bytes.xor(data, (n - 1) * AesUtil.BLOCK_SIZE, subKey1, 0, AesUtil.BLOCK_SIZE);
-    } else {
-      mLast =
-          Bytes.xor(
-              AesUtil.cmacPad(
-                  Arrays.copyOfRange(data, (n - 1) * AesUtil.BLOCK_SIZE, data.length)),
-              subKey2);
+    // Steps 5 and 6 for all blocks but the last two, in large chunks.
+    int tailStart = Math.max(0, (n - 2) * AesUtil.BLOCK_SIZE);
+    for (int offset = 0; offset < tailStart; offset += CHUNK_SIZE) {
+      int length = Math.min(CHUNK_SIZE, tailStart - offset);
+      int unusedWritten = engine.cbc.update(data, offset, length, engine.chunk, 0);
     }
 
-    // Step 5
-    byte[] x = new byte[AesUtil.BLOCK_SIZE];
+    // The last two blocks are copied, so that they can be modified.
+    byte[] tail = engine.tail;
+    int tailLength = data.length - tailStart;
+    System.arraycopy(data, tailStart, tail, 0, tailLength);
+    if (xorEnd != null) {
+      for (int i = 0; i < AesUtil.BLOCK_SIZE; i++) {
+        tail[tailLength - AesUtil.BLOCK_SIZE + i] ^= xorEnd[i];
+      }
+    }
 
-    // Step 6
-    byte[] y;
-    for (int i = 0; i < n - 1; i++) {
-      y = Bytes.xor(x, 0, data, i * AesUtil.BLOCK_SIZE, AesUtil.BLOCK_SIZE);
-      x = aes.doFinal(y);
+    // Step 4
+    int lastStart = (n - 1) * AesUtil.BLOCK_SIZE - tailStart;
+    int end = lastStart + AesUtil.BLOCK_SIZE;
+    byte[] subKey = subKey1;
+    if (!flag) {
+      subKey = subKey2;
+      tail[tailLength] = (byte) 0x80;
+      for (int i = tailLength + 1; i < end; i++) {
+        tail[i] = 0;
+      }
+    }
+    for (int i = 0; i < AesUtil.BLOCK_SIZE; i++) {
+      tail[lastStart + i] ^= subKey[i];
     }
-    y = Bytes.xor(mLast, x);
 
-    // Step 7
-    return aes.doFinal(y);
+    // Steps 6 and 7 for the last two blocks. Cipher.doFinal is copy-safe, so the tail is
+    // encrypted in place.
+    int unusedWritten = engine.cbc.doFinal(tail, 0, end, tail, 0);
+    byte[] mac = Arrays.copyOfRange(tail, lastStart, end);
+    engines.release(engine);
+    return mac;
   }
 
   @Override
@@ -98,10 +153,10 @@ public final class AesCmac implements Mac {
 
   // https://tools.ietf.org/html/rfc4493#section-2.3
   private void generateSubKeys() throws GeneralSecurityException {
-    Cipher aes = instance();
-    aes.init(Cipher.ENCRYPT_MODE, keySpec);
+    CbcEngine engine = engines.take();
     byte[] zeroes = new byte[AesUtil.BLOCK_SIZE];
-    byte[] l = aes.doFinal(zeroes);
+    byte[] l = engine.cbc.doFinal(zeroes);
+    engines.release(engine);
     subKey1 = AesUtil.dbl(l);
     subKey2 = AesUtil.dbl(subKey1);
   }
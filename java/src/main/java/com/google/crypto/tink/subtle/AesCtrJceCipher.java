@@ -16,6 +16,7 @@
 
 package com.google.crypto.tink.subtle;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
@@ -39,13 +40,26 @@ public final class AesCtrJceCipher implements IndCpaCipher {
   // 2^-33 (i.e., less than one in eight billion).
   private static final int MIN_IV_SIZE_IN_BYTES = 12;
 
+  private static final EnginePool.EngineSource<Cipher> ENGINE_SOURCE =
+      new EnginePool.EngineSource<Cipher>() {
+        @Override
+        public Cipher newEngine() throws GeneralSecurityException {
+          return EngineFactory.CIPHER.getInstance(CIPHER_ALGORITHM);
+        }
+      };
+
   private final SecretKeySpec keySpec;
   private final int ivSize;
   private final int blockSize;
+  // Engines are initialized with the key and an iv before every use, so they are put back even
+  // after an exception.
+  private final EnginePool<Cipher> engines = new EnginePool<Cipher>(ENGINE_SOURCE);
 
   public AesCtrJceCipher(final byte[] key, int ivSize) throws GeneralSecurityException {
     this.keySpec = new SecretKeySpec(key, KEY_ALGORITHM);
-    this.blockSize = EngineFactory.CIPHER.getInstance(CIPHER_ALGORITHM).getBlockSize();
+    Cipher engine = takeEngine();
+    this.blockSize = engine.getBlockSize();
+    releaseEngine(engine);
     if (ivSize < MIN_IV_SIZE_IN_BYTES || ivSize > blockSize) {
       throw new GeneralSecurityException("invalid IV size");
     }
@@ -91,6 +105,73 @@ public final class AesCtrJceCipher implements IndCpaCipher {
     return plaintext;
   }
 
+  /**
+   * Encrypts the remaining bytes of {@code plaintext} like {@link #encrypt(byte[])}, and writes iv
+   * || raw ciphertext to {@code ciphertext}. {@code plaintext} may overlap {@code ciphertext} if
+   * both are backed by the same array.
+   */
+  void encrypt(ByteBuffer plaintext, ByteBuffer ciphertext) throws GeneralSecurityException {
+    int plaintextLength = plaintext.remaining();
+    if (plaintextLength > Integer.MAX_VALUE - ivSize) {
+      throw new GeneralSecurityException(
+          "plaintext length can not exceed " + (Integer.MAX_VALUE - ivSize));
+    }
+    if (ciphertext.remaining() < ivSize + plaintextLength) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    byte[] iv = Random.randBytes(ivSize);
+    // Cipher.doFinal is copy-safe. The iv is written last, so that it does not overwrite
+    // plaintext that has not been encrypted yet.
+    int firstPosition = ciphertext.position();
+    ciphertext.position(firstPosition + ivSize);
+    Cipher engine = takeEngine();
+    try {
+      init(engine, iv, 0, true);
+      int numBytes = engine.doFinal(plaintext, ciphertext);
+      if (numBytes != plaintextLength) {
+        throw new GeneralSecurityException("stored output's length does not match input's length");
+      }
+    } finally {
+      releaseEngine(engine);
+    }
+    int lastPosition = ciphertext.position();
+    ciphertext.position(firstPosition);
+    ciphertext.put(iv);
+    ciphertext.position(lastPosition);
+  }
+
+  /**
+   * Decrypts the remaining bytes of {@code ciphertext}, with format iv || raw ciphertext, and
+   * writes the plaintext to {@code plaintext}. {@code ciphertext} may overlap {@code plaintext} if
+   * both are backed by the same array.
+   */
+  void decrypt(ByteBuffer ciphertext, ByteBuffer plaintext) throws GeneralSecurityException {
+    if (ciphertext.remaining() < ivSize) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (plaintext.remaining() < ciphertext.remaining() - ivSize) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    byte[] iv = new byte[ivSize];
+    ciphertext.get(iv);
+    int inputLen = ciphertext.remaining();
+    Cipher engine = takeEngine();
+    try {
+      init(engine, iv, 0, false);
+      int numBytes = engine.doFinal(ciphertext, plaintext);
+      if (numBytes != inputLen) {
+        throw new GeneralSecurityException("stored output's length does not match input's length");
+      }
+    } finally {
+      releaseEngine(engine);
+    }
+  }
+
+  /** @return the size of the iv that is prepended to every ciphertext. */
+  int getIvSize() {
+    return ivSize;
+  }
+
   private void doCtr(
       final byte[] input,
       int inputOffset,
@@ -100,10 +181,55 @@ public final class AesCtrJceCipher implements IndCpaCipher {
       final byte[] iv,
       boolean encrypt)
       throws GeneralSecurityException {
-    Cipher cipher = EngineFactory.CIPHER.getInstance(CIPHER_ALGORITHM);
+    Cipher engine = takeEngine();
+    try {
+      doCtr(engine, input, inputOffset, inputLen, output, outputOffset, iv, 0, encrypt);
+    } finally {
+      releaseEngine(engine);
+    }
+  }
+
+  /**
+   * Like {@link #doCtr(byte[], int, int, byte[], int, byte[], boolean)}, but re-initializes the
+   * given {@code engine} with the iv at {@code ivOffset} in {@code iv}, so that batches of messages
+   * can share one engine from {@link #takeEngine}.
+   */
+  void doCtr(
+      Cipher engine,
+      final byte[] input,
+      int inputOffset,
+      int inputLen,
+      byte[] output,
+      int outputOffset,
+      final byte[] iv,
+      int ivOffset,
+      boolean encrypt)
+      throws GeneralSecurityException {
+    init(engine, iv, ivOffset, encrypt);
+    int numBytes = engine.doFinal(input, inputOffset, inputLen, output, outputOffset);
+    if (numBytes != inputLen) {
+      throw new GeneralSecurityException("stored output's length does not match input's length");
+    }
+  }
+
+  /**
+   * @return an AES-CTR engine from the pool of this instance, to be passed to {@link #doCtr} and
+   *     then put back with {@link #releaseEngine}.
+   */
+  Cipher takeEngine() throws GeneralSecurityException {
+    return engines.take();
+  }
+
+  /** Puts {@code engine}, which was returned by {@link #takeEngine}, back into the pool. */
+  void releaseEngine(Cipher engine) {
+    engines.release(engine);
+  }
+
+  private void init(Cipher cipher, final byte[] iv, int ivOffset, boolean encrypt)
+      throws GeneralSecurityException {
     // The counter is big-endian. The counter is composed of iv and (blockSize - ivSize) of zeros.
     byte[] counter = new byte[blockSize];
-    System.arraycopy(iv, 0, counter, 0, ivSize);
+    System.arraycopy(iv, ivOffset, counter, 0, ivSize);
 
     IvParameterSpec paramSpec = new IvParameterSpec(counter);
     if (encrypt) {
@@ -111,9 +237,5 @@ public final class AesCtrJceCipher implements IndCpaCipher {
     } else {
       cipher.init(Cipher.DECRYPT_MODE, keySpec, paramSpec);
     }
-    int numBytes = cipher.doFinal(input, inputOffset, inputLen, output, outputOffset);
-    if (numBytes != inputLen) {
-      throw new GeneralSecurityException("stored output's length does not match input's length");
-    }
   }
 }
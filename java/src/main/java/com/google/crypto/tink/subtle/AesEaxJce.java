@@ -18,11 +18,8 @@ package com.google.crypto.tink.subtle;
 
 import com.google.crypto.tink.Aead;
 import java.security.GeneralSecurityException;
-import java.util.Arrays;
 import javax.crypto.AEADBadTagException;
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -39,33 +36,80 @@ import javax.crypto.spec.SecretKeySpec;
  *   <li>Nonces are chosen by the implementation at random. Their size is 12 or 16 bytes.
  * </ul>
  *
- * <p>Plans: The current implementation is slow since it uses JCA and only assumes that the
- * encryption modes "AES/ECB/NOPADDING" and "AES/CTR/NOPADDING" are implemented. Our plan is to
- * implement a native version of EAX.
+ * <p>The three OMACs of a message, over the nonce, the associated data and the ciphertext, are
+ * CMACs computed with {@code AES/CBC/NoPadding} in a few large calls, and the payload is encrypted
+ * with a single {@code AES/CTR/NoPadding} call.
  */
 public final class AesEaxJce implements Aead {
   static final int BLOCK_SIZE_IN_BYTES = 16;
   static final int TAG_SIZE_IN_BYTES = 16;
+  // The number of bytes passed to the CBC engine at once.
+  private static final int CHUNK_SIZE = 4096;
 
-  // The constants B and P derived from the key. These constants are used for computing an OMAC.
+  /** A CBC engine with the buffers of an OMAC computation, which are reused. */
+  private static final class CbcEngine {
+    final Cipher cbc;
+    // The discarded CBC output of all blocks before the last.
+    final byte[] chunk = new byte[CHUNK_SIZE];
+    final byte[] lastBlock = new byte[BLOCK_SIZE_IN_BYTES];
+
+    CbcEngine(Cipher cbc) {
+      this.cbc = cbc;
+    }
+  }
+
+  private static final EnginePool.EngineSource<Cipher> CTR_SOURCE =
+      new EnginePool.EngineSource<Cipher>() {
+        @Override
+        public Cipher newEngine() throws GeneralSecurityException {
+          return EngineFactory.CIPHER.getInstance("AES/CTR/NOPADDING");
+        }
+      };
+
+  private static final EnginePool.EngineSource<CbcEngine> CBC_SOURCE =
+      new EnginePool.EngineSource<CbcEngine>() {
+        @Override
+        public CbcEngine newEngine() throws GeneralSecurityException {
+          return new CbcEngine(EngineFactory.CIPHER.getInstance("AES/CBC/NOPADDING"));
+        }
+      };
+
+  // The constants B = L·x and P = L·x^2 derived from the key. These constants are used for
+  // computing an OMAC.
   private final byte[] b;
   private final byte[] p;
+  // The encryptions of the first blocks [t]_16 of the OMACs with tags t = 0, 1 and 2, which are
+  // the IVs of the CBC passes over the rest of their input.
+  private final byte[][] tagBlocks;
+  // The OMACs of empty inputs with tags t = 0, 1 and 2.
+  private final byte[][] emptyOmacs;
 
   private final SecretKeySpec keySpec;
   private final int ivSizeInBytes;
+  // CBC and CTR engines are initialized with the key and an IV before every use.
+  private final EnginePool<CbcEngine> cbcs = new EnginePool<CbcEngine>(CBC_SOURCE);
+  private final EnginePool<Cipher> ctrs = new EnginePool<Cipher>(CTR_SOURCE);
 
-  @SuppressWarnings("InsecureCryptoUsage")
   public AesEaxJce(final byte[] key, int ivSizeInBytes) throws GeneralSecurityException {
     if (ivSizeInBytes != 12 && ivSizeInBytes != 16) {
       throw new IllegalArgumentException("IV size should be either 12 or 16 bytes");
     }
     this.ivSizeInBytes = ivSizeInBytes;
     keySpec = new SecretKeySpec(key, "AES");
-    Cipher ecb = Cipher.getInstance("AES/ECB/NOPADDING");
+    @SuppressWarnings("InsecureCryptoUsage")
+    Cipher ecb = EngineFactory.CIPHER.getInstance("AES/ECB/NOPADDING");
     ecb.init(Cipher.ENCRYPT_MODE, keySpec);
     byte[] block = ecb.doFinal(new byte[BLOCK_SIZE_IN_BYTES]);
     b = multiplyByX(block);
     p = multiplyByX(b);
+    tagBlocks = new byte[3][];
+    emptyOmacs = new byte[3][];
+    for (int tag = 0; tag < 3; tag++) {
+      block = new byte[BLOCK_SIZE_IN_BYTES];
+      block[BLOCK_SIZE_IN_BYTES - 1] = (byte) tag;
+      tagBlocks[tag] = ecb.doFinal(block);
+      emptyOmacs[tag] = ecb.doFinal(xor(block, b));
+    }
   }
 
   /** Computes the xor of two byte arrays of equal size. */
@@ -97,62 +141,51 @@ public final class AesEaxJce implements Aead {
   }
 
   /**
-   * Pads the last block for OMAC. If the last block is smaller than 16 bytes then a bitstring
-   * starting with 1 and followed by 0's is appended and the result is XORed with p. If the last
-   * block is 16 bytes long then the last block is XORed with b.
+   * Computes an OMAC, i.e., the CMAC of [tag]_16 || data. The first block is precomputed, and the
+   * remaining blocks are encrypted by a CBC pass that starts from it.
    *
-   * @param data A block or partial block of size 1 .. 16 bytes.
-   * @return The padded block.
-   */
-  private byte[] pad(final byte[] data) {
-    if (data.length == BLOCK_SIZE_IN_BYTES) {
-      return xor(data, b);
-    } else {
-      byte[] res = Arrays.copyOf(p, BLOCK_SIZE_IN_BYTES);
-      for (int i = 0; i < data.length; i++) {
-        res[i] ^= data[i];
-      }
-      res[data.length] = (byte) (res[data.length] ^ 0x80);
-      return res;
-    }
-  }
-
-  /**
-   * Computes an OMAC.
-   *
-   * @param ecb A cipher initialized with the key of this class using AES/ECB/NOPadding and
-   *     encryption mode.
+   * @param engine A CBC engine and its buffers, which is initialized here.
    * @param tag The OMAC tag (0 for nonce, 1 for aad, 2 for ciphertext)
    * @param data The array containing the data to MAC.
    * @param offset The start of the data to MAC.
    * @param length The length of the data to MAC.
    * @return The 16 byte long OMAC
-   * @throws IllegalBlockSizeException, BadPaddingException This should not happen.
    */
-  private byte[] omac(Cipher ecb, int tag, final byte[] data, int offset, int length)
-      throws IllegalBlockSizeException, BadPaddingException {
+  private byte[] omac(CbcEngine engine, int tag, final byte[] data, int offset, int length)
+      throws GeneralSecurityException {
     assert length >= 0;
-    assert 0 <= tag && tag <= 3;
-    byte[] block = new byte[BLOCK_SIZE_IN_BYTES];
-    block[BLOCK_SIZE_IN_BYTES - 1] = (byte) tag;
+    assert 0 <= tag && tag <= 2;
     if (length == 0) {
-      return ecb.doFinal(xor(block, b));
+      return emptyOmacs[tag].clone();
+    }
+    engine.cbc.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(tagBlocks[tag]));
+    // All blocks but the last, which may be partial.
+    int lastStart = (length - 1) / BLOCK_SIZE_IN_BYTES * BLOCK_SIZE_IN_BYTES;
+    for (int position = 0; position < lastStart; position += CHUNK_SIZE) {
+      int chunkLength = Math.min(CHUNK_SIZE, lastStart - position);
+      int unusedWritten =
+          engine.cbc.update(data, offset + position, chunkLength, engine.chunk, 0);
     }
-    block = ecb.doFinal(block);
-    int position = 0;
-    while (length - position > BLOCK_SIZE_IN_BYTES) {
-      for (int i = 0; i < BLOCK_SIZE_IN_BYTES; i++) {
-        block[i] ^= data[offset + position + i];
+    // Pads the last block. If it is smaller than 16 bytes then a bitstring starting with 1 and
+    // followed by 0's is appended and the result is XORed with p. If it is 16 bytes long then it
+    // is XORed with b.
+    byte[] last = engine.lastBlock;
+    int lastLength = length - lastStart;
+    byte[] subKey = b;
+    if (lastLength < BLOCK_SIZE_IN_BYTES) {
+      subKey = p;
+      last[lastLength] = (byte) 0x80;
+      for (int i = lastLength + 1; i < BLOCK_SIZE_IN_BYTES; i++) {
+        last[i] = 0;
       }
-      block = ecb.doFinal(block);
-      position += BLOCK_SIZE_IN_BYTES;
     }
-    byte[] padded = pad(Arrays.copyOfRange(data, offset + position, offset + length));
-    block = xor(block, padded);
-    return ecb.doFinal(block);
+    System.arraycopy(data, offset + lastStart, last, 0, lastLength);
+    for (int i = 0; i < BLOCK_SIZE_IN_BYTES; i++) {
+      last[i] ^= subKey[i];
+    }
+    return engine.cbc.doFinal(last);
   }
 
-  @SuppressWarnings("InsecureCryptoUsage")
   @Override
   public byte[] encrypt(final byte[] plaintext, final byte[] associatedData)
       throws GeneralSecurityException {
@@ -161,17 +194,21 @@ public final class AesEaxJce implements Aead {
       throw new GeneralSecurityException("plaintext too long");
     }
     byte[] ciphertext = new byte[ivSizeInBytes + plaintext.length + TAG_SIZE_IN_BYTES];
-    byte[] iv = Random.randBytes(ivSizeInBytes);
-    System.arraycopy(iv, 0, ciphertext, 0, ivSizeInBytes);
+    Random.randBytes(ciphertext, 0, ivSizeInBytes);
 
-    Cipher ecb = Cipher.getInstance("AES/ECB/NOPADDING");
-    ecb.init(Cipher.ENCRYPT_MODE, keySpec);
-    byte[] n = omac(ecb, 0, iv, 0, iv.length);
-    byte[] h = omac(ecb, 1, associatedData, 0, associatedData.length);
-    Cipher ctr = Cipher.getInstance("AES/CTR/NOPADDING");
-    ctr.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(n));
-    ctr.doFinal(plaintext, 0, plaintext.length, ciphertext, ivSizeInBytes);
-    byte[] t = omac(ecb, 2, ciphertext, ivSizeInBytes, plaintext.length);
+    CbcEngine cbc = cbcs.take();
+    byte[] n = omac(cbc, 0, ciphertext, 0, ivSizeInBytes);
+    byte[] h = omac(cbc, 1, associatedData, 0, associatedData.length);
+    Cipher ctr = ctrs.take();
+    try {
+      ctr.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(n));
+      int unusedWritten =
+          ctr.doFinal(plaintext, 0, plaintext.length, ciphertext, ivSizeInBytes);
+    } finally {
+      ctrs.release(ctr);
+    }
+    byte[] t = omac(cbc, 2, ciphertext, ivSizeInBytes, plaintext.length);
+    cbcs.release(cbc);
     int offset = plaintext.length + ivSizeInBytes;
     for (int i = 0; i < TAG_SIZE_IN_BYTES; i++) {
       ciphertext[offset + i] = (byte) (h[i] ^ n[i] ^ t[i]);
@@ -179,7 +216,6 @@ public final class AesEaxJce implements Aead {
     return ciphertext;
   }
 
-  @SuppressWarnings("InsecureCryptoUsage")
   @Override
   public byte[] decrypt(final byte[] ciphertext, final byte[] associatedData)
       throws GeneralSecurityException {
@@ -187,11 +223,11 @@ public final class AesEaxJce implements Aead {
     if (plaintextLength < 0) {
       throw new GeneralSecurityException("ciphertext too short");
     }
-    Cipher ecb = Cipher.getInstance("AES/ECB/NOPADDING");
-    ecb.init(Cipher.ENCRYPT_MODE, keySpec);
-    byte[] n = omac(ecb, 0, ciphertext, 0, ivSizeInBytes);
-    byte[] h = omac(ecb, 1, associatedData, 0, associatedData.length);
-    byte[] t = omac(ecb, 2, ciphertext, ivSizeInBytes, plaintextLength);
+    CbcEngine cbc = cbcs.take();
+    byte[] n = omac(cbc, 0, ciphertext, 0, ivSizeInBytes);
+    byte[] h = omac(cbc, 1, associatedData, 0, associatedData.length);
+    byte[] t = omac(cbc, 2, ciphertext, ivSizeInBytes, plaintextLength);
+    cbcs.release(cbc);
     byte res = 0;
     int offset = ciphertext.length - TAG_SIZE_IN_BYTES;
     for (int i = 0; i < TAG_SIZE_IN_BYTES; i++) {
@@ -200,8 +236,12 @@ public final class AesEaxJce implements Aead {
     if (res != 0) {
       throw new AEADBadTagException("tag mismatch");
     }
-    Cipher ctr = Cipher.getInstance("AES/CTR/NOPADDING");
-    ctr.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(n));
-    return ctr.doFinal(ciphertext, ivSizeInBytes, plaintextLength);
+    Cipher ctr = ctrs.take();
+    try {
+      ctr.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(n));
+      return ctr.doFinal(ciphertext, ivSizeInBytes, plaintextLength);
+    } finally {
+      ctrs.release(ctr);
+    }
   }
 }
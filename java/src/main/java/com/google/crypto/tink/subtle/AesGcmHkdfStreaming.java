@@ -22,8 +22,6 @@ import java.nio.ByteOrder;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.util.Arrays;
-import javax.crypto.Cipher;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
@@ -166,21 +164,21 @@ public final class AesGcmHkdfStreaming extends NonceBasedStreamingAead {
     return ciphertextSize;
   }
 
-  private static Cipher cipherInstance() throws GeneralSecurityException {
-    return EngineFactory.CIPHER.getInstance("AES/GCM/NoPadding");
+  private static GcmCipher cipherInstance() throws GeneralSecurityException {
+    return GcmCipher.newInstance();
   }
 
   private byte[] randomSalt() {
     return Random.randBytes(keySizeInBytes);
   }
 
-  private GCMParameterSpec paramsForSegment(byte[] prefix, int segmentNr, boolean last) {
+  private byte[] nonceForSegment(byte[] prefix, int segmentNr, boolean last) {
     ByteBuffer nonce = ByteBuffer.allocate(NONCE_SIZE_IN_BYTES);
     nonce.order(ByteOrder.BIG_ENDIAN);
     nonce.put(prefix);
     nonce.putInt(segmentNr);
     nonce.put((byte) (last ? 1 : 0));
-    return new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, nonce.array());
+    return nonce.array();
   }
 
   private byte[] randomNonce() {
@@ -200,7 +198,7 @@ public final class AesGcmHkdfStreaming extends NonceBasedStreamingAead {
    */
   class AesGcmHkdfStreamEncrypter implements StreamSegmentEncrypter {
     private final SecretKeySpec keySpec;
-    private final Cipher cipher;
+    private final GcmCipher cipher;
     private final byte[] noncePrefix;
     private ByteBuffer header;
     private int encryptedSegments = 0;
@@ -231,10 +229,7 @@ public final class AesGcmHkdfStreaming extends NonceBasedStreamingAead {
     public synchronized void encryptSegment(
         ByteBuffer plaintext, boolean isLastSegment, ByteBuffer ciphertext)
         throws GeneralSecurityException {
-      cipher.init(
-          Cipher.ENCRYPT_MODE,
-          keySpec,
-          paramsForSegment(noncePrefix, encryptedSegments, isLastSegment));
+      cipher.init(true, keySpec, nonceForSegment(noncePrefix, encryptedSegments, isLastSegment), 0);
       encryptedSegments++;
       cipher.doFinal(plaintext, ciphertext);
     }
@@ -247,10 +242,7 @@ public final class AesGcmHkdfStreaming extends NonceBasedStreamingAead {
     public synchronized void encryptSegment(
         ByteBuffer part1, ByteBuffer part2, boolean isLastSegment, ByteBuffer ciphertext)
         throws GeneralSecurityException {
-      cipher.init(
-          Cipher.ENCRYPT_MODE,
-          keySpec,
-          paramsForSegment(noncePrefix, encryptedSegments, isLastSegment));
+      cipher.init(true, keySpec, nonceForSegment(noncePrefix, encryptedSegments, isLastSegment), 0);
       encryptedSegments++;
       cipher.update(part1, ciphertext);
       cipher.doFinal(part2, ciphertext);
@@ -265,7 +257,7 @@ public final class AesGcmHkdfStreaming extends NonceBasedStreamingAead {
   /** An instance of a crypter used to decrypt a ciphertext stream. */
   class AesGcmHkdfStreamDecrypter implements StreamSegmentDecrypter {
     private SecretKeySpec keySpec;
-    private Cipher cipher;
+    private GcmCipher cipher;
     private byte[] noncePrefix;
 
     AesGcmHkdfStreamDecrypter() {};
@@ -294,8 +286,7 @@ public final class AesGcmHkdfStreaming extends NonceBasedStreamingAead {
     public synchronized void decryptSegment(
         ByteBuffer ciphertext, int segmentNr, boolean isLastSegment, ByteBuffer plaintext)
         throws GeneralSecurityException {
-      GCMParameterSpec params = paramsForSegment(noncePrefix, segmentNr, isLastSegment);
-      cipher.init(Cipher.DECRYPT_MODE, keySpec, params);
+      cipher.init(false, keySpec, nonceForSegment(noncePrefix, segmentNr, isLastSegment), 0);
       cipher.doFinal(ciphertext, plaintext);
     }
   }
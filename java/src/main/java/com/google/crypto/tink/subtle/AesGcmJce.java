@@ -16,28 +16,59 @@
 
 package com.google.crypto.tink.subtle;
 
-import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.ByteBufferAead;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
-import javax.crypto.Cipher;
+import java.util.ArrayList;
+import java.util.List;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
-/** This primitive implements AesGcm using JCE. */
-public final class AesGcmJce implements Aead {
+/**
+ * This primitive implements AesGcm using JCE.
+ *
+ * <p>Besides the {@code byte[]} methods of {@link com.google.crypto.tink.Aead}, it can encrypt and
+ * decrypt directly into caller-provided buffers, see {@link ByteBufferAead}, and process batches of
+ * messages with a single cipher instance, see {@link BatchAead}. Ciphertexts are 28 bytes longer
+ * than plaintexts.
+ *
+ * <p>The engine is the AES-GCM cipher of the platform, or a Java implementation with table-driven
+ * GHASH where that is much faster, see {@link GcmCipher#newInstance}.
+ *
+ * <p>The IVs are random, unless a {@link GcmNonceSequencer} is given, which generates them from a
+ * counter and bounds the number of messages encrypted with the key. Either way the ciphertexts
+ * have the same format, and all instances can decrypt them.
+ */
+public final class AesGcmJce implements ByteBufferAead, BatchAead {
 
   // All instances of this class use a 12 byte IV and a 16 byte tag.
-  private static final int IV_SIZE_IN_BYTES = 12;
-  private static final int TAG_SIZE_IN_BYTES = 16;
+  private static final int IV_SIZE_IN_BYTES = GcmCipher.IV_SIZE_IN_BYTES;
+  private static final int TAG_SIZE_IN_BYTES = GcmCipher.TAG_SIZE_IN_BYTES;
+
+  private static final EnginePool.EngineSource<GcmCipher> CIPHER_SOURCE =
+      new EnginePool.EngineSource<GcmCipher>() {
+        @Override
+        public GcmCipher newEngine() throws GeneralSecurityException {
+          return GcmCipher.newInstance();
+        }
+      };
 
   private final SecretKey keySpec;
+  // Every operation initializes the cipher with the key and a fresh IV, so ciphers are put back
+  // even after an exception. The Java implementation keeps the tables of the key between messages.
+  private final EnginePool<GcmCipher> ciphers = new EnginePool<GcmCipher>(CIPHER_SOURCE);
+  // Generates the IVs if not null, otherwise they are random.
+  private final GcmNonceSequencer nonces;
 
   public AesGcmJce(final byte[] key) {
-    keySpec = new SecretKeySpec(key, "AES");
+    this(key, null);
   }
 
-  private static Cipher instance() throws GeneralSecurityException {
-    return EngineFactory.CIPHER.getInstance("AES/GCM/NoPadding");
+  /** Creates an instance whose IVs are generated by {@code nonces}, if not null. */
+  public AesGcmJce(final byte[] key, GcmNonceSequencer nonces) {
+    this.keySpec = new SecretKeySpec(key, "AES");
+    this.nonces = nonces;
   }
 
   @Override
@@ -47,16 +78,27 @@ public final class AesGcmJce implements Aead {
       throw new GeneralSecurityException("plaintext too long");
     }
     byte[] ciphertext = new byte[IV_SIZE_IN_BYTES + plaintext.length + TAG_SIZE_IN_BYTES];
-    byte[] iv = Random.randBytes(IV_SIZE_IN_BYTES);
-    System.arraycopy(iv, 0, ciphertext, 0, IV_SIZE_IN_BYTES);
-
-    Cipher cipher = instance();
-    GCMParameterSpec params = new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, iv);
-    cipher.init(Cipher.ENCRYPT_MODE, keySpec, params);
-    cipher.updateAAD(aad);
-    int unusedWritten =
-        cipher.doFinal(plaintext, 0, plaintext.length, ciphertext, IV_SIZE_IN_BYTES);
-    return ciphertext;
+    newIv(ciphertext, 0);
+
+    GcmCipher cipher = ciphers.take();
+    try {
+      cipher.init(true, keySpec, ciphertext, 0);
+      cipher.updateAad(aad);
+      int unusedWritten =
+          cipher.doFinal(plaintext, 0, plaintext.length, ciphertext, IV_SIZE_IN_BYTES);
+      return ciphertext;
+    } finally {
+      ciphers.release(cipher);
+    }
+  }
+
+  /** Writes a new IV to {@code output} starting at {@code offset}. */
+  private void newIv(byte[] output, int offset) throws GeneralSecurityException {
+    if (nonces == null) {
+      Random.randBytes(output, offset, IV_SIZE_IN_BYTES);
+    } else {
+      nonces.next(output, offset);
+    }
   }
 
   @Override
@@ -64,11 +106,169 @@ public final class AesGcmJce implements Aead {
     if (ciphertext.length < IV_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES) {
       throw new GeneralSecurityException("ciphertext too short");
     }
-    GCMParameterSpec params =
-        new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, ciphertext, 0, IV_SIZE_IN_BYTES);
-    Cipher cipher = instance();
-    cipher.init(Cipher.DECRYPT_MODE, keySpec, params);
-    cipher.updateAAD(aad);
-    return cipher.doFinal(ciphertext, IV_SIZE_IN_BYTES, ciphertext.length - IV_SIZE_IN_BYTES);
+    GcmCipher cipher = ciphers.take();
+    try {
+      cipher.init(false, keySpec, ciphertext, 0);
+      cipher.updateAad(aad);
+      return cipher.doFinal(ciphertext, IV_SIZE_IN_BYTES, ciphertext.length - IV_SIZE_IN_BYTES);
+    } finally {
+      ciphers.release(cipher);
+    }
+  }
+
+  @Override
+  public void encrypt(ByteBuffer plaintext, ByteBuffer aad, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    int plaintextLength = plaintext.remaining();
+    if (plaintextLength > Integer.MAX_VALUE - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    if (ciphertext.remaining() < IV_SIZE_IN_BYTES + plaintextLength + TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    byte[] iv = new byte[IV_SIZE_IN_BYTES];
+    newIv(iv, 0);
+    GcmCipher cipher = ciphers.take();
+    try {
+      cipher.init(true, keySpec, iv, 0);
+      cipher.updateAad(aad);
+      // GcmCipher.doFinal is copy-safe, so the plaintext may overlap the output. The IV is written
+      // last so that it does not overwrite plaintext that has not been encrypted yet.
+      int start = ciphertext.position();
+      ciphertext.position(start + IV_SIZE_IN_BYTES);
+      int unusedWritten = cipher.doFinal(plaintext, ciphertext);
+      int end = ciphertext.position();
+      ciphertext.position(start);
+      ciphertext.put(iv);
+      ciphertext.position(end);
+    } finally {
+      ciphers.release(cipher);
+    }
+  }
+
+  @Override
+  public void decrypt(ByteBuffer ciphertext, ByteBuffer aad, ByteBuffer plaintext)
+      throws GeneralSecurityException {
+    int ciphertextLength = ciphertext.remaining();
+    if (ciphertextLength < IV_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (plaintext.remaining() < ciphertextLength - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    byte[] iv = new byte[IV_SIZE_IN_BYTES];
+    ByteBuffer input = ciphertext.duplicate();
+    input.get(iv);
+    GcmCipher cipher = ciphers.take();
+    try {
+      cipher.init(false, keySpec, iv, 0);
+      cipher.updateAad(aad);
+      // Both engines only release the plaintext once the tag has been verified.
+      int unusedWritten = cipher.doFinal(input, plaintext);
+      ciphertext.position(ciphertext.limit());
+    } finally {
+      ciphers.release(cipher);
+    }
+  }
+
+  @Override
+  public int encrypt(
+      final byte[] plaintext,
+      int plaintextOffset,
+      int plaintextLength,
+      final byte[] aad,
+      byte[] ciphertext,
+      int ciphertextOffset)
+      throws GeneralSecurityException {
+    ByteBuffer output =
+        ByteBuffer.wrap(ciphertext, ciphertextOffset, ciphertext.length - ciphertextOffset);
+    encrypt(
+        ByteBuffer.wrap(plaintext, plaintextOffset, plaintextLength), ByteBuffer.wrap(aad), output);
+    return output.position() - ciphertextOffset;
+  }
+
+  @Override
+  public int decrypt(
+      final byte[] ciphertext,
+      int ciphertextOffset,
+      int ciphertextLength,
+      final byte[] aad,
+      byte[] plaintext,
+      int plaintextOffset)
+      throws GeneralSecurityException {
+    ByteBuffer output =
+        ByteBuffer.wrap(plaintext, plaintextOffset, plaintext.length - plaintextOffset);
+    decrypt(
+        ByteBuffer.wrap(ciphertext, ciphertextOffset, ciphertextLength),
+        ByteBuffer.wrap(aad),
+        output);
+    return output.position() - plaintextOffset;
+  }
+
+  @Override
+  public List<byte[]> encryptBatch(List<byte[]> plaintexts, List<byte[]> aads)
+      throws GeneralSecurityException {
+    SubtleUtil.checkBatchSizes(plaintexts.size(), aads.size());
+    int count = plaintexts.size();
+    if (count > Integer.MAX_VALUE / IV_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("batch too large");
+    }
+    // The IVs of the whole batch at once, and one cipher instance for all messages.
+    byte[] ivs = new byte[count * IV_SIZE_IN_BYTES];
+    if (nonces == null) {
+      Random.randBytes(ivs, 0, ivs.length);
+    } else {
+      for (int i = 0; i < count; i++) {
+        nonces.next(ivs, i * IV_SIZE_IN_BYTES);
+      }
+    }
+    GcmCipher cipher = ciphers.take();
+    try {
+      List<byte[]> ciphertexts = new ArrayList<byte[]>(count);
+      for (int i = 0; i < count; i++) {
+        byte[] plaintext = plaintexts.get(i);
+        if (plaintext.length > Integer.MAX_VALUE - IV_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES) {
+          throw new GeneralSecurityException("plaintext too long");
+        }
+        byte[] ciphertext = new byte[IV_SIZE_IN_BYTES + plaintext.length + TAG_SIZE_IN_BYTES];
+        System.arraycopy(ivs, i * IV_SIZE_IN_BYTES, ciphertext, 0, IV_SIZE_IN_BYTES);
+        cipher.init(true, keySpec, ciphertext, 0);
+        cipher.updateAad(aads.get(i));
+        int unusedWritten =
+            cipher.doFinal(plaintext, 0, plaintext.length, ciphertext, IV_SIZE_IN_BYTES);
+        ciphertexts.add(ciphertext);
+      }
+      return ciphertexts;
+    } finally {
+      ciphers.release(cipher);
+    }
+  }
+
+  @Override
+  public List<byte[]> decryptBatch(List<byte[]> ciphertexts, List<byte[]> aads)
+      throws GeneralSecurityException {
+    SubtleUtil.checkBatchSizes(ciphertexts.size(), aads.size());
+    GcmCipher cipher = ciphers.take();
+    try {
+      List<byte[]> plaintexts = new ArrayList<byte[]>(ciphertexts.size());
+      for (int i = 0; i < ciphertexts.size(); i++) {
+        byte[] ciphertext = ciphertexts.get(i);
+        if (ciphertext.length < IV_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES) {
+          plaintexts.add(null);
+          continue;
+        }
+        try {
+          cipher.init(false, keySpec, ciphertext, 0);
+          cipher.updateAad(aads.get(i));
+          plaintexts.add(
+              cipher.doFinal(ciphertext, IV_SIZE_IN_BYTES, ciphertext.length - IV_SIZE_IN_BYTES));
+        } catch (GeneralSecurityException e) {
+          plaintexts.add(null);
+        }
+      }
+      return plaintexts;
+    } finally {
+      ciphers.release(cipher);
+    }
   }
 };
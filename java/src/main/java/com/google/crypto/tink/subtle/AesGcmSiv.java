@@ -0,0 +1,294 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import com.google.crypto.tink.Aead;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-GCM-SIV, a nonce misuse-resistant AEAD, see RFC 8452.
+ *
+ * <p>Encrypting the same message twice with the same nonce only reveals that the messages are
+ * equal, unlike with AES-GCM, while the cost is close to that of AES-GCM: an AES-CTR pass and a
+ * POLYVAL hash, plus a key derivation per message. The nonces are random and 12 bytes long, and
+ * ciphertexts consist of the nonce, the encrypted plaintext and a 16-byte tag.
+ *
+ * <p>POLYVAL is computed in Java with the table-driven multiplication of {@link GHash}. The
+ * counter of AES-GCM-SIV is a 32-bit little-endian integer, which the CTR mode of the JCE does not
+ * support, so the key stream is computed by encrypting batches of counter blocks with the ECB mode
+ * of the JCE.
+ */
+public final class AesGcmSiv implements Aead {
+  private static final int NONCE_SIZE_IN_BYTES = 12;
+  private static final int TAG_SIZE_IN_BYTES = 16;
+  private static final int BLOCK_SIZE_IN_BYTES = 16;
+  private static final int AUTH_KEY_SIZE_IN_BYTES = 16;
+  // The number of key stream bytes computed with one call of the ECB engine.
+  private static final int CHUNK_SIZE = 4096;
+  // Below this many bytes of input, POLYVAL uses the small tables, which are cheaper to compute.
+  private static final int LARGE_TABLES_THRESHOLD = 512;
+
+  /** An ECB engine with buffers for counter blocks and key stream, which are reused. */
+  private static final class CtrEngine {
+    final Cipher ecb;
+    final byte[] counterBlocks = new byte[CHUNK_SIZE];
+    final byte[] keyStream = new byte[CHUNK_SIZE];
+
+    CtrEngine(Cipher ecb) {
+      this.ecb = ecb;
+    }
+  }
+
+  private static final EnginePool.EngineSource<CtrEngine> CTR_SOURCE =
+      new EnginePool.EngineSource<CtrEngine>() {
+        @Override
+        public CtrEngine newEngine() throws GeneralSecurityException {
+          return new CtrEngine(EngineFactory.CIPHER.getInstance("AES/ECB/NoPadding"));
+        }
+      };
+
+  private final int keySizeInBytes;
+  // ECB engines initialized with the key-generating key once, which derive the keys of a message.
+  private final EnginePool<Cipher> keyDerivations;
+  // CTR engines are initialized with the message encryption key before every use.
+  private final EnginePool<CtrEngine> ctrs = new EnginePool<CtrEngine>(CTR_SOURCE);
+
+  public AesGcmSiv(final byte[] key) throws GeneralSecurityException {
+    if (key.length != 16 && key.length != 32) {
+      throw new InvalidKeyException("invalid key size");
+    }
+    this.keySizeInBytes = key.length;
+    final SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+    this.keyDerivations =
+        new EnginePool<Cipher>(
+            new EnginePool.EngineSource<Cipher>() {
+              @Override
+              public Cipher newEngine() throws GeneralSecurityException {
+                Cipher ecb = EngineFactory.CIPHER.getInstance("AES/ECB/NoPadding");
+                ecb.init(Cipher.ENCRYPT_MODE, keySpec);
+                return ecb;
+              }
+            });
+  }
+
+  @Override
+  public byte[] encrypt(final byte[] plaintext, final byte[] associatedData)
+      throws GeneralSecurityException {
+    if (plaintext.length > Integer.MAX_VALUE - NONCE_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    byte[] ciphertext = new byte[NONCE_SIZE_IN_BYTES + plaintext.length + TAG_SIZE_IN_BYTES];
+    Random.randBytes(ciphertext, 0, NONCE_SIZE_IN_BYTES);
+    int tagOffset = NONCE_SIZE_IN_BYTES + plaintext.length;
+    byte[] keys = deriveKeys(ciphertext);
+
+    CtrEngine engine = ctrs.take();
+    try {
+      engine.ecb.init(
+          Cipher.ENCRYPT_MODE,
+          new SecretKeySpec(keys, AUTH_KEY_SIZE_IN_BYTES, keySizeInBytes, "AES"));
+      computeTag(
+          engine.ecb,
+          keys,
+          ciphertext,
+          associatedData,
+          plaintext,
+          0,
+          plaintext.length,
+          ciphertext,
+          tagOffset);
+      ctr(
+          engine,
+          ciphertext,
+          tagOffset,
+          plaintext,
+          0,
+          plaintext.length,
+          ciphertext,
+          NONCE_SIZE_IN_BYTES);
+      return ciphertext;
+    } finally {
+      ctrs.release(engine);
+    }
+  }
+
+  @Override
+  public byte[] decrypt(final byte[] ciphertext, final byte[] associatedData)
+      throws GeneralSecurityException {
+    if (ciphertext.length < NONCE_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    int plaintextLength = ciphertext.length - NONCE_SIZE_IN_BYTES - TAG_SIZE_IN_BYTES;
+    int tagOffset = NONCE_SIZE_IN_BYTES + plaintextLength;
+    byte[] keys = deriveKeys(ciphertext);
+
+    byte[] plaintext = new byte[plaintextLength];
+    byte[] expectedTag = new byte[TAG_SIZE_IN_BYTES];
+    CtrEngine engine = ctrs.take();
+    try {
+      engine.ecb.init(
+          Cipher.ENCRYPT_MODE,
+          new SecretKeySpec(keys, AUTH_KEY_SIZE_IN_BYTES, keySizeInBytes, "AES"));
+      ctr(
+          engine,
+          ciphertext,
+          tagOffset,
+          ciphertext,
+          NONCE_SIZE_IN_BYTES,
+          plaintextLength,
+          plaintext,
+          0);
+      computeTag(
+          engine.ecb,
+          keys,
+          ciphertext,
+          associatedData,
+          plaintext,
+          0,
+          plaintextLength,
+          expectedTag,
+          0);
+    } finally {
+      ctrs.release(engine);
+    }
+    if (!Bytes.equal(expectedTag, Arrays.copyOfRange(ciphertext, tagOffset, ciphertext.length))) {
+      Arrays.fill(plaintext, (byte) 0);
+      throw new AEADBadTagException("tag mismatch");
+    }
+    return plaintext;
+  }
+
+  /**
+   * Derives the keys of the message whose nonce is at the start of {@code nonce}.
+   *
+   * @return the message authentication key, followed by the message encryption key.
+   */
+  private byte[] deriveKeys(final byte[] nonce) throws GeneralSecurityException {
+    // Each block yields 8 bytes of key material.
+    int blockCount = (AUTH_KEY_SIZE_IN_BYTES + keySizeInBytes) / 8;
+    byte[] blocks = new byte[blockCount * BLOCK_SIZE_IN_BYTES];
+    for (int i = 0; i < blockCount; i++) {
+      storeLittleEndian(i, blocks, i * BLOCK_SIZE_IN_BYTES);
+      System.arraycopy(nonce, 0, blocks, i * BLOCK_SIZE_IN_BYTES + 4, NONCE_SIZE_IN_BYTES);
+    }
+    Cipher ecb = keyDerivations.take();
+    int unusedWritten = ecb.doFinal(blocks, 0, blocks.length, blocks, 0);
+    keyDerivations.release(ecb);
+    byte[] keys = new byte[blockCount * 8];
+    for (int i = 0; i < blockCount; i++) {
+      System.arraycopy(blocks, i * BLOCK_SIZE_IN_BYTES, keys, i * 8, 8);
+    }
+    return keys;
+  }
+
+  /**
+   * Computes the tag of {@code length} bytes of {@code plaintext} starting at {@code offset} and
+   * writes it to {@code output} starting at {@code outputOffset}.
+   *
+   * @param ecb an ECB engine initialized with the message encryption key
+   * @param keys the keys of the message, starting with the message authentication key
+   * @param nonce an array that starts with the nonce of the message
+   */
+  private static void computeTag(
+      Cipher ecb,
+      final byte[] keys,
+      final byte[] nonce,
+      final byte[] associatedData,
+      final byte[] plaintext,
+      int offset,
+      int length,
+      byte[] output,
+      int outputOffset)
+      throws GeneralSecurityException {
+    Polyval polyval =
+        new Polyval(
+            keys,
+            associatedData.length + length < LARGE_TABLES_THRESHOLD
+                ? GHash.SMALL_TABLES
+                : GHash.LARGE_TABLES);
+    polyval.update(associatedData, 0, associatedData.length);
+    polyval.update(plaintext, offset, length);
+    polyval.updateLengths(8L * associatedData.length, 8L * length);
+    byte[] block = new byte[BLOCK_SIZE_IN_BYTES];
+    polyval.doFinal(block, 0);
+    for (int i = 0; i < NONCE_SIZE_IN_BYTES; i++) {
+      block[i] ^= nonce[i];
+    }
+    block[BLOCK_SIZE_IN_BYTES - 1] &= (byte) 0x7f;
+    int unusedWritten = ecb.doFinal(block, 0, BLOCK_SIZE_IN_BYTES, output, outputOffset);
+  }
+
+  /**
+   * Encrypts or decrypts {@code length} bytes of {@code input} starting at {@code inputOffset} in
+   * CTR mode, with the initial counter block derived from the tag at {@code tagOffset}, and writes
+   * them to {@code output} starting at {@code outputOffset}.
+   */
+  private static void ctr(
+      CtrEngine engine,
+      final byte[] tag,
+      int tagOffset,
+      final byte[] input,
+      int inputOffset,
+      int length,
+      byte[] output,
+      int outputOffset)
+      throws GeneralSecurityException {
+    byte[] counterBlocks = engine.counterBlocks;
+    byte[] keyStream = engine.keyStream;
+    // The counter blocks are the tag with the most significant bit set, whose first 32 bits are a
+    // little-endian counter that wraps around. Only the counters change between chunks.
+    int blocksLength = (Math.min(CHUNK_SIZE, length) + BLOCK_SIZE_IN_BYTES - 1)
+        & -BLOCK_SIZE_IN_BYTES;
+    for (int i = 0; i < blocksLength; i += BLOCK_SIZE_IN_BYTES) {
+      System.arraycopy(tag, tagOffset + 4, counterBlocks, i + 4, BLOCK_SIZE_IN_BYTES - 4);
+      counterBlocks[i + BLOCK_SIZE_IN_BYTES - 1] |= (byte) 0x80;
+    }
+    int counter = loadLittleEndian(tag, tagOffset);
+    for (int position = 0; position < length; position += CHUNK_SIZE) {
+      int chunkLength = Math.min(CHUNK_SIZE, length - position);
+      blocksLength = (chunkLength + BLOCK_SIZE_IN_BYTES - 1) & -BLOCK_SIZE_IN_BYTES;
+      for (int i = 0; i < blocksLength; i += BLOCK_SIZE_IN_BYTES) {
+        storeLittleEndian(counter++, counterBlocks, i);
+      }
+      int unusedWritten = engine.ecb.doFinal(counterBlocks, 0, blocksLength, keyStream, 0);
+      int in = inputOffset + position;
+      int out = outputOffset + position;
+      for (int i = 0; i < chunkLength; i++) {
+        output[out + i] = (byte) (input[in + i] ^ keyStream[i]);
+      }
+    }
+  }
+
+  private static int loadLittleEndian(final byte[] data, int offset) {
+    return (data[offset] & 0xff)
+        | (data[offset + 1] & 0xff) << 8
+        | (data[offset + 2] & 0xff) << 16
+        | (data[offset + 3] & 0xff) << 24;
+  }
+
+  private static void storeLittleEndian(int value, byte[] output, int offset) {
+    output[offset] = (byte) value;
+    output[offset + 1] = (byte) (value >>> 8);
+    output[offset + 2] = (byte) (value >>> 16);
+    output[offset + 3] = (byte) (value >>> 24);
+  }
+}
@@ -44,8 +44,22 @@ public final class AesSiv implements DeterministicAead {
   /** The internal AesCmac object for S2V */
   private final AesCmac cmacForS2V;
 
+  /** The CMAC of the zero block, with which S2V starts. */
+  private final byte[] cmacOfZero;
+
+  private static final EnginePool.EngineSource<Cipher> CTR_SOURCE =
+      new EnginePool.EngineSource<Cipher>() {
+        @Override
+        public Cipher newEngine() throws GeneralSecurityException {
+          return EngineFactory.CIPHER.getInstance("AES/CTR/NoPadding");
+        }
+      };
+
   /** The key used for the CTR encryption */
-  private final byte[] aesCtrKey;
+  private final SecretKeySpec aesCtrKey;
+
+  /** CTR engines, which are initialized with the key and an IV before every use. */
+  private final EnginePool<Cipher> aesCtrs = new EnginePool<Cipher>(CTR_SOURCE);
 
   public AesSiv(final byte[] key) throws GeneralSecurityException {
     if (!KEY_SIZES.contains(key.length)) {
@@ -53,8 +67,9 @@ public final class AesSiv implements DeterministicAead {
     }
 
     byte[] k1 = Arrays.copyOfRange(key, 0, key.length / 2);
-    this.aesCtrKey = Arrays.copyOfRange(key, key.length / 2, key.length);
+    this.aesCtrKey = new SecretKeySpec(Arrays.copyOfRange(key, key.length / 2, key.length), "AES");
     this.cmacForS2V = new AesCmac(k1);
+    this.cmacOfZero = cmacForS2V.computeMac(BLOCK_ZERO);
   }
 
   /**
@@ -70,16 +85,16 @@ public final class AesSiv implements DeterministicAead {
       return cmacForS2V.computeMac(BLOCK_ONE);
     }
 
-    byte[] result = cmacForS2V.computeMac(BLOCK_ZERO);
+    byte[] result = cmacOfZero;
     for (int i = 0; i < s.length - 1; i++) {
       result = Bytes.xor(AesUtil.dbl(result), cmacForS2V.computeMac(s[i]));
     }
     byte[] lastBlock = s[s.length - 1];
     if (lastBlock.length >= 16) {
-      result = Bytes.xorEnd(lastBlock, result);
-    } else {
-      result = Bytes.xor(AesUtil.cmacPad(lastBlock), AesUtil.dbl(result));
+      // CMAC(lastBlock xorend result), without copying lastBlock.
+      return cmacForS2V.computeMac(lastBlock, result);
     }
+    result = Bytes.xor(AesUtil.cmacPad(lastBlock), AesUtil.dbl(result));
     return cmacForS2V.computeMac(result);
   }
 
@@ -90,19 +105,22 @@ public final class AesSiv implements DeterministicAead {
       throw new GeneralSecurityException("plaintext too long");
     }
 
-    Cipher aesCtr = EngineFactory.CIPHER.getInstance("AES/CTR/NoPadding");
     byte[] computedIv = s2v(associatedData, plaintext);
     byte[] ivForJavaCrypto = computedIv.clone();
     ivForJavaCrypto[8] &= (byte) 0x7F; // 63th bit from the right
     ivForJavaCrypto[12] &= (byte) 0x7F; // 31st bit from the right
 
-    aesCtr.init(
-        Cipher.ENCRYPT_MODE,
-        new SecretKeySpec(this.aesCtrKey, "AES"),
-        new IvParameterSpec(ivForJavaCrypto));
-
-    byte[] ctrCiphertext = aesCtr.doFinal(plaintext);
-    return Bytes.concat(computedIv, ctrCiphertext);
+    Cipher aesCtr = aesCtrs.take();
+    try {
+      aesCtr.init(Cipher.ENCRYPT_MODE, aesCtrKey, new IvParameterSpec(ivForJavaCrypto));
+      byte[] ciphertext = new byte[AesUtil.BLOCK_SIZE + plaintext.length];
+      System.arraycopy(computedIv, 0, ciphertext, 0, AesUtil.BLOCK_SIZE);
+      int unusedWritten =
+          aesCtr.doFinal(plaintext, 0, plaintext.length, ciphertext, AesUtil.BLOCK_SIZE);
+      return ciphertext;
+    } finally {
+      aesCtrs.release(aesCtr);
+    }
   }
 
   @Override
@@ -112,21 +130,21 @@ public final class AesSiv implements DeterministicAead {
       throw new GeneralSecurityException("Ciphertext too short.");
     }
 
-    Cipher aesCtr = EngineFactory.CIPHER.getInstance("AES/CTR/NoPadding");
-
     byte[] expectedIv = Arrays.copyOfRange(ciphertext, 0, AesUtil.BLOCK_SIZE);
 
     byte[] ivForJavaCrypto = expectedIv.clone();
     ivForJavaCrypto[8] &= (byte) 0x7F; // 63th bit from the right
     ivForJavaCrypto[12] &= (byte) 0x7F; // 31st bit from the right
 
-    aesCtr.init(
-        Cipher.DECRYPT_MODE,
-        new SecretKeySpec(this.aesCtrKey, "AES"),
-        new IvParameterSpec(ivForJavaCrypto));
-
-    byte[] ctrCiphertext = Arrays.copyOfRange(ciphertext, AesUtil.BLOCK_SIZE, ciphertext.length);
-    byte[] decryptedPt = aesCtr.doFinal(ctrCiphertext);
+    byte[] decryptedPt;
+    Cipher aesCtr = aesCtrs.take();
+    try {
+      aesCtr.init(Cipher.DECRYPT_MODE, aesCtrKey, new IvParameterSpec(ivForJavaCrypto));
+      decryptedPt =
+          aesCtr.doFinal(ciphertext, AesUtil.BLOCK_SIZE, ciphertext.length - AesUtil.BLOCK_SIZE);
+    } finally {
+      aesCtrs.release(aesCtr);
+    }
     byte[] computedIv = s2v(associatedData, decryptedPt);
 
     if (Bytes.equal(expectedIv, computedIv)) {
@@ -48,6 +48,16 @@ class ChaCha20 extends ChaCha20Base {
     state[12]++;
   }
 
+  @Override
+  byte[] ietfKey(final byte[] nonce) {
+    return key.getBytes();
+  }
+
+  @Override
+  byte[] ietfNonce(final byte[] nonce) {
+    return nonce;
+  }
+
   @Override
   int nonceSizeInBytes() {
     return 12;
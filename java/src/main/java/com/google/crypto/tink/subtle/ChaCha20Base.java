@@ -40,16 +40,107 @@ abstract class ChaCha20Base extends SnuffleCipher {
   }
 
   static void shuffleInternal(final int[] state) {
+    // The state is kept in local variables, which the JIT can keep in registers.
+    int x0 = state[0];
+    int x1 = state[1];
+    int x2 = state[2];
+    int x3 = state[3];
+    int x4 = state[4];
+    int x5 = state[5];
+    int x6 = state[6];
+    int x7 = state[7];
+    int x8 = state[8];
+    int x9 = state[9];
+    int x10 = state[10];
+    int x11 = state[11];
+    int x12 = state[12];
+    int x13 = state[13];
+    int x14 = state[14];
+    int x15 = state[15];
     for (int i = 0; i < 10; i++) {
-      quarterRound(state, 0, 4, 8, 12);
-      quarterRound(state, 1, 5, 9, 13);
-      quarterRound(state, 2, 6, 10, 14);
-      quarterRound(state, 3, 7, 11, 15);
-      quarterRound(state, 0, 5, 10, 15);
-      quarterRound(state, 1, 6, 11, 12);
-      quarterRound(state, 2, 7, 8, 13);
-      quarterRound(state, 3, 4, 9, 14);
+      // Column round.
+      x0 += x4;
+      x12 = rotateLeft(x12 ^ x0, 16);
+      x8 += x12;
+      x4 = rotateLeft(x4 ^ x8, 12);
+      x0 += x4;
+      x12 = rotateLeft(x12 ^ x0, 8);
+      x8 += x12;
+      x4 = rotateLeft(x4 ^ x8, 7);
+      x1 += x5;
+      x13 = rotateLeft(x13 ^ x1, 16);
+      x9 += x13;
+      x5 = rotateLeft(x5 ^ x9, 12);
+      x1 += x5;
+      x13 = rotateLeft(x13 ^ x1, 8);
+      x9 += x13;
+      x5 = rotateLeft(x5 ^ x9, 7);
+      x2 += x6;
+      x14 = rotateLeft(x14 ^ x2, 16);
+      x10 += x14;
+      x6 = rotateLeft(x6 ^ x10, 12);
+      x2 += x6;
+      x14 = rotateLeft(x14 ^ x2, 8);
+      x10 += x14;
+      x6 = rotateLeft(x6 ^ x10, 7);
+      x3 += x7;
+      x15 = rotateLeft(x15 ^ x3, 16);
+      x11 += x15;
+      x7 = rotateLeft(x7 ^ x11, 12);
+      x3 += x7;
+      x15 = rotateLeft(x15 ^ x3, 8);
+      x11 += x15;
+      x7 = rotateLeft(x7 ^ x11, 7);
+      // Diagonal round.
+      x0 += x5;
+      x15 = rotateLeft(x15 ^ x0, 16);
+      x10 += x15;
+      x5 = rotateLeft(x5 ^ x10, 12);
+      x0 += x5;
+      x15 = rotateLeft(x15 ^ x0, 8);
+      x10 += x15;
+      x5 = rotateLeft(x5 ^ x10, 7);
+      x1 += x6;
+      x12 = rotateLeft(x12 ^ x1, 16);
+      x11 += x12;
+      x6 = rotateLeft(x6 ^ x11, 12);
+      x1 += x6;
+      x12 = rotateLeft(x12 ^ x1, 8);
+      x11 += x12;
+      x6 = rotateLeft(x6 ^ x11, 7);
+      x2 += x7;
+      x13 = rotateLeft(x13 ^ x2, 16);
+      x8 += x13;
+      x7 = rotateLeft(x7 ^ x8, 12);
+      x2 += x7;
+      x13 = rotateLeft(x13 ^ x2, 8);
+      x8 += x13;
+      x7 = rotateLeft(x7 ^ x8, 7);
+      x3 += x4;
+      x14 = rotateLeft(x14 ^ x3, 16);
+      x9 += x14;
+      x4 = rotateLeft(x4 ^ x9, 12);
+      x3 += x4;
+      x14 = rotateLeft(x14 ^ x3, 8);
+      x9 += x14;
+      x4 = rotateLeft(x4 ^ x9, 7);
     }
+    state[0] = x0;
+    state[1] = x1;
+    state[2] = x2;
+    state[3] = x3;
+    state[4] = x4;
+    state[5] = x5;
+    state[6] = x6;
+    state[7] = x7;
+    state[8] = x8;
+    state[9] = x9;
+    state[10] = x10;
+    state[11] = x11;
+    state[12] = x12;
+    state[13] = x13;
+    state[14] = x14;
+    state[15] = x15;
   }
 
   @Override
@@ -57,6 +148,15 @@ abstract class ChaCha20Base extends SnuffleCipher {
     shuffleInternal(state);
   }
 
+  /**
+   * @return the key of the RFC 7539 ChaCha20 key stream that equals the key stream of this cipher
+   *     for {@code nonce}, see {@link #ietfNonce}.
+   */
+  abstract byte[] ietfKey(final byte[] nonce);
+
+  /** @return the 12-byte nonce of the RFC 7539 ChaCha20 key stream, see {@link #ietfKey}. */
+  abstract byte[] ietfNonce(final byte[] nonce);
+
   static void setSigma(int[] state) {
     System.arraycopy(SnuffleCipher.SIGMA, 0, state, 0, SIGMA.length);
   }
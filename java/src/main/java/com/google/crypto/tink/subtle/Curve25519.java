@@ -339,7 +339,7 @@ final class Curve25519 {
    * @throws InvalidKeyException iff the {@code pubKey} is in the banned list or its length is not
    *     32-byte.
    */
-  private static void validatePubKeyAndClearMsb(byte[] pubKey) throws InvalidKeyException {
+  static void validatePubKeyAndClearMsb(byte[] pubKey) throws InvalidKeyException {
     if (pubKey.length != 32) {
       throw new InvalidKeyException("Public key length is not 32-byte");
     }
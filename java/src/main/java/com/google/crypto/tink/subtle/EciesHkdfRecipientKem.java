@@ -23,6 +23,8 @@ import java.security.interfaces.ECPublicKey;
 /** HKDF-based KEM (key encapsulation mechanism) for ECIES recipient. */
 public final class EciesHkdfRecipientKem {
   private ECPrivateKey recipientPrivateKey;
+  // Extracts with the salt of the last call; the ECIES primitives pass the same salt every time.
+  private volatile Hkdf.EciesExtractor extractor;
 
   public EciesHkdfRecipientKem(final ECPrivateKey recipientPrivateKey) {
     this.recipientPrivateKey = recipientPrivateKey;
@@ -40,7 +42,17 @@ public final class EciesHkdfRecipientKem {
         recipientPrivateKey.getParams(), pointFormat, kemBytes);
     byte[] sharedSecret = EllipticCurves.computeSharedSecret(
         recipientPrivateKey, ephemeralPublicKey);
-    return Hkdf.computeEciesHkdfSymmetricKey(
-        kemBytes, sharedSecret, hmacAlgo, hkdfSalt, hkdfInfo, keySizeInBytes);
+    return extractor(hmacAlgo, hkdfSalt)
+        .computeSymmetricKey(kemBytes, sharedSecret, hkdfInfo, keySizeInBytes);
+  }
+
+  private Hkdf.EciesExtractor extractor(String hmacAlgo, final byte[] hkdfSalt)
+      throws GeneralSecurityException {
+    Hkdf.EciesExtractor current = extractor;
+    if (current == null || !current.matches(hmacAlgo, hkdfSalt)) {
+      current = new Hkdf.EciesExtractor(hmacAlgo, hkdfSalt);
+      extractor = current;
+    }
+    return current;
   }
 }
@@ -25,6 +25,8 @@ import java.security.interfaces.ECPublicKey;
 /** HKDF-based KEM (key encapsulation mechanism) for ECIES sender. */
 public final class EciesHkdfSenderKem {
   private ECPublicKey recipientPublicKey;
+  // Extracts with the salt of the last call; the ECIES primitives pass the same salt every time.
+  private volatile Hkdf.EciesExtractor extractor;
 
   /** A container for key parts generated by the KEM. */
   @Immutable
@@ -74,8 +76,18 @@ public final class EciesHkdfSenderKem {
         EllipticCurves.pointEncode(
             ephemeralPublicKey.getParams().getCurve(), pointFormat, ephemeralPublicKey.getW());
     byte[] symmetricKey =
-        Hkdf.computeEciesHkdfSymmetricKey(
-            kemBytes, sharedSecret, hmacAlgo, hkdfSalt, hkdfInfo, keySizeInBytes);
+        extractor(hmacAlgo, hkdfSalt)
+            .computeSymmetricKey(kemBytes, sharedSecret, hkdfInfo, keySizeInBytes);
     return new KemKey(kemBytes, symmetricKey);
   }
+
+  private Hkdf.EciesExtractor extractor(String hmacAlgo, final byte[] hkdfSalt)
+      throws GeneralSecurityException {
+    Hkdf.EciesExtractor current = extractor;
+    if (current == null || !current.matches(hmacAlgo, hkdfSalt)) {
+      current = new Hkdf.EciesExtractor(hmacAlgo, hkdfSalt);
+      extractor = current;
+    }
+    return current;
+  }
 }
@@ -27,6 +27,7 @@ import static com.google.crypto.tink.subtle.Field25519.LIMB_CNT;
 import com.google.crypto.tink.annotations.Alpha;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.security.Signature;
 import java.util.Arrays;
 
 /**
@@ -38,6 +39,10 @@ import java.util.Arrays;
  * Bernstein D.J., Birkner P., Joye M., Lange T., Peters C. (2008) Twisted Edwards Curves.
  * Hisil H., Wong K.KH., Carter G., Dawson E. (2008) Twisted Edwards Curves Revisited.
  * for more information.
+ *
+ * If the platform provides {@code Ed25519} signatures, e.g., on Java 15 and later, and {@link
+ * PlatformEngines} is told to use them, {@link Ed25519Sign} and {@link Ed25519Verify} delegate to
+ * them.
  */
 @Alpha
 public final class Ed25519 {
@@ -46,6 +51,66 @@ public final class Ed25519 {
   public static final int PUBLIC_KEY_LEN = FIELD_LEN;
   public static final int SIGNATURE_LEN = FIELD_LEN * 2;
 
+  /**
+   * Whether the platform implementation is used, decided when it is first needed.
+   *
+   * <p>It is not used by default: on Java 17 the platform signs about five times slower than this
+   * class, as it recomputes the public key for every signature, and verifies about three times
+   * slower.
+   */
+  static final class Platform {
+    // RFC 8032, section 7.1, test 1.
+    private static final byte[] PRIVATE_KEY =
+        Hex.decode("9d61b19deffd5a60ba844af492ec2cc44449c5697b326919703bac031cae7f60");
+    private static final byte[] PUBLIC_KEY =
+        Hex.decode("d75a980182b10ab7d54bfed3c964073a0ee172f3daa62325af021a68f707511a");
+    private static final byte[] SIGNATURE =
+        Hex.decode(
+            "e5564300c360ac729086e2cc806e828a84877f1eb8e5d974d873e065224901555"
+                + "fb8821590a33bacc61e39701cf9b46bd25bf5f0595bbe24655141438e7a100b");
+
+    static final EnginePool.EngineSource<Signature> SIGNATURE_SOURCE =
+        new EnginePool.EngineSource<Signature>() {
+          @Override
+          public Signature newEngine() throws GeneralSecurityException {
+            return EngineFactory.SIGNATURE.getInstance("Ed25519");
+          }
+        };
+
+    // Signatures that are initialized for verification before every use.
+    static final EnginePool<Signature> VERIFIERS = new EnginePool<Signature>(SIGNATURE_SOURCE);
+
+    static final boolean ENABLED =
+        PlatformEngines.use(
+            "Ed25519",
+            false,
+            new PlatformEngines.KnownAnswerTest() {
+              @Override
+              public boolean passes() throws GeneralSecurityException {
+                Signature signer = SIGNATURE_SOURCE.newEngine();
+                signer.initSign(PlatformEngines.ed25519PrivateKey(PRIVATE_KEY));
+                if (!Bytes.equal(signer.sign(), SIGNATURE)) {
+                  return false;
+                }
+                Signature verifier = SIGNATURE_SOURCE.newEngine();
+                verifier.initVerify(PlatformEngines.ed25519PublicKey(PUBLIC_KEY));
+                return verifier.verify(SIGNATURE);
+              }
+            });
+
+    private Platform() {}
+  }
+
+  // SHA-512 engines, which are put back after their digest has been computed.
+  private static final EnginePool<MessageDigest> SHA512 =
+      new EnginePool<MessageDigest>(
+          new EnginePool.EngineSource<MessageDigest>() {
+            @Override
+            public MessageDigest newEngine() throws GeneralSecurityException {
+              return EngineFactory.MESSAGE_DIGEST.getInstance("SHA-512");
+            }
+          });
+
   // (x = 0, y = 1) point
   private static final CachedXYT CACHED_NEUTRAL = new CachedXYT(
       new long[]{1, 0, 0, 0, 0, 0, 0, 0, 0, 0},
@@ -1467,9 +1532,10 @@ public final class Ed25519 {
 
   static byte[] getHashedScalar(final byte[] privateKey)
       throws GeneralSecurityException {
-    MessageDigest digest = EngineFactory.MESSAGE_DIGEST.getInstance("SHA-512");
+    MessageDigest digest = SHA512.take();
     digest.update(privateKey, 0, FIELD_LEN);
     byte[] h = digest.digest();
+    SHA512.release(digest);
     // https://tools.ietf.org/html/rfc8032#section-5.1.2.
     // Clear the lowest three bits of the first octet.
     h[0] = (byte) (h[0] & 248);
@@ -1495,7 +1561,7 @@ public final class Ed25519 {
     // Copying the message to make it thread-safe. Otherwise, if the caller modifies the message
     // between the first and the second hash then it might leak the private key.
     byte[] messageCopy = Arrays.copyOfRange(message, 0, message.length);
-    MessageDigest digest = EngineFactory.MESSAGE_DIGEST.getInstance("SHA-512");
+    MessageDigest digest = SHA512.take();
     digest.update(hashedPrivateKey, FIELD_LEN, FIELD_LEN);
     digest.update(messageCopy);
     byte[] r = digest.digest();
@@ -1507,6 +1573,7 @@ public final class Ed25519 {
     digest.update(publicKey);
     digest.update(messageCopy);
     byte[] hram = digest.digest();
+    SHA512.release(digest);
     reduce(hram);
     byte[] s = new byte[FIELD_LEN];
     mulAdd(s, hram, hashedPrivateKey, r);
@@ -1525,11 +1592,12 @@ public final class Ed25519 {
     if (signature.length != SIGNATURE_LEN) {
       return false;
     }
-    MessageDigest digest = EngineFactory.MESSAGE_DIGEST.getInstance("SHA-512");
+    MessageDigest digest = SHA512.take();
     digest.update(signature, 0, FIELD_LEN);
     digest.update(publicKey);
     digest.update(message);
     byte[] h = digest.digest();
+    SHA512.release(digest);
     reduce(h);
 
     XYZT negPublicKey = XYZT.fromBytesNegateVarTime(publicKey);
@@ -19,6 +19,8 @@ package com.google.crypto.tink.subtle;
 import com.google.crypto.tink.PublicKeySign;
 import com.google.crypto.tink.annotations.Alpha;
 import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
 import java.util.Arrays;
 
 /**
@@ -32,6 +34,8 @@ import java.util.Arrays;
  * Ed25519Sign signer = new Ed25519Sign(keyPair.getPrivateKey());
  * byte[] signature = signer.sign(message);
  * </pre>
+ *
+ * <p>The platform implementation may be used instead, see {@link Ed25519}.
  */
 @Alpha
 public final class Ed25519Sign implements PublicKeySign {
@@ -40,6 +44,8 @@ public final class Ed25519Sign implements PublicKeySign {
 
   private final byte[] hashedPrivateKey;
   private final byte[] publicKey;
+  // Platform signatures initialized with the private key, or null if this class signs itself.
+  private final EnginePool<Signature> platformSigners;
 
   /**
    * Constructs a Ed25519Sign with the {@code privateKey}.
@@ -56,11 +62,34 @@ public final class Ed25519Sign implements PublicKeySign {
 
     this.hashedPrivateKey = Ed25519.getHashedScalar(privateKey);
     this.publicKey = Ed25519.scalarMultWithBaseToBytes(this.hashedPrivateKey);
+    if (Ed25519.Platform.ENABLED) {
+      final PrivateKey platformKey = PlatformEngines.ed25519PrivateKey(privateKey);
+      this.platformSigners =
+          new EnginePool<Signature>(
+              new EnginePool.EngineSource<Signature>() {
+                @Override
+                public Signature newEngine() throws GeneralSecurityException {
+                  Signature signer = Ed25519.Platform.SIGNATURE_SOURCE.newEngine();
+                  signer.initSign(platformKey);
+                  return signer;
+                }
+              });
+    } else {
+      this.platformSigners = null;
+    }
   }
 
   @Override
   public byte[] sign(final byte[] data) throws GeneralSecurityException {
-    return Ed25519.sign(data, publicKey, hashedPrivateKey);
+    if (platformSigners == null) {
+      return Ed25519.sign(data, publicKey, hashedPrivateKey);
+    }
+    // Signature.sign resets the signer, so it can be put back unless it throws.
+    Signature signer = platformSigners.take();
+    signer.update(data);
+    byte[] signature = signer.sign();
+    platformSigners.release(signer);
+    return signature;
   }
 
   /** Defines the KeyPair consisting of a private key and its corresponding public key. */
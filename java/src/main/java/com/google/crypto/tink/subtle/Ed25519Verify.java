@@ -20,6 +20,8 @@ import com.google.crypto.tink.PublicKeyVerify;
 import com.google.crypto.tink.annotations.Alpha;
 import com.google.errorprone.annotations.Immutable;
 import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
 
 /**
  * Ed25519 verifying.
@@ -37,6 +39,8 @@ import java.security.GeneralSecurityException;
  *   // all the rest of security exceptions.
  * }
  * </pre>
+ *
+ * <p>The platform implementation may be used instead, see {@link Ed25519}.
  */
 @Alpha
 @Immutable
@@ -46,6 +50,9 @@ public final class Ed25519Verify implements PublicKeyVerify {
   public static final int SIGNATURE_LEN = Field25519.FIELD_LEN * 2;
 
   private final ImmutableByteArray publicKey;
+  // The public key for the platform implementation, or null if this class verifies itself.
+  @SuppressWarnings("Immutable") // PublicKey implementations are immutable.
+  private final PublicKey platformPublicKey;
 
   public Ed25519Verify(final byte[] publicKey) {
     if (publicKey.length != PUBLIC_KEY_LEN) {
@@ -53,6 +60,16 @@ public final class Ed25519Verify implements PublicKeyVerify {
           String.format("Given public key's length is not %s.", PUBLIC_KEY_LEN));
     }
     this.publicKey = ImmutableByteArray.of(publicKey);
+    this.platformPublicKey = Ed25519.Platform.ENABLED ? platformPublicKey(publicKey) : null;
+  }
+
+  /** @return the platform public key, or null if the platform cannot decode {@code publicKey}. */
+  private static PublicKey platformPublicKey(final byte[] publicKey) {
+    try {
+      return PlatformEngines.ed25519PublicKey(publicKey);
+    } catch (GeneralSecurityException e) {
+      return null;
+    }
   }
 
   @Override
@@ -64,7 +81,20 @@ public final class Ed25519Verify implements PublicKeyVerify {
     if (((signature[SIGNATURE_LEN - 1] & 0xff) & 224) != 0) {
       throw new GeneralSecurityException("Given signature's 3 most significant bits must be 0.");
     }
-    if (!Ed25519.verify(data, signature, publicKey.getBytes())) {
+    boolean verified;
+    if (platformPublicKey == null) {
+      verified = Ed25519.verify(data, signature, publicKey.getBytes());
+    } else {
+      Signature verifier = Ed25519.Platform.VERIFIERS.take();
+      try {
+        verifier.initVerify(platformPublicKey);
+        verifier.update(data);
+        verified = verifier.verify(signature);
+      } finally {
+        Ed25519.Platform.VERIFIERS.release(verifier);
+      }
+    }
+    if (!verified) {
       throw new GeneralSecurityException("Signature check failed.");
     }
   }
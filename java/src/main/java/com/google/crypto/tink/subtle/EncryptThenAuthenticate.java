@@ -16,11 +16,15 @@
 
 package com.google.crypto.tink.subtle;
 
-import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.ByteBufferAead;
 import com.google.crypto.tink.Mac;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import javax.crypto.Cipher;
 
 /**
  * This primitive performs an encrypt-then-Mac operation on plaintext and additional authenticated
@@ -29,16 +33,36 @@ import java.util.Arrays;
  * implementation is based on <a
  * href="http://tools.ietf.org/html/draft-mcgrew-aead-aes-cbc-hmac-sha2-05">Authenticated Encryption
  * with AES-CBC and HMAC-SHA</a>.
+ *
+ * <p>The {@link ByteBufferAead} methods write the ciphertext or plaintext directly into the given
+ * output when the cipher is an {@link AesCtrJceCipher} and the MAC is a {@link MacJce}, i.e., for
+ * AES-CTR-HMAC keys; otherwise they go through the {@code byte[]} methods and copy the result.
+ * For AES-CTR-HMAC keys, the {@code byte[]} methods also feed the MAC from the parts of its input
+ * rather than a concatenation, and write the ciphertext and MAC into a single array.
+ * Likewise, the {@link BatchAead} methods share setup between the messages of a batch only for
+ * AES-CTR-HMAC keys.
  */
-public final class EncryptThenAuthenticate implements Aead {
+public final class EncryptThenAuthenticate implements ByteBufferAead, BatchAead {
   private final IndCpaCipher cipher;
   private final Mac mac;
   private final int macLength;
+  // Set iff cipher and mac support writing into caller-provided buffers.
+  private final AesCtrJceCipher ctrCipher;
+  private final MacJce macJce;
 
   public EncryptThenAuthenticate(final IndCpaCipher cipher, final Mac mac, int macLength) {
     this.cipher = cipher;
     this.mac = mac;
     this.macLength = macLength;
+    if (cipher instanceof AesCtrJceCipher
+        && mac instanceof MacJce
+        && ((MacJce) mac).getDigestSize() == macLength) {
+      this.ctrCipher = (AesCtrJceCipher) cipher;
+      this.macJce = (MacJce) mac;
+    } else {
+      this.ctrCipher = null;
+      this.macJce = null;
+    }
   }
 
   /**
@@ -54,6 +78,16 @@ public final class EncryptThenAuthenticate implements Aead {
    */
   @Override
   public byte[] encrypt(final byte[] plaintext, final byte[] aad) throws GeneralSecurityException {
+    if (ctrCipher != null) {
+      byte[] ciphertext = newCiphertext(plaintext);
+      Random.randBytes(ciphertext, 0, ctrCipher.getIvSize());
+      Cipher cipherEngine = ctrCipher.takeEngine();
+      javax.crypto.Mac macEngine = macJce.takeMac();
+      encrypt(cipherEngine, macEngine, plaintext, aad, ciphertext);
+      ctrCipher.releaseEngine(cipherEngine);
+      macJce.releaseMac(macEngine);
+      return ciphertext;
+    }
     byte[] ciphertext = cipher.encrypt(plaintext);
     byte[] aadLengthInBits =
         Arrays.copyOf(ByteBuffer.allocate(8).putLong(8L * aad.length).array(), 8);
@@ -73,6 +107,14 @@ public final class EncryptThenAuthenticate implements Aead {
    */
   @Override
   public byte[] decrypt(final byte[] ciphertext, final byte[] aad) throws GeneralSecurityException {
+    if (ctrCipher != null) {
+      Cipher cipherEngine = ctrCipher.takeEngine();
+      javax.crypto.Mac macEngine = macJce.takeMac();
+      byte[] plaintext = decrypt(cipherEngine, macEngine, ciphertext, aad);
+      ctrCipher.releaseEngine(cipherEngine);
+      macJce.releaseMac(macEngine);
+      return plaintext;
+    }
     if (ciphertext.length < macLength) {
       throw new GeneralSecurityException("ciphertext too short");
     }
@@ -84,4 +126,276 @@ public final class EncryptThenAuthenticate implements Aead {
     mac.verifyMac(macValue, Bytes.concat(aad, rawCiphertext, aadLengthInBits));
     return cipher.decrypt(rawCiphertext);
   }
+
+  @Override
+  public void encrypt(ByteBuffer plaintext, ByteBuffer aad, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    if (ctrCipher == null) {
+      byte[] result = encrypt(peekRemaining(plaintext), peekRemaining(aad));
+      putAndConsume(result, ciphertext, plaintext, aad);
+      return;
+    }
+    int plaintextLength = plaintext.remaining();
+    int ivSize = ctrCipher.getIvSize();
+    if (plaintextLength > Integer.MAX_VALUE - ivSize - macLength) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    if (ciphertext.remaining() < ivSize + plaintextLength + macLength) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    int firstPosition = ciphertext.position();
+    ctrCipher.encrypt(plaintext, ciphertext);
+    ByteBuffer rawCiphertext = ciphertext.duplicate();
+    rawCiphertext.limit(ciphertext.position());
+    rawCiphertext.position(firstPosition);
+    ciphertext.put(computeMac(aad, rawCiphertext), 0, macLength);
+  }
+
+  @Override
+  public void decrypt(ByteBuffer ciphertext, ByteBuffer aad, ByteBuffer plaintext)
+      throws GeneralSecurityException {
+    if (ctrCipher == null) {
+      byte[] result = decrypt(peekRemaining(ciphertext), peekRemaining(aad));
+      putAndConsume(result, plaintext, ciphertext, aad);
+      return;
+    }
+    int ciphertextLength = ciphertext.remaining();
+    int ivSize = ctrCipher.getIvSize();
+    if (ciphertextLength < ivSize + macLength) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (plaintext.remaining() < ciphertextLength - ivSize - macLength) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    int macPosition = ciphertext.limit() - macLength;
+    ByteBuffer rawCiphertext = ciphertext.duplicate();
+    rawCiphertext.limit(macPosition);
+    byte[] expectedMac =
+        Arrays.copyOf(computeMac(aad.duplicate(), rawCiphertext.duplicate()), macLength);
+    byte[] macValue = new byte[macLength];
+    ByteBuffer macBuffer = ciphertext.duplicate();
+    macBuffer.position(macPosition);
+    macBuffer.get(macValue);
+    if (!Bytes.equal(expectedMac, macValue)) {
+      throw new GeneralSecurityException("invalid MAC");
+    }
+    ctrCipher.decrypt(rawCiphertext, plaintext);
+    ciphertext.position(ciphertext.limit());
+    aad.position(aad.limit());
+  }
+
+  @Override
+  public int encrypt(
+      final byte[] plaintext,
+      int plaintextOffset,
+      int plaintextLength,
+      final byte[] aad,
+      byte[] ciphertext,
+      int ciphertextOffset)
+      throws GeneralSecurityException {
+    ByteBuffer output =
+        ByteBuffer.wrap(ciphertext, ciphertextOffset, ciphertext.length - ciphertextOffset);
+    encrypt(
+        ByteBuffer.wrap(plaintext, plaintextOffset, plaintextLength), ByteBuffer.wrap(aad), output);
+    return output.position() - ciphertextOffset;
+  }
+
+  @Override
+  public int decrypt(
+      final byte[] ciphertext,
+      int ciphertextOffset,
+      int ciphertextLength,
+      final byte[] aad,
+      byte[] plaintext,
+      int plaintextOffset)
+      throws GeneralSecurityException {
+    ByteBuffer output =
+        ByteBuffer.wrap(plaintext, plaintextOffset, plaintext.length - plaintextOffset);
+    decrypt(
+        ByteBuffer.wrap(ciphertext, ciphertextOffset, ciphertextLength),
+        ByteBuffer.wrap(aad),
+        output);
+    return output.position() - plaintextOffset;
+  }
+
+  /**
+   * Encrypts a batch of messages like {@link #encrypt(byte[], byte[])}. For AES-CTR-HMAC, the IVs
+   * of all messages are drawn from the random number generator at once, and a single cipher and
+   * MAC engine are used for the whole batch.
+   */
+  @Override
+  public List<byte[]> encryptBatch(List<byte[]> plaintexts, List<byte[]> aads)
+      throws GeneralSecurityException {
+    SubtleUtil.checkBatchSizes(plaintexts.size(), aads.size());
+    int count = plaintexts.size();
+    List<byte[]> ciphertexts = new ArrayList<byte[]>(count);
+    if (ctrCipher == null) {
+      for (int i = 0; i < count; i++) {
+        ciphertexts.add(encrypt(plaintexts.get(i), aads.get(i)));
+      }
+      return ciphertexts;
+    }
+    int ivSize = ctrCipher.getIvSize();
+    if (count > Integer.MAX_VALUE / ivSize) {
+      throw new GeneralSecurityException("batch too large");
+    }
+    byte[] ivs = Random.randBytes(count * ivSize);
+    Cipher cipherEngine = ctrCipher.takeEngine();
+    javax.crypto.Mac macEngine = macJce.takeMac();
+    for (int i = 0; i < count; i++) {
+      byte[] plaintext = plaintexts.get(i);
+      byte[] ciphertext = newCiphertext(plaintext);
+      System.arraycopy(ivs, i * ivSize, ciphertext, 0, ivSize);
+      encrypt(cipherEngine, macEngine, plaintext, aads.get(i), ciphertext);
+      ciphertexts.add(ciphertext);
+    }
+    ctrCipher.releaseEngine(cipherEngine);
+    macJce.releaseMac(macEngine);
+    return ciphertexts;
+  }
+
+  /**
+   * Decrypts a batch of messages like {@link #decrypt(byte[], byte[])}. For AES-CTR-HMAC, a single
+   * cipher and MAC engine are used for the whole batch.
+   */
+  @Override
+  public List<byte[]> decryptBatch(List<byte[]> ciphertexts, List<byte[]> aads)
+      throws GeneralSecurityException {
+    SubtleUtil.checkBatchSizes(ciphertexts.size(), aads.size());
+    int count = ciphertexts.size();
+    List<byte[]> plaintexts = new ArrayList<byte[]>(count);
+    if (ctrCipher == null) {
+      for (int i = 0; i < count; i++) {
+        try {
+          plaintexts.add(decrypt(ciphertexts.get(i), aads.get(i)));
+        } catch (GeneralSecurityException e) {
+          plaintexts.add(null);
+        }
+      }
+      return plaintexts;
+    }
+    Cipher cipherEngine = ctrCipher.takeEngine();
+    javax.crypto.Mac macEngine = macJce.takeMac();
+    for (int i = 0; i < count; i++) {
+      try {
+        plaintexts.add(decrypt(cipherEngine, macEngine, ciphertexts.get(i), aads.get(i)));
+      } catch (GeneralSecurityException e) {
+        plaintexts.add(null);
+      }
+    }
+    ctrCipher.releaseEngine(cipherEngine);
+    macJce.releaseMac(macEngine);
+    return plaintexts;
+  }
+
+  /**
+   * @return an array for the AES-CTR-HMAC ciphertext of {@code plaintext}, with room for the IV,
+   *     the raw ciphertext and the MAC.
+   */
+  private byte[] newCiphertext(final byte[] plaintext) throws GeneralSecurityException {
+    int ivSize = ctrCipher.getIvSize();
+    if (plaintext.length > Integer.MAX_VALUE - ivSize - macLength) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    return new byte[ivSize + plaintext.length + macLength];
+  }
+
+  /**
+   * Encrypts {@code plaintext} with AES-CTR-HMAC into {@code ciphertext}, which is allocated by
+   * {@link #newCiphertext} and already starts with the IV. The raw ciphertext and the MAC are
+   * written in place, and the MAC is computed from its parts without concatenating them.
+   */
+  private void encrypt(
+      Cipher cipherEngine,
+      javax.crypto.Mac macEngine,
+      final byte[] plaintext,
+      final byte[] aad,
+      byte[] ciphertext)
+      throws GeneralSecurityException {
+    int ivSize = ctrCipher.getIvSize();
+    int rawCiphertextLength = ivSize + plaintext.length;
+    ctrCipher.doCtr(
+        cipherEngine, plaintext, 0, plaintext.length, ciphertext, ivSize, ciphertext, 0, true);
+    updateMac(macEngine, aad, ciphertext, rawCiphertextLength);
+    if (macEngine.getMacLength() == macLength) {
+      macEngine.doFinal(ciphertext, rawCiphertextLength);
+    } else {
+      System.arraycopy(macEngine.doFinal(), 0, ciphertext, rawCiphertextLength, macLength);
+    }
+  }
+
+  /**
+   * Verifies and decrypts an AES-CTR-HMAC {@code ciphertext}. The MAC is checked in place, and the
+   * plaintext is decrypted directly into the returned array.
+   */
+  private byte[] decrypt(
+      Cipher cipherEngine, javax.crypto.Mac macEngine, final byte[] ciphertext, final byte[] aad)
+      throws GeneralSecurityException {
+    int ivSize = ctrCipher.getIvSize();
+    if (ciphertext.length < ivSize + macLength) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    int rawCiphertextLength = ciphertext.length - macLength;
+    updateMac(macEngine, aad, ciphertext, rawCiphertextLength);
+    byte[] expectedMac = macEngine.doFinal();
+    int diff = 0;
+    for (int i = 0; i < macLength; i++) {
+      diff |= expectedMac[i] ^ ciphertext[rawCiphertextLength + i];
+    }
+    if (diff != 0) {
+      throw new GeneralSecurityException("invalid MAC");
+    }
+    byte[] plaintext = new byte[rawCiphertextLength - ivSize];
+    ctrCipher.doCtr(
+        cipherEngine, ciphertext, ivSize, plaintext.length, plaintext, 0, ciphertext, 0, false);
+    return plaintext;
+  }
+
+  /** Feeds (aad || ciphertext[0, rawCiphertextLength) || t) into {@code macEngine}. */
+  private static void updateMac(
+      javax.crypto.Mac macEngine,
+      final byte[] aad,
+      final byte[] ciphertext,
+      int rawCiphertextLength) {
+    macEngine.update(aad);
+    macEngine.update(ciphertext, 0, rawCiphertextLength);
+    macEngine.update(ByteBuffer.allocate(8).putLong(8L * aad.length).array());
+  }
+
+  /**
+   * Computes the untruncated MAC over (aad || ciphertext || t) from the remaining bytes of {@code
+   * aad} and {@code rawCiphertext}, without concatenating them. Consumes both buffers.
+   */
+  private byte[] computeMac(ByteBuffer aad, ByteBuffer rawCiphertext)
+      throws GeneralSecurityException {
+    long aadLengthInBits = 8L * aad.remaining();
+    javax.crypto.Mac tmp = macJce.takeMac();
+    try {
+      tmp.update(aad);
+      tmp.update(rawCiphertext);
+      tmp.update(ByteBuffer.allocate(8).putLong(aadLengthInBits).array());
+      return tmp.doFinal();
+    } finally {
+      macJce.releaseMac(tmp);
+    }
+  }
+
+  /** @return the remaining bytes of {@code buffer}, without changing its position. */
+  private static byte[] peekRemaining(ByteBuffer buffer) {
+    byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
+  }
+
+  /** Writes {@code result} to {@code output}, then marks the inputs as consumed. */
+  private static void putAndConsume(
+      final byte[] result, ByteBuffer output, ByteBuffer input, ByteBuffer aad)
+      throws GeneralSecurityException {
+    if (output.remaining() < result.length) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    output.put(result);
+    input.position(input.limit());
+    aad.position(aad.limit());
+  }
 }
@@ -24,7 +24,13 @@ import java.security.Provider;
 import java.security.Security;
 import java.security.Signature;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import javax.crypto.Cipher;
 import javax.crypto.KeyAgreement;
@@ -36,11 +42,14 @@ import javax.crypto.Mac;
  * <p>This class contains a lot of static factories and static functions returning factories: these
  * allow customization and hide the typing complexity in this class. To use this class, import it,
  * and replace your `Cipher.getInstance(...` with `EngineFactory.CIPHER.getInstance(...`.
+ *
+ * <p>Each factory caches the provider it picked per algorithm; see {@link #getInstance}.
  */
 public final class EngineFactory<T_WRAPPER extends EngineWrapper<T_ENGINE>, T_ENGINE> {
   private static final Logger logger = Logger.getLogger(EngineFactory.class.getName());
   private static final List<Provider> defaultPolicy;
   private static final boolean DEFAULT_LET_FALLBACK = true;
+  private static final long PROVIDER_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
 
   // Warning: keep this above the initialization of static providers below. or you'll get null
   // pointer errors (due to this policy not being initialized).
@@ -151,29 +160,102 @@ public final class EngineFactory<T_WRAPPER extends EngineWrapper<T_ENGINE>, T_EN
     this.letFallback = letFallback;
   }
 
+  /**
+   * Returns an engine for {@code algorithm} from the first provider in the policy that supports
+   * it, or, if there is none and falling back is allowed, from the default JCE providers.
+   *
+   * <p>Which provider wins is remembered per algorithm, so that later calls create only one
+   * engine. The remembered providers are forgotten when the remembered provider fails, or when
+   * providers have been added to or removed from {@link Security}, which is checked at most once
+   * per second, since listing the providers takes a global lock and copies them. Algorithms that
+   * are left to the default JCE providers always get engines from the currently installed ones.
+   */
   public T_ENGINE getInstance(String algorithm) throws GeneralSecurityException {
-    for (Provider p : this.policy) {
-      if (tryProvider(algorithm, p)) {
-        return this.instanceBuilder.getInstance(algorithm, p);
+    long now = System.nanoTime();
+    if (now - nextProviderCheck >= 0) {
+      nextProviderCheck = now + PROVIDER_CHECK_INTERVAL_NANOS;
+      checkInstalledProviders();
+    }
+    Resolution resolution = resolutions.get(algorithm);
+    if (resolution != null) {
+      try {
+        return this.instanceBuilder.getInstance(algorithm, resolution.provider);
+      } catch (GeneralSecurityException e) {
+        resolutions.remove(algorithm, resolution);
       }
     }
-    if (letFallback) {
-      return this.instanceBuilder.getInstance(algorithm, null);
+    return resolve(algorithm);
+  }
+
+  /**
+   * Returns the providers that {@link #getInstance} currently uses, for diagnostics. The keys are
+   * the algorithms that have been requested; a {@code null} value means that the algorithm is left
+   * to the default JCE providers.
+   */
+  public Map<String, Provider> getResolvedProviders() {
+    checkInstalledProviders();
+    Map<String, Provider> result = new TreeMap<String, Provider>();
+    for (Map.Entry<String, Resolution> entry : resolutions.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().provider);
     }
-    throw new GeneralSecurityException("No good Provider found.");
+    return Collections.unmodifiableMap(result);
   }
 
   private T_WRAPPER instanceBuilder;
   private List<Provider> policy;
   private boolean letFallback;
+  private final ConcurrentMap<String, Resolution> resolutions =
+      new ConcurrentHashMap<String, Resolution>();
+  // The providers installed in Security when the resolutions were made.
+  private volatile Provider[] installedProviders = new Provider[0];
+  // When getInstance checks the installed providers again, in System.nanoTime().
+  private volatile long nextProviderCheck = System.nanoTime();
+
+  /** The provider that won for an algorithm; {@code null} stands for the default providers. */
+  private static final class Resolution {
+    static final Resolution DEFAULT = new Resolution(null);
+
+    final Provider provider;
 
-  private boolean tryProvider(String algorithm, Provider provider) {
-    try {
-      this.instanceBuilder.getInstance(algorithm, provider);
-      ;
-      return true;
-    } catch (Exception e) { // Don't care which one specifically.
-      return false;
+    Resolution(Provider provider) {
+      this.provider = provider;
+    }
+  }
+
+  private T_ENGINE resolve(String algorithm) throws GeneralSecurityException {
+    for (Provider p : this.policy) {
+      T_ENGINE engine;
+      try {
+        engine = this.instanceBuilder.getInstance(algorithm, p);
+      } catch (Exception e) { // Don't care which one specifically.
+        continue;
+      }
+      resolutions.put(algorithm, new Resolution(p));
+      return engine;
+    }
+    if (letFallback) {
+      T_ENGINE engine = this.instanceBuilder.getInstance(algorithm, null);
+      resolutions.put(algorithm, Resolution.DEFAULT);
+      return engine;
+    }
+    throw new GeneralSecurityException("No good Provider found.");
+  }
+
+  /**
+   * Forgets all resolutions if providers have been added to or removed from Security. Concurrent
+   * calls are harmless, at worst they forget the resolutions more than once.
+   */
+  private void checkInstalledProviders() {
+    Provider[] installed = Security.getProviders();
+    Provider[] previous = installedProviders;
+    boolean same = installed.length == previous.length;
+    for (int i = 0; same && i < installed.length; i++) {
+      // Provider.equals compares all properties, identity is enough here.
+      same = installed[i] == previous[i];
+    }
+    if (!same) {
+      resolutions.clear();
+      installedProviders = installed;
     }
   }
 }
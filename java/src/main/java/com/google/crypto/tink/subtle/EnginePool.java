@@ -0,0 +1,76 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free pool of JCE engines, e.g., {@code Cipher} or {@code Mac} instances, so that
+ * primitives do not obtain and key a new engine for every message.
+ *
+ * <p>The pool has a few slots per processor. A thread takes the engine from the slot picked by its
+ * id and puts it back when done, so a thread mostly reuses the same engine without contention, as
+ * with a {@link ThreadLocal}. Unlike a ThreadLocal, the number of engines is bounded no matter how
+ * many threads there are, e.g., with thread-per-request servers, and the engines are collected
+ * together with the primitive that owns the pool. If the slot is empty, a new engine is created;
+ * if it is taken when an engine is put back, that engine is dropped.
+ *
+ * <p>Engines must only be put back in a reusable state. Either the caller initializes an engine
+ * every time it takes one, and then may put it back in a {@code finally} block, or it does not put
+ * engines back after an exception.
+ */
+final class EnginePool<T> {
+  /** Creates the engines of a pool, e.g., already initialized with a key. */
+  interface EngineSource<T> {
+    T newEngine() throws GeneralSecurityException;
+  }
+
+  private static final int MAX_SLOTS = 64;
+  private static final int SLOTS = slots(Runtime.getRuntime().availableProcessors());
+
+  private final EngineSource<T> source;
+  private final AtomicReferenceArray<T> engines = new AtomicReferenceArray<T>(SLOTS);
+
+  EnginePool(EngineSource<T> source) {
+    this.source = source;
+  }
+
+  /** @return an engine from the pool, or a new one. */
+  T take() throws GeneralSecurityException {
+    T engine = engines.getAndSet(slot(), null);
+    return engine != null ? engine : source.newEngine();
+  }
+
+  /** Puts {@code engine}, which was returned by {@link #take}, back into the pool. */
+  void release(T engine) {
+    engines.compareAndSet(slot(), null, engine);
+  }
+
+  private static int slot() {
+    return (int) Thread.currentThread().getId() & (SLOTS - 1);
+  }
+
+  /** @return the smallest power of two that is at least twice {@code processors}. */
+  private static int slots(int processors) {
+    int slots = 1;
+    while (slots < 2 * processors && slots < MAX_SLOTS) {
+      slots <<= 1;
+    }
+    return slots;
+  }
+}
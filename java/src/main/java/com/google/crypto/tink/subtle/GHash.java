@@ -0,0 +1,199 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+/**
+ * Multiplication by a fixed element H of GF(2^128), the field of GHASH, see NIST SP 800-38D,
+ * section 6.3, with the tables of Shoup's method.
+ *
+ * <p>The tables hold the products of H with all values of a byte or of a nibble, and reduce a
+ * multiplication to 16 or 32 table lookups. The 8-bit tables take 4 KB and are worth computing
+ * when H is used for more than a few hundred bytes, e.g., for all messages of a GCM key; the 4-bit
+ * tables take 256 bytes and suit an H that is only used once, e.g., in AES-GCM-SIV. The lookups
+ * depend on the data, which is common to table-driven GHASH implementations, e.g., the ones in
+ * OpenSSL and the JDK without carry-less multiplication instructions.
+ *
+ * <p>A block is held as two longs, {@code hi} and {@code lo}, the big-endian values of its first
+ * and its last 8 bytes. Instances are immutable, and the callers keep the state of a hash
+ * computation.
+ */
+final class GHash {
+  static final int BLOCK_SIZE_IN_BYTES = 16;
+  static final int SMALL_TABLES = 4;
+  static final int LARGE_TABLES = 8;
+
+  // The reduction of a multiplication by x, which is a right shift in the bit order of GHASH.
+  private static final long R = 0xe100000000000000L;
+
+  // REDUCTION_n[r] is added to the high long when a right shift by n bits drops the low bits r.
+  private static final long[] REDUCTION_4 = reductionTable(SMALL_TABLES);
+  private static final long[] REDUCTION_8 = reductionTable(LARGE_TABLES);
+
+  private static long[] reductionTable(int bits) {
+    long[] table = new long[1 << bits];
+    for (int r = 0; r < table.length; r++) {
+      long hi = 0;
+      long lo = r;
+      for (int i = 0; i < bits; i++) {
+        hi = (hi >>> 1) ^ ((lo & 1) == 0 ? 0 : R);
+        lo >>>= 1;
+      }
+      table[r] = hi;
+    }
+    return table;
+  }
+
+  private final int bits;
+  // The products of H and the values v of a byte or nibble, which is the polynomial with the
+  // coefficient of x^0 in its most significant bit.
+  private final long[] tableHi;
+  private final long[] tableLo;
+
+  /** @param h the 16 bytes of H, e.g., the hash subkey of GCM. */
+  GHash(final byte[] h) {
+    this(loadBigEndian(h, 0), loadBigEndian(h, 8), LARGE_TABLES);
+  }
+
+  /** @param tableBits {@link #SMALL_TABLES} or {@link #LARGE_TABLES}. */
+  GHash(long hHi, long hLo, int tableBits) {
+    this.bits = tableBits;
+    int size = 1 << tableBits;
+    tableHi = new long[size];
+    tableLo = new long[size];
+    tableHi[size / 2] = hHi;
+    tableLo[size / 2] = hLo;
+    for (int i = size / 4; i > 0; i >>= 1) {
+      long hi = tableHi[2 * i];
+      long lo = tableLo[2 * i];
+      tableLo[i] = (hi << 63) | (lo >>> 1);
+      tableHi[i] = (hi >>> 1) ^ (-(lo & 1) & R);
+    }
+    for (int i = 2; i < size; i <<= 1) {
+      for (int j = 1; j < i; j++) {
+        tableHi[i + j] = tableHi[i] ^ tableHi[j];
+        tableLo[i + j] = tableLo[i] ^ tableLo[j];
+      }
+    }
+  }
+
+  /** Replaces {@code state}, i.e., {@code {hi, lo}}, with its product with H. */
+  void multiply(long[] state) {
+    if (bits == LARGE_TABLES) {
+      multiplyByBytes(state);
+    } else {
+      multiplyByNibbles(state);
+    }
+  }
+
+  // Horner's rule over the bytes, from the last one, which holds the highest coefficients.
+  private void multiplyByBytes(long[] state) {
+    long hi = state[0];
+    long lo = state[1];
+    int v = (int) lo & 0xff;
+    long zHi = tableHi[v];
+    long zLo = tableLo[v];
+    for (int shift = 8; shift < 64; shift += 8) {
+      v = (int) (lo >>> shift) & 0xff;
+      int r = (int) zLo & 0xff;
+      zLo = ((zHi << 56) | (zLo >>> 8)) ^ tableLo[v];
+      zHi = (zHi >>> 8) ^ REDUCTION_8[r] ^ tableHi[v];
+    }
+    for (int shift = 0; shift < 64; shift += 8) {
+      v = (int) (hi >>> shift) & 0xff;
+      int r = (int) zLo & 0xff;
+      zLo = ((zHi << 56) | (zLo >>> 8)) ^ tableLo[v];
+      zHi = (zHi >>> 8) ^ REDUCTION_8[r] ^ tableHi[v];
+    }
+    state[0] = zHi;
+    state[1] = zLo;
+  }
+
+  // Horner's rule over the nibbles, from the last one, which holds the highest coefficients.
+  private void multiplyByNibbles(long[] state) {
+    long hi = state[0];
+    long lo = state[1];
+    int v = (int) lo & 0xf;
+    long zHi = tableHi[v];
+    long zLo = tableLo[v];
+    for (int shift = 4; shift < 64; shift += 4) {
+      v = (int) (lo >>> shift) & 0xf;
+      int r = (int) zLo & 0xf;
+      zLo = ((zHi << 60) | (zLo >>> 4)) ^ tableLo[v];
+      zHi = (zHi >>> 4) ^ REDUCTION_4[r] ^ tableHi[v];
+    }
+    for (int shift = 0; shift < 64; shift += 4) {
+      v = (int) (hi >>> shift) & 0xf;
+      int r = (int) zLo & 0xf;
+      zLo = ((zHi << 60) | (zLo >>> 4)) ^ tableLo[v];
+      zHi = (zHi >>> 4) ^ REDUCTION_4[r] ^ tableHi[v];
+    }
+    state[0] = zHi;
+    state[1] = zLo;
+  }
+
+  /**
+   * Adds the blocks of {@code length} bytes of {@code data} starting at {@code offset} to {@code
+   * state} and multiplies with H after each one, as GHASH does. A partial last block is padded with
+   * zeros.
+   */
+  void update(long[] state, final byte[] data, int offset, int length) {
+    int end = offset + length;
+    int full = offset + length - length % BLOCK_SIZE_IN_BYTES;
+    for (int i = offset; i < full; i += BLOCK_SIZE_IN_BYTES) {
+      state[0] ^= loadBigEndian(data, i);
+      state[1] ^= loadBigEndian(data, i + 8);
+      multiply(state);
+    }
+    if (full < end) {
+      byte[] last = new byte[BLOCK_SIZE_IN_BYTES];
+      System.arraycopy(data, full, last, 0, end - full);
+      state[0] ^= loadBigEndian(last, 0);
+      state[1] ^= loadBigEndian(last, 8);
+      multiply(state);
+    }
+  }
+
+  static long loadBigEndian(final byte[] data, int offset) {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | (data[offset + i] & 0xff);
+    }
+    return value;
+  }
+
+  static void storeBigEndian(long value, byte[] output, int offset) {
+    for (int i = 7; i >= 0; i--) {
+      output[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  static long loadLittleEndian(final byte[] data, int offset) {
+    long value = 0;
+    for (int i = 7; i >= 0; i--) {
+      value = (value << 8) | (data[offset + i] & 0xff);
+    }
+    return value;
+  }
+
+  static void storeLittleEndian(long value, byte[] output, int offset) {
+    for (int i = 0; i < 8; i++) {
+      output[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+}
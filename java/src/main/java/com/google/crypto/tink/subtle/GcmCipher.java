@@ -0,0 +1,512 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An AES-GCM engine with 12-byte IVs and 16-byte tags, which is either the {@code
+ * AES/GCM/NoPadding} cipher of the platform or a Java implementation of GCM on top of the {@code
+ * AES/CTR/NoPadding} cipher of the platform, see {@link #newInstance}. Both compute the same
+ * ciphertexts.
+ *
+ * <p>The Java implementation computes GHASH with the 8-bit tables of {@link GHash}, which are
+ * computed once per key. It exists for platforms whose GCM computes GHASH without carry-less
+ * multiplication instructions and much slower than the tables, e.g., older JVMs and some Android
+ * builds, while their AES-CTR is fast.
+ *
+ * <p>The system property {@value #PROPERTY} selects the engine: {@code java} for the Java
+ * implementation, e.g., on JVMs without intrinsics for GHASH, and {@code platform} for the platform
+ * cipher. Without it, the choice is automatic, see {@link Platform}. The property is independent of
+ * {@value PlatformEngines#PROPERTY}, which concerns other algorithms.
+ *
+ * <p>Like a {@link Cipher}, an engine is initialized for every message and must only be used by one
+ * thread at a time. Unlike a Cipher, the AAD must be given at once, with a single call to {@code
+ * updateAad} after {@link #init}, and only encryption can be fed in several parts.
+ */
+abstract class GcmCipher {
+  static final int IV_SIZE_IN_BYTES = 12;
+  static final int TAG_SIZE_IN_BYTES = 16;
+
+  static final String PROPERTY = "com.google.crypto.tink.subtle.gcmCipher";
+  static final String JAVA = "java";
+  static final String PLATFORM = "platform";
+
+  private static final Logger logger = Logger.getLogger(GcmCipher.class.getName());
+
+  /**
+   * Whether {@link #newInstance} returns the platform cipher, decided when it is first needed.
+   *
+   * <p>The platform cipher is used unless it fails its known-answer test, or, on Android, a short
+   * probe finds the Java implementation at least twice as fast. There the platform cipher is native
+   * code, which a probe right after startup measures fairly. On other JVMs the platform cipher is
+   * Java code with intrinsics that the JIT only uses once it has compiled the cipher, so a probe
+   * favors the Java implementation even where the platform is several times faster. There only
+   * {@value #PROPERTY} selects the Java implementation.
+   */
+  private static final class Platform {
+    // The Galois/Counter Mode of Operation (GCM), test case 4.
+    private static final byte[] KEY = Hex.decode("feffe9928665731c6d6a8f9467308308");
+    private static final byte[] IV = Hex.decode("cafebabefacedbaddecaf888");
+    private static final byte[] AAD = Hex.decode("feedfacedeadbeeffeedfacedeadbeefabaddad2");
+    private static final byte[] PLAINTEXT =
+        Hex.decode(
+            "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+                + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b39");
+    private static final byte[] CIPHERTEXT_AND_TAG =
+        Hex.decode(
+            "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+                + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091"
+                + "5bc94fbc3221a5db94fae95ae7121a47");
+
+    private static final int PROBE_SIZE_IN_BYTES = 8192;
+    private static final int PROBE_ROUNDS = 8;
+
+    private static final PlatformEngines.KnownAnswerTest TEST =
+        new PlatformEngines.KnownAnswerTest() {
+          @Override
+          public boolean passes() throws GeneralSecurityException {
+            GcmCipher cipher = newPlatformInstance();
+            SecretKey key = new SecretKeySpec(KEY, "AES");
+            cipher.init(true, key, IV, 0);
+            cipher.updateAad(AAD);
+            if (!Bytes.equal(cipher.doFinal(PLAINTEXT, 0, PLAINTEXT.length), CIPHERTEXT_AND_TAG)) {
+              return false;
+            }
+            cipher.init(false, key, IV, 0);
+            cipher.updateAad(AAD);
+            return Bytes.equal(
+                cipher.doFinal(CIPHERTEXT_AND_TAG, 0, CIPHERTEXT_AND_TAG.length), PLAINTEXT);
+          }
+        };
+
+    // Initialized after TEST, which it may run.
+    static final boolean ENABLED = usePlatform(System.getProperty(PROPERTY));
+
+    /** @return whether the Java implementation encrypts at least twice as fast as the platform. */
+    private static boolean javaIsMuchFaster() {
+      try {
+        long platform = fastestEncryption(newPlatformInstance());
+        long java = fastestEncryption(newJavaInstance());
+        return 2 * java < platform;
+      } catch (GeneralSecurityException | RuntimeException e) {
+        // The known-answer test or the first engine that is created reports the problem.
+        return false;
+      }
+    }
+
+    /** @return the nanoseconds of the fastest of a few encryptions with {@code cipher}. */
+    private static long fastestEncryption(GcmCipher cipher) throws GeneralSecurityException {
+      SecretKey key = new SecretKeySpec(new byte[16], "AES");
+      byte[] iv = new byte[IV_SIZE_IN_BYTES];
+      byte[] plaintext = new byte[PROBE_SIZE_IN_BYTES];
+      byte[] ciphertext = new byte[PROBE_SIZE_IN_BYTES + TAG_SIZE_IN_BYTES];
+      long fastest = Long.MAX_VALUE;
+      for (int i = 0; i < PROBE_ROUNDS; i++) {
+        // A new IV every time, since ciphers refuse to encrypt twice with the same one.
+        iv[0] = (byte) i;
+        long start = System.nanoTime();
+        cipher.init(true, key, iv, 0);
+        int unusedWritten = cipher.doFinal(plaintext, 0, plaintext.length, ciphertext, 0);
+        fastest = Math.min(fastest, System.nanoTime() - start);
+      }
+      return fastest;
+    }
+  }
+
+  /**
+   * @param property the value of {@value #PROPERTY}, or null.
+   * @return whether {@link #newInstance} returns the platform cipher.
+   */
+  static boolean usePlatform(String property) {
+    if (JAVA.equals(property)) {
+      return false;
+    }
+    if (PLATFORM.equals(property)) {
+      return true;
+    }
+    if (property != null) {
+      logger.warning("ignoring " + PROPERTY + "=" + property + ", expected java or platform");
+    }
+    if (SubtleUtil.isAndroid() && Platform.javaIsMuchFaster()) {
+      return false;
+    }
+    return PlatformEngines.passes("AES-GCM", Platform.TEST);
+  }
+
+  /**
+   * @return the platform cipher or the Java implementation, as selected by {@value #PROPERTY} or
+   *     decided by {@link Platform}.
+   */
+  static GcmCipher newInstance() throws GeneralSecurityException {
+    return Platform.ENABLED ? newPlatformInstance() : newJavaInstance();
+  }
+
+  static GcmCipher newPlatformInstance() throws GeneralSecurityException {
+    return new PlatformGcm(EngineFactory.CIPHER.getInstance("AES/GCM/NoPadding"));
+  }
+
+  static GcmCipher newJavaInstance() throws GeneralSecurityException {
+    return new JavaGcm(EngineFactory.CIPHER.getInstance("AES/CTR/NoPadding"));
+  }
+
+  /**
+   * Starts a new message.
+   *
+   * @param iv an array that contains the {@value #IV_SIZE_IN_BYTES} bytes of the IV starting at
+   *     {@code ivOffset}.
+   */
+  abstract void init(boolean encrypt, SecretKey key, final byte[] iv, int ivOffset)
+      throws GeneralSecurityException;
+
+  /** Authenticates {@code aad}, which must be given before the message. */
+  abstract void updateAad(final byte[] aad) throws GeneralSecurityException;
+
+  /** Authenticates the remaining bytes of {@code aad}, and advances its position to its limit. */
+  abstract void updateAad(ByteBuffer aad) throws GeneralSecurityException;
+
+  /**
+   * Encrypts the remaining bytes of {@code input} into {@code output}, as a part of the message
+   * that {@link #doFinal} completes. Only supported for encryption.
+   *
+   * @return the number of bytes written to {@code output}.
+   */
+  abstract int update(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException;
+
+  /**
+   * Encrypts the remaining bytes of {@code input} and writes them and the tag to {@code output}, or
+   * decrypts the remaining bytes of {@code input}, which end with the tag, and writes the plaintext
+   * to {@code output} once the tag is verified. {@code input} and {@code output} may overlap.
+   *
+   * @return the number of bytes written to {@code output}.
+   * @throws AEADBadTagException if the tag is not correct
+   */
+  abstract int doFinal(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException;
+
+  /** Like {@link #doFinal(ByteBuffer, ByteBuffer)}, for arrays. */
+  abstract int doFinal(
+      final byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset)
+      throws GeneralSecurityException;
+
+  /** Like {@link #doFinal(ByteBuffer, ByteBuffer)}, into a new array. */
+  abstract byte[] doFinal(final byte[] input, int inputOffset, int inputLength)
+      throws GeneralSecurityException;
+
+  /** Delegates to the {@code AES/GCM/NoPadding} cipher of the platform. */
+  private static final class PlatformGcm extends GcmCipher {
+    private final Cipher cipher;
+
+    PlatformGcm(Cipher cipher) {
+      this.cipher = cipher;
+    }
+
+    @Override
+    void init(boolean encrypt, SecretKey key, final byte[] iv, int ivOffset)
+        throws GeneralSecurityException {
+      cipher.init(
+          encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE,
+          key,
+          new GCMParameterSpec(8 * TAG_SIZE_IN_BYTES, iv, ivOffset, IV_SIZE_IN_BYTES));
+    }
+
+    @Override
+    void updateAad(final byte[] aad) {
+      cipher.updateAAD(aad);
+    }
+
+    @Override
+    void updateAad(ByteBuffer aad) {
+      cipher.updateAAD(aad);
+    }
+
+    @Override
+    int update(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+      return cipher.update(input, output);
+    }
+
+    @Override
+    int doFinal(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+      return cipher.doFinal(input, output);
+    }
+
+    @Override
+    int doFinal(
+        final byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset)
+        throws GeneralSecurityException {
+      return cipher.doFinal(input, inputOffset, inputLength, output, outputOffset);
+    }
+
+    @Override
+    byte[] doFinal(final byte[] input, int inputOffset, int inputLength)
+        throws GeneralSecurityException {
+      return cipher.doFinal(input, inputOffset, inputLength);
+    }
+  }
+
+  /**
+   * GCM with the {@code AES/CTR/NoPadding} cipher of the platform and a {@link GHash}.
+   *
+   * <p>The CTR cipher increments the whole counter block, while GCM only increments its last 32
+   * bits. This makes no difference, since a message of less than 2^31 bytes never wraps them.
+   */
+  private static final class JavaGcm extends GcmCipher {
+    private static final byte[] ZERO_BLOCK = new byte[GHash.BLOCK_SIZE_IN_BYTES];
+
+    private final Cipher ctr;
+    // The key of the last message, and the GHASH for its hash subkey.
+    private SecretKey key;
+    private GHash ghash;
+
+    private boolean initialized;
+    private boolean encrypt;
+    // The encryption of the first counter block, which masks the tag.
+    private final byte[] tagMask = new byte[TAG_SIZE_IN_BYTES];
+    private final long[] state = new long[2];
+    private long aadLength;
+    private long textLength;
+    // The last bytes of the ciphertext that do not fill a block yet.
+    private final byte[] partialBlock = new byte[GHash.BLOCK_SIZE_IN_BYTES];
+    private int partialLength;
+
+    JavaGcm(Cipher ctr) {
+      this.ctr = ctr;
+    }
+
+    @Override
+    void init(boolean encrypt, SecretKey key, final byte[] iv, int ivOffset)
+        throws GeneralSecurityException {
+      initialized = false;
+      if (key != this.key) {
+        // The hash subkey is the encryption of the zero block, i.e., of a zero counter block.
+        ctr.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(ZERO_BLOCK));
+        ghash = new GHash(ctr.doFinal(ZERO_BLOCK));
+        this.key = key;
+      }
+      byte[] counter = new byte[GHash.BLOCK_SIZE_IN_BYTES];
+      System.arraycopy(iv, ivOffset, counter, 0, IV_SIZE_IN_BYTES);
+      counter[GHash.BLOCK_SIZE_IN_BYTES - 1] = 1;
+      ctr.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(counter));
+      crypt(ZERO_BLOCK, 0, TAG_SIZE_IN_BYTES, tagMask, 0);
+      this.encrypt = encrypt;
+      state[0] = 0;
+      state[1] = 0;
+      aadLength = 0;
+      textLength = 0;
+      partialLength = 0;
+      initialized = true;
+    }
+
+    @Override
+    void updateAad(final byte[] aad) {
+      updateAad(aad, 0, aad.length);
+    }
+
+    @Override
+    void updateAad(ByteBuffer aad) {
+      int length = aad.remaining();
+      if (aad.hasArray()) {
+        updateAad(aad.array(), aad.arrayOffset() + aad.position(), length);
+        aad.position(aad.limit());
+      } else {
+        byte[] copy = new byte[length];
+        aad.get(copy);
+        updateAad(copy, 0, length);
+      }
+    }
+
+    private void updateAad(final byte[] aad, int offset, int length) {
+      checkInitialized();
+      if (aadLength != 0 || textLength != 0) {
+        throw new IllegalStateException("AAD must be given at once, before the message");
+      }
+      ghash.update(state, aad, offset, length);
+      aadLength = length;
+    }
+
+    @Override
+    int update(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+      checkInitialized();
+      if (!encrypt) {
+        throw new IllegalStateException("decryption must be done at once");
+      }
+      return process(input, output, input.remaining(), false);
+    }
+
+    @Override
+    int doFinal(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+      checkInitialized();
+      return process(input, output, outputLength(input.remaining()), true);
+    }
+
+    /** Moves the buffers to the arrays of {@link #update} or {@link #doFinal}. */
+    private int process(ByteBuffer input, ByteBuffer output, int outputLength, boolean last)
+        throws GeneralSecurityException {
+      if (output.remaining() < outputLength) {
+        throw new ShortBufferException("output buffer too small");
+      }
+      int inputLength = input.remaining();
+      byte[] in;
+      int inOffset;
+      if (input.hasArray()) {
+        in = input.array();
+        inOffset = input.arrayOffset() + input.position();
+      } else {
+        in = new byte[inputLength];
+        input.duplicate().get(in);
+        inOffset = 0;
+      }
+      int written;
+      if (output.hasArray()) {
+        int outOffset = output.arrayOffset() + output.position();
+        written =
+            last
+                ? doFinal(in, inOffset, inputLength, output.array(), outOffset)
+                : update(in, inOffset, inputLength, output.array(), outOffset);
+        output.position(output.position() + written);
+      } else {
+        byte[] out = new byte[outputLength];
+        written =
+            last
+                ? doFinal(in, inOffset, inputLength, out, 0)
+                : update(in, inOffset, inputLength, out, 0);
+        output.put(out, 0, written);
+      }
+      input.position(input.limit());
+      return written;
+    }
+
+    private int update(
+        final byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset)
+        throws GeneralSecurityException {
+      crypt(input, inputOffset, inputLength, output, outputOffset);
+      hashCiphertext(output, outputOffset, inputLength);
+      return inputLength;
+    }
+
+    @Override
+    int doFinal(
+        final byte[] input, int inputOffset, int inputLength, byte[] output, int outputOffset)
+        throws GeneralSecurityException {
+      checkInitialized();
+      initialized = false;
+      if (encrypt) {
+        if (output.length - outputOffset < inputLength + TAG_SIZE_IN_BYTES) {
+          throw new ShortBufferException("output buffer too small");
+        }
+        update(input, inputOffset, inputLength, output, outputOffset);
+        computeTag(output, outputOffset + inputLength);
+        return inputLength + TAG_SIZE_IN_BYTES;
+      }
+      if (inputLength < TAG_SIZE_IN_BYTES) {
+        throw new AEADBadTagException("ciphertext too short");
+      }
+      int ciphertextLength = inputLength - TAG_SIZE_IN_BYTES;
+      if (output.length - outputOffset < ciphertextLength) {
+        throw new ShortBufferException("output buffer too small");
+      }
+      // The tag is verified before any plaintext is written, which may overwrite the ciphertext.
+      hashCiphertext(input, inputOffset, ciphertextLength);
+      byte[] tag = new byte[TAG_SIZE_IN_BYTES];
+      computeTag(tag, 0);
+      int tagOffset = inputOffset + ciphertextLength;
+      if (!Bytes.equal(
+          tag, Arrays.copyOfRange(input, tagOffset, tagOffset + TAG_SIZE_IN_BYTES))) {
+        throw new AEADBadTagException("tag mismatch");
+      }
+      crypt(input, inputOffset, ciphertextLength, output, outputOffset);
+      return ciphertextLength;
+    }
+
+    @Override
+    byte[] doFinal(final byte[] input, int inputOffset, int inputLength)
+        throws GeneralSecurityException {
+      checkInitialized();
+      byte[] output = new byte[outputLength(inputLength)];
+      int unusedWritten = doFinal(input, inputOffset, inputLength, output, 0);
+      return output;
+    }
+
+    /** @return the length of the output of {@link #doFinal} for {@code inputLength} bytes. */
+    private int outputLength(int inputLength) {
+      if (encrypt) {
+        return inputLength + TAG_SIZE_IN_BYTES;
+      }
+      // Shorter ciphertexts are rejected by doFinal.
+      return Math.max(inputLength - TAG_SIZE_IN_BYTES, 0);
+    }
+
+    private void checkInitialized() {
+      if (!initialized) {
+        throw new IllegalStateException("not initialized");
+      }
+    }
+
+    /** Applies the key stream, which the CTR cipher of the platform must not buffer. */
+    private void crypt(
+        final byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+        throws GeneralSecurityException {
+      if (ctr.update(input, inputOffset, length, output, outputOffset) != length) {
+        throw new GeneralSecurityException("the CTR cipher did not process all input");
+      }
+    }
+
+    /** Hashes the next {@code length} bytes of the ciphertext, which may end in a partial block. */
+    private void hashCiphertext(final byte[] data, int offset, int length) {
+      textLength += length;
+      if (partialLength > 0) {
+        int n = Math.min(length, GHash.BLOCK_SIZE_IN_BYTES - partialLength);
+        System.arraycopy(data, offset, partialBlock, partialLength, n);
+        partialLength += n;
+        offset += n;
+        length -= n;
+        if (partialLength < GHash.BLOCK_SIZE_IN_BYTES) {
+          return;
+        }
+        ghash.update(state, partialBlock, 0, GHash.BLOCK_SIZE_IN_BYTES);
+        partialLength = 0;
+      }
+      int full = length - length % GHash.BLOCK_SIZE_IN_BYTES;
+      ghash.update(state, data, offset, full);
+      partialLength = length - full;
+      System.arraycopy(data, offset + full, partialBlock, 0, partialLength);
+    }
+
+    /** Writes the tag of the hashed AAD and ciphertext to {@code output} at {@code offset}. */
+    private void computeTag(byte[] output, int offset) {
+      // GHash pads a partial block with zeros.
+      ghash.update(state, partialBlock, 0, partialLength);
+      state[0] ^= 8 * aadLength;
+      state[1] ^= 8 * textLength;
+      ghash.multiply(state);
+      GHash.storeBigEndian(state[0], output, offset);
+      GHash.storeBigEndian(state[1], output, offset + 8);
+      for (int i = 0; i < TAG_SIZE_IN_BYTES; i++) {
+        output[offset + i] ^= tagMask[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,155 @@
+// Copyright 2017 Google Inc.
+// //
+// // Licensed under the Apache License, Version 2.0 (the "License");
+// // you may not use this file except in compliance with the License.
+// // You may obtain a copy of the License at
+// //
+// //      http://www.apache.org/licenses/LICENSE-2.0
+// //
+// // Unless required by applicable law or agreed to in writing, software
+// // distributed under the License is distributed on an "AS IS" BASIS,
+// // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// // See the License for the specific language governing permissions and
+// // limitations under the License.
+// //
+// ////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Generates the 12 byte nonces of {@link AesGcmJce} from a counter rather than at random, and
+ * bounds the number of messages that are encrypted with a key.
+ *
+ * <p>A nonce is a random 4 byte prefix, chosen when the sequencer is created, followed by a 8 byte
+ * big-endian counter. Random nonces limit a key to about 2^32 messages, whereas counter nonces
+ * never repeat within a sequencer, and generating one takes no call to the random number
+ * generator. Nonces of two sequencers repeat if their prefixes collide, so a key should be used
+ * with a single sequencer, or with only a few, e.g., one per process.
+ *
+ * <p>The counter is handed out to threads in blocks, which a thread takes from the slot picked by
+ * its id, as in {@link EnginePool}, so that threads do not contend for a single counter. The usage
+ * of a key is counted in whole blocks, so {@link #getUsage} can exceed the number of encrypted
+ * messages by a block per slot. Once {@code maxMessages} nonces have been handed out, encryption
+ * fails, and an optional {@link UsageListener} is told in advance, e.g., to rotate the key.
+ *
+ * <p>Usage:
+ *
+ * <pre>{@code
+ * GcmNonceSequencer nonces = new GcmNonceSequencer(1L << 40, 1L << 39, listener);
+ * AesGcmJce aead = new AesGcmJce(key, nonces);
+ * }</pre>
+ */
+public final class GcmNonceSequencer {
+  /** Is told when the usage of a key reaches its threshold. */
+  public interface UsageListener {
+    /**
+     * Called once, by the thread that takes the block of nonces that reaches {@code threshold}.
+     *
+     * @param threshold the number of nonces after which the listener is called.
+     * @param maxMessages the number of nonces after which encryption fails.
+     */
+    void thresholdReached(long threshold, long maxMessages);
+  }
+
+  static final int NONCE_SIZE_IN_BYTES = 12;
+  private static final int PREFIX_SIZE_IN_BYTES = 4;
+  private static final int BLOCK_SIZE = 256;
+  private static final int MAX_SLOTS = 64;
+  private static final int SLOTS = slots(Runtime.getRuntime().availableProcessors());
+
+  private final byte[] prefix = Random.randBytes(PREFIX_SIZE_IN_BYTES);
+  private final long maxMessages;
+  private final long threshold;
+  private final UsageListener listener;
+  // The number of nonces handed out to slots so far, i.e., the next counter of a new block.
+  private final AtomicLong usage = new AtomicLong();
+  // Blocks of the counter as {next, end}, which are owned by the thread that took them.
+  private final AtomicReferenceArray<long[]> blocks = new AtomicReferenceArray<long[]>(SLOTS);
+
+  /**
+   * @param maxMessages the number of messages after which encryption fails.
+   * @throws IllegalArgumentException if {@code maxMessages} is not positive
+   */
+  public GcmNonceSequencer(long maxMessages) {
+    this(maxMessages, maxMessages, null);
+  }
+
+  /**
+   * @param maxMessages the number of messages after which encryption fails.
+   * @param threshold the number of messages after which {@code listener} is called.
+   * @throws IllegalArgumentException if {@code maxMessages} is not positive, or {@code threshold}
+   *     is not between 1 and {@code maxMessages}
+   */
+  public GcmNonceSequencer(long maxMessages, long threshold, UsageListener listener) {
+    if (maxMessages <= 0) {
+      throw new IllegalArgumentException("maxMessages must be positive");
+    }
+    if (threshold <= 0 || threshold > maxMessages) {
+      throw new IllegalArgumentException("threshold must be between 1 and maxMessages");
+    }
+    this.maxMessages = maxMessages;
+    this.threshold = threshold;
+    this.listener = listener;
+  }
+
+  /** @return the number of nonces handed out so far, at least the number of encrypted messages. */
+  public long getUsage() {
+    return usage.get();
+  }
+
+  public long getMaxMessages() {
+    return maxMessages;
+  }
+
+  /**
+   * Writes the next nonce to {@code output} starting at {@code offset}.
+   *
+   * @throws GeneralSecurityException if {@code maxMessages} nonces have been handed out
+   */
+  void next(byte[] output, int offset) throws GeneralSecurityException {
+    int slot = (int) Thread.currentThread().getId() & (SLOTS - 1);
+    long[] block = blocks.getAndSet(slot, null);
+    if (block == null || block[0] == block[1]) {
+      block = reserve();
+    }
+    long counter = block[0]++;
+    // If another thread has filled the slot in the meantime, the rest of this block is dropped.
+    blocks.compareAndSet(slot, null, block);
+
+    System.arraycopy(prefix, 0, output, offset, PREFIX_SIZE_IN_BYTES);
+    for (int i = NONCE_SIZE_IN_BYTES - 1; i >= PREFIX_SIZE_IN_BYTES; i--) {
+      output[offset + i] = (byte) counter;
+      counter >>>= 8;
+    }
+  }
+
+  /** @return a new block of the counter. */
+  private long[] reserve() throws GeneralSecurityException {
+    while (true) {
+      long start = usage.get();
+      if (start >= maxMessages) {
+        throw new GeneralSecurityException("the key has encrypted its maximum number of messages");
+      }
+      long end = start + Math.min(BLOCK_SIZE, maxMessages - start);
+      if (usage.compareAndSet(start, end)) {
+        if (listener != null && start < threshold && threshold <= end) {
+          listener.thresholdReached(threshold, maxMessages);
+        }
+        return new long[] {start, end};
+      }
+    }
+  }
+
+  /** @return the smallest power of two that is at least twice {@code processors}. */
+  private static int slots(int processors) {
+    int slots = 1;
+    while (slots < 2 * processors && slots < MAX_SLOTS) {
+      slots <<= 1;
+    }
+    return slots;
+  }
+}
@@ -17,14 +17,23 @@
 package com.google.crypto.tink.subtle;
 
 import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
  * This class implements HMAC-based Extract-and-Expand Key Derivation Function (HKDF)
  * https://tools.ietf.org/html/rfc5869.
+ *
+ * <p>The HMAC engines are pooled per algorithm, so a derivation only pays for keying them with the
+ * salt and with the pseudorandom key. To derive several keys from the same input keying material
+ * and salt, use {@link HkdfPrk}, which extracts the pseudorandom key once.
  */
 public final class Hkdf {
+  // Engines that are initialized with a key every time they are taken.
+  private static final ConcurrentMap<String, EnginePool<Mac>> ENGINES =
+      new ConcurrentHashMap<String, EnginePool<Mac>>();
 
   /**
    * Computes an HKDF.
@@ -45,37 +54,15 @@ public final class Hkdf {
   public static byte[] computeHkdf(
       String macAlgorithm, final byte[] ikm, final byte[] salt, final byte[] info, int size)
       throws GeneralSecurityException {
-    Mac mac = EngineFactory.MAC.getInstance(macAlgorithm);
-    if (size > 255 * mac.getMacLength()) {
-      throw new GeneralSecurityException("size too large");
-    }
-    if (salt == null || salt.length == 0) {
-      // According to RFC 5869, Section 2.2 the salt is optional. If no salt is provided
-      // then HKDF uses a salt that is an array of zeros of the same length as the hash digest.
-      mac.init(new SecretKeySpec(new byte[mac.getMacLength()], macAlgorithm));
-    } else {
-      mac.init(new SecretKeySpec(salt, macAlgorithm));
-    }
+    EnginePool<Mac> engines = engines(macAlgorithm);
+    Mac mac = engines.take();
+    checkSize(mac, size);
+    mac.init(saltKey(mac, macAlgorithm, salt));
     byte[] prk = mac.doFinal(ikm);
-    byte[] result = new byte[size];
-    int ctr = 1;
-    int pos = 0;
     mac.init(new SecretKeySpec(prk, macAlgorithm));
-    byte[] digest = new byte[0];
-    while (true) {
-      mac.update(digest);
-      mac.update(info);
-      mac.update((byte) ctr);
-      digest = mac.doFinal();
-      if (pos + digest.length < size) {
-        System.arraycopy(digest, 0, result, pos, digest.length);
-        pos += digest.length;
-        ctr++;
-      } else {
-        System.arraycopy(digest, 0, result, pos, size - pos);
-        break;
-      }
-    }
+    byte[] result = new byte[size];
+    expand(mac, info, result, 0, size);
+    engines.release(mac);
     return result;
   }
 
@@ -105,7 +92,157 @@ public final class Hkdf {
       final byte[] hkdfInfo,
       int keySizeInBytes)
       throws GeneralSecurityException {
-    byte[] hkdfInput = Bytes.concat(ephemeralPublicKeyBytes, sharedSecret);
-    return Hkdf.computeHkdf(hmacAlgo, hkdfInput, hkdfSalt, hkdfInfo, keySizeInBytes);
+    EnginePool<Mac> engines = engines(hmacAlgo);
+    Mac mac = engines.take();
+    checkSize(mac, keySizeInBytes);
+    mac.init(saltKey(mac, hmacAlgo, hkdfSalt));
+    // The input keying material is the concatenation of both arguments.
+    mac.update(ephemeralPublicKeyBytes);
+    byte[] prk = mac.doFinal(sharedSecret);
+    mac.init(new SecretKeySpec(prk, hmacAlgo));
+    byte[] result = new byte[keySizeInBytes];
+    expand(mac, hkdfInfo, result, 0, keySizeInBytes);
+    engines.release(mac);
+    return result;
+  }
+
+  /**
+   * Extracts the pseudorandom keys of ECIES for a fixed salt, e.g., the salt of an ECIES key, with
+   * HMAC engines that are already keyed with the salt. Deriving a key thus only pays for keying an
+   * engine with the pseudorandom key.
+   */
+  static final class EciesExtractor {
+    private final String hmacAlgo;
+    private final byte[] hkdfSalt;
+    private final EnginePool<Mac> saltedEngines;
+
+    EciesExtractor(String hmacAlgo, final byte[] hkdfSalt) throws GeneralSecurityException {
+      this.hmacAlgo = hmacAlgo;
+      this.hkdfSalt = hkdfSalt == null ? new byte[0] : hkdfSalt.clone();
+      EnginePool<Mac> engines = engines(hmacAlgo);
+      Mac mac = engines.take();
+      this.saltedEngines = keyedEngines(hmacAlgo, saltKey(mac, hmacAlgo, hkdfSalt));
+      engines.release(mac);
+    }
+
+    /** @return whether this extractor uses {@code hmacAlgo} and {@code hkdfSalt}. */
+    boolean matches(String hmacAlgo, final byte[] hkdfSalt) {
+      return this.hmacAlgo.equals(hmacAlgo)
+          && Bytes.equal(this.hkdfSalt, hkdfSalt == null ? new byte[0] : hkdfSalt);
+    }
+
+    /** Like {@link Hkdf#computeEciesHkdfSymmetricKey}, with the salt of this extractor. */
+    byte[] computeSymmetricKey(
+        final byte[] ephemeralPublicKeyBytes,
+        final byte[] sharedSecret,
+        final byte[] hkdfInfo,
+        int keySizeInBytes)
+        throws GeneralSecurityException {
+      Mac salted = saltedEngines.take();
+      checkSize(salted, keySizeInBytes);
+      salted.update(ephemeralPublicKeyBytes);
+      byte[] prk = salted.doFinal(sharedSecret);
+      saltedEngines.release(salted);
+
+      EnginePool<Mac> engines = engines(hmacAlgo);
+      Mac mac = engines.take();
+      mac.init(new SecretKeySpec(prk, hmacAlgo));
+      byte[] result = new byte[keySizeInBytes];
+      expand(mac, hkdfInfo, result, 0, keySizeInBytes);
+      engines.release(mac);
+      return result;
+    }
+  }
+
+  /** @return the pseudorandom key of the HKDF with {@code ikm} and {@code salt}. */
+  static byte[] extract(String macAlgorithm, final byte[] ikm, final byte[] salt)
+      throws GeneralSecurityException {
+    EnginePool<Mac> engines = engines(macAlgorithm);
+    Mac mac = engines.take();
+    mac.init(saltKey(mac, macAlgorithm, salt));
+    byte[] prk = mac.doFinal(ikm);
+    engines.release(mac);
+    return prk;
+  }
+
+  /** @return the pool of engines for {@code macAlgorithm}, which must be keyed before use. */
+  private static EnginePool<Mac> engines(final String macAlgorithm) {
+    EnginePool<Mac> engines = ENGINES.get(macAlgorithm);
+    if (engines == null) {
+      engines =
+          new EnginePool<Mac>(
+              new EnginePool.EngineSource<Mac>() {
+                @Override
+                public Mac newEngine() throws GeneralSecurityException {
+                  return EngineFactory.MAC.getInstance(macAlgorithm);
+                }
+              });
+      EnginePool<Mac> existing = ENGINES.putIfAbsent(macAlgorithm, engines);
+      if (existing != null) {
+        engines = existing;
+      }
+    }
+    return engines;
+  }
+
+  /**
+   * @return a pool of engines keyed with {@code key}, cloned from a keyed prototype if the provider
+   *     supports it. The engines are reset by {@code doFinal}, so they can be put back afterwards.
+   */
+  static EnginePool<Mac> keyedEngines(final String macAlgorithm, final SecretKeySpec key)
+      throws GeneralSecurityException {
+    final Mac prototype = EngineFactory.MAC.getInstance(macAlgorithm);
+    prototype.init(key);
+    return new EnginePool<Mac>(
+        new EnginePool.EngineSource<Mac>() {
+          @Override
+          public Mac newEngine() throws GeneralSecurityException {
+            try {
+              // Cloning a mac is frequently fast and thread-safe.
+              return (Mac) prototype.clone();
+            } catch (CloneNotSupportedException ex) {
+              // Unfortunately, the Mac interface in certain versions of Android is not clonable.
+              Mac mac = EngineFactory.MAC.getInstance(macAlgorithm);
+              mac.init(key);
+              return mac;
+            }
+          }
+        });
+  }
+
+  private static SecretKeySpec saltKey(Mac mac, String macAlgorithm, final byte[] salt) {
+    if (salt == null || salt.length == 0) {
+      // According to RFC 5869, Section 2.2 the salt is optional. If no salt is provided
+      // then HKDF uses a salt that is an array of zeros of the same length as the hash digest.
+      return new SecretKeySpec(new byte[mac.getMacLength()], macAlgorithm);
+    }
+    return new SecretKeySpec(salt, macAlgorithm);
+  }
+
+  private static void checkSize(Mac mac, int size) throws GeneralSecurityException {
+    if (size > 255 * mac.getMacLength()) {
+      throw new GeneralSecurityException("size too large");
+    }
+  }
+
+  /**
+   * Writes {@code length} bytes of the HKDF expansion with {@code info} to {@code output} at {@code
+   * offset}, with a {@code mac} keyed with the pseudorandom key. Leaves {@code mac} reset.
+   */
+  static void expand(Mac mac, final byte[] info, byte[] output, int offset, int length)
+      throws GeneralSecurityException {
+    byte[] block = new byte[mac.getMacLength()];
+    int pos = 0;
+    for (int ctr = 1; pos < length; ctr++) {
+      if (ctr > 1) {
+        mac.update(block);
+      }
+      mac.update(info);
+      mac.update((byte) ctr);
+      mac.doFinal(block, 0);
+      int n = Math.min(block.length, length - pos);
+      System.arraycopy(block, 0, output, offset + pos, n);
+      pos += n;
+    }
   }
 }
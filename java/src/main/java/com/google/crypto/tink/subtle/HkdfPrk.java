@@ -0,0 +1,86 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The pseudorandom key (PRK) of an HKDF, see {@link Hkdf}, from which any number of keys can be
+ * expanded.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * HkdfPrk prk = HkdfPrk.extract("HMACSHA256", ikm, salt);
+ * byte[] encryptionKey = prk.expand(encryptionInfo, 16);
+ * byte[] macKey = prk.expand(macInfo, 32);
+ * </pre>
+ *
+ * <p>The HMAC engines are keyed with the pseudorandom key once and then pooled, so an expansion
+ * does not set up an HMAC key. Instances are thread-safe.
+ */
+public final class HkdfPrk {
+  private final int macLength;
+  // Engines keyed with the pseudorandom key, which are reset after every expansion.
+  private final EnginePool<Mac> engines;
+
+  private HkdfPrk(String macAlgorithm, final byte[] prk) throws GeneralSecurityException {
+    this.macLength = prk.length;
+    this.engines = Hkdf.keyedEngines(macAlgorithm, new SecretKeySpec(prk, macAlgorithm));
+  }
+
+  /**
+   * Extracts the pseudorandom key from {@code ikm} and {@code salt}, with the parameters of {@link
+   * Hkdf#computeHkdf}.
+   *
+   * @throws GeneralSecurityException if the {@code macAlgorithm} is not supported
+   */
+  public static HkdfPrk extract(String macAlgorithm, final byte[] ikm, final byte[] salt)
+      throws GeneralSecurityException {
+    return new HkdfPrk(macAlgorithm, Hkdf.extract(macAlgorithm, ikm, salt));
+  }
+
+  /**
+   * @return {@code size} pseudorandom bytes for {@code info}, the same as {@link
+   *     Hkdf#computeHkdf} returns for the input keying material and salt of this key.
+   * @throws GeneralSecurityException if {@code size} is larger than 255 times the size of the HMAC
+   */
+  public byte[] expand(final byte[] info, int size) throws GeneralSecurityException {
+    byte[] output = new byte[size];
+    expand(info, output, 0, size);
+    return output;
+  }
+
+  /**
+   * Writes {@code length} pseudorandom bytes for {@code info} to {@code output} starting at {@code
+   * offset}, like {@link #expand(byte[], int)}.
+   */
+  public void expand(final byte[] info, byte[] output, int offset, int length)
+      throws GeneralSecurityException {
+    if (length > 255 * macLength) {
+      throw new GeneralSecurityException("size too large");
+    }
+    if (offset < 0 || length < 0 || offset > output.length - length) {
+      throw new IllegalArgumentException("output too small");
+    }
+    Mac mac = engines.take();
+    Hkdf.expand(mac, info, output, offset, length);
+    engines.release(mac);
+  }
+}
@@ -24,25 +24,33 @@ import java.nio.ByteOrder;
  * is not stored as an instance variable in {@link SnuffleCipher} types to preserve their stateless
  * guarantee. Instead, it is used in local scope to easily maintain the local state inside of a
  * single call (i.e., encrypt or decrypt).
+ *
+ * <p>The key stream is generated into a reusable buffer of up to {@link #MAX_BLOCKS_PER_BATCH}
+ * blocks at a time, and {@link #xor} consumes it 8 bytes at a time.
  */
 class KeyStream {
+  /** The number of blocks that are generated at once, if that many are needed. */
+  static final int MAX_BLOCKS_PER_BATCH = 4;
 
-  private SnuffleCipher snuffleCipher;
-  private int[] state;
-  private int[] keyStreamBlock;
-  // The blocks that is returned, can be unaligned from the actual key stream blocks if first is
-  // called before next.
-  private int[] keyStreamBlockReturn;
-  private int currentPosInBlock;
+  private final SnuffleCipher snuffleCipher;
+  private final int[] state;
+  // Scratch space for SnuffleCipher.shuffleAdd.
+  private final int[] working = new int[SnuffleCipher.BLOCK_SIZE_IN_INTS];
+  // The current key stream blocks, of which the first batchEnd ints are valid. The ints from
+  // position on have not been used yet.
+  private final int[] batch = new int[MAX_BLOCKS_PER_BATCH * SnuffleCipher.BLOCK_SIZE_IN_INTS];
+  private int batchEnd;
+  private int position;
+  // The block that is returned by next, which can be unaligned from the actual key stream blocks
+  // if first is called before next.
+  private final int[] keyStreamBlockReturn = new int[SnuffleCipher.BLOCK_SIZE_IN_INTS];
   private boolean readCalled;
 
   KeyStream(SnuffleCipher snuffleCipher, final byte[] nonce, int counter) {
     this.snuffleCipher = snuffleCipher;
-    keyStreamBlockReturn = new int[SnuffleCipher.BLOCK_SIZE_IN_INTS];
-    currentPosInBlock = 0;
     state = snuffleCipher.initialState(nonce, counter);
-    keyStreamBlock = snuffleCipher.shuffleAdd(state);
     readCalled = false;
+    refill(1);
   }
 
   byte[] first(int byteLength) {
@@ -58,28 +66,77 @@ class KeyStream {
           String.format("length must be a multiple of 4. length: %d", byteLength));
     }
     readCalled = true;
-    currentPosInBlock = byteLength / 4;
+    position = byteLength / 4;
     ByteBuffer out = ByteBuffer.allocate(byteLength).order(ByteOrder.LITTLE_ENDIAN);
-    out.asIntBuffer().put(keyStreamBlock, 0, byteLength / 4);
+    out.asIntBuffer().put(batch, 0, byteLength / 4);
     return out.array();
   }
 
   int[] next() {
     readCalled = true;
-    System.arraycopy(
-        keyStreamBlock,
-        currentPosInBlock,
-        keyStreamBlockReturn,
-        0,
-        SnuffleCipher.BLOCK_SIZE_IN_INTS - currentPosInBlock);
-    snuffleCipher.incrementCounter(state);
-    keyStreamBlock = snuffleCipher.shuffleAdd(state);
-    System.arraycopy(
-        keyStreamBlock,
-        0,
-        keyStreamBlockReturn,
-        SnuffleCipher.BLOCK_SIZE_IN_INTS - currentPosInBlock,
-        currentPosInBlock);
+    int copied = 0;
+    while (copied < SnuffleCipher.BLOCK_SIZE_IN_INTS) {
+      if (position == batchEnd) {
+        refill(1);
+      }
+      int n = Math.min(SnuffleCipher.BLOCK_SIZE_IN_INTS - copied, batchEnd - position);
+      System.arraycopy(batch, position, keyStreamBlockReturn, copied, n);
+      position += n;
+      copied += n;
+    }
     return keyStreamBlockReturn;
   }
+
+  /**
+   * Xors the remaining bytes of {@code input} with the key stream and writes the result to {@code
+   * output}. Both buffers must be in little-endian order. Reads up to 8 bytes of {@code input}
+   * before writing them, so the buffers may overlap as long as the output does not start after the
+   * input. Since the last partial int of the key stream is discarded, this can only be called once
+   * per message.
+   */
+  void xor(ByteBuffer output, ByteBuffer input) {
+    readCalled = true;
+    while (input.remaining() >= 8) {
+      if (position == batchEnd) {
+        refillFor(input.remaining());
+      }
+      if (position + 1 < batchEnd) {
+        long k = (batch[position] & 0xffffffffL) | ((long) batch[position + 1] << 32);
+        output.putLong(input.getLong() ^ k);
+        position += 2;
+      } else {
+        output.putInt(input.getInt() ^ batch[position++]);
+      }
+    }
+    while (input.hasRemaining()) {
+      if (position == batchEnd) {
+        refillFor(input.remaining());
+      }
+      int k = batch[position++];
+      if (input.remaining() >= 4) {
+        output.putInt(input.getInt() ^ k);
+        continue;
+      }
+      while (input.hasRemaining()) {
+        output.put((byte) (input.get() ^ k));
+        k >>>= 8;
+      }
+    }
+  }
+
+  /** Generates enough blocks for {@code byteLength} bytes, up to a full batch. */
+  private void refillFor(int byteLength) {
+    int blocks =
+        (byteLength + SnuffleCipher.BLOCK_SIZE_IN_BYTES - 1) / SnuffleCipher.BLOCK_SIZE_IN_BYTES;
+    refill(Math.min(blocks, MAX_BLOCKS_PER_BATCH));
+  }
+
+  private void refill(int blocks) {
+    for (int i = 0; i < blocks; i++) {
+      snuffleCipher.shuffleAdd(state, working, batch, i * SnuffleCipher.BLOCK_SIZE_IN_INTS);
+      snuffleCipher.incrementCounter(state);
+    }
+    batchEnd = blocks * SnuffleCipher.BLOCK_SIZE_IN_INTS;
+    position = 0;
+  }
 }
@@ -16,15 +16,18 @@
 
 package com.google.crypto.tink.subtle;
 
-import com.google.crypto.tink.Mac;
+import com.google.crypto.tink.StreamingMac;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 /** Mac implementations in JCE. */
-public final class MacJce implements Mac {
-  private javax.crypto.Mac mac;
+public final class MacJce implements StreamingMac {
+  private final javax.crypto.Mac mac;
   private final int digestSize;
   private final String algorithm;
   private final java.security.Key key;
+  // Keyed engines. An engine is reset by doFinal, so it is put back once the MAC is computed.
+  private final EnginePool<javax.crypto.Mac> macs;
 
   public MacJce(String algorithm, java.security.Key key, int digestSize)
       throws GeneralSecurityException {
@@ -33,22 +36,23 @@ public final class MacJce implements Mac {
     this.key = key;
     this.mac = EngineFactory.MAC.getInstance(algorithm);
     mac.init(key);
+    this.macs =
+        new EnginePool<javax.crypto.Mac>(
+            new EnginePool.EngineSource<javax.crypto.Mac>() {
+              @Override
+              public javax.crypto.Mac newEngine() throws GeneralSecurityException {
+                return newMac();
+              }
+            });
   }
 
   @Override
   public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
-    javax.crypto.Mac tmp;
-    try {
-      // Cloning a mac is frequently fast and thread-safe.
-      tmp = (javax.crypto.Mac) this.mac.clone();
-    } catch (java.lang.CloneNotSupportedException ex) {
-      // Unfortunately, the Mac interface in certain versions of Android is not clonable.
-      tmp = EngineFactory.MAC.getInstance(this.algorithm);
-      tmp.init(this.key);
-    }
+    javax.crypto.Mac tmp = takeMac();
     tmp.update(data);
     byte[] digest = new byte[digestSize];
     System.arraycopy(tmp.doFinal(), 0, digest, 0, digestSize);
+    releaseMac(tmp);
     return digest;
   }
 
@@ -58,4 +62,113 @@ public final class MacJce implements Mac {
       throw new GeneralSecurityException("invalid MAC");
     }
   }
+
+  @Override
+  public StreamingMac.Computation newComputation() throws GeneralSecurityException {
+    return new JceComputation();
+  }
+
+  @Override
+  public StreamingMac.Verification newVerification(final byte[] mac)
+      throws GeneralSecurityException {
+    final JceComputation computation = new JceComputation();
+    final byte[] expected = mac.clone();
+    return new StreamingMac.Verification() {
+      @Override
+      public void update(final byte[] data) throws GeneralSecurityException {
+        computation.update(data);
+      }
+
+      @Override
+      public void update(final byte[] data, int offset, int length)
+          throws GeneralSecurityException {
+        computation.update(data, offset, length);
+      }
+
+      @Override
+      public void update(ByteBuffer data) throws GeneralSecurityException {
+        computation.update(data);
+      }
+
+      @Override
+      public void verify() throws GeneralSecurityException {
+        if (!Bytes.equal(computation.doFinal(), expected)) {
+          throw new GeneralSecurityException("invalid MAC");
+        }
+      }
+    };
+  }
+
+  /** Feeds the data into an engine from the pool, which is put back by {@link #doFinal}. */
+  private final class JceComputation implements StreamingMac.Computation {
+    private javax.crypto.Mac tmp;
+
+    JceComputation() throws GeneralSecurityException {
+      this.tmp = takeMac();
+    }
+
+    @Override
+    public void update(final byte[] data) throws GeneralSecurityException {
+      engine().update(data);
+    }
+
+    @Override
+    public void update(final byte[] data, int offset, int length)
+        throws GeneralSecurityException {
+      engine().update(data, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer data) throws GeneralSecurityException {
+      engine().update(data);
+    }
+
+    @Override
+    public byte[] doFinal() throws GeneralSecurityException {
+      byte[] digest = new byte[digestSize];
+      System.arraycopy(engine().doFinal(), 0, digest, 0, digestSize);
+      releaseMac(tmp);
+      tmp = null;
+      return digest;
+    }
+
+    private javax.crypto.Mac engine() {
+      if (tmp == null) {
+        throw new IllegalStateException("the MAC has already been computed");
+      }
+      return tmp;
+    }
+  }
+
+  /**
+   * @return a keyed {@code javax.crypto.Mac} from the pool of this instance, for callers that feed
+   *     the data in several parts. The result of {@code doFinal} is not truncated to the digest
+   *     size. After {@code doFinal}, the engine can be put back with {@link #releaseMac}.
+   */
+  javax.crypto.Mac takeMac() throws GeneralSecurityException {
+    return macs.take();
+  }
+
+  /** Puts {@code tmp}, which was returned by {@link #takeMac} and is reset, back into the pool. */
+  void releaseMac(javax.crypto.Mac tmp) {
+    macs.release(tmp);
+  }
+
+  private javax.crypto.Mac newMac() throws GeneralSecurityException {
+    javax.crypto.Mac tmp;
+    try {
+      // Cloning a mac is frequently fast and thread-safe.
+      tmp = (javax.crypto.Mac) this.mac.clone();
+    } catch (java.lang.CloneNotSupportedException ex) {
+      // Unfortunately, the Mac interface in certain versions of Android is not clonable.
+      tmp = EngineFactory.MAC.getInstance(this.algorithm);
+      tmp.init(this.key);
+    }
+    return tmp;
+  }
+
+  /** @return the size of the MACs computed by this instance. */
+  int getDigestSize() {
+    return digestSize;
+  }
 };
@@ -0,0 +1,117 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides whether the primitives in this package delegate to implementations of the platform,
+ * e.g., the {@code ChaCha20-Poly1305} cipher, {@code X25519} key agreement and {@code Ed25519}
+ * signatures of Java 11 and later, rather than use their own Java code.
+ *
+ * <p>A platform implementation is only used if {@link EngineFactory} provides it and it passes a
+ * known-answer test. The system property {@value #PROPERTY} forces either path, e.g., for
+ * benchmarking: with {@code true} the platform implementations are always used, without the test,
+ * and with {@code false} they never are.
+ */
+final class PlatformEngines {
+  static final String PROPERTY = "com.google.crypto.tink.subtle.platformEngines";
+
+  private static final Logger logger = Logger.getLogger(PlatformEngines.class.getName());
+
+  // DER encodings of the key algorithm identifiers of RFC 8410, followed by the raw key.
+  private static final byte[] X25519_PRIVATE_KEY_PREFIX =
+      Hex.decode("302e020100300506032b656e04220420");
+  private static final byte[] X25519_PUBLIC_KEY_PREFIX = Hex.decode("302a300506032b656e032100");
+  private static final byte[] ED25519_PRIVATE_KEY_PREFIX =
+      Hex.decode("302e020100300506032b657004220420");
+  private static final byte[] ED25519_PUBLIC_KEY_PREFIX = Hex.decode("302a300506032b6570032100");
+
+  private PlatformEngines() {}
+
+  /** A known-answer test of a platform implementation. */
+  interface KnownAnswerTest {
+    /** @return whether the platform implementation computes the expected results. */
+    boolean passes() throws GeneralSecurityException;
+  }
+
+  /**
+   * @param algorithm the name of the platform implementation, for logging.
+   * @param byDefault whether the platform implementation is used if it passes {@code test} and
+   *     {@value #PROPERTY} is not set, i.e., whether it is expected to be faster.
+   * @return whether to use the platform implementation of {@code algorithm}.
+   */
+  static boolean use(String algorithm, boolean byDefault, KnownAnswerTest test) {
+    String value = System.getProperty(PROPERTY);
+    if (value != null) {
+      return Boolean.parseBoolean(value);
+    }
+    return byDefault && passes(algorithm, test);
+  }
+
+  /**
+   * Runs {@code test}, and logs why the platform implementation of {@code algorithm} is not used if
+   * it fails, e.g., for classes with their own switch between the platform and their Java code.
+   *
+   * @return whether the platform implementation passes {@code test}.
+   */
+  static boolean passes(String algorithm, KnownAnswerTest test) {
+    try {
+      if (test.passes()) {
+        return true;
+      }
+      logger.warning("the platform implementation of " + algorithm + " failed its self-test");
+    } catch (GeneralSecurityException | RuntimeException e) {
+      logger.log(Level.FINE, "no usable platform implementation of " + algorithm, e);
+    }
+    return false;
+  }
+
+  static PrivateKey x25519PrivateKey(final byte[] privateKey) throws GeneralSecurityException {
+    return EngineFactory.KEY_FACTORY
+        .getInstance("X25519")
+        .generatePrivate(
+            new PKCS8EncodedKeySpec(Bytes.concat(X25519_PRIVATE_KEY_PREFIX, privateKey)));
+  }
+
+  static PublicKey x25519PublicKey(final byte[] publicValue) throws GeneralSecurityException {
+    return EngineFactory.KEY_FACTORY
+        .getInstance("X25519")
+        .generatePublic(
+            new X509EncodedKeySpec(Bytes.concat(X25519_PUBLIC_KEY_PREFIX, publicValue)));
+  }
+
+  static PrivateKey ed25519PrivateKey(final byte[] privateKey) throws GeneralSecurityException {
+    return EngineFactory.KEY_FACTORY
+        .getInstance("Ed25519")
+        .generatePrivate(
+            new PKCS8EncodedKeySpec(Bytes.concat(ED25519_PRIVATE_KEY_PREFIX, privateKey)));
+  }
+
+  static PublicKey ed25519PublicKey(final byte[] publicKey) throws GeneralSecurityException {
+    return EngineFactory.KEY_FACTORY
+        .getInstance("Ed25519")
+        .generatePublic(
+            new X509EncodedKeySpec(Bytes.concat(ED25519_PUBLIC_KEY_PREFIX, publicKey)));
+  }
+}
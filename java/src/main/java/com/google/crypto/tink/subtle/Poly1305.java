@@ -16,6 +16,7 @@
 
 package com.google.crypto.tink.subtle;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 
@@ -23,6 +24,10 @@ import java.util.Arrays;
  * Poly1305 one-time MAC based on RFC 7539 This is not an implementation of the MAC interface on
  * purpose and it is not equivalent to HMAC.
  *
+ * <p>Besides the one-shot {@link #computeMac}, an instance computes the MAC of data that is fed in
+ * parts with {@link #update}, so that callers do not need to concatenate it first. An instance is
+ * keyed with a one-time key, is <b>not</b> thread-safe and cannot be used after {@link #doFinal}.
+ *
  * <p>The implementation is based on poly1305 implementation by Andrew Moon
  * (https://github.com/floodyberry/poly1305-donna) and released as public domain.
  */
@@ -31,7 +36,63 @@ class Poly1305 {
   public static final int MAC_TAG_SIZE_IN_BYTES = 16;
   public static final int MAC_KEY_SIZE_IN_BYTES = 32;
 
-  private Poly1305() {}
+  private static final int BLOCK_SIZE_IN_BYTES = 16;
+  // The bit that is appended to every full block, at the position of bit 128 in limb h4.
+  private static final long HIBIT = 1L << 24;
+
+  // r and 5 * r, in 26-bit limbs, so that products of limbs and their sums fit into a long.
+  private final long r0;
+  private final long r1;
+  private final long r2;
+  private final long r3;
+  private final long r4;
+  private final long s1;
+  private final long s2;
+  private final long s3;
+  private final long s4;
+  // The second half of the key, which is added to the result.
+  private final long pad0;
+  private final long pad1;
+  private final long pad2;
+  private final long pad3;
+
+  // The accumulator, in 26-bit limbs.
+  private long h0 = 0;
+  private long h1 = 0;
+  private long h2 = 0;
+  private long h3 = 0;
+  private long h4 = 0;
+  // The input that does not fill a block yet.
+  private final byte[] buffer = new byte[BLOCK_SIZE_IN_BYTES];
+  private int buffered = 0;
+  private boolean finished = false;
+
+  /**
+   * Creates an instance that computes the MAC with the one-time {@code key}.
+   *
+   * @throws IllegalArgumentException when {@code key} is not {@link #MAC_KEY_SIZE_IN_BYTES} long.
+   */
+  Poly1305(final byte[] key) {
+    if (key.length != MAC_KEY_SIZE_IN_BYTES) {
+      throw new IllegalArgumentException("The key length in bytes must be 32.");
+    }
+    // r &= 0xffffffc0ffffffc0ffffffc0fffffff
+    r0 = load26(key, 0, 0) & 0x3ffffff;
+    r1 = load26(key, 3, 2) & 0x3ffff03;
+    r2 = load26(key, 6, 4) & 0x3ffc0ff;
+    r3 = load26(key, 9, 6) & 0x3f03fff;
+    r4 = load26(key, 12, 8) & 0x00fffff;
+
+    s1 = r1 * 5;
+    s2 = r2 * 5;
+    s3 = r3 * 5;
+    s4 = r4 * 5;
+
+    pad0 = load32(key, 16);
+    pad1 = load32(key, 20);
+    pad2 = load32(key, 24);
+    pad3 = load32(key, 28);
+  }
 
   private static long load32(byte[] in, int idx) {
     return ((in[idx] & 0xff)
@@ -51,79 +112,87 @@ class Poly1305 {
     }
   }
 
-  private static void copyBlockSize(byte[] output, byte[] in, int idx) {
-    int copyCount = Math.min(MAC_TAG_SIZE_IN_BYTES, in.length - idx);
-    System.arraycopy(in, idx, output, 0, copyCount);
-    output[copyCount] = 1;
-    if (copyCount != MAC_TAG_SIZE_IN_BYTES) {
-      Arrays.fill(output, copyCount + 1, output.length, (byte) 0);
-    }
+  static byte[] computeMac(final byte[] key, byte[] data) {
+    return new Poly1305(key).update(data, 0, data.length).doFinal();
   }
 
-  static byte[] computeMac(final byte[] key, byte[] data) {
-    if (key.length != MAC_KEY_SIZE_IN_BYTES) {
-      throw new IllegalArgumentException("The key length in bytes must be 32.");
+  static void verifyMac(final byte[] key, byte[] data, byte[] mac) throws GeneralSecurityException {
+    new Poly1305(key).update(data, 0, data.length).verify(mac);
+  }
+
+  /** Adds {@code length} bytes of {@code data} from {@code offset} on to the MAC input. */
+  Poly1305 update(final byte[] data, int offset, int length) {
+    checkNotFinished();
+    if (buffered > 0) {
+      int n = Math.min(length, BLOCK_SIZE_IN_BYTES - buffered);
+      System.arraycopy(data, offset, buffer, buffered, n);
+      buffered += n;
+      offset += n;
+      length -= n;
+      if (buffered < BLOCK_SIZE_IN_BYTES) {
+        return this;
+      }
+      blocks(buffer, 0, BLOCK_SIZE_IN_BYTES, HIBIT);
+      buffered = 0;
     }
-    long h0 = 0;
-    long h1 = 0;
-    long h2 = 0;
-    long h3 = 0;
-    long h4 = 0;
-    long d0;
-    long d1;
-    long d2;
-    long d3;
-    long d4;
-    long c;
+    int fullBlocksLength = length - length % BLOCK_SIZE_IN_BYTES;
+    blocks(data, offset, fullBlocksLength, HIBIT);
+    buffered = length - fullBlocksLength;
+    System.arraycopy(data, offset + fullBlocksLength, buffer, 0, buffered);
+    return this;
+  }
 
-    // r &= 0xffffffc0ffffffc0ffffffc0fffffff
-    long r0 = load26(key, 0, 0) & 0x3ffffff;
-    long r1 = load26(key, 3, 2) & 0x3ffff03;
-    long r2 = load26(key, 6, 4) & 0x3ffc0ff;
-    long r3 = load26(key, 9, 6) & 0x3f03fff;
-    long r4 = load26(key, 12, 8) & 0x00fffff;
-
-    long s1 = r1 * 5;
-    long s2 = r2 * 5;
-    long s3 = r3 * 5;
-    long s4 = r4 * 5;
-
-    byte[] buf = new byte[MAC_TAG_SIZE_IN_BYTES + 1];
-    for (int i = 0; i < data.length; i += MAC_TAG_SIZE_IN_BYTES) {
-      copyBlockSize(buf, data, i);
-      h0 += load26(buf, 0, 0);
-      h1 += load26(buf, 3, 2);
-      h2 += load26(buf, 6, 4);
-      h3 += load26(buf, 9, 6);
-      h4 += load26(buf, 12, 8) | (buf[MAC_TAG_SIZE_IN_BYTES] << 24);
+  /** Adds the remaining bytes of {@code data} to the MAC input, and consumes them. */
+  Poly1305 update(ByteBuffer data) {
+    if (data.hasArray()) {
+      update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+      data.position(data.limit());
+      return this;
+    }
+    checkNotFinished();
+    while (data.hasRemaining()) {
+      int n = Math.min(data.remaining(), BLOCK_SIZE_IN_BYTES - buffered);
+      data.get(buffer, buffered, n);
+      buffered += n;
+      if (buffered == BLOCK_SIZE_IN_BYTES) {
+        blocks(buffer, 0, BLOCK_SIZE_IN_BYTES, HIBIT);
+        buffered = 0;
+      }
+    }
+    return this;
+  }
 
-      // d = r * h
-      d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
-      d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
-      d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
-      d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
-      d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+  /**
+   * Pads the MAC input with zeros to a multiple of 16 bytes, as RFC 7539 does after the additional
+   * data and after the ciphertext.
+   */
+  Poly1305 padToBlockSize() {
+    checkNotFinished();
+    if (buffered > 0) {
+      Arrays.fill(buffer, buffered, BLOCK_SIZE_IN_BYTES, (byte) 0);
+      blocks(buffer, 0, BLOCK_SIZE_IN_BYTES, HIBIT);
+      buffered = 0;
+    }
+    return this;
+  }
 
-      // Partial reduction mod 2^130-5, resulting h1 might not be 26bits.
-      c = d0 >> 26;
-      h0 = d0 & 0x3ffffff;
-      d1 += c;
-      c = d1 >> 26;
-      h1 = d1 & 0x3ffffff;
-      d2 += c;
-      c = d2 >> 26;
-      h2 = d2 & 0x3ffffff;
-      d3 += c;
-      c = d3 >> 26;
-      h3 = d3 & 0x3ffffff;
-      d4 += c;
-      c = d4 >> 26;
-      h4 = d4 & 0x3ffffff;
-      h0 += c * 5;
-      c = h0 >> 26;
-      h0 = h0 & 0x3ffffff;
-      h1 += c;
+  /** @return the MAC of the input. The instance cannot be used afterwards. */
+  byte[] doFinal() {
+    checkNotFinished();
+    finished = true;
+    if (buffered > 0) {
+      // The last partial block is padded with a single 1 bit rather than with HIBIT.
+      buffer[buffered] = 1;
+      Arrays.fill(buffer, buffered + 1, BLOCK_SIZE_IN_BYTES, (byte) 0);
+      blocks(buffer, 0, BLOCK_SIZE_IN_BYTES, 0);
     }
+    long h0 = this.h0;
+    long h1 = this.h1;
+    long h2 = this.h2;
+    long h3 = this.h3;
+    long h4 = this.h4;
+    long c;
+
     // Do final reduction mod 2^130-5
     c = h1 >> 26;
     h1 = h1 & 0x3ffffff;
@@ -177,13 +246,13 @@ class Poly1305 {
     h3 = ((h3 >> 18) | (h4 << 8)) & 0xffffffffL;
 
     // mac = (h + pad) % (2^128)
-    c = h0 + load32(key, 16);
+    c = h0 + pad0;
     h0 = c & 0xffffffffL;
-    c = h1 + load32(key, 20) + (c >> 32);
+    c = h1 + pad1 + (c >> 32);
     h1 = c & 0xffffffffL;
-    c = h2 + load32(key, 24) + (c >> 32);
+    c = h2 + pad2 + (c >> 32);
     h2 = c & 0xffffffffL;
-    c = h3 + load32(key, 28) + (c >> 32);
+    c = h3 + pad3 + (c >> 32);
     h3 = c & 0xffffffffL;
 
     byte[] mac = new byte[MAC_TAG_SIZE_IN_BYTES];
@@ -195,9 +264,88 @@ class Poly1305 {
     return mac;
   }
 
-  static void verifyMac(final byte[] key, byte[] data, byte[] mac) throws GeneralSecurityException {
-    if (!Bytes.equal(computeMac(key, data), mac)) {
+  /**
+   * Like {@link #doFinal}, but compares the MAC with {@code mac}.
+   *
+   * @throws GeneralSecurityException if they differ.
+   */
+  void verify(final byte[] mac) throws GeneralSecurityException {
+    if (!Bytes.equal(doFinal(), mac)) {
       throw new GeneralSecurityException("invalid MAC");
     }
   }
+
+  /**
+   * Adds the 16-byte blocks in {@code length} bytes of {@code m} from {@code offset} on to the
+   * accumulator, with {@code hibit} set above each block. The limbs are read directly from {@code
+   * m} and the accumulator is kept in local variables.
+   */
+  private void blocks(final byte[] m, int offset, int length, long hibit) {
+    final long r0 = this.r0;
+    final long r1 = this.r1;
+    final long r2 = this.r2;
+    final long r3 = this.r3;
+    final long r4 = this.r4;
+    final long s1 = this.s1;
+    final long s2 = this.s2;
+    final long s3 = this.s3;
+    final long s4 = this.s4;
+    long h0 = this.h0;
+    long h1 = this.h1;
+    long h2 = this.h2;
+    long h3 = this.h3;
+    long h4 = this.h4;
+    long d0;
+    long d1;
+    long d2;
+    long d3;
+    long d4;
+    long c;
+
+    for (int end = offset + length; offset < end; offset += BLOCK_SIZE_IN_BYTES) {
+      h0 += load26(m, offset, 0);
+      h1 += load26(m, offset + 3, 2);
+      h2 += load26(m, offset + 6, 4);
+      h3 += load26(m, offset + 9, 6);
+      h4 += load26(m, offset + 12, 8) | hibit;
+
+      // d = r * h
+      d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+      d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+      d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+      d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+      d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+      // Partial reduction mod 2^130-5, resulting h1 might not be 26bits.
+      c = d0 >> 26;
+      h0 = d0 & 0x3ffffff;
+      d1 += c;
+      c = d1 >> 26;
+      h1 = d1 & 0x3ffffff;
+      d2 += c;
+      c = d2 >> 26;
+      h2 = d2 & 0x3ffffff;
+      d3 += c;
+      c = d3 >> 26;
+      h3 = d3 & 0x3ffffff;
+      d4 += c;
+      c = d4 >> 26;
+      h4 = d4 & 0x3ffffff;
+      h0 += c * 5;
+      c = h0 >> 26;
+      h0 = h0 & 0x3ffffff;
+      h1 += c;
+    }
+    this.h0 = h0;
+    this.h1 = h1;
+    this.h2 = h2;
+    this.h3 = h3;
+    this.h4 = h4;
+  }
+
+  private void checkNotFinished() {
+    if (finished) {
+      throw new IllegalStateException("doFinal has already been called");
+    }
+  }
 }
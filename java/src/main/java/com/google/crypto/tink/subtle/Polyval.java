@@ -0,0 +1,82 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+/**
+ * POLYVAL, the universal hash of AES-GCM-SIV, see RFC 8452, section 3.
+ *
+ * <p>POLYVAL is computed with {@link GHash}, as described in RFC 8452, appendix A: POLYVAL(H, X_1,
+ * ..., X_n) is the byte-reversed GHASH(mulX_GHASH(ByteReverse(H)), ByteReverse(X_1), ...,
+ * ByteReverse(X_n)). The big-endian longs of a byte-reversed block are the little-endian longs of
+ * the block in the opposite order, so no bytes are actually reversed.
+ *
+ * <p>An instance computes a single hash and must only be used by one thread.
+ */
+final class Polyval {
+  static final int BLOCK_SIZE_IN_BYTES = GHash.BLOCK_SIZE_IN_BYTES;
+
+  private final GHash ghash;
+  private final long[] state = new long[2];
+
+  /**
+   * @param h an array that starts with the 16 bytes of the key of the hash.
+   * @param tableBits the size of the tables of the {@link GHash}, {@link GHash#SMALL_TABLES} or
+   *     {@link GHash#LARGE_TABLES}.
+   */
+  Polyval(final byte[] h, int tableBits) {
+    long hi = GHash.loadLittleEndian(h, 8);
+    long lo = GHash.loadLittleEndian(h, 0);
+    // mulX_GHASH, the multiplication by x in the field of GHASH.
+    long reduction = -(lo & 1) & 0xe100000000000000L;
+    lo = (hi << 63) | (lo >>> 1);
+    hi = (hi >>> 1) ^ reduction;
+    this.ghash = new GHash(hi, lo, tableBits);
+  }
+
+  /**
+   * Hashes the blocks of {@code length} bytes of {@code data} starting at {@code offset}. A partial
+   * last block is padded with zeros, so only the last call may hash a length that is not a
+   * multiple of the block size.
+   */
+  void update(final byte[] data, int offset, int length) {
+    int end = offset + length;
+    int full = offset + length - length % BLOCK_SIZE_IN_BYTES;
+    for (int i = offset; i < full; i += BLOCK_SIZE_IN_BYTES) {
+      state[0] ^= GHash.loadLittleEndian(data, i + 8);
+      state[1] ^= GHash.loadLittleEndian(data, i);
+      ghash.multiply(state);
+    }
+    if (full < end) {
+      byte[] last = new byte[BLOCK_SIZE_IN_BYTES];
+      System.arraycopy(data, full, last, 0, end - full);
+      update(last, 0, BLOCK_SIZE_IN_BYTES);
+    }
+  }
+
+  /** Hashes the block of two 64-bit little-endian lengths that ends the input of AES-GCM-SIV. */
+  void updateLengths(long first, long second) {
+    state[0] ^= second;
+    state[1] ^= first;
+    ghash.multiply(state);
+  }
+
+  /** Writes the 16 bytes of the hash to {@code output} starting at {@code offset}. */
+  void doFinal(byte[] output, int offset) {
+    GHash.storeLittleEndian(state[1], output, offset);
+    GHash.storeLittleEndian(state[0], output, offset + 8);
+  }
+}
@@ -16,20 +16,90 @@
 
 package com.google.crypto.tink.subtle;
 
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
-/** A simple wrapper of SecureRandom. */
+/**
+ * A simple wrapper of SecureRandom.
+ *
+ * <p>Every thread has its own {@link SecureRandom}, so that threads that draw nonces, salts or keys
+ * concurrently do not contend for a single instance. Where the platform provides it, e.g., on Java
+ * 9 and later, that is a {@code DRBG} instance, which is seeded from the system entropy source and
+ * has no state shared between threads. Small draws are served from a per-thread buffer that is
+ * refilled in bulk.
+ */
 public final class Random {
-  private static final SecureRandom secureRandom = new SecureRandom();
+  // Draws of at most this many bytes are served from the buffer.
+  private static final int MAX_BUFFERED_DRAW = 64;
+  private static final int BUFFER_SIZE = 512;
+
+  /** The random source of one thread. */
+  private static final class ThreadRandom {
+    final SecureRandom secureRandom = newSecureRandom();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = BUFFER_SIZE;
+
+    void nextBytes(byte[] output, int offset, int length) {
+      if (length > MAX_BUFFERED_DRAW) {
+        if (offset == 0 && length == output.length) {
+          secureRandom.nextBytes(output);
+        } else {
+          byte[] rand = new byte[length];
+          secureRandom.nextBytes(rand);
+          System.arraycopy(rand, 0, output, offset, length);
+        }
+        return;
+      }
+      if (BUFFER_SIZE - position < length) {
+        secureRandom.nextBytes(buffer);
+        position = 0;
+      }
+      System.arraycopy(buffer, position, output, offset, length);
+      // Bytes that have been handed out, e.g., as a key, do not stay in the buffer.
+      for (int i = position; i < position + length; i++) {
+        buffer[i] = 0;
+      }
+      position += length;
+    }
+  }
+
+  private static final ThreadLocal<ThreadRandom> localRandom =
+      new ThreadLocal<ThreadRandom>() {
+        @Override
+        protected ThreadRandom initialValue() {
+          return new ThreadRandom();
+        }
+      };
+
+  private static SecureRandom newSecureRandom() {
+    SecureRandom secureRandom;
+    try {
+      secureRandom = SecureRandom.getInstance("DRBG");
+    } catch (NoSuchAlgorithmException e) {
+      // Before Java 9 and on Android, use the default of the platform.
+      secureRandom = new SecureRandom();
+    }
+    // Force seeding now rather than on the first draw.
+    secureRandom.nextLong();
+    return secureRandom;
+  }
 
   /** @return a random byte array of size {@code size}. */
   public static byte[] randBytes(int size) {
     byte[] rand = new byte[size];
-    secureRandom.nextBytes(rand);
+    localRandom.get().nextBytes(rand, 0, size);
     return rand;
   }
 
+  /** Fills {@code length} bytes of {@code output} starting at {@code offset} with random bytes. */
+  public static void randBytes(byte[] output, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > output.length - length) {
+      throw new IndexOutOfBoundsException("invalid offset or length");
+    }
+    localRandom.get().nextBytes(output, offset, length);
+  }
+
   public static final int randInt(int max) {
-    return secureRandom.nextInt(max);
+    return localRandom.get().secureRandom.nextInt(max);
   }
 }
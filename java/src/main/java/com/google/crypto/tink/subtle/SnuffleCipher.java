@@ -106,6 +106,18 @@ public abstract class SnuffleCipher implements IndCpaCipher {
     return x;
   }
 
+  /**
+   * Like {@link #shuffleAdd(int[])}, but writes the block to {@code out} from {@code outOffset} on,
+   * and uses {@code working} as scratch space rather than allocating.
+   */
+  void shuffleAdd(final int[] state, int[] working, int[] out, int outOffset) {
+    System.arraycopy(state, 0, working, 0, BLOCK_SIZE_IN_INTS);
+    shuffle(working);
+    for (int i = 0; i < BLOCK_SIZE_IN_INTS; i++) {
+      out[outOffset + i] = working[i] + state[i];
+    }
+  }
+
   /** Returns a one-time authenticator key as part of an AEAD algorithm (e.g., Poly1305). */
   byte[] getAuthenticatorKey(byte[] nonce) {
     return new KeyStream(this, nonce, 0).first(MAC_KEY_SIZE_IN_BYTES);
@@ -125,16 +137,13 @@ public abstract class SnuffleCipher implements IndCpaCipher {
   abstract KeyStream getKeyStream(final byte[] nonce);
 
   private void process(ByteBuffer output, ByteBuffer input, KeyStream keyStream) {
-    // xor the underlying cipher stream with the input.
-    ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE_IN_BYTES).order(ByteOrder.LITTLE_ENDIAN);
-    int todo;
-    while (input.hasRemaining()) {
-      todo = input.remaining() < BLOCK_SIZE_IN_BYTES ? input.remaining() : BLOCK_SIZE_IN_BYTES;
-      buf.asIntBuffer().put(keyStream.next());
-      for (int j = 0; j < todo; j++) {
-        output.put((byte) (input.get() ^ buf.get(j)));
-      }
-    }
+    // xor the underlying cipher stream with the input, through little-endian views so that the
+    // byte order of the caller's buffers is not changed.
+    ByteBuffer in = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer out = output.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    keyStream.xor(out, in);
+    input.position(in.position());
+    output.position(out.position());
   }
 
   // TestOnly
@@ -150,26 +159,90 @@ public abstract class SnuffleCipher implements IndCpaCipher {
   }
 
   void encrypt(ByteBuffer output, final byte[] plaintext) throws GeneralSecurityException {
-    if (plaintext.length > Integer.MAX_VALUE - nonceSizeInBytes()) {
+    encrypt(output, ByteBuffer.wrap(plaintext));
+  }
+
+  /**
+   * Encrypts the remaining bytes of {@code plaintext} and writes {@code nonce || ciphertext} to
+   * {@code output}. {@code plaintext} may overlap {@code output} if both are backed by the same
+   * array.
+   */
+  void encrypt(ByteBuffer output, ByteBuffer plaintext) throws GeneralSecurityException {
+    encrypt(output, plaintext, Random.randBytes(nonceSizeInBytes()));
+  }
+
+  /** Like {@link #encrypt(ByteBuffer, ByteBuffer)}, but with a nonce chosen by the caller. */
+  void encrypt(ByteBuffer output, ByteBuffer plaintext, final byte[] nonce)
+      throws GeneralSecurityException {
+    int plaintextLength = plaintext.remaining();
+    if (plaintextLength > Integer.MAX_VALUE - nonceSizeInBytes()) {
       throw new GeneralSecurityException("plaintext too long");
     }
-    if (output.remaining() < plaintext.length + nonceSizeInBytes()) {
+    if (output.remaining() < plaintextLength + nonceSizeInBytes()) {
       throw new IllegalArgumentException("Given ByteBuffer output is too small");
     }
-    byte[] nonce = Random.randBytes(nonceSizeInBytes());
+    // The nonce is written last, so that it does not overwrite plaintext that has not been
+    // encrypted yet.
+    int firstPosition = output.position();
+    int dataPosition = firstPosition + nonceSizeInBytes();
+    ByteBuffer input = copyIfOverlapping(plaintext, output, dataPosition);
+    output.position(dataPosition);
+    process(output, input, getKeyStream(nonce));
+    int lastPosition = output.position();
+    output.position(firstPosition);
     output.put(nonce);
-    process(output, ByteBuffer.wrap(plaintext), getKeyStream(nonce));
+    output.position(lastPosition);
   }
 
   byte[] decrypt(ByteBuffer ciphertext) throws GeneralSecurityException {
     if (ciphertext.remaining() < nonceSizeInBytes()) {
       throw new GeneralSecurityException("ciphertext too short");
     }
+    ByteBuffer plaintext = ByteBuffer.allocate(ciphertext.remaining() - nonceSizeInBytes());
+    decrypt(ciphertext, plaintext);
+    return plaintext.array();
+  }
+
+  /**
+   * Decrypts the remaining bytes of {@code ciphertext}, i.e., {@code nonce || ciphertext}, and
+   * writes the plaintext to {@code plaintext}. {@code ciphertext} may overlap {@code plaintext} if
+   * both are backed by the same array.
+   */
+  void decrypt(ByteBuffer ciphertext, ByteBuffer plaintext) throws GeneralSecurityException {
+    if (ciphertext.remaining() < nonceSizeInBytes()) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (plaintext.remaining() < ciphertext.remaining() - nonceSizeInBytes()) {
+      throw new IllegalArgumentException("Given ByteBuffer output is too small");
+    }
     byte[] nonce = new byte[nonceSizeInBytes()];
     ciphertext.get(nonce);
-    ByteBuffer plaintext = ByteBuffer.allocate(ciphertext.remaining());
-    process(plaintext, ciphertext, getKeyStream(nonce));
-    return plaintext.array();
+    process(
+        plaintext,
+        copyIfOverlapping(ciphertext, plaintext, plaintext.position()),
+        getKeyStream(nonce));
+  }
+
+  /**
+   * {@link #process} reads up to 8 bytes of input before writing the corresponding output, which is
+   * safe for in-place operation as long as the output does not start after the input. Returns
+   * {@code input} if writing to {@code output} from {@code outputPosition} on cannot overwrite
+   * bytes of {@code input} before they are read, and a copy of the remaining bytes of {@code input}
+   * otherwise. In both cases {@code input} is consumed once the returned buffer is.
+   */
+  static ByteBuffer copyIfOverlapping(ByteBuffer input, ByteBuffer output, int outputPosition) {
+    if (!input.hasArray() || !output.hasArray() || input.array() != output.array()) {
+      return input;
+    }
+    int inputStart = input.arrayOffset() + input.position();
+    int outputStart = output.arrayOffset() + outputPosition;
+    if (outputStart <= inputStart || outputStart >= inputStart + input.remaining()) {
+      return input;
+    }
+    ByteBuffer copy = ByteBuffer.allocate(input.remaining());
+    copy.put(input);
+    copy.flip();
+    return copy;
   }
 
   @Override
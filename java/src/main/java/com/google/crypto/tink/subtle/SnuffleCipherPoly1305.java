@@ -18,11 +18,18 @@ package com.google.crypto.tink.subtle;
 
 import static com.google.crypto.tink.subtle.Poly1305.MAC_TAG_SIZE_IN_BYTES;
 
-import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.ByteBufferAead;
 import com.google.crypto.tink.annotations.Alpha;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * An {@code Aead} construction with a {@link com.google.crypto.tink.subtle.SnuffleCipher} and
@@ -41,16 +48,112 @@ import java.security.GeneralSecurityException;
  * this implementation chooses not to support the NaCl and libsodium's ciphertext format, instead
  * put the tag at the end to be consistent with other AEAD's in this library.
  *
+ * <p>Besides the {@code byte[]} methods of {@link com.google.crypto.tink.Aead}, it can encrypt and
+ * decrypt directly into caller-provided buffers, see {@link ByteBufferAead}, and process batches of
+ * messages, see {@link BatchAead}.
+ *
+ * <p>If the platform provides a {@code ChaCha20-Poly1305} cipher, e.g., on Java 11 and later, and
+ * {@link PlatformEngines} is told to use it, ChaCha20Poly1305 and XChaCha20Poly1305 delegate to it.
+ *
  * <p>The implementation is based on poly1305 implementation by Andrew Moon
  * (https://github.com/floodyberry/poly1305-donna) and released as public domain.
  */
 @Alpha
-public abstract class SnuffleCipherPoly1305 implements Aead {
+public abstract class SnuffleCipherPoly1305 implements ByteBufferAead, BatchAead {
+
+  /**
+   * Whether the platform cipher is used, decided when it is first needed.
+   *
+   * <p>It is not used by default: on Java 17, without intrinsics for ChaCha20, the platform
+   * encrypts about 15% slower than this class, and up to 30% slower for short messages.
+   */
+  private static final class Platform {
+    // RFC 7539, section 2.8.2, but with an AAD of more than a block, and hence another tag, since
+    // some platform ciphers authenticate such an AAD incorrectly when it is in a ByteBuffer.
+    private static final byte[] KEY =
+        Hex.decode("808182838485868788898a8b8c8d8e8f909192939495969798999a9b9c9d9e9f");
+    private static final byte[] NONCE = Hex.decode("070000004041424344454647");
+    private static final byte[] AAD =
+        Hex.decode("505152535455565758595a5b5c5d5e5f606162636465666768696a6b6c6d6e6f70");
+    private static final byte[] PLAINTEXT =
+        Hex.decode(
+            "4c616469657320616e642047656e746c656d656e206f662074686520636c6173"
+                + "73206f66202739393a204966204920636f756c64206f6666657220796f75206f"
+                + "6e6c79206f6e652074697020666f7220746865206675747572652c2073756e73"
+                + "637265656e20776f756c642062652069742e");
+    private static final byte[] CIPHERTEXT_AND_TAG =
+        Hex.decode(
+            "d31a8d34648e60db7b86afbc53ef7ec2a4aded51296e08fea9e2b5a736ee62d6"
+                + "3dbea45e8ca9671282fafb69da92728b1a71de0a9e060b2905d6a5b67ecd3b36"
+                + "92ddbd7f2d778b8c9803aee328091b58fab324e4fad675945585808b4831d7bc"
+                + "3ff4def08e4b7a9de576d26586cec64b6116"
+                + "cb87c99780ee44b32b936e32e8e264ab");
+
+    static final boolean ENABLED =
+        PlatformEngines.use(
+            "ChaCha20-Poly1305",
+            false,
+            new PlatformEngines.KnownAnswerTest() {
+              @Override
+              public boolean passes() throws GeneralSecurityException {
+                Cipher cipher = newPlatformCipher();
+                cipher.init(
+                    Cipher.ENCRYPT_MODE,
+                    new SecretKeySpec(KEY, "ChaCha20"),
+                    new IvParameterSpec(NONCE));
+                updateAad(cipher, ByteBuffer.wrap(AAD));
+                if (!Bytes.equal(cipher.doFinal(PLAINTEXT), CIPHERTEXT_AND_TAG)) {
+                  return false;
+                }
+                cipher = newPlatformCipher();
+                cipher.init(
+                    Cipher.DECRYPT_MODE,
+                    new SecretKeySpec(KEY, "ChaCha20"),
+                    new IvParameterSpec(NONCE));
+                updateAad(cipher, ByteBuffer.wrap(AAD));
+                return Bytes.equal(cipher.doFinal(CIPHERTEXT_AND_TAG), PLAINTEXT);
+              }
+            });
+  }
 
   private final SnuffleCipher snuffleCipher;
+  // Whether the platform ChaCha20-Poly1305 computes the AEAD rather than this class.
+  private final boolean usePlatform;
 
-  private SnuffleCipherPoly1305(SnuffleCipher snuffleCipher) {
+  /**
+   * @param ietf whether the ciphertext is in the RFC 7539 format, so that a {@link ChaCha20Base}
+   *     {@code snuffleCipher} can delegate to the platform ChaCha20-Poly1305.
+   */
+  private SnuffleCipherPoly1305(SnuffleCipher snuffleCipher, boolean ietf) {
     this.snuffleCipher = snuffleCipher;
+    this.usePlatform = ietf && snuffleCipher instanceof ChaCha20Base && Platform.ENABLED;
+  }
+
+  /**
+   * Unlike other ciphers, platform ChaCha20-Poly1305 ciphers refuse to be initialized twice in a
+   * row with the same key and nonce, even to decrypt the same ciphertext again, so they are not
+   * pooled.
+   */
+  private static Cipher newPlatformCipher() throws GeneralSecurityException {
+    return EngineFactory.CIPHER.getInstance("ChaCha20-Poly1305");
+  }
+
+  /**
+   * Passes the remaining bytes of {@code additionalData} to {@code cipher} as an array, and
+   * advances its position to its limit. On Java 17, the platform cipher computes wrong tags for an
+   * AAD of 16 bytes or more that is passed in a ByteBuffer.
+   */
+  private static void updateAad(Cipher cipher, ByteBuffer additionalData) {
+    int length = additionalData.remaining();
+    if (additionalData.hasArray()) {
+      cipher.updateAAD(
+          additionalData.array(), additionalData.arrayOffset() + additionalData.position(), length);
+      additionalData.position(additionalData.limit());
+    } else {
+      byte[] copy = new byte[length];
+      additionalData.get(copy);
+      cipher.updateAAD(copy);
+    }
   }
 
   /**
@@ -59,23 +162,18 @@ public abstract class SnuffleCipherPoly1305 implements Aead {
   private static class SnuffleCipherPoly1305Ietf extends SnuffleCipherPoly1305 {
 
     private SnuffleCipherPoly1305Ietf(SnuffleCipher snuffleCipher) {
-      super(snuffleCipher);
+      super(snuffleCipher, true);
     }
 
     @Override
-    byte[] macData(byte[] aad, ByteBuffer ciphertext) {
-      int aadCeilLen = blockSizeMultipleCeil(aad.length);
+    void macData(Poly1305 mac, ByteBuffer aad, ByteBuffer ciphertext) {
+      int aadLen = aad.remaining();
       int ciphertextLen = ciphertext.remaining();
-      int ciphertextCeilLen = blockSizeMultipleCeil(ciphertextLen);
-      ByteBuffer macData =
-          ByteBuffer.allocate(aadCeilLen + ciphertextCeilLen + 16).order(ByteOrder.LITTLE_ENDIAN);
-      macData.put(aad);
-      macData.position(aadCeilLen);
-      macData.put(ciphertext);
-      macData.position(aadCeilLen + ciphertextCeilLen);
-      macData.putLong(aad.length);
-      macData.putLong(ciphertextLen);
-      return macData.array();
+      mac.update(aad).padToBlockSize().update(ciphertext).padToBlockSize();
+      ByteBuffer lengths = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+      lengths.putLong(aadLen);
+      lengths.putLong(ciphertextLen);
+      mac.update(lengths.array(), 0, 16);
     }
   }
 
@@ -83,14 +181,12 @@ public abstract class SnuffleCipherPoly1305 implements Aead {
   private static class SnuffleCipherPoly1305Nacl extends SnuffleCipherPoly1305 {
 
     private SnuffleCipherPoly1305Nacl(SnuffleCipher snuffleCipher) {
-      super(snuffleCipher);
+      super(snuffleCipher, false);
     }
 
     @Override
-    byte[] macData(byte[] aad, ByteBuffer ciphertext) {
-      byte[] macData = new byte[ciphertext.remaining()];
-      ciphertext.get(macData);
-      return macData;
+    void macData(Poly1305 mac, ByteBuffer aad, ByteBuffer ciphertext) {
+      mac.update(ciphertext);
     }
   }
 
@@ -126,11 +222,16 @@ public abstract class SnuffleCipherPoly1305 implements Aead {
     return new SnuffleCipherPoly1305Ietf(SnuffleCipher.xChaCha20(key));
   }
 
-  private static int blockSizeMultipleCeil(int x) {
-    return ((x + MAC_TAG_SIZE_IN_BYTES - 1) / MAC_TAG_SIZE_IN_BYTES) * MAC_TAG_SIZE_IN_BYTES;
-  }
+  /**
+   * Feeds the data that is authenticated, i.e., the remaining bytes of {@code aad} and {@code
+   * ciphertext} in the format of the construction, into {@code mac}. Consumes both buffers.
+   */
+  abstract void macData(Poly1305 mac, ByteBuffer aad, ByteBuffer ciphertext);
 
-  abstract byte[] macData(byte[] aad, ByteBuffer ciphertext);
+  /** NaCl box has no additional data, and {@link NaClCryptoBox} passes null. */
+  private static ByteBuffer wrapAdditionalData(final byte[] additionalData) {
+    return additionalData == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(additionalData);
+  }
 
   public int nonceSizeInBytes() {
     return snuffleCipher.nonceSizeInBytes();
@@ -164,17 +265,82 @@ public abstract class SnuffleCipherPoly1305 implements Aead {
     if (output.remaining() < plaintext.length + nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
       throw new IllegalArgumentException("Given ByteBuffer output is too small");
     }
-    int firstPosition = output.position();
-    snuffleCipher.encrypt(output, plaintext);
-    output.position(firstPosition);
-    byte[] nonce = new byte[snuffleCipher.nonceSizeInBytes()];
-    output.get(nonce);
-    output.limit(output.limit() - MAC_TAG_SIZE_IN_BYTES);
-    byte[] tag =
-        Poly1305.computeMac(
-            snuffleCipher.getAuthenticatorKey(nonce), macData(additionalData, output));
-    output.limit(output.limit() + MAC_TAG_SIZE_IN_BYTES);
-    output.put(tag);
+    encrypt(ByteBuffer.wrap(plaintext), wrapAdditionalData(additionalData), output);
+  }
+
+  /**
+   * Encrypts the remaining bytes of {@code plaintext} like {@link #encrypt(byte[], byte[])}, and
+   * writes {@code nonce || actual_ciphertext || tag} to {@code ciphertext}.
+   */
+  @Override
+  public void encrypt(ByteBuffer plaintext, ByteBuffer additionalData, ByteBuffer ciphertext)
+      throws GeneralSecurityException {
+    int plaintextLength = plaintext.remaining();
+    if (plaintextLength > Integer.MAX_VALUE - nonceSizeInBytes() - MAC_TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("plaintext too long");
+    }
+    if (ciphertext.remaining() < plaintextLength + nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    encrypt(plaintext, additionalData, ciphertext, Random.randBytes(nonceSizeInBytes()));
+  }
+
+  private void encrypt(
+      ByteBuffer plaintext, ByteBuffer additionalData, ByteBuffer ciphertext, final byte[] nonce)
+      throws GeneralSecurityException {
+    if (usePlatform) {
+      platformEncrypt(plaintext, additionalData, ciphertext, nonce);
+      return;
+    }
+    int firstPosition = ciphertext.position();
+    snuffleCipher.encrypt(ciphertext, plaintext, nonce);
+    ByteBuffer encrypted = ciphertext.duplicate();
+    encrypted.limit(ciphertext.position());
+    encrypted.position(firstPosition + nonce.length);
+    // The MAC is computed over the ciphertext in the output buffer, without copying it.
+    Poly1305 mac = new Poly1305(snuffleCipher.getAuthenticatorKey(nonce));
+    macData(mac, additionalData, encrypted);
+    ciphertext.put(mac.doFinal());
+    additionalData.position(additionalData.limit());
+  }
+
+  private void platformEncrypt(
+      ByteBuffer plaintext, ByteBuffer additionalData, ByteBuffer ciphertext, final byte[] nonce)
+      throws GeneralSecurityException {
+    ChaCha20Base chaCha20 = (ChaCha20Base) snuffleCipher;
+    Cipher cipher = newPlatformCipher();
+    cipher.init(
+        Cipher.ENCRYPT_MODE,
+        new SecretKeySpec(chaCha20.ietfKey(nonce), "ChaCha20"),
+        new IvParameterSpec(chaCha20.ietfNonce(nonce)));
+    updateAad(cipher, additionalData);
+    // Cipher.doFinal is copy-safe. The nonce is written last, so that it does not overwrite
+    // plaintext that has not been encrypted yet.
+    int firstPosition = ciphertext.position();
+    ciphertext.position(firstPosition + nonce.length);
+    int unusedWritten = cipher.doFinal(plaintext, ciphertext);
+    int lastPosition = ciphertext.position();
+    ciphertext.position(firstPosition);
+    ciphertext.put(nonce);
+    ciphertext.position(lastPosition);
+  }
+
+  @Override
+  public int encrypt(
+      final byte[] plaintext,
+      int plaintextOffset,
+      int plaintextLength,
+      final byte[] additionalData,
+      byte[] ciphertext,
+      int ciphertextOffset)
+      throws GeneralSecurityException {
+    ByteBuffer output =
+        ByteBuffer.wrap(ciphertext, ciphertextOffset, ciphertext.length - ciphertextOffset);
+    encrypt(
+        ByteBuffer.wrap(plaintext, plaintextOffset, plaintextLength),
+        wrapAdditionalData(additionalData),
+        output);
+    return output.position() - ciphertextOffset;
   }
 
   /**
@@ -210,19 +376,134 @@ public abstract class SnuffleCipherPoly1305 implements Aead {
     if (ciphertext.remaining() < snuffleCipher.nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
       throw new GeneralSecurityException("ciphertext too short");
     }
+    ByteBuffer plaintext =
+        ByteBuffer.allocate(
+            ciphertext.remaining() - snuffleCipher.nonceSizeInBytes() - MAC_TAG_SIZE_IN_BYTES);
+    decrypt(ciphertext, wrapAdditionalData(additionalData), plaintext);
+    return plaintext.array();
+  }
+
+  /**
+   * Decrypts the remaining bytes of {@code ciphertext}, with format {@code nonce ||
+   * actual_ciphertext || tag}, and writes the plaintext to {@code plaintext}. The tag is verified
+   * before anything is written.
+   */
+  @Override
+  public void decrypt(ByteBuffer ciphertext, ByteBuffer additionalData, ByteBuffer plaintext)
+      throws GeneralSecurityException {
+    int ciphertextLength = ciphertext.remaining();
+    if (ciphertextLength < snuffleCipher.nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("ciphertext too short");
+    }
+    if (plaintext.remaining()
+        < ciphertextLength - snuffleCipher.nonceSizeInBytes() - MAC_TAG_SIZE_IN_BYTES) {
+      throw new GeneralSecurityException("output buffer too small");
+    }
+    if (usePlatform) {
+      platformDecrypt(ciphertext, additionalData, plaintext);
+      return;
+    }
     int firstPosition = ciphertext.position();
+    int tagPosition = ciphertext.limit() - MAC_TAG_SIZE_IN_BYTES;
+    ByteBuffer input = ciphertext.duplicate();
     byte[] tag = new byte[MAC_TAG_SIZE_IN_BYTES];
-    ciphertext.position(ciphertext.limit() - MAC_TAG_SIZE_IN_BYTES);
-    ciphertext.get(tag);
+    input.position(tagPosition);
+    input.get(tag);
     // rewind to read ciphertext and compute tag.
-    ciphertext.position(firstPosition);
-    ciphertext.limit(ciphertext.limit() - MAC_TAG_SIZE_IN_BYTES);
+    input.position(firstPosition);
+    input.limit(tagPosition);
     byte[] nonce = new byte[snuffleCipher.nonceSizeInBytes()];
-    ciphertext.get(nonce);
-    Poly1305.verifyMac(
-        snuffleCipher.getAuthenticatorKey(nonce), macData(additionalData, ciphertext), tag);
+    input.get(nonce);
+    Poly1305 mac = new Poly1305(snuffleCipher.getAuthenticatorKey(nonce));
+    macData(mac, additionalData, input);
+    mac.verify(tag);
     // rewind to decrypt the ciphertext.
-    ciphertext.position(firstPosition);
-    return snuffleCipher.decrypt(ciphertext);
+    input.position(firstPosition);
+    snuffleCipher.decrypt(input, plaintext);
+    ciphertext.position(ciphertext.limit());
+    additionalData.position(additionalData.limit());
+  }
+
+  private void platformDecrypt(
+      ByteBuffer ciphertext, ByteBuffer additionalData, ByteBuffer plaintext)
+      throws GeneralSecurityException {
+    ChaCha20Base chaCha20 = (ChaCha20Base) snuffleCipher;
+    ByteBuffer input = ciphertext.duplicate();
+    byte[] nonce = new byte[snuffleCipher.nonceSizeInBytes()];
+    input.get(nonce);
+    Cipher cipher = newPlatformCipher();
+    cipher.init(
+        Cipher.DECRYPT_MODE,
+        new SecretKeySpec(chaCha20.ietfKey(nonce), "ChaCha20"),
+        new IvParameterSpec(chaCha20.ietfNonce(nonce)));
+    updateAad(cipher, additionalData);
+    // The platform cipher only releases the plaintext once the tag has been verified.
+    int unusedWritten = cipher.doFinal(input, plaintext);
+    ciphertext.position(ciphertext.limit());
+  }
+
+  @Override
+  public int decrypt(
+      final byte[] ciphertext,
+      int ciphertextOffset,
+      int ciphertextLength,
+      final byte[] additionalData,
+      byte[] plaintext,
+      int plaintextOffset)
+      throws GeneralSecurityException {
+    ByteBuffer output =
+        ByteBuffer.wrap(plaintext, plaintextOffset, plaintext.length - plaintextOffset);
+    decrypt(
+        ByteBuffer.wrap(ciphertext, ciphertextOffset, ciphertextLength),
+        wrapAdditionalData(additionalData),
+        output);
+    return output.position() - plaintextOffset;
+  }
+
+  /**
+   * Encrypts a batch of messages like {@link #encrypt(byte[], byte[])}, drawing the nonces of all
+   * messages from the random number generator at once.
+   */
+  @Override
+  public List<byte[]> encryptBatch(List<byte[]> plaintexts, List<byte[]> additionalData)
+      throws GeneralSecurityException {
+    SubtleUtil.checkBatchSizes(plaintexts.size(), additionalData.size());
+    int count = plaintexts.size();
+    int nonceSize = nonceSizeInBytes();
+    if (count > Integer.MAX_VALUE / nonceSize) {
+      throw new GeneralSecurityException("batch too large");
+    }
+    byte[] nonces = Random.randBytes(count * nonceSize);
+    List<byte[]> ciphertexts = new ArrayList<byte[]>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] plaintext = plaintexts.get(i);
+      if (plaintext.length > Integer.MAX_VALUE - nonceSize - MAC_TAG_SIZE_IN_BYTES) {
+        throw new GeneralSecurityException("plaintext too long");
+      }
+      ByteBuffer ciphertext =
+          ByteBuffer.allocate(nonceSize + plaintext.length + MAC_TAG_SIZE_IN_BYTES);
+      encrypt(
+          ByteBuffer.wrap(plaintext),
+          wrapAdditionalData(additionalData.get(i)),
+          ciphertext,
+          Arrays.copyOfRange(nonces, i * nonceSize, (i + 1) * nonceSize));
+      ciphertexts.add(ciphertext.array());
+    }
+    return ciphertexts;
+  }
+
+  @Override
+  public List<byte[]> decryptBatch(List<byte[]> ciphertexts, List<byte[]> additionalData)
+      throws GeneralSecurityException {
+    SubtleUtil.checkBatchSizes(ciphertexts.size(), additionalData.size());
+    List<byte[]> plaintexts = new ArrayList<byte[]>(ciphertexts.size());
+    for (int i = 0; i < ciphertexts.size(); i++) {
+      try {
+        plaintexts.add(decrypt(ciphertexts.get(i), additionalData.get(i)));
+      } catch (GeneralSecurityException e) {
+        plaintexts.add(null);
+      }
+    }
+    return plaintexts;
   }
 }
@@ -32,4 +32,17 @@ class SubtleUtil {
       return false;
     }
   }
+
+  /**
+   * Checks that the inputs and associated data of a batch operation, see {@link
+   * com.google.crypto.tink.BatchAead}, pair up.
+   *
+   * @throws IllegalArgumentException if the sizes differ.
+   */
+  static void checkBatchSizes(int inputCount, int associatedDataCount) {
+    if (inputCount != associatedDataCount) {
+      throw new IllegalArgumentException(
+          "got " + inputCount + " inputs but " + associatedDataCount + " associated data");
+    }
+  }
 }
@@ -17,8 +17,10 @@
 package com.google.crypto.tink.subtle;
 
 import com.google.crypto.tink.annotations.Alpha;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.util.Arrays;
+import javax.crypto.KeyAgreement;
 
 /**
  * Defines <a href="https://cr.yp.to/ecdh/curve25519-20060209.pdf">the ECDH Curve25519 function</a>,
@@ -45,9 +47,34 @@ import java.util.Arrays;
  * byte[] sharedSecretB = X25519.computeSharedSecret(privateKeyB, publicKeyA);
  * such that sharedSecretA == sharedSecretB.
  * </pre>
+ *
+ * <p>If the platform provides an {@code X25519} key agreement, e.g., on Java 11 and later, {@link
+ * #computeSharedSecret} delegates to it, see {@link PlatformEngines}.
  */
 @Alpha
 public final class X25519 {
+  /** Whether the platform implementation is used, decided when it is first needed. */
+  private static final class Platform {
+    // RFC 7748, section 5.2.
+    private static final byte[] SCALAR =
+        Hex.decode("a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4");
+    private static final byte[] U_COORDINATE =
+        Hex.decode("e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c");
+    private static final byte[] OUTPUT =
+        Hex.decode("c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552");
+
+    static final boolean ENABLED =
+        PlatformEngines.use(
+            "X25519",
+            true,
+            new PlatformEngines.KnownAnswerTest() {
+              @Override
+              public boolean passes() throws GeneralSecurityException {
+                return Bytes.equal(platformSharedSecret(SCALAR, U_COORDINATE), OUTPUT);
+              }
+            });
+  }
+
   /**
    * Returns a 32-byte private key for Curve25519.
    *
@@ -88,6 +115,17 @@ public final class X25519 {
     if (privateKey.length != Field25519.FIELD_LEN) {
       throw new InvalidKeyException("Private key must have 32 bytes.");
     }
+    if (Platform.ENABLED) {
+      byte[] publicValue = Arrays.copyOf(peersPublicValue, peersPublicValue.length);
+      Curve25519.validatePubKeyAndClearMsb(publicValue);
+      try {
+        return platformSharedSecret(privateKey, publicValue);
+      } catch (InvalidKeyException e) {
+        throw e;
+      } catch (GeneralSecurityException e) {
+        throw new InvalidKeyException(e);
+      }
+    }
     long[] x = new long[Field25519.LIMB_CNT + 1];
 
     byte[] e = Arrays.copyOf(privateKey, Field25519.FIELD_LEN);
@@ -99,6 +137,14 @@ public final class X25519 {
     return Field25519.contract(x);
   }
 
+  private static byte[] platformSharedSecret(byte[] privateKey, byte[] peersPublicValue)
+      throws GeneralSecurityException {
+    KeyAgreement keyAgreement = EngineFactory.KEY_AGREEMENT.getInstance("X25519");
+    keyAgreement.init(PlatformEngines.x25519PrivateKey(privateKey));
+    keyAgreement.doPhase(PlatformEngines.x25519PublicKey(peersPublicValue), true);
+    return keyAgreement.generateSecret();
+  }
+
   /**
    * Returns the 32-byte Diffie-Hellman public value based on the given {@code privateKey} (i.e.,
    * {@code privateKey}·[9] on the curve).
@@ -60,6 +60,19 @@ class XChaCha20 extends ChaCha20Base {
     }
   }
 
+  @Override
+  byte[] ietfKey(final byte[] nonce) {
+    return hChaCha20(key.getBytes(), nonce);
+  }
+
+  @Override
+  byte[] ietfNonce(final byte[] nonce) {
+    // The counter of XChaCha20 is 64 bits long; its upper half is the first word of the nonce.
+    byte[] ietfNonce = new byte[12];
+    System.arraycopy(nonce, 16, ietfNonce, 4, 8);
+    return ietfNonce;
+  }
+
   @Override
   int nonceSizeInBytes() {
     return 24;
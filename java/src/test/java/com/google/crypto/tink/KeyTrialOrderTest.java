@@ -0,0 +1,196 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.Keyset.Key;
+import com.google.crypto.tink.proto.OutputPrefixType;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for KeyTrialOrder. */
+@RunWith(JUnit4.class)
+public class KeyTrialOrderTest {
+  private static class DummyMac implements Mac {
+    @Override
+    public byte[] computeMac(byte[] data) throws GeneralSecurityException {
+      return new byte[0];
+    }
+
+    @Override
+    public void verifyMac(byte[] mac, byte[] data) throws GeneralSecurityException {}
+  }
+
+  private PrimitiveSet<Mac> pset;
+  private List<PrimitiveSet.Entry<Mac>> entries;
+
+  @Before
+  public void setUp() throws Exception {
+    pset = PrimitiveSet.newPrimitiveSet();
+    entries = new ArrayList<PrimitiveSet.Entry<Mac>>();
+    for (int i = 0; i < 3; i++) {
+      Key key =
+          Key.newBuilder()
+              .setKeyId(i)
+              .setStatus(KeyStatusType.ENABLED)
+              .setOutputPrefixType(OutputPrefixType.RAW)
+              .build();
+      entries.add(pset.addPrimitive(new DummyMac(), key));
+    }
+  }
+
+  private void assertOrder(int... expected) {
+    List<PrimitiveSet.Entry<Mac>> actual = pset.getRawTrialOrder().getEntries();
+    assertEquals(expected.length, actual.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertSame(entries.get(expected[i]), actual.get(i));
+    }
+  }
+
+  @Test
+  public void testInitialOrderIsKeysetOrder() throws Exception {
+    assertOrder(0, 1, 2);
+    assertSame(pset.getRawTrialOrder(), pset.getRawTrialOrder());
+  }
+
+  @Test
+  public void testSuccessfulKeysMoveForward() throws Exception {
+    KeyTrialOrder<Mac> order = pset.getRawTrialOrder();
+    order.recordSuccess(entries.get(2));
+    assertOrder(2, 0, 1);
+    // Ties go to the most recent success.
+    order.recordSuccess(entries.get(1));
+    assertOrder(1, 2, 0);
+    order.recordSuccess(entries.get(2));
+    assertOrder(2, 1, 0);
+    order.recordSuccess(entries.get(0));
+    assertOrder(2, 0, 1);
+
+    // The keyset order is not affected.
+    List<PrimitiveSet.Entry<Mac>> raw = pset.getRawPrimitives();
+    for (int i = 0; i < 3; i++) {
+      assertSame(entries.get(i), raw.get(i));
+    }
+  }
+
+  @Test
+  public void testNewKeyOvertakesOldKey() throws Exception {
+    KeyTrialOrder<Mac> order = pset.getRawTrialOrder();
+    for (int i = 0; i < 1000; i++) {
+      order.recordSuccess(entries.get(0));
+    }
+    int successes = 0;
+    while (order.getEntries().get(0) != entries.get(1)) {
+      order.recordSuccess(entries.get(1));
+      successes++;
+    }
+    // Without decay, this would take more than 1000 successes.
+    assertTrue(successes < 1000);
+    assertOrder(1, 0, 2);
+  }
+
+  @Test
+  public void testSuccessesOfFirstKeyAreStillCounted() throws Exception {
+    KeyTrialOrder<Mac> order = pset.getRawTrialOrder();
+    for (int i = 0; i < 160; i++) {
+      order.recordSuccess(entries.get(0));
+    }
+    // Sampled, the successes of the first key still outweigh fewer successes of another key.
+    for (int i = 0; i < 100; i++) {
+      order.recordSuccess(entries.get(1));
+    }
+    assertOrder(0, 1, 2);
+  }
+
+  @Test
+  public void testSamplingIsPerInstance() throws Exception {
+    PrimitiveSet<Mac> other = PrimitiveSet.newPrimitiveSet();
+    Key key =
+        Key.newBuilder()
+            .setKeyId(7)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.RAW)
+            .build();
+    PrimitiveSet.Entry<Mac> otherFirst = other.addPrimitive(new DummyMac(), key);
+    other.addPrimitive(new DummyMac(), key);
+    KeyTrialOrder<Mac> otherOrder = other.getRawTrialOrder();
+    for (int i = 0; i < 15; i++) {
+      otherOrder.recordSuccess(otherFirst);
+    }
+
+    // The successes that the other set has not counted yet do not count for this one.
+    KeyTrialOrder<Mac> order = pset.getRawTrialOrder();
+    order.recordSuccess(entries.get(0));
+    order.recordSuccess(entries.get(1));
+    assertOrder(1, 0, 2);
+  }
+
+  @Test
+  public void testEntriesOfOtherSetsAreIgnored() throws Exception {
+    KeyTrialOrder<Mac> order = pset.getRawTrialOrder();
+    PrimitiveSet<Mac> other = PrimitiveSet.newPrimitiveSet();
+    Key key =
+        Key.newBuilder()
+            .setKeyId(7)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.RAW)
+            .build();
+    other.addPrimitive(new DummyMac(), key);
+    PrimitiveSet.Entry<Mac> fromOtherSet = other.addPrimitive(new DummyMac(), key);
+    order.recordSuccess(fromOtherSet);
+    order.recordSuccess(
+        new PrimitiveSet.Entry<Mac>(
+            new DummyMac(), new byte[0], KeyStatusType.ENABLED, OutputPrefixType.RAW));
+    assertOrder(0, 1, 2);
+  }
+
+  @Test
+  public void testFailuresAreCounted() throws Exception {
+    KeyTrialOrder<Mac> order = pset.getRawTrialOrder();
+    for (int i = 0; i < 10; i++) {
+      order.recordFailure(new GeneralSecurityException("invalid MAC"));
+    }
+    assertEquals(10, order.getFailureCount());
+    assertOrder(0, 1, 2);
+  }
+
+  @Test
+  public void testPrefixLookup() throws Exception {
+    Key key =
+        Key.newBuilder()
+            .setKeyId(42)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.TINK)
+            .build();
+    PrimitiveSet.Entry<Mac> entry = pset.addPrimitive(new DummyMac(), key);
+    byte[] output = new byte[CryptoFormat.NON_RAW_PREFIX_SIZE + 10];
+    entry.copyIdentifier(output, 0);
+    List<PrimitiveSet.Entry<Mac>> found = pset.getTrialOrderByPrefix(output).getEntries();
+    assertEquals(1, found.size());
+    assertSame(entry, found.get(0));
+    assertEquals(0, pset.getTrialOrderByPrefix(new byte[] {1, 2}).getEntries().size());
+  }
+}
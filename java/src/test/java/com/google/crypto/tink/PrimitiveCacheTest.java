@@ -0,0 +1,116 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.ByteString;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for PrimitiveCache. */
+@RunWith(JUnit4.class)
+public class PrimitiveCacheTest {
+  private static final String TYPE_URL_1 = "type.googleapis.com/google.crypto.tink.AesGcmKey";
+  private static final String TYPE_URL_2 = "type.googleapis.com/google.crypto.tink.AesEaxKey";
+
+  private static ByteString key(int i) {
+    return ByteString.copyFrom(new byte[] {(byte) i, 1, 2, 3});
+  }
+
+  @Test
+  public void testHitAndMiss() throws Exception {
+    PrimitiveCache cache = new PrimitiveCache(10, 1, TimeUnit.HOURS);
+    Object primitive = new Object();
+
+    assertNull(cache.get(TYPE_URL_1, key(1)));
+    cache.put(TYPE_URL_1, key(1), primitive);
+    // Equal key material in a different ByteString instance.
+    assertSame(primitive, cache.get(TYPE_URL_1, key(1)));
+    // Same key material, but a different key type.
+    assertNull(cache.get(TYPE_URL_2, key(1)));
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0, cache.getEvictionCount());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    PrimitiveCache cache = new PrimitiveCache(2, 1, TimeUnit.HOURS);
+    Object primitive1 = new Object();
+    Object primitive2 = new Object();
+    Object primitive3 = new Object();
+
+    cache.put(TYPE_URL_1, key(1), primitive1);
+    cache.put(TYPE_URL_1, key(2), primitive2);
+    // Touch key 1, so that key 2 becomes the least recently used one.
+    assertSame(primitive1, cache.get(TYPE_URL_1, key(1)));
+    cache.put(TYPE_URL_1, key(3), primitive3);
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertSame(primitive1, cache.get(TYPE_URL_1, key(1)));
+    assertNull(cache.get(TYPE_URL_1, key(2)));
+    assertSame(primitive3, cache.get(TYPE_URL_1, key(3)));
+  }
+
+  @Test
+  public void testEvictsIdleEntries() throws Exception {
+    PrimitiveCache cache = new PrimitiveCache(10, 1, TimeUnit.MILLISECONDS);
+    cache.put(TYPE_URL_1, key(1), new Object());
+    Thread.sleep(20);
+
+    assertNull(cache.get(TYPE_URL_1, key(1)));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    PrimitiveCache cache = new PrimitiveCache(10, 1, TimeUnit.HOURS);
+    cache.put(TYPE_URL_1, key(1), new Object());
+    cache.put(TYPE_URL_1, key(2), new Object());
+    cache.clear();
+
+    assertEquals(0, cache.size());
+    assertNull(cache.get(TYPE_URL_1, key(1)));
+  }
+
+  @Test
+  public void testInvalidArguments() throws Exception {
+    try {
+      new PrimitiveCache(0, 1, TimeUnit.HOURS);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+    try {
+      new PrimitiveCache(1, 0, TimeUnit.HOURS);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+}
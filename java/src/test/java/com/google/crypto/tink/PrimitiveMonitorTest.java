@@ -0,0 +1,211 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.PrimitiveMonitor.KeySelection;
+import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.config.TinkConfig;
+import com.google.crypto.tink.mac.MacFactory;
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.Keyset.Key;
+import com.google.crypto.tink.proto.OutputPrefixType;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for PrimitiveMonitor and its use by the factories. */
+@RunWith(JUnit4.class)
+public class PrimitiveMonitorTest {
+  /** A monitor that remembers all records as strings. */
+  private static final class RecordingMonitor extends PrimitiveMonitor {
+    private final List<String> records = new ArrayList<String>();
+
+    @Override
+    public synchronized void recordKeyOperation(
+        Class<?> primitive,
+        String operation,
+        int keyId,
+        KeySelection selection,
+        long bytes,
+        long latencyNanos,
+        boolean success) {
+      assertTrue(latencyNanos >= 0);
+      records.add(
+          primitive.getSimpleName()
+              + " "
+              + operation
+              + " "
+              + keyId
+              + " "
+              + selection
+              + " "
+              + bytes
+              + " "
+              + success);
+    }
+
+    @Override
+    public synchronized void recordFailure(
+        Class<?> primitive, String operation, long bytes, long latencyNanos) {
+      records.add(primitive.getSimpleName() + " " + operation + " " + bytes + " failed");
+    }
+  }
+
+  private final RecordingMonitor monitor = new RecordingMonitor();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Config.register(TinkConfig.TINK_1_0_0);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Registry.setPrimitiveMonitor(null);
+  }
+
+  @Test
+  public void testDefaultIsNoOp() throws Exception {
+    assertSame(PrimitiveMonitor.NO_OP, Registry.getPrimitiveMonitor());
+    assertEquals(0, PrimitiveMonitor.NO_OP.startTime());
+  }
+
+  @Test
+  public void testAead() throws Exception {
+    Key tink = aesGcmKey(42, OutputPrefixType.TINK);
+    Key raw1 = aesGcmKey(43, OutputPrefixType.RAW);
+    Key raw2 = aesGcmKey(44, OutputPrefixType.RAW);
+    Aead rawAead =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(raw2)));
+
+    Registry.setPrimitiveMonitor(monitor);
+    Aead aead =
+        AeadFactory.getPrimitive(
+            TestUtil.createKeysetHandle(TestUtil.createKeyset(tink, raw1, raw2)));
+    byte[] ciphertext = aead.encrypt(new byte[10], new byte[0]);
+    aead.decrypt(ciphertext, new byte[0]);
+    aead.decrypt(rawAead.encrypt(new byte[10], new byte[0]), new byte[0]);
+    try {
+      aead.decrypt(new byte[30], new byte[0]);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      // expected
+    }
+
+    List<String> expected = new ArrayList<String>();
+    expected.add("Aead encrypt 42 PRIMARY 10 true");
+    expected.add("Aead decrypt 42 PREFIX 43 true");
+    expected.add("Aead decrypt 43 RAW 38 false");
+    expected.add("Aead decrypt 44 RAW 38 true");
+    expected.add("Aead decrypt 43 RAW 30 false");
+    expected.add("Aead decrypt 44 RAW 30 false");
+    expected.add("Aead decrypt 30 failed");
+    assertEquals(expected, monitor.records);
+  }
+
+  @Test
+  public void testAeadDecryptBatch() throws Exception {
+    // Two keys with the same id share the output prefix; the second one encrypted the messages.
+    Key primary = aesGcmKey(41, OutputPrefixType.TINK);
+    Key other = aesGcmKey(42, OutputPrefixType.TINK);
+    Key old = aesGcmKey(42, OutputPrefixType.TINK);
+    Aead oldAead =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(old)));
+    List<byte[]> ciphertexts = new ArrayList<byte[]>();
+    List<byte[]> associatedData = new ArrayList<byte[]>();
+    for (int i = 0; i < 3; i++) {
+      ciphertexts.add(oldAead.encrypt(new byte[10], new byte[0]));
+      associatedData.add(new byte[0]);
+    }
+    ciphertexts.get(2)[42] ^= 1;
+
+    Registry.setPrimitiveMonitor(monitor);
+    BatchAead aead =
+        (BatchAead)
+            AeadFactory.getPrimitive(
+                TestUtil.createKeysetHandle(TestUtil.createKeyset(primary, other, old)));
+    aead.decryptBatch(ciphertexts, associatedData);
+    // The key that succeeded is now tried first, and decrypts the whole batch.
+    aead.decryptBatch(ciphertexts.subList(0, 2), associatedData.subList(0, 2));
+
+    List<String> expected = new ArrayList<String>();
+    expected.add("Aead decryptBatch 42 PREFIX 114 false");
+    // Each ciphertext that failed in the batch is not decrypted with the same key again.
+    expected.add("Aead decrypt 42 PREFIX 43 true");
+    expected.add("Aead decrypt 42 PREFIX 43 true");
+    expected.add("Aead decrypt 42 PREFIX 43 false");
+    expected.add("Aead decrypt 43 failed");
+    expected.add("Aead decryptBatch 42 PREFIX 76 true");
+    assertEquals(expected, monitor.records);
+  }
+
+  @Test
+  public void testMac() throws Exception {
+    Key key =
+        TestUtil.createKey(
+            TestUtil.createHmacKeyData(Random.randBytes(16), 16),
+            42,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.TINK);
+    Registry.setPrimitiveMonitor(monitor);
+    Mac mac = MacFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(key)));
+    byte[] data = new byte[5];
+    byte[] tag = mac.computeMac(data);
+    tag[tag.length - 1] ^= 1;
+    try {
+      mac.verifyMac(tag, data);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      // expected
+    }
+
+    List<String> expected = new ArrayList<String>();
+    expected.add("Mac computeMac 42 PRIMARY 5 true");
+    expected.add("Mac verifyMac 42 PREFIX 5 false");
+    expected.add("Mac verifyMac 5 failed");
+    assertEquals(expected, monitor.records);
+  }
+
+  @Test
+  public void testPrimitivesKeepTheirMonitor() throws Exception {
+    Aead aead =
+        AeadFactory.getPrimitive(
+            TestUtil.createKeysetHandle(
+                TestUtil.createKeyset(aesGcmKey(42, OutputPrefixType.TINK))));
+    Registry.setPrimitiveMonitor(monitor);
+    aead.encrypt(new byte[10], new byte[0]);
+    assertTrue(monitor.records.isEmpty());
+  }
+
+  private static Key aesGcmKey(int keyId, OutputPrefixType prefixType) throws Exception {
+    return TestUtil.createKey(
+        TestUtil.createAesGcmKeyData(Random.randBytes(16)),
+        keyId,
+        KeyStatusType.ENABLED,
+        prefixType);
+  }
+}
@@ -19,11 +19,13 @@ package com.google.crypto.tink;
 import static com.google.crypto.tink.TestUtil.assertExceptionContains;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.proto.KeyStatusType;
 import com.google.crypto.tink.proto.Keyset.Key;
 import com.google.crypto.tink.proto.OutputPrefixType;
+import com.google.crypto.tink.subtle.Bytes;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.util.List;
@@ -229,6 +231,106 @@ public class PrimitiveSetTest {
     assertArrayEquals(CryptoFormat.getOutputPrefix(key2), entry.getIdentifier());
   }
 
+  @Test
+  public void testGetPrimitiveByPrefix() throws Exception {
+    PrimitiveSet<Mac> pset = PrimitiveSet.newPrimitiveSet();
+    Key key1 =
+        Key.newBuilder()
+            .setKeyId(0x01020304)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.TINK)
+            .build();
+    pset.setPrimary(pset.addPrimitive(new DummyMac1(), key1));
+    Key key2 =
+        Key.newBuilder()
+            .setKeyId(0x01020304)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.LEGACY)
+            .build();
+    pset.addPrimitive(new DummyMac2(), key2);
+    Key key3 =
+        Key.newBuilder()
+            .setKeyId(5)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.RAW)
+            .build();
+    pset.addPrimitive(new DummyMac2(), key3);
+
+    byte[] output = Bytes.concat(CryptoFormat.getOutputPrefix(key1), new byte[] {42, 43});
+    List<PrimitiveSet.Entry<Mac>> entries = pset.getPrimitiveByPrefix(output);
+    assertEquals(1, entries.size());
+    assertEquals(OutputPrefixType.TINK, entries.get(0).getOutputPrefixType());
+
+    output = Bytes.concat(CryptoFormat.getOutputPrefix(key2), new byte[] {42, 43});
+    entries = pset.getPrimitiveByPrefix(output);
+    assertEquals(1, entries.size());
+    assertEquals(OutputPrefixType.LEGACY, entries.get(0).getOutputPrefixType());
+
+    // Unknown prefix.
+    output = new byte[] {CryptoFormat.TINK_START_BYTE, 0, 0, 0, 6, 42};
+    assertEquals(0, pset.getPrimitiveByPrefix(output).size());
+    // Too short.
+    assertEquals(0, pset.getPrimitiveByPrefix(new byte[] {CryptoFormat.TINK_START_BYTE}).size());
+    // RAW keys are not returned by prefix lookups.
+    assertEquals(1, pset.getRawPrimitives().size());
+  }
+
+  @Test
+  public void testEntryIdentifierAccessors() throws Exception {
+    PrimitiveSet<Mac> pset = PrimitiveSet.newPrimitiveSet();
+    Key key1 =
+        Key.newBuilder()
+            .setKeyId(7)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.TINK)
+            .build();
+    PrimitiveSet.Entry<Mac> tinkEntry = pset.addPrimitive(new DummyMac1(), key1);
+    Key key2 =
+        Key.newBuilder()
+            .setKeyId(8)
+            .setStatus(KeyStatusType.ENABLED)
+            .setOutputPrefixType(OutputPrefixType.RAW)
+            .build();
+    PrimitiveSet.Entry<Mac> rawEntry = pset.addPrimitive(new DummyMac1(), key2);
+
+    assertEquals(CryptoFormat.TINK_PREFIX_SIZE, tinkEntry.getIdentifierLength());
+    byte[] dest = new byte[CryptoFormat.TINK_PREFIX_SIZE + 1];
+    tinkEntry.copyIdentifier(dest, 1);
+    assertArrayEquals(Bytes.concat(new byte[1], CryptoFormat.getOutputPrefix(key1)), dest);
+
+    byte[] output = new byte[] {1, 2, 3};
+    assertArrayEquals(
+        Bytes.concat(CryptoFormat.getOutputPrefix(key1), output),
+        tinkEntry.prependIdentifier(output));
+    assertEquals(0, rawEntry.getIdentifierLength());
+    assertSame(output, rawEntry.prependIdentifier(output));
+  }
+
+  @Test
+  public void testManyPrefixes() throws Exception {
+    PrimitiveSet<Mac> pset = PrimitiveSet.newPrimitiveSet();
+    for (int i = 0; i < 100; i++) {
+      Key key =
+          Key.newBuilder()
+              .setKeyId(i * 0x01000193)
+              .setStatus(KeyStatusType.ENABLED)
+              .setOutputPrefixType(i % 2 == 0 ? OutputPrefixType.TINK : OutputPrefixType.LEGACY)
+              .build();
+      pset.addPrimitive(new DummyMac1(), key);
+    }
+    for (int i = 0; i < 100; i++) {
+      Key key =
+          Key.newBuilder()
+              .setKeyId(i * 0x01000193)
+              .setOutputPrefixType(i % 2 == 0 ? OutputPrefixType.TINK : OutputPrefixType.LEGACY)
+              .build();
+      List<PrimitiveSet.Entry<Mac>> entries =
+          pset.getPrimitiveByPrefix(CryptoFormat.getOutputPrefix(key));
+      assertEquals(1, entries.size());
+      assertArrayEquals(CryptoFormat.getOutputPrefix(key), entries.get(0).getIdentifier());
+    }
+  }
+
   @Test
   public void testAddInvalidKey() throws Exception {
     PrimitiveSet<Mac> pset = PrimitiveSet.newPrimitiveSet();
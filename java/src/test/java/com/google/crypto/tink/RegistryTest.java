@@ -41,6 +41,7 @@ import com.google.protobuf.ByteString;
 import com.google.protobuf.MessageLite;
 import java.security.GeneralSecurityException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -337,6 +338,55 @@ public class RegistryTest {
     assertThat(aead2List.get(0).getPrimitive().getClass()).isEqualTo(EncryptThenAuthenticate.class);
   }
 
+  @Test
+  public void testGetPrimitives_WithPrimitiveCache_shouldReusePrimitives() throws Exception {
+    KeyData key1 = Registry.newKeyData(AeadKeyTemplates.AES128_EAX);
+    KeyData key2 = Registry.newKeyData(AeadKeyTemplates.AES128_CTR_HMAC_SHA256);
+    KeysetHandle keysetHandle =
+        KeysetHandle.fromKeyset(
+            Keyset.newBuilder()
+                .addKey(
+                    Keyset.Key.newBuilder()
+                        .setKeyData(key1)
+                        .setKeyId(1)
+                        .setStatus(KeyStatusType.ENABLED)
+                        .setOutputPrefixType(OutputPrefixType.TINK)
+                        .build())
+                .addKey(
+                    Keyset.Key.newBuilder()
+                        .setKeyData(key2)
+                        .setKeyId(2)
+                        .setStatus(KeyStatusType.ENABLED)
+                        .setOutputPrefixType(OutputPrefixType.TINK)
+                        .build())
+                .setPrimaryKeyId(2)
+                .build());
+
+    PrimitiveCache cache = new PrimitiveCache(10, 1, TimeUnit.HOURS);
+    Registry.setPrimitiveCache(cache);
+    try {
+      PrimitiveSet<Aead> aeadSet1 = Registry.getPrimitives(keysetHandle);
+      assertThat(cache.getMissCount()).isEqualTo(2);
+      assertThat(cache.getHitCount()).isEqualTo(0);
+      assertThat(cache.size()).isEqualTo(2);
+
+      PrimitiveSet<Aead> aeadSet2 = Registry.getPrimitives(keysetHandle);
+      assertThat(cache.getMissCount()).isEqualTo(2);
+      assertThat(cache.getHitCount()).isEqualTo(2);
+      assertThat(aeadSet2.getPrimary().getPrimitive())
+          .isSameAs(aeadSet1.getPrimary().getPrimitive());
+
+      // Keys handled by a custom key manager bypass the cache.
+      PrimitiveSet<Aead> aeadSet3 =
+          Registry.getPrimitives(keysetHandle, new CustomAeadKeyManager());
+      assertThat(aeadSet3.getPrimary().getPrimitive().getClass()).isEqualTo(DummyAead.class);
+      assertThat(cache.getMissCount()).isEqualTo(2);
+      assertThat(cache.getHitCount()).isEqualTo(2);
+    } finally {
+      Registry.setPrimitiveCache(null);
+    }
+  }
+
   @Test
   public void testGetPrimitives_EmptyKeyset_shouldThrowException() throws Exception {
     // Empty keyset.
@@ -432,6 +482,23 @@ public class RegistryTest {
     }
   }
 
+  @Test
+  public void testGetCatalogue_shouldBeCaseInsensitive() throws Exception {
+    Catalogue catalogue = Registry.getCatalogue("TinkAead");
+    assertThat(Registry.getCatalogue("tinkaead")).isSameAs(catalogue);
+    assertThat(Registry.getCatalogue("TINKAEAD")).isSameAs(catalogue);
+  }
+
+  @Test
+  public void testGetCatalogue_notRegistered_shouldThrowException() throws Exception {
+    try {
+      Registry.getCatalogue("TinkStreamingAeadNotRegistered");
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      assertExceptionContains(e, "StreamingAeadConfig.init()");
+    }
+  }
+
   private static class Catalogue1 implements Catalogue {
     @Override
     @SuppressWarnings({"rawtypes", "unchecked"})
@@ -456,6 +523,19 @@ public class RegistryTest {
     }
   }
 
+  @Test
+  public void testAddCatalogue_differentCasing_shouldBeSameName() throws Exception {
+    Registry.addCatalogue("CasingTestCatalogue", new Catalogue1());
+    Registry.addCatalogue("casingtestcatalogue", new Catalogue1());
+    try {
+      Registry.addCatalogue("CASINGTESTCATALOGUE", new Catalogue2());
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      assertExceptionContains(e, "has been already registered");
+    }
+    assertThat(Registry.getCatalogue("CasingTestCatalogue")).isInstanceOf(Catalogue1.class);
+  }
+
   @Test
   public void testAddCatalogue_MultiThreads_shouldWork() throws Exception {
     final boolean[] threwException = new boolean[3];
@@ -0,0 +1,460 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.subtle.AesGcmJce;
+import com.google.crypto.tink.subtle.Random;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.JUnit4;
+
+/** Tests for ReloadingPrimitive. */
+@RunWith(JUnit4.class)
+public class ReloadingPrimitiveTest {
+  private static final ReloadingPrimitive.PrimitiveFactory<Aead> AEAD_FACTORY =
+      new ReloadingPrimitive.PrimitiveFactory<Aead>() {
+        @Override
+        public Aead getPrimitive(KeysetHandle keysetHandle) throws GeneralSecurityException {
+          return AeadFactory.getPrimitive(keysetHandle);
+        }
+      };
+
+  /** A keyset source that holds an encrypted keyset in memory. */
+  private static final class InMemoryKeysetSource implements ReloadingPrimitive.KeysetSource {
+    private volatile byte[] encryptedKeyset;
+    private volatile boolean broken;
+    private final AtomicInteger openStreams = new AtomicInteger();
+
+    @Override
+    public InputStream open() throws IOException {
+      if (broken) {
+        throw new IOException("keyset source is broken");
+      }
+      openStreams.incrementAndGet();
+      return new ByteArrayInputStream(encryptedKeyset) {
+        @Override
+        public void close() {
+          openStreams.decrementAndGet();
+        }
+      };
+    }
+
+    @Override
+    public KeysetReader newReader(byte[] contents) {
+      return BinaryKeysetReader.withBytes(contents);
+    }
+  }
+
+  /** A keyset source that counts its reads, and can be made to fail or to wait. */
+  private static final class FlakyKeysetSource implements ReloadingPrimitive.KeysetSource {
+    private final ReloadingPrimitive.KeysetSource source;
+    private volatile boolean broken;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger opens = new AtomicInteger();
+    // If set, open() counts down entered, and then waits for release.
+    private volatile CountDownLatch entered;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    FlakyKeysetSource(ReloadingPrimitive.KeysetSource source) {
+      this.source = source;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+      if (broken) {
+        failures.incrementAndGet();
+        throw new IOException("keyset source is broken");
+      }
+      CountDownLatch latch = entered;
+      if (latch != null) {
+        latch.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      opens.incrementAndGet();
+      return source.open();
+    }
+
+    @Override
+    public KeysetReader newReader(byte[] contents) throws IOException {
+      return source.newReader(contents);
+    }
+  }
+
+  /** Counts the decryptions of a master key. */
+  private static final class CountingAead implements Aead {
+    private final Aead aead;
+    private final AtomicInteger decryptions = new AtomicInteger();
+
+    CountingAead(Aead aead) {
+      this.aead = aead;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plaintext, byte[] associatedData)
+        throws GeneralSecurityException {
+      return aead.encrypt(plaintext, associatedData);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext, byte[] associatedData)
+        throws GeneralSecurityException {
+      decryptions.incrementAndGet();
+      return aead.decrypt(ciphertext, associatedData);
+    }
+  }
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private CountingAead masterKey;
+  private KeysetManager manager;
+  private InMemoryKeysetSource source;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    Config.register(AeadConfig.TINK_1_0_0);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    masterKey = new CountingAead(new AesGcmJce(Random.randBytes(16)));
+    manager = KeysetManager.withKeysetHandle(KeysetHandle.generateNew(AeadKeyTemplates.AES128_GCM));
+    source = new InMemoryKeysetSource();
+    publish();
+  }
+
+  private void publish() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    manager.getKeysetHandle().write(BinaryKeysetWriter.withOutputStream(out), masterKey);
+    source.encryptedKeyset = out.toByteArray();
+  }
+
+  /** Replaces {@code file} with the current keyset in JSON format, as a key rotation tool would. */
+  private void publish(File file) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    manager.getKeysetHandle().write(JsonKeysetWriter.withOutputStream(out), masterKey);
+    File tmp = tmpFolder.newFile();
+    Files.write(tmp.toPath(), out.toByteArray());
+    Files.move(
+        tmp.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void waitUntilReplaced(ReloadingPrimitive<Aead> reloading, Aead old)
+      throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (reloading.get() == old && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertNotSame(old, reloading.get());
+  }
+
+  private ReloadingPrimitive.Builder<Aead> newBuilder() {
+    return new ReloadingPrimitive.Builder<Aead>()
+        .setKeysetSource(source)
+        .setMasterKey(masterKey)
+        .setPrimitiveFactory(AEAD_FACTORY);
+  }
+
+  @Test
+  public void testReload() throws Exception {
+    ReloadingPrimitive<Aead> reloading = newBuilder().build();
+    Aead first = reloading.get();
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+    byte[] ciphertext = first.encrypt(plaintext, associatedData);
+
+    // The keyset has not changed.
+    assertFalse(reloading.reload());
+    assertSame(first, reloading.get());
+
+    manager.rotate(AeadKeyTemplates.AES128_GCM);
+    publish();
+    assertTrue(reloading.reload());
+    Aead second = reloading.get();
+    assertNotSame(first, second);
+    assertArrayEquals(plaintext, second.decrypt(ciphertext, associatedData));
+    try {
+      first.decrypt(second.encrypt(plaintext, associatedData), associatedData);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      // expected, the new primary key is unknown to the old primitive.
+    }
+  }
+
+  @Test
+  public void testStreamsAreClosed() throws Exception {
+    ReloadingPrimitive<Aead> reloading = newBuilder().build();
+    assertFalse(reloading.reload());
+    manager.rotate(AeadKeyTemplates.AES128_GCM);
+    publish();
+    assertTrue(reloading.reload());
+    assertEquals(0, source.openStreams.get());
+  }
+
+  @Test
+  public void testUnchangedKeysetIsNotDecrypted() throws Exception {
+    ReloadingPrimitive<Aead> reloading = newBuilder().build();
+    int decryptions = masterKey.decryptions.get();
+    for (int i = 0; i < 10; i++) {
+      assertFalse(reloading.reload());
+    }
+    assertEquals(decryptions, masterKey.decryptions.get());
+
+    // The same keyset, encrypted anew.
+    publish();
+    decryptions = masterKey.decryptions.get();
+    assertFalse(reloading.reload());
+    assertEquals(decryptions + 1, masterKey.decryptions.get());
+  }
+
+  @Test
+  public void testFailedReloadKeepsPrimitive() throws Exception {
+    ReloadingPrimitive<Aead> reloading = newBuilder().build();
+    Aead first = reloading.get();
+    manager.rotate(AeadKeyTemplates.AES128_GCM);
+    publish();
+    source.broken = true;
+    try {
+      reloading.reload();
+      fail("Expected IOException");
+    } catch (IOException e) {
+      // expected
+    }
+    assertSame(first, reloading.get());
+  }
+
+  @Test
+  public void testWrongMasterKey() throws Exception {
+    try {
+      newBuilder().setMasterKey(new AesGcmJce(Random.randBytes(16))).build();
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testBackgroundReload() throws Exception {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      ReloadingPrimitive<Aead> reloading =
+          newBuilder().setExecutor(executor, 10, TimeUnit.MILLISECONDS).build();
+      Aead first = reloading.get();
+      manager.rotate(AeadKeyTemplates.AES128_GCM);
+      publish();
+      waitUntilReplaced(reloading, first);
+      reloading.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWatchedFileIsReadAgainAfterFailedReload() throws Exception {
+    File file = new File(tmpFolder.getRoot(), "keyset.json");
+    publish(file);
+    FlakyKeysetSource flaky = new FlakyKeysetSource(ReloadingPrimitive.jsonKeysetFile(file));
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      ReloadingPrimitive<Aead> reloading =
+          newBuilder()
+              .setKeysetSource(flaky)
+              .watchFile(file)
+              .setExecutor(executor, 10, TimeUnit.MILLISECONDS)
+              .build();
+      Aead first = reloading.get();
+      flaky.broken = true;
+      manager.rotate(AeadKeyTemplates.AES128_GCM);
+      publish(file);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (flaky.failures.get() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertSame(first, reloading.get());
+
+      // The file does not change again, but the failed reload is retried.
+      flaky.broken = false;
+      waitUntilReplaced(reloading, first);
+      reloading.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWatchedFile() throws Exception {
+    File file = new File(tmpFolder.getRoot(), "keyset.json");
+    publish(file);
+    FlakyKeysetSource source = new FlakyKeysetSource(ReloadingPrimitive.jsonKeysetFile(file));
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      ReloadingPrimitive<Aead> reloading =
+          newBuilder()
+              .setKeysetSource(source)
+              .watchFile(file)
+              .setExecutor(executor, 10, TimeUnit.MILLISECONDS)
+              .build();
+      Aead first = reloading.get();
+      byte[] plaintext = Random.randBytes(20);
+      byte[] associatedData = Random.randBytes(20);
+      byte[] ciphertext = first.encrypt(plaintext, associatedData);
+
+      // Other files in the directory are ignored.
+      int opens = source.opens.get();
+      Files.write(new File(tmpFolder.getRoot(), "other.json").toPath(), new byte[] {1, 2, 3});
+      Thread.sleep(200);
+      assertEquals(opens, source.opens.get());
+      assertSame(first, reloading.get());
+
+      manager.rotate(AeadKeyTemplates.AES128_GCM);
+      publish(file);
+      waitUntilReplaced(reloading, first);
+      Aead second = reloading.get();
+      assertArrayEquals(plaintext, second.decrypt(ciphertext, associatedData));
+      assertArrayEquals(
+          plaintext, second.decrypt(second.encrypt(plaintext, associatedData), associatedData));
+      reloading.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCloseWhileReloading() throws Exception {
+    File file = new File(tmpFolder.getRoot(), "keyset.json");
+    publish(file);
+    FlakyKeysetSource source = new FlakyKeysetSource(ReloadingPrimitive.jsonKeysetFile(file));
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      final ReloadingPrimitive<Aead> reloading =
+          newBuilder()
+              .setKeysetSource(source)
+              .watchFile(file)
+              .setExecutor(executor, 10, TimeUnit.MILLISECONDS)
+              .build();
+      Aead first = reloading.get();
+      source.entered = new CountDownLatch(1);
+      manager.rotate(AeadKeyTemplates.AES128_GCM);
+      publish(file);
+      assertTrue(source.entered.await(10, TimeUnit.SECONDS));
+
+      // A check is reading the keyset while the primitive is closed.
+      Thread closer =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                reloading.close();
+              } catch (IOException e) {
+                throw new AssertionError(e);
+              }
+            }
+          };
+      closer.start();
+      source.release.countDown();
+      closer.join(10000);
+      assertFalse(closer.isAlive());
+      // The reload that was in progress has finished, and no further checks run.
+      assertNotSame(first, reloading.get());
+      int opens = source.opens.get();
+      manager.rotate(AeadKeyTemplates.AES128_GCM);
+      publish(file);
+      Thread.sleep(200);
+      assertEquals(opens, source.opens.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testIsChangeOf() throws Exception {
+    Path file = tmpFolder.getRoot().toPath().resolve("keyset.json");
+    WatchEvent<?> modified =
+        new TestWatchEvent(StandardWatchEventKinds.ENTRY_MODIFY, Paths.get("keyset.json"));
+    WatchEvent<?> otherModified =
+        new TestWatchEvent(StandardWatchEventKinds.ENTRY_MODIFY, Paths.get("other.json"));
+    WatchEvent<?> overflow = new TestWatchEvent(StandardWatchEventKinds.OVERFLOW, null);
+    assertTrue(ReloadingPrimitive.isChangeOf(file, modified));
+    assertFalse(ReloadingPrimitive.isChangeOf(file, otherModified));
+    // After an overflow, the file may have changed.
+    assertTrue(ReloadingPrimitive.isChangeOf(file, overflow));
+  }
+
+  private static final class TestWatchEvent implements WatchEvent<Object> {
+    private final WatchEvent.Kind<?> kind;
+    private final Object context;
+
+    TestWatchEvent(WatchEvent.Kind<?> kind, Object context) {
+      this.kind = kind;
+      this.context = context;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked") // Only compared by identity.
+    public WatchEvent.Kind<Object> kind() {
+      return (WatchEvent.Kind<Object>) kind;
+    }
+
+    @Override
+    public int count() {
+      return 1;
+    }
+
+    @Override
+    public Object context() {
+      return context;
+    }
+  }
+}
@@ -23,6 +23,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.google.crypto.tink.aead.AeadConfig;
 import com.google.crypto.tink.aead.AeadFactory;
+import com.google.crypto.tink.daead.DeterministicAeadConfig;
 import com.google.crypto.tink.hybrid.HybridKeyTemplates;
 import com.google.crypto.tink.mac.MacConfig;
 import com.google.crypto.tink.proto.AesCtrHmacAeadKey;
@@ -35,6 +36,7 @@ import com.google.crypto.tink.proto.AesEaxParams;
 import com.google.crypto.tink.proto.AesGcmHkdfStreamingKey;
 import com.google.crypto.tink.proto.AesGcmHkdfStreamingParams;
 import com.google.crypto.tink.proto.AesGcmKey;
+import com.google.crypto.tink.proto.AesSivKey;
 import com.google.crypto.tink.proto.EcPointFormat;
 import com.google.crypto.tink.proto.EcdsaParams;
 import com.google.crypto.tink.proto.EcdsaPrivateKey;
@@ -247,6 +249,13 @@ public class TestUtil {
     return createKeyData(keyProto, AeadConfig.AES_EAX_TYPE_URL, KeyData.KeyMaterialType.SYMMETRIC);
   }
 
+  /** @return a {@code KeyData} containing a {@code AesSivKey}. */
+  public static KeyData createAesSivKeyData(byte[] keyValue) throws Exception {
+    AesSivKey keyProto = AesSivKey.newBuilder().setKeyValue(ByteString.copyFrom(keyValue)).build();
+    return createKeyData(
+        keyProto, DeterministicAeadConfig.AES_SIV_TYPE_URL, KeyData.KeyMaterialType.SYMMETRIC);
+  }
+
   /** @return a KMS key URI in a format defined by Google Cloud KMS. */
   public static String createGcpKmsKeyUri(
       String projectId, String location, String ringId, String keyId) {
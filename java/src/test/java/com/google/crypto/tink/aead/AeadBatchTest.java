@@ -0,0 +1,196 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.aead;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.Config;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.TestUtil;
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.Keyset.Key;
+import com.google.crypto.tink.proto.OutputPrefixType;
+import com.google.crypto.tink.subtle.AesGcmJce;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for AeadBatch and the batch methods of the primitives returned by AeadFactory. */
+@RunWith(JUnit4.class)
+public class AeadBatchTest {
+  private static final int AES_KEY_SIZE = 16;
+  private static final int HMAC_KEY_SIZE = 20;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Config.register(AeadConfig.TINK_1_0_0);
+  }
+
+  private static Key createAesGcmKey(int keyId, OutputPrefixType prefixType) throws Exception {
+    return TestUtil.createKey(
+        TestUtil.createAesGcmKeyData(Random.randBytes(AES_KEY_SIZE)),
+        keyId,
+        KeyStatusType.ENABLED,
+        prefixType);
+  }
+
+  private static Key createAesCtrHmacKey(int keyId, OutputPrefixType prefixType) throws Exception {
+    return TestUtil.createKey(
+        TestUtil.createAesCtrHmacAeadKeyData(
+            Random.randBytes(AES_KEY_SIZE), 12, Random.randBytes(HMAC_KEY_SIZE), 16),
+        keyId,
+        KeyStatusType.ENABLED,
+        prefixType);
+  }
+
+  private static List<byte[]> randomMessages(int count) {
+    List<byte[]> messages = new ArrayList<byte[]>(count);
+    for (int i = 0; i < count; i++) {
+      messages.add(Random.randBytes(i % 100));
+    }
+    return messages;
+  }
+
+  @Test
+  public void testKeysetPrimitiveIsBatchAead() throws Exception {
+    Key primary = createAesCtrHmacKey(42, OutputPrefixType.TINK);
+    Key raw = createAesGcmKey(43, OutputPrefixType.RAW);
+    Aead aead =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(primary, raw)));
+    assertTrue(aead instanceof BatchAead);
+    BatchAead batchAead = (BatchAead) aead;
+
+    List<byte[]> plaintexts = randomMessages(20);
+    List<byte[]> associatedData = randomMessages(20);
+    List<byte[]> ciphertexts = batchAead.encryptBatch(plaintexts, associatedData);
+    for (int i = 0; i < plaintexts.size(); i++) {
+      assertArrayEquals(
+          plaintexts.get(i), aead.decrypt(ciphertexts.get(i), associatedData.get(i)));
+    }
+
+    // Mix in ciphertexts of the RAW key, which cannot be found by prefix, and a broken one.
+    Aead rawAead =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(raw)));
+    ciphertexts.set(3, rawAead.encrypt(plaintexts.get(3), associatedData.get(3)));
+    ciphertexts.get(4)[ciphertexts.get(4).length - 1] ^= 1;
+    List<byte[]> decrypted = batchAead.decryptBatch(ciphertexts, associatedData);
+    for (int i = 0; i < plaintexts.size(); i++) {
+      if (i == 4) {
+        assertNull(decrypted.get(i));
+      } else {
+        assertArrayEquals(plaintexts.get(i), decrypted.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testEncryptDecryptWithExecutor() throws Exception {
+    KeysetHandle keysetHandle =
+        TestUtil.createKeysetHandle(
+            TestUtil.createKeyset(
+                createAesGcmKey(42, OutputPrefixType.TINK),
+                createAesCtrHmacKey(43, OutputPrefixType.LEGACY)));
+    Aead aead = AeadFactory.getPrimitive(keysetHandle);
+    List<byte[]> plaintexts = randomMessages(1000);
+    List<byte[]> associatedData = randomMessages(1000);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      AeadBatch.Result encrypted =
+          AeadBatch.encrypt(aead, plaintexts, associatedData, executor, 64);
+      assertEquals(1000, encrypted.size());
+      assertEquals(0, encrypted.getFailureCount());
+      List<byte[]> ciphertexts = new ArrayList<byte[]>(encrypted.getOutputs());
+      ciphertexts.set(10, Random.randBytes(50));
+      ciphertexts.set(500, new byte[0]);
+
+      AeadBatch.Result decrypted =
+          AeadBatch.decrypt(aead, ciphertexts, associatedData, executor, 64);
+      assertEquals(2, decrypted.getFailureCount());
+      for (int i = 0; i < plaintexts.size(); i++) {
+        if (i == 10 || i == 500) {
+          assertFalse(decrypted.isSuccess(i));
+          assertNotNull(decrypted.getException(i));
+        } else {
+          assertTrue(decrypted.isSuccess(i));
+          assertArrayEquals(plaintexts.get(i), decrypted.getOutput(i));
+        }
+      }
+      try {
+        decrypted.getOutputs();
+        fail("Expected GeneralSecurityException");
+      } catch (GeneralSecurityException e) {
+        // expected
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAeadWithoutBatchSupport() throws Exception {
+    final Aead gcm = new AesGcmJce(Random.randBytes(AES_KEY_SIZE));
+    Aead aead =
+        new Aead() {
+          @Override
+          public byte[] encrypt(byte[] plaintext, byte[] associatedData)
+              throws GeneralSecurityException {
+            return gcm.encrypt(plaintext, associatedData);
+          }
+
+          @Override
+          public byte[] decrypt(byte[] ciphertext, byte[] associatedData)
+              throws GeneralSecurityException {
+            return gcm.decrypt(ciphertext, associatedData);
+          }
+        };
+    List<byte[]> plaintexts = randomMessages(30);
+    List<byte[]> associatedData = randomMessages(30);
+    List<byte[]> ciphertexts = AeadBatch.encrypt(aead, plaintexts, associatedData).getOutputs();
+    ciphertexts.set(0, new byte[3]);
+    AeadBatch.Result decrypted = AeadBatch.decrypt(aead, ciphertexts, associatedData);
+    assertEquals(1, decrypted.getFailureCount());
+    for (int i = 1; i < plaintexts.size(); i++) {
+      assertArrayEquals(plaintexts.get(i), decrypted.getOutput(i));
+    }
+  }
+
+  @Test
+  public void testSizeMismatch() throws Exception {
+    Aead aead = new AesGcmJce(Random.randBytes(AES_KEY_SIZE));
+    try {
+      AeadBatch.encrypt(aead, randomMessages(3), randomMessages(2));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -92,6 +92,20 @@ public class AeadConfigTest {
         "TinkAead", "Aead", "type.googleapis.com/google.crypto.tink.KmsEnvelopeAeadKey", true, 0);
   }
 
+  @Test
+  public void testConfigContents_1_1_0() throws Exception {
+    RegistryConfig config = AeadConfig.TINK_1_1_0;
+    assertEquals(8, config.getEntryCount());
+    assertEquals("TINK_AEAD_1_1_0", config.getConfigName());
+
+    TestUtil.verifyConfigEntry(config.getEntry(0),
+        "TinkMac", "Mac", "type.googleapis.com/google.crypto.tink.HmacKey", true, 0);
+    TestUtil.verifyConfigEntry(config.getEntry(3),
+        "TinkAead", "Aead", "type.googleapis.com/google.crypto.tink.AesGcmKey", true, 0);
+    TestUtil.verifyConfigEntry(config.getEntry(7),
+        "TinkAead", "Aead", "type.googleapis.com/google.crypto.tink.AesGcmSivKey", true, 0);
+  }
+
   @Test
   public void testRegistration() throws Exception {
     String typeUrl = "type.googleapis.com/google.crypto.tink.AesCtrHmacAeadKey";
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.ByteBufferAead;
 import com.google.crypto.tink.Config;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeysetHandle;
@@ -30,6 +31,7 @@ import com.google.crypto.tink.proto.KeyStatusType;
 import com.google.crypto.tink.proto.Keyset.Key;
 import com.google.crypto.tink.proto.OutputPrefixType;
 import com.google.crypto.tink.subtle.Random;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import org.junit.BeforeClass;
@@ -197,4 +199,52 @@ public class AeadFactoryTest {
     assertEquals(
         CryptoFormat.RAW_PREFIX_SIZE + plaintext.length + ivSize + tagSize, ciphertext.length);
   }
+
+  @Test
+  public void testByteBufferEncryptDecrypt() throws Exception {
+    byte[] aesCtrKeyValue = Random.randBytes(AES_KEY_SIZE);
+    byte[] hmacKeyValue = Random.randBytes(HMAC_KEY_SIZE);
+    int ivSize = 12;
+    int tagSize = 16;
+    Key primary =
+        TestUtil.createKey(
+            TestUtil.createAesCtrHmacAeadKeyData(aesCtrKeyValue, ivSize, hmacKeyValue, tagSize),
+            42,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.TINK);
+    Key raw =
+        TestUtil.createKey(
+            TestUtil.createAesGcmKeyData(Random.randBytes(AES_KEY_SIZE)),
+            43,
+            KeyStatusType.ENABLED,
+            OutputPrefixType.RAW);
+    KeysetHandle keysetHandle = TestUtil.createKeysetHandle(TestUtil.createKeyset(primary, raw));
+    ByteBufferAead aead = (ByteBufferAead) AeadFactory.getPrimitive(keysetHandle);
+    byte[] plaintext = Random.randBytes(100);
+    byte[] associatedData = Random.randBytes(20);
+    int ciphertextLength = CryptoFormat.NON_RAW_PREFIX_SIZE + plaintext.length + ivSize + tagSize;
+
+    ByteBuffer ciphertext = ByteBuffer.allocateDirect(ciphertextLength);
+    aead.encrypt(ByteBuffer.wrap(plaintext), ByteBuffer.wrap(associatedData), ciphertext);
+    assertEquals(ciphertextLength, ciphertext.position());
+    ciphertext.flip();
+    byte[] ciphertextBytes = new byte[ciphertextLength];
+    ciphertext.duplicate().get(ciphertextBytes);
+    assertArrayEquals(
+        CryptoFormat.getOutputPrefix(primary),
+        Arrays.copyOf(ciphertextBytes, CryptoFormat.NON_RAW_PREFIX_SIZE));
+    assertArrayEquals(plaintext, aead.decrypt(ciphertextBytes, associatedData));
+
+    ByteBuffer decrypted = ByteBuffer.allocate(plaintext.length);
+    aead.decrypt(ciphertext, ByteBuffer.wrap(associatedData), decrypted);
+    assertArrayEquals(plaintext, decrypted.array());
+
+    // in place, and with a RAW key that is tried after the prefixed keys.
+    Aead rawAead =
+        AeadFactory.getPrimitive(TestUtil.createKeysetHandle(TestUtil.createKeyset(raw)));
+    byte[] buffer = rawAead.encrypt(plaintext, associatedData);
+    assertEquals(
+        plaintext.length, aead.decrypt(buffer, 0, buffer.length, associatedData, buffer, 0));
+    assertArrayEquals(plaintext, Arrays.copyOf(buffer, plaintext.length));
+  }
 }
@@ -0,0 +1,133 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.aead;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.Config;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.TestUtil;
+import com.google.crypto.tink.proto.AesGcmSivKey;
+import com.google.crypto.tink.proto.AesGcmSivKeyFormat;
+import com.google.crypto.tink.proto.KeyData;
+import com.google.crypto.tink.subtle.AesGcmSiv;
+import com.google.crypto.tink.subtle.Random;
+import com.google.protobuf.ByteString;
+import java.security.GeneralSecurityException;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test for AesGcmSiv and its key manager. */
+@RunWith(JUnit4.class)
+public class AesGcmSivKeyManagerTest {
+  @BeforeClass
+  public static void setUp() throws GeneralSecurityException {
+    Config.register(AeadConfig.TINK_1_1_0);
+  }
+
+  @Test
+  public void testNewKeyMultipleTimes() throws Exception {
+    for (int keySize : new int[] {16, 32}) {
+      AesGcmSivKeyFormat format = AesGcmSivKeyFormat.newBuilder().setKeySize(keySize).build();
+      ByteString serialized = format.toByteString();
+      AesGcmSivKeyManager keyManager = new AesGcmSivKeyManager();
+      Set<String> keys = new TreeSet<String>();
+      // Calls newKey multiple times and make sure that they generate different keys.
+      int numTests = 27;
+      for (int i = 0; i < numTests / 3; i++) {
+        AesGcmSivKey key = (AesGcmSivKey) keyManager.newKey(format);
+        keys.add(TestUtil.hexEncode(key.getKeyValue().toByteArray()));
+        assertEquals(keySize, key.getKeyValue().size());
+
+        key = (AesGcmSivKey) keyManager.newKey(serialized);
+        keys.add(TestUtil.hexEncode(key.getKeyValue().toByteArray()));
+        assertEquals(keySize, key.getKeyValue().size());
+
+        KeyData keyData = keyManager.newKeyData(serialized);
+        key = AesGcmSivKey.parseFrom(keyData.getValue());
+        keys.add(TestUtil.hexEncode(key.getKeyValue().toByteArray()));
+        assertEquals(keySize, key.getKeyValue().size());
+      }
+      assertEquals(numTests, keys.size());
+    }
+  }
+
+  @Test
+  public void testInvalidKeySizes() throws Exception {
+    AesGcmSivKeyManager keyManager = new AesGcmSivKeyManager();
+    for (int keySize : new int[] {15, 24, 33}) {
+      try {
+        keyManager.newKey(AesGcmSivKeyFormat.newBuilder().setKeySize(keySize).build());
+        fail("Invalid key size, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+      try {
+        keyManager.getPrimitive(
+            AesGcmSivKey.newBuilder()
+                .setKeyValue(ByteString.copyFrom(Random.randBytes(keySize)))
+                .build());
+        fail("Invalid key size, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testNewKeyWithCorruptedFormat() throws Exception {
+    ByteString serialized = ByteString.copyFrom(new byte[128]);
+    AesGcmSivKeyManager keyManager = new AesGcmSivKeyManager();
+    try {
+      keyManager.newKey(serialized);
+      fail("Corrupted format, should have thrown exception");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+    try {
+      keyManager.newKeyData(serialized);
+      fail("Corrupted format, should have thrown exception");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testPrimitiveMatchesAesGcmSiv() throws Exception {
+    AesGcmSivKeyManager keyManager = new AesGcmSivKeyManager();
+    AesGcmSivKey key =
+        (AesGcmSivKey) keyManager.newKey(AesGcmSivKeyFormat.newBuilder().setKeySize(16).build());
+    Aead aead = keyManager.getPrimitive(key.toByteString());
+    AesGcmSiv gcmSiv = new AesGcmSiv(key.getKeyValue().toByteArray());
+    byte[] plaintext = Random.randBytes(100);
+    byte[] aad = Random.randBytes(20);
+    assertArrayEquals(plaintext, gcmSiv.decrypt(aead.encrypt(plaintext, aad), aad));
+  }
+
+  @Test
+  public void testKeyTemplates() throws Exception {
+    TestUtil.runBasicAeadFactoryTests(KeysetHandle.generateNew(AeadKeyTemplates.AES128_GCM_SIV));
+    TestUtil.runBasicAeadFactoryTests(KeysetHandle.generateNew(AeadKeyTemplates.AES256_GCM_SIV));
+  }
+}
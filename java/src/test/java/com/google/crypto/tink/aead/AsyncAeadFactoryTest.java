@@ -0,0 +1,160 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.aead;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.AsyncAead;
+import com.google.crypto.tink.Config;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.KmsClient;
+import com.google.crypto.tink.KmsClients;
+import com.google.crypto.tink.subtle.AesGcmJce;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for AsyncAeadFactory. */
+@RunWith(JUnit4.class)
+public class AsyncAeadFactoryTest {
+  private static final String FAKE_KMS_PREFIX = "fake-kms://";
+
+  /** A KmsClient whose keys are local AES-GCM keys, one per key URI. */
+  private static final class FakeKmsClient implements KmsClient {
+    @Override
+    public boolean doesSupport(String keyUri) {
+      return keyUri.startsWith(FAKE_KMS_PREFIX);
+    }
+
+    @Override
+    public KmsClient withCredentials(String credentialPath) {
+      return this;
+    }
+
+    @Override
+    public KmsClient withDefaultCredentials() {
+      return this;
+    }
+
+    @Override
+    public Aead getAead(String keyUri) throws GeneralSecurityException {
+      return new AesGcmJce(keyUri.substring(FAKE_KMS_PREFIX.length()).getBytes());
+    }
+  }
+
+  /** An Executor that counts the tasks it runs. */
+  private static final class CountingExecutor implements Executor {
+    private final ExecutorService delegate;
+    private final AtomicInteger count = new AtomicInteger();
+
+    CountingExecutor(ExecutorService delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      count.incrementAndGet();
+      delegate.execute(command);
+    }
+  }
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Config.register(AeadConfig.TINK_1_0_0);
+    KmsClients.add(new FakeKmsClient());
+  }
+
+  @Test
+  public void testLocalKeysCompleteInline() throws Exception {
+    KeysetHandle keysetHandle = KeysetHandle.generateNew(AeadKeyTemplates.AES128_GCM);
+    Executor failingExecutor =
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            throw new AssertionError("local keys must not use the executor");
+          }
+        };
+    AsyncAead asyncAead = AsyncAeadFactory.getPrimitive(keysetHandle, failingExecutor);
+    Aead aead = AeadFactory.getPrimitive(keysetHandle);
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+
+    Future<byte[]> ciphertext = asyncAead.encryptAsync(plaintext, associatedData);
+    assertTrue(ciphertext.isDone());
+    assertArrayEquals(plaintext, aead.decrypt(ciphertext.get(), associatedData));
+
+    Future<byte[]> decrypted = asyncAead.decryptAsync(ciphertext.get(), associatedData);
+    assertTrue(decrypted.isDone());
+    assertArrayEquals(plaintext, decrypted.get());
+
+    byte[] corrupted = ciphertext.get().clone();
+    corrupted[corrupted.length - 1] ^= 1;
+    try {
+      asyncAead.decryptAsync(corrupted, associatedData).get();
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof GeneralSecurityException);
+    }
+  }
+
+  @Test
+  public void testRemoteKeysUseExecutor() throws Exception {
+    KeysetHandle keysetHandle =
+        KeysetHandle.generateNew(
+            AeadKeyTemplates.createKmsEnvelopeAeadKeyTemplate(
+                FAKE_KMS_PREFIX + "0123456789abcdef", AeadKeyTemplates.AES128_GCM));
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      CountingExecutor executor = new CountingExecutor(pool);
+      AsyncAead asyncAead = AsyncAeadFactory.getPrimitive(keysetHandle, executor);
+      Aead aead = AeadFactory.getPrimitive(keysetHandle);
+
+      List<byte[]> plaintexts = new ArrayList<byte[]>();
+      List<Future<byte[]>> ciphertexts = new ArrayList<Future<byte[]>>();
+      for (int i = 0; i < 50; i++) {
+        plaintexts.add(Random.randBytes(i));
+        ciphertexts.add(asyncAead.encryptAsync(plaintexts.get(i), new byte[0]));
+      }
+      List<Future<byte[]>> decrypted = new ArrayList<Future<byte[]>>();
+      for (int i = 0; i < 50; i++) {
+        assertArrayEquals(plaintexts.get(i), aead.decrypt(ciphertexts.get(i).get(), new byte[0]));
+        decrypted.add(asyncAead.decryptAsync(ciphertexts.get(i).get(), new byte[0]));
+      }
+      for (int i = 0; i < 50; i++) {
+        assertArrayEquals(plaintexts.get(i), decrypted.get(i).get());
+      }
+      assertEquals(100, executor.count.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
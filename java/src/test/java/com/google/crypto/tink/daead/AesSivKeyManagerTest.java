@@ -0,0 +1,120 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.daead;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.DeterministicAead;
+import com.google.crypto.tink.TestUtil;
+import com.google.crypto.tink.proto.AesSivKey;
+import com.google.crypto.tink.proto.AesSivKeyFormat;
+import com.google.crypto.tink.proto.KeyData;
+import com.google.crypto.tink.subtle.AesSiv;
+import com.google.crypto.tink.subtle.Random;
+import com.google.protobuf.ByteString;
+import java.security.GeneralSecurityException;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for AesSivKeyManager. */
+@RunWith(JUnit4.class)
+public class AesSivKeyManagerTest {
+  @Test
+  public void testNewKeyMultipleTimes() throws Exception {
+    AesSivKeyFormat format = AesSivKeyFormat.newBuilder().setKeySize(32).build();
+    ByteString serialized = format.toByteString();
+    AesSivKeyManager keyManager = new AesSivKeyManager();
+    Set<String> keys = new TreeSet<String>();
+    // Calls newKey multiple times and make sure that they generate different keys.
+    int numTests = 27;
+    for (int i = 0; i < numTests / 3; i++) {
+      AesSivKey key = (AesSivKey) keyManager.newKey(format);
+      keys.add(TestUtil.hexEncode(key.getKeyValue().toByteArray()));
+      assertEquals(32, key.getKeyValue().size());
+
+      key = (AesSivKey) keyManager.newKey(serialized);
+      keys.add(TestUtil.hexEncode(key.getKeyValue().toByteArray()));
+      assertEquals(32, key.getKeyValue().size());
+
+      KeyData keyData = keyManager.newKeyData(serialized);
+      assertEquals(AesSivKeyManager.TYPE_URL, keyData.getTypeUrl());
+      key = AesSivKey.parseFrom(keyData.getValue());
+      keys.add(TestUtil.hexEncode(key.getKeyValue().toByteArray()));
+      assertEquals(32, key.getKeyValue().size());
+    }
+    assertEquals(numTests, keys.size());
+  }
+
+  @Test
+  public void testInvalidKeySizes() throws Exception {
+    AesSivKeyManager keyManager = new AesSivKeyManager();
+    for (int keySize : new int[] {16, 24, 48, 64}) {
+      try {
+        keyManager.newKey(AesSivKeyFormat.newBuilder().setKeySize(keySize).build());
+        fail("Invalid key size, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+      try {
+        keyManager.getPrimitive(
+            AesSivKey.newBuilder()
+                .setKeyValue(ByteString.copyFrom(Random.randBytes(keySize)))
+                .build());
+        fail("Invalid key size, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void testNewKeyWithCorruptedFormat() throws Exception {
+    ByteString serialized = ByteString.copyFrom(new byte[128]);
+    AesSivKeyManager keyManager = new AesSivKeyManager();
+    try {
+      keyManager.newKey(serialized);
+      fail("Corrupted format, should have thrown exception");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+    try {
+      keyManager.newKeyData(serialized);
+      fail("Corrupted format, should have thrown exception");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testPrimitiveMatchesAesSiv() throws Exception {
+    AesSivKeyManager keyManager = new AesSivKeyManager();
+    AesSivKey key =
+        (AesSivKey) keyManager.newKey(AesSivKeyFormat.newBuilder().setKeySize(32).build());
+    DeterministicAead daead = keyManager.getPrimitive(key.toByteString());
+    AesSiv aesSiv = new AesSiv(key.getKeyValue().toByteArray());
+    byte[] plaintext = Random.randBytes(100);
+    byte[] aad = Random.randBytes(20);
+    byte[] ciphertext = daead.encryptDeterministically(plaintext, aad);
+    assertArrayEquals(ciphertext, aesSiv.encryptDeterministically(plaintext, aad));
+    assertArrayEquals(plaintext, aesSiv.decryptDeterministically(ciphertext, aad));
+  }
+}
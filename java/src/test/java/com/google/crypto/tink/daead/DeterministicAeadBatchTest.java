@@ -0,0 +1,126 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.daead;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.Config;
+import com.google.crypto.tink.DeterministicAead;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for DeterministicAeadBatch. */
+@RunWith(JUnit4.class)
+public class DeterministicAeadBatchTest {
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Config.register(DeterministicAeadConfig.TINK_1_1_0);
+  }
+
+  private static List<byte[]> randomValues(int count) {
+    List<byte[]> values = new ArrayList<byte[]>(count);
+    for (int i = 0; i < count; i++) {
+      values.add(Random.randBytes(i % 50));
+    }
+    return values;
+  }
+
+  @Test
+  public void testEncryptDecryptWithExecutor() throws Exception {
+    DeterministicAead daead =
+        DeterministicAeadFactory.getPrimitive(
+            KeysetHandle.generateNew(DeterministicAeadKeyTemplates.AES256_SIV));
+    List<byte[]> plaintexts = randomValues(1000);
+    List<byte[]> associatedData = Collections.nCopies(1000, "column".getBytes("UTF-8"));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      DeterministicAeadBatch.Result encrypted =
+          DeterministicAeadBatch.encrypt(daead, plaintexts, associatedData, executor, 64);
+      assertEquals(1000, encrypted.size());
+      assertEquals(0, encrypted.getFailureCount());
+      List<byte[]> ciphertexts = new ArrayList<byte[]>(encrypted.getOutputs());
+      for (int i = 0; i < plaintexts.size(); i++) {
+        assertArrayEquals(
+            daead.encryptDeterministically(plaintexts.get(i), associatedData.get(i)),
+            ciphertexts.get(i));
+      }
+      ciphertexts.set(10, Random.randBytes(50));
+      ciphertexts.set(500, new byte[0]);
+
+      DeterministicAeadBatch.Result decrypted =
+          DeterministicAeadBatch.decrypt(daead, ciphertexts, associatedData, executor, 64);
+      assertEquals(2, decrypted.getFailureCount());
+      for (int i = 0; i < plaintexts.size(); i++) {
+        if (i == 10 || i == 500) {
+          assertFalse(decrypted.isSuccess(i));
+        } else {
+          assertArrayEquals(plaintexts.get(i), decrypted.getOutput(i));
+        }
+      }
+      try {
+        decrypted.getOutputs();
+        fail("Expected GeneralSecurityException");
+      } catch (GeneralSecurityException e) {
+        // Expected
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testEncryptDecryptInCallingThread() throws Exception {
+    DeterministicAead daead =
+        DeterministicAeadFactory.getPrimitive(
+            KeysetHandle.generateNew(DeterministicAeadKeyTemplates.AES256_SIV));
+    List<byte[]> plaintexts = randomValues(100);
+    List<byte[]> associatedData = randomValues(100);
+    List<byte[]> ciphertexts =
+        DeterministicAeadBatch.encrypt(daead, plaintexts, associatedData).getOutputs();
+    List<byte[]> decrypted =
+        DeterministicAeadBatch.decrypt(daead, ciphertexts, associatedData).getOutputs();
+    for (int i = 0; i < plaintexts.size(); i++) {
+      assertArrayEquals(plaintexts.get(i), decrypted.get(i));
+    }
+  }
+
+  @Test
+  public void testMismatchedSizes() throws Exception {
+    DeterministicAead daead =
+        DeterministicAeadFactory.getPrimitive(
+            KeysetHandle.generateNew(DeterministicAeadKeyTemplates.AES256_SIV));
+    try {
+      DeterministicAeadBatch.encrypt(daead, randomValues(3), randomValues(2));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.daead;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.Config;
+import com.google.crypto.tink.CryptoFormat;
+import com.google.crypto.tink.DeterministicAead;
+import com.google.crypto.tink.KeysetHandle;
+import com.google.crypto.tink.TestUtil;
+import com.google.crypto.tink.proto.KeyStatusType;
+import com.google.crypto.tink.proto.Keyset.Key;
+import com.google.crypto.tink.proto.OutputPrefixType;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for DeterministicAeadFactory. */
+@RunWith(JUnit4.class)
+public class DeterministicAeadFactoryTest {
+  private static final int AES_SIV_KEY_SIZE = 32;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Config.register(DeterministicAeadConfig.TINK_1_1_0);
+  }
+
+  private static Key createAesSivKey(int keyId, OutputPrefixType prefixType) throws Exception {
+    return TestUtil.createKey(
+        TestUtil.createAesSivKeyData(Random.randBytes(AES_SIV_KEY_SIZE)),
+        keyId,
+        KeyStatusType.ENABLED,
+        prefixType);
+  }
+
+  @Test
+  public void testEncryptDecrypt() throws Exception {
+    KeysetHandle keysetHandle =
+        KeysetHandle.generateNew(DeterministicAeadKeyTemplates.AES256_SIV);
+    DeterministicAead daead = DeterministicAeadFactory.getPrimitive(keysetHandle);
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+    byte[] ciphertext = daead.encryptDeterministically(plaintext, associatedData);
+    assertArrayEquals(ciphertext, daead.encryptDeterministically(plaintext, associatedData));
+    assertArrayEquals(plaintext, daead.decryptDeterministically(ciphertext, associatedData));
+
+    ciphertext[ciphertext.length - 1] ^= 1;
+    try {
+      daead.decryptDeterministically(ciphertext, associatedData);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testMultipleKeys() throws Exception {
+    Key tink = createAesSivKey(42, OutputPrefixType.TINK);
+    Key legacy = createAesSivKey(43, OutputPrefixType.LEGACY);
+    Key raw = createAesSivKey(44, OutputPrefixType.RAW);
+    Key crunchy = createAesSivKey(45, OutputPrefixType.CRUNCHY);
+    Key[] keys = new Key[] {tink, legacy, raw, crunchy};
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+    for (int i = 0; i < keys.length; i++) {
+      Key primary = keys[i];
+      DeterministicAead daead =
+          DeterministicAeadFactory.getPrimitive(
+              TestUtil.createKeysetHandle(
+                  TestUtil.createKeyset(
+                      primary, keys[(i + 1) % 4], keys[(i + 2) % 4], keys[(i + 3) % 4])));
+      byte[] ciphertext = daead.encryptDeterministically(plaintext, associatedData);
+      if (primary.getOutputPrefixType() == OutputPrefixType.RAW) {
+        assertEquals(plaintext.length + 16, ciphertext.length);
+      } else {
+        assertEquals(
+            CryptoFormat.NON_RAW_PREFIX_SIZE + plaintext.length + 16, ciphertext.length);
+        assertArrayEquals(
+            CryptoFormat.getOutputPrefix(primary),
+            Arrays.copyOf(ciphertext, CryptoFormat.NON_RAW_PREFIX_SIZE));
+      }
+      assertArrayEquals(plaintext, daead.decryptDeterministically(ciphertext, associatedData));
+
+      // A keyset that only contains the primary key decrypts the ciphertext too.
+      DeterministicAead single =
+          DeterministicAeadFactory.getPrimitive(
+              TestUtil.createKeysetHandle(TestUtil.createKeyset(primary)));
+      assertArrayEquals(plaintext, single.decryptDeterministically(ciphertext, associatedData));
+    }
+  }
+
+  @Test
+  public void testUnknownKey() throws Exception {
+    DeterministicAead daead =
+        DeterministicAeadFactory.getPrimitive(
+            TestUtil.createKeysetHandle(
+                TestUtil.createKeyset(createAesSivKey(42, OutputPrefixType.TINK))));
+    DeterministicAead other =
+        DeterministicAeadFactory.getPrimitive(
+            TestUtil.createKeysetHandle(
+                TestUtil.createKeyset(createAesSivKey(43, OutputPrefixType.TINK))));
+    byte[] plaintext = Random.randBytes(20);
+    byte[] associatedData = Random.randBytes(20);
+    try {
+      daead.decryptDeterministically(
+          other.encryptDeterministically(plaintext, associatedData), associatedData);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      assertEquals("decryption failed", e.getMessage());
+    }
+  }
+}
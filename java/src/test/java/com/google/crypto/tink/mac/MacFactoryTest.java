@@ -24,12 +24,15 @@ import com.google.crypto.tink.Config;
 import com.google.crypto.tink.CryptoFormat;
 import com.google.crypto.tink.KeysetHandle;
 import com.google.crypto.tink.Mac;
+import com.google.crypto.tink.StreamingMac;
 import com.google.crypto.tink.TestUtil;
 import com.google.crypto.tink.proto.KeyStatusType;
 import com.google.crypto.tink.proto.Keyset.Key;
 import com.google.crypto.tink.proto.OutputPrefixType;
 import com.google.crypto.tink.subtle.Bytes;
 import com.google.crypto.tink.subtle.Random;
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import org.junit.BeforeClass;
@@ -141,6 +144,49 @@ public class MacFactoryTest {
     }
   }
 
+  @Test
+  public void testStreamingMatchesOneShot() throws Exception {
+    byte[] keyValue = Random.randBytes(HMAC_KEY_SIZE);
+    Key tink = TestUtil.createKey(
+        TestUtil.createHmacKeyData(keyValue, 16),
+        42,
+        KeyStatusType.ENABLED,
+        OutputPrefixType.TINK);
+    Key legacy = TestUtil.createKey(
+        TestUtil.createHmacKeyData(keyValue, 16),
+        43,
+        KeyStatusType.ENABLED,
+        OutputPrefixType.LEGACY);
+    Key raw = TestUtil.createKey(
+        TestUtil.createHmacKeyData(keyValue, 16),
+        44,
+        KeyStatusType.ENABLED,
+        OutputPrefixType.RAW);
+    Key[] keys = new Key[] {tink, legacy, raw};
+    byte[] data = Random.randBytes(100000);
+    for (int i = 0; i < keys.length; i++) {
+      KeysetHandle keysetHandle = TestUtil.createKeysetHandle(
+          TestUtil.createKeyset(keys[i], keys[(i + 1) % 3], keys[(i + 2) % 3]));
+      StreamingMac mac = (StreamingMac) MacFactory.getPrimitive(keysetHandle);
+      byte[] tag = mac.computeMac(data);
+      assertArrayEquals(tag, MacStreams.computeMac(mac, new ByteArrayInputStream(data)));
+      assertArrayEquals(
+          tag,
+          MacStreams.computeMac(mac, Channels.newChannel(new ByteArrayInputStream(data))));
+      MacStreams.verifyMac(mac, tag, new ByteArrayInputStream(data));
+      MacStreams.verifyMac(mac, tag, Channels.newChannel(new ByteArrayInputStream(data)));
+
+      byte[] modified = Arrays.copyOf(data, data.length);
+      modified[data.length - 1] ^= 1;
+      try {
+        MacStreams.verifyMac(mac, tag, new ByteArrayInputStream(modified));
+        fail("Invalid data, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+    }
+  }
+
   @Test
   public void testSmallPlaintextWithRawKey() throws Exception {
     byte[] keyValue = Random.randBytes(HMAC_KEY_SIZE);
@@ -16,11 +16,14 @@
 
 package com.google.crypto.tink.subtle;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -105,4 +108,43 @@ public class AesCmacTest {
       }
     }
   }
+
+  /** The CMAC of RFC 4493, computed block by block with an ECB cipher. */
+  private static byte[] referenceCmac(final byte[] key, final byte[] data) throws Exception {
+    Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
+    aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+    byte[] subKey1 = AesUtil.dbl(aes.doFinal(new byte[16]));
+    byte[] subKey2 = AesUtil.dbl(subKey1);
+    int n = Math.max(1, (data.length + 15) / 16);
+    byte[] last;
+    if (n * 16 == data.length) {
+      last = Bytes.xor(data, (n - 1) * 16, subKey1, 0, 16);
+    } else {
+      byte[] partial = Arrays.copyOfRange(data, (n - 1) * 16, data.length);
+      last = Bytes.xor(AesUtil.cmacPad(partial), subKey2);
+    }
+    byte[] x = new byte[16];
+    for (int i = 0; i < n - 1; i++) {
+      x = aes.doFinal(Bytes.xor(x, 0, data, i * 16, 16));
+    }
+    return aes.doFinal(Bytes.xor(last, x));
+  }
+
+  @Test
+  public void testMatchesBlockByBlockComputation() throws Exception {
+    int[] sizes = {0, 1, 15, 16, 17, 31, 32, 33, 47, 48, 49, 4095, 4096, 4111, 4112, 4113, 10000};
+    for (int keySize : new int[] {16, 24, 32}) {
+      byte[] key = Random.randBytes(keySize);
+      AesCmac c = new AesCmac(key);
+      for (int size : sizes) {
+        byte[] data = Random.randBytes(size);
+        assertArrayEquals(referenceCmac(key, data), c.computeMac(data));
+        if (size >= 16) {
+          byte[] xorEnd = Random.randBytes(16);
+          assertArrayEquals(
+              c.computeMac(Bytes.xorEnd(data, xorEnd)), c.computeMac(data, xorEnd));
+        }
+      }
+    }
+  }
 }
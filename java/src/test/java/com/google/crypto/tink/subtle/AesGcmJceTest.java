@@ -19,13 +19,17 @@ package com.google.crypto.tink.subtle;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.TestUtil;
 import com.google.crypto.tink.WycheproofTestUtil;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import org.json.JSONArray;
@@ -70,6 +74,90 @@ public class AesGcmJceTest {
     }
   }
 
+  @Test
+  public void testByteBufferEncryptDecrypt() throws Exception {
+    byte[] aad = new byte[] {1, 2, 3};
+    byte[] key = Random.randBytes(16);
+    AesGcmJce gcm = new AesGcmJce(key);
+    for (int messageSize = 0; messageSize < 75; messageSize++) {
+      byte[] message = Random.randBytes(messageSize);
+      ByteBuffer ciphertext = ByteBuffer.allocateDirect(messageSize + 28 + 7);
+      ciphertext.position(7);
+      gcm.encrypt(ByteBuffer.wrap(message), ByteBuffer.wrap(aad), ciphertext);
+      assertEquals(messageSize + 28 + 7, ciphertext.position());
+
+      ciphertext.flip();
+      ciphertext.position(7);
+      byte[] ciphertextBytes = new byte[ciphertext.remaining()];
+      ciphertext.duplicate().get(ciphertextBytes);
+      assertArrayEquals(message, gcm.decrypt(ciphertextBytes, aad));
+
+      ByteBuffer decrypted = ByteBuffer.allocate(messageSize);
+      gcm.decrypt(ciphertext, ByteBuffer.wrap(aad), decrypted);
+      assertFalse(ciphertext.hasRemaining());
+      assertArrayEquals(message, decrypted.array());
+    }
+  }
+
+  @Test
+  public void testEncryptDecryptInPlace() throws Exception {
+    byte[] aad = new byte[] {1, 2, 3};
+    AesGcmJce gcm = new AesGcmJce(Random.randBytes(16));
+    byte[] message = Random.randBytes(100);
+    byte[] buffer = new byte[message.length + 28];
+    System.arraycopy(message, 0, buffer, 0, message.length);
+
+    int ciphertextLength = gcm.encrypt(buffer, 0, message.length, aad, buffer, 0);
+    assertEquals(buffer.length, ciphertextLength);
+    assertArrayEquals(message, gcm.decrypt(buffer, aad));
+
+    byte[] modified = Arrays.copyOf(buffer, buffer.length);
+    modified[modified.length - 1] ^= 1;
+    byte[] unmodified = Arrays.copyOf(modified, modified.length);
+    try {
+      gcm.decrypt(modified, 0, modified.length, aad, modified, 0);
+      fail("Decrypting a modified ciphertext should fail");
+    } catch (GeneralSecurityException ex) {
+      // This is expected.
+    }
+    assertArrayEquals(unmodified, modified);
+
+    int plaintextLength = gcm.decrypt(buffer, 0, buffer.length, aad, buffer, 0);
+    assertEquals(message.length, plaintextLength);
+    assertArrayEquals(message, Arrays.copyOf(buffer, plaintextLength));
+  }
+
+  @Test
+  public void testEncryptDecryptBatch() throws Exception {
+    AesGcmJce gcm = new AesGcmJce(Random.randBytes(16));
+    List<byte[]> messages = new ArrayList<byte[]>();
+    List<byte[]> aads = new ArrayList<byte[]>();
+    for (int messageSize = 0; messageSize < 75; messageSize++) {
+      messages.add(Random.randBytes(messageSize));
+      aads.add(Random.randBytes(messageSize % 5));
+    }
+    List<byte[]> ciphertexts = gcm.encryptBatch(messages, aads);
+    assertEquals(messages.size(), ciphertexts.size());
+    HashSet<String> ivs = new HashSet<String>();
+    for (int i = 0; i < messages.size(); i++) {
+      assertArrayEquals(messages.get(i), gcm.decrypt(ciphertexts.get(i), aads.get(i)));
+      ivs.add(TestUtil.hexEncode(Arrays.copyOf(ciphertexts.get(i), 12)));
+    }
+    assertEquals(messages.size(), ivs.size());
+
+    // A modified ciphertext only fails its own message.
+    ciphertexts.get(3)[20] ^= 1;
+    ciphertexts.set(4, new byte[5]);
+    List<byte[]> decrypted = gcm.decryptBatch(ciphertexts, aads);
+    for (int i = 0; i < messages.size(); i++) {
+      if (i == 3 || i == 4) {
+        assertNull(decrypted.get(i));
+      } else {
+        assertArrayEquals(messages.get(i), decrypted.get(i));
+      }
+    }
+  }
+
   @Test
   /** BC had a bug, where GCM failed for messages of size > 8192 */
   public void testLongMessages() throws Exception {
@@ -226,4 +314,32 @@ public class AesGcmJceTest {
       ciphertexts.add(ctHex);
     }
   }
+
+  @Test
+  public void testSequencedNonces() throws Exception {
+    byte[] key = Random.randBytes(16);
+    byte[] aad = Random.randBytes(10);
+    AesGcmJce gcm = new AesGcmJce(key, new GcmNonceSequencer(3));
+    AesGcmJce other = new AesGcmJce(key);
+    List<byte[]> plaintexts = new ArrayList<byte[]>();
+    List<byte[]> ciphertexts = new ArrayList<byte[]>();
+    for (int i = 0; i < 3; i++) {
+      byte[] plaintext = Random.randBytes(i * 20);
+      plaintexts.add(plaintext);
+      ciphertexts.add(gcm.encrypt(plaintext, aad));
+    }
+    for (int i = 0; i < 3; i++) {
+      // The same ciphertext format as with random IVs, with the counter in the last 8 bytes.
+      assertArrayEquals(plaintexts.get(i), other.decrypt(ciphertexts.get(i), aad));
+      assertArrayEquals(
+          Arrays.copyOf(ciphertexts.get(0), 4), Arrays.copyOf(ciphertexts.get(i), 4));
+      assertEquals(i, ciphertexts.get(i)[11]);
+    }
+    try {
+      gcm.encrypt(new byte[0], aad);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException ex) {
+      // expected
+    }
+  }
 }
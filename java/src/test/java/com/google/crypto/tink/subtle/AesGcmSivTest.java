@@ -0,0 +1,260 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.google.crypto.tink.TestUtil;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for AesGcmSiv. */
+@RunWith(JUnit4.class)
+public class AesGcmSivTest {
+  private static class TestVector {
+    final String key;
+    final String plaintext;
+    final String aad;
+    final String nonce;
+    final String result;
+
+    TestVector(String key, String plaintext, String aad, String nonce, String result) {
+      this.key = key;
+      this.plaintext = plaintext;
+      this.aad = aad;
+      this.nonce = nonce;
+      this.result = result;
+    }
+  }
+
+  // From RFC 8452, appendix C.
+  private static final TestVector[] TEST_VECTORS = {
+    new TestVector(
+        "01000000000000000000000000000000",
+        "",
+        "",
+        "030000000000000000000000",
+        "dc20e2d83f25705bb49e439eca56de25"),
+    new TestVector(
+        "01000000000000000000000000000000",
+        "0100000000000000",
+        "",
+        "030000000000000000000000",
+        "b5d839330ac7b786578782fff6013b815b287c22493a364c"),
+    new TestVector(
+        "01000000000000000000000000000000",
+        "01000000000000000000000000000000",
+        "",
+        "030000000000000000000000",
+        "743f7c8077ab25f8624e2e948579cf77303aaf90f6fe21199c6068577437a0c4"),
+    new TestVector(
+        "01000000000000000000000000000000",
+        "0200000000000000",
+        "01",
+        "030000000000000000000000",
+        "1e6daba35669f4273b0a1a2560969cdf790d99759abd1508"),
+    new TestVector(
+        "e66021d5eb8e4f4066d4adb9c33560e4",
+        "",
+        "",
+        "f46e44bb3da0015c94f70887",
+        "a4194b79071b01a87d65f706e3949578"),
+    new TestVector(
+        "0100000000000000000000000000000000000000000000000000000000000000",
+        "",
+        "",
+        "030000000000000000000000",
+        "07f5f4169bbf55a8400cd47ea6fd400f"),
+    new TestVector(
+        "0100000000000000000000000000000000000000000000000000000000000000",
+        "0100000000000000",
+        "",
+        "030000000000000000000000",
+        "c2ef328e5c71c83b843122130f7364b761e0b97427e3df28"),
+  };
+
+  // Messages long enough for the 8-bit POLYVAL tables, for both key sizes. The associated data
+  // is sequence(5000, 2) and the plaintext sequence(600, 1); the ciphertexts were computed with an
+  // implementation written from the definitions in RFC 8452.
+  private static final String LONG_NONCE = "752abad3e0afb5f434dc4310";
+
+  private static final String[][] LONG_TEST_VECTORS = {
+    {
+      "ee8e1ed9ff2540ae8f2ba9f50bc2f27c",
+      "9206d2bfdb69b793e4962b14a10038f765412f5390741e909e627526bb93f0bb"
+          + "e86e50d83e8746fd0b1b5a793153217aa7ba022676b99dee7a41bd53be1a89c2"
+          + "046beb119395f66302502508cbf857c5853f578e6ced4a6a59ee3570a1c78349"
+          + "4072c74c0293a7dbfb7e193fc7a4b78ba57f9173e655ab6179849fc870ac5ae1"
+          + "1bac551207a71dde5aeeb36e4770fbd758437683518dd6ae237347305961d523"
+          + "90ff87477ac2856ba5e6cea57011bf03c0b0d4ef1dff13f077589f0688835cb3"
+          + "aa5b61932a6185e3afc6d4f5b6a64d843f49dacb116a06ed36bed1219983a950"
+          + "a260eab44b0d65fa46c80334caa6cd5838691ed21a9b65004cc530f6cccee3d7"
+          + "89c6da31f3d533dc8ee316a77f450605bce0a810660ce8a7ece67c65bb3114fe"
+          + "91bd7ec3ecc5beddd585c897c3271882ef1ac7ccf4d32d371e332582365d06b4"
+          + "0da609e534e574a50753ec77c97a67f8f63f4300315c3f3fb333ad20d56815d5"
+          + "57fb537ebca0f78afa6f70349fa0a11e5a45913b215d2b5b94a09533ab2191b8"
+          + "264b67d9d048bbe73d64ec77e8176d5919c97455a372a6d5927c0de9968cd69a"
+          + "658dd183b0a86724ed3a2d82bc23372bd1db3a695faec3d6c32a80e3e6156cb9"
+          + "71c3eb7a8ed6005c49b10a6de5eb29a267b298c260c8f49c0a1e03f4c9e07afb"
+          + "d0a5a91d7ee07f67b5ce5fef633670344d2dfe61bcf6724b311ae7f16eee02a9"
+          + "d5bb42bf09dc9a14ae36650876643b75d99c07f2e5388becea7eee86fdb84ead"
+          + "fdc532a8bb31fe8e8ac81bd0679671ad5825e2079921fdc6a5f0f03c3ef4c70d"
+          + "c55a2837aa14db4532c02d1cd32644209fbe24437ed69fcd14d9c31f148e2018"
+          + "525105c7d273f50f"
+    },
+    {
+      "f901cfe8a69615a93fdf7a98cad481796245709fb18853f68d833640bc3d03e3",
+      "f3a6f088726af5720f7538fb4e038589c3e784b0c0fff313a6fd95692f20ee77"
+          + "6d8e7f4f557eb14aa6b32af7722c3c924342b50f764a209c39268f588e66a448"
+          + "ca9d875a393ca3bc82857a673202d5d24550b365b78a02c1f4eb99a9a98d9a6c"
+          + "9f42665fbf4ff53161c027d39f52b9eda2bb2c53f907b3aeb246ea0bab842ff5"
+          + "830f2a1ab9926fe4c023aae962775b69629cf1ceb82cf08bf0781900214351bc"
+          + "61a813c33a3d10f64e22ff1532fc944ba1256422334d1f03e179f41da08b28cb"
+          + "6c5de30c34b934c9d6e386b3c29b725ae01a47873d359bda64cfef60f243017f"
+          + "2de8bc6fa63f8c872ceaa5eb074e5ac99dcd8ea07107a4c9cd12fdb656121b7c"
+          + "9d4d2e223150f9d95f92a414f52d82270b7cebc74f3c1901a73243e4a1bcbcd7"
+          + "73d93c49ec59719c82f9b9187211f9e5b26fbe6b0bdd4dbc76877f2cbcbb073e"
+          + "484e018626e652b90187dc3fb0c14efd1911ce7e0d8f4b971f53ea7509e10a28"
+          + "26ed5292439facadf858ab46e6c06d0bf5534c492967df87e125132a7d5c211e"
+          + "a59125b0c7ba2d27ee45df4e2093314fb90e5db6dc76851b243e156c66e51b0a"
+          + "d50462bdeda0736b0abb9a533419de695d4fd225c261bda4b9ab63061c13f813"
+          + "b91da13e7cd43aef7bef69a4bc88b20d15898cc016c10ea3937314a1e2adec4f"
+          + "167906ce0f835537d3cfaa1752b79431e05bbc479a9a7246f587b9e611ccdde4"
+          + "a493e450f7e18913119f4fd99cf0dd6932f31da2908e3cea5722527d99b47fbd"
+          + "e25c98431d9ae36381a8fd1cf4f8c863ad07b4f8c17f0f90cfd3c2122043c0dd"
+          + "78adad8daa2f72d46ec437395ada24df1ce223e04e64dcb737b9262e9afe2ede"
+          + "86a67a13387c9101"
+    },
+  };
+
+  private static byte[] sequence(int length, int start) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = (byte) (start + i);
+    }
+    return result;
+  }
+
+  private static int[] keySizes() throws Exception {
+    if (Cipher.getMaxAllowedKeyLength("AES") < 256) {
+      return new int[] {16};
+    }
+    return new int[] {16, 32};
+  }
+
+  @Test
+  public void testTestVectors() throws Exception {
+    for (TestVector t : TEST_VECTORS) {
+      if (t.key.length() == 64 && Cipher.getMaxAllowedKeyLength("AES") < 256) {
+        continue;
+      }
+      AesGcmSiv gcmSiv = new AesGcmSiv(TestUtil.hexDecode(t.key));
+      byte[] ciphertext = TestUtil.hexDecode(t.nonce + t.result);
+      byte[] plaintext = gcmSiv.decrypt(ciphertext, TestUtil.hexDecode(t.aad));
+      assertEquals(t.plaintext, TestUtil.hexEncode(plaintext));
+    }
+  }
+
+  @Test
+  public void testLongTestVectors() throws Exception {
+    for (String[] t : LONG_TEST_VECTORS) {
+      if (t[0].length() == 64 && Cipher.getMaxAllowedKeyLength("AES") < 256) {
+        continue;
+      }
+      AesGcmSiv gcmSiv = new AesGcmSiv(TestUtil.hexDecode(t[0]));
+      byte[] ciphertext = TestUtil.hexDecode(LONG_NONCE + t[1]);
+      assertArrayEquals(sequence(600, 1), gcmSiv.decrypt(ciphertext, sequence(5000, 2)));
+    }
+  }
+
+  @Test
+  public void testEncryptDecrypt() throws Exception {
+    byte[] aad = new byte[] {1, 2, 3};
+    for (int keySize : keySizes()) {
+      AesGcmSiv gcmSiv = new AesGcmSiv(Random.randBytes(keySize));
+      for (int messageSize = 0; messageSize < 75; messageSize++) {
+        byte[] message = Random.randBytes(messageSize);
+        byte[] ciphertext = gcmSiv.encrypt(message, aad);
+        assertEquals(messageSize + 28, ciphertext.length);
+        assertArrayEquals(message, gcmSiv.decrypt(ciphertext, aad));
+      }
+      // Messages of several chunks of the key stream.
+      for (int messageSize : new int[] {4096, 4097, 10000}) {
+        byte[] message = Random.randBytes(messageSize);
+        assertArrayEquals(message, gcmSiv.decrypt(gcmSiv.encrypt(message, aad), aad));
+      }
+    }
+  }
+
+  @Test
+  public void testModifiedCiphertext() throws Exception {
+    byte[] aad = new byte[] {1, 2, 3};
+    AesGcmSiv gcmSiv = new AesGcmSiv(Random.randBytes(16));
+    byte[] ciphertext = gcmSiv.encrypt(Random.randBytes(32), aad);
+    for (int i = 0; i < ciphertext.length; i++) {
+      for (int bit = 0; bit < 8; bit++) {
+        byte[] modified = Arrays.copyOf(ciphertext, ciphertext.length);
+        modified[i] ^= (byte) (1 << bit);
+        try {
+          gcmSiv.decrypt(modified, aad);
+          fail("Decrypting modified ciphertext should fail");
+        } catch (GeneralSecurityException ex) {
+          // This is expected.
+        }
+      }
+    }
+    try {
+      gcmSiv.decrypt(ciphertext, new byte[] {1, 2});
+      fail("Decrypting with modified aad should fail");
+    } catch (GeneralSecurityException ex) {
+      // This is expected.
+    }
+    try {
+      gcmSiv.decrypt(Arrays.copyOf(ciphertext, 27), aad);
+      fail("Decrypting a too short ciphertext should fail");
+    } catch (GeneralSecurityException ex) {
+      // This is expected.
+    }
+  }
+
+  @Test
+  public void testRandomNonce() throws Exception {
+    AesGcmSiv gcmSiv = new AesGcmSiv(Random.randBytes(16));
+    byte[] message = new byte[0];
+    byte[] aad = new byte[0];
+    assertFalse(Arrays.equals(gcmSiv.encrypt(message, aad), gcmSiv.encrypt(message, aad)));
+  }
+
+  @Test
+  public void testInvalidKeySizes() throws Exception {
+    for (int keySize : new int[] {0, 15, 24, 33}) {
+      try {
+        new AesGcmSiv(new byte[keySize]);
+        fail("Invalid key size should be rejected");
+      } catch (GeneralSecurityException ex) {
+        // This is expected.
+      }
+    }
+  }
+}
@@ -17,13 +17,20 @@
 package com.google.crypto.tink.subtle;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.BatchAead;
+import com.google.crypto.tink.ByteBufferAead;
 import com.google.crypto.tink.Mac;
 import com.google.crypto.tink.TestUtil;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 import org.junit.Test;
@@ -180,6 +187,111 @@ public class EncryptThenAuthenticateTest {
     }
   }
 
+  @Test
+  public void testByteBufferEncryptDecrypt() throws Exception {
+    ByteBufferAead aead =
+        (ByteBufferAead)
+            getAead(Random.randBytes(16), Random.randBytes(16), 12, 16, "HMACSHA256");
+    byte[] plaintext = Random.randBytes(1001);
+    byte[] aad = Random.randBytes(13);
+    ByteBuffer ciphertext = ByteBuffer.allocateDirect(plaintext.length + 12 + 16);
+    aead.encrypt(ByteBuffer.wrap(plaintext), ByteBuffer.wrap(aad), ciphertext);
+    assertEquals(0, ciphertext.remaining());
+    ciphertext.flip();
+    byte[] ciphertextBytes = new byte[ciphertext.remaining()];
+    ciphertext.duplicate().get(ciphertextBytes);
+    assertArrayEquals(plaintext, aead.decrypt(ciphertextBytes, aad));
+
+    ByteBuffer decrypted = ByteBuffer.allocateDirect(plaintext.length);
+    aead.decrypt(ciphertext, ByteBuffer.wrap(aad), decrypted);
+    decrypted.flip();
+    byte[] decryptedBytes = new byte[decrypted.remaining()];
+    decrypted.get(decryptedBytes);
+    assertArrayEquals(plaintext, decryptedBytes);
+  }
+
+  @Test
+  public void testByteBufferDecryptFailureLeavesBuffersUnchanged() throws Exception {
+    ByteBufferAead aead =
+        (ByteBufferAead)
+            getAead(Random.randBytes(16), Random.randBytes(16), 12, 16, "HMACSHA256");
+    byte[] plaintext = Random.randBytes(100);
+    byte[] aad = Random.randBytes(13);
+    byte[] ciphertext = aead.encrypt(plaintext, aad);
+    byte[] modified = Arrays.copyOf(ciphertext, ciphertext.length);
+    modified[modified.length - 1] ^= 1;
+    ByteBuffer modifiedBuffer = ByteBuffer.wrap(modified);
+    ByteBuffer aadBuffer = ByteBuffer.wrap(aad);
+    ByteBuffer decrypted = ByteBuffer.allocate(plaintext.length);
+    try {
+      aead.decrypt(modifiedBuffer, aadBuffer, decrypted);
+      fail("Invalid MAC, should have failed");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+    assertEquals(0, modifiedBuffer.position());
+    assertEquals(0, aadBuffer.position());
+    assertEquals(0, decrypted.position());
+
+    aead.decrypt(ByteBuffer.wrap(ciphertext), aadBuffer, decrypted);
+    assertEquals(aad.length, aadBuffer.position());
+    assertArrayEquals(plaintext, decrypted.array());
+  }
+
+  @Test
+  public void testEncryptDecryptInPlace() throws Exception {
+    ByteBufferAead aead =
+        (ByteBufferAead)
+            getAead(Random.randBytes(16), Random.randBytes(16), 12, 16, "HMACSHA256");
+    byte[] plaintext = Random.randBytes(1001);
+    byte[] aad = Random.randBytes(13);
+    byte[] buffer = new byte[plaintext.length + 12 + 16];
+    System.arraycopy(plaintext, 0, buffer, 0, plaintext.length);
+    assertEquals(buffer.length, aead.encrypt(buffer, 0, plaintext.length, aad, buffer, 0));
+    assertArrayEquals(plaintext, aead.decrypt(buffer, aad));
+
+    byte[] modified = Arrays.copyOf(buffer, buffer.length);
+    modified[20] ^= 1;
+    byte[] unmodified = Arrays.copyOf(modified, modified.length);
+    try {
+      aead.decrypt(modified, 0, modified.length, aad, modified, 0);
+      fail("Invalid ciphertext, should have failed");
+    } catch (GeneralSecurityException expected) {
+      // Expected
+    }
+    assertArrayEquals(unmodified, modified);
+
+    assertEquals(plaintext.length, aead.decrypt(buffer, 0, buffer.length, aad, buffer, 0));
+    assertArrayEquals(plaintext, Arrays.copyOf(buffer, plaintext.length));
+  }
+
+  @Test
+  public void testEncryptDecryptBatch() throws Exception {
+    BatchAead aead =
+        (BatchAead) getAead(Random.randBytes(16), Random.randBytes(16), 12, 16, "HMACSHA256");
+    List<byte[]> plaintexts = new ArrayList<byte[]>();
+    List<byte[]> aads = new ArrayList<byte[]>();
+    for (int i = 0; i < 50; i++) {
+      plaintexts.add(Random.randBytes(i * 7));
+      aads.add(Random.randBytes(i % 13));
+    }
+    List<byte[]> ciphertexts = aead.encryptBatch(plaintexts, aads);
+    for (int i = 0; i < plaintexts.size(); i++) {
+      assertArrayEquals(plaintexts.get(i), aead.decrypt(ciphertexts.get(i), aads.get(i)));
+    }
+
+    ciphertexts.get(7)[0] ^= 1;
+    aads.set(8, Random.randBytes(3));
+    List<byte[]> decrypted = aead.decryptBatch(ciphertexts, aads);
+    for (int i = 0; i < plaintexts.size(); i++) {
+      if (i == 7 || i == 8) {
+        assertNull(decrypted.get(i));
+      } else {
+        assertArrayEquals(plaintexts.get(i), decrypted.get(i));
+      }
+    }
+  }
+
   @Test
   public void testTruncation() throws Exception {
     Aead aead = getAead(Random.randBytes(16), Random.randBytes(16), 16, 16, "HMACSHA256");
@@ -197,6 +309,35 @@ public class EncryptThenAuthenticateTest {
     }
   }
 
+  @Test
+  public void testAesCtrHmacMatchesGenericPath() throws Exception {
+    byte[] hmacKey = Random.randBytes(32);
+    byte[] encKey = Random.randBytes(16);
+    Aead aead = getAead(hmacKey, encKey, 16, 16, "HMACSHA256");
+    // A Mac that is not a MacJce takes the generic path, which concatenates the MAC input.
+    final Mac macJce = new MacJce("HMACSHA256", new SecretKeySpec(hmacKey, "HMAC"), 16);
+    Mac wrapped =
+        new Mac() {
+          @Override
+          public byte[] computeMac(final byte[] data) throws GeneralSecurityException {
+            return macJce.computeMac(data);
+          }
+
+          @Override
+          public void verifyMac(final byte[] mac, final byte[] data)
+              throws GeneralSecurityException {
+            macJce.verifyMac(mac, data);
+          }
+        };
+    Aead generic = new EncryptThenAuthenticate(new AesCtrJceCipher(encKey, 16), wrapped, 16);
+    for (int size : new int[] {0, 1, 16, 1001}) {
+      byte[] plaintext = Random.randBytes(size);
+      byte[] aad = Random.randBytes(size % 13);
+      assertArrayEquals(plaintext, generic.decrypt(aead.encrypt(plaintext, aad), aad));
+      assertArrayEquals(plaintext, aead.decrypt(generic.encrypt(plaintext, aad), aad));
+    }
+  }
+
   private Aead getAead(byte[] hmacKey, byte[] encKey, int ivSize, int tagLength, String macAlg)
       throws Exception {
     IndCpaCipher cipher = new AesCtrJceCipher(encKey, ivSize);
@@ -17,12 +17,19 @@
 package com.google.crypto.tink.subtle;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.security.GeneralSecurityException;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Provider;
 import java.security.Security;
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -99,4 +106,92 @@ public class EngineFactoryTest {
     EngineFactory.CIPHER.getInstance("AES");
     // didn't throw
   }
+
+  @Test
+  public void testCachesProviders() throws Exception {
+    if (SubtleUtil.isAndroid()) {
+      // Android doesn't have SunJCE or SunEC provider.
+      return;
+    }
+
+    EngineFactory<EngineWrapper.TCipher, Cipher> factory =
+        EngineFactory.getCustomCipherProvider(true, "SunEC", "SunJCE");
+    assertTrue(factory.getResolvedProviders().isEmpty());
+    Cipher c = factory.getInstance("AES/GCM/NoPadding");
+    assertEquals("SunJCE", c.getProvider().getName());
+    assertSame(c.getProvider(), factory.getResolvedProviders().get("AES/GCM/NoPadding"));
+    assertEquals("SunJCE", factory.getInstance("AES/GCM/NoPadding").getProvider().getName());
+
+    // Neither SunEC nor SunJCE implement this, so it is left to the default providers.
+    Provider defaultProvider = EngineFactory.MAC.getInstance("HmacSHA256").getProvider();
+    EngineFactory<EngineWrapper.TMac, Mac> macFactory =
+        EngineFactory.getCustomMacProvider(true, "SunEC");
+    assertSame(defaultProvider, macFactory.getInstance("HmacSHA256").getProvider());
+    assertTrue(macFactory.getResolvedProviders().containsKey("HmacSHA256"));
+    assertNull(macFactory.getResolvedProviders().get("HmacSHA256"));
+  }
+
+  @Test
+  public void testInstallingAProviderClearsTheCache() throws Exception {
+    EngineFactory<EngineWrapper.TCipher, Cipher> factory =
+        EngineFactory.getCustomCipherProvider(true);
+    factory.getInstance("AES");
+    assertFalse(factory.getResolvedProviders().isEmpty());
+
+    Provider provider = new Provider("TinkTestProvider", 1.0, "for tests") {};
+    Security.addProvider(provider);
+    try {
+      assertTrue(factory.getResolvedProviders().isEmpty());
+      factory.getInstance("AES");
+      assertFalse(factory.getResolvedProviders().isEmpty());
+    } finally {
+      Security.removeProvider(provider.getName());
+    }
+    assertTrue(factory.getResolvedProviders().isEmpty());
+  }
+
+  /** A digest that is only available from the provider that a test installs. */
+  public static final class TestDigest extends MessageDigest {
+    public TestDigest() {
+      super("TinkTestDigest");
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {}
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {}
+
+    @Override
+    protected byte[] engineDigest() {
+      return new byte[0];
+    }
+
+    @Override
+    protected void engineReset() {}
+  }
+
+  @Test
+  public void testNewlyInstalledProviderIsUsedRightAway() throws Exception {
+    EngineFactory<EngineWrapper.TMessageDigest, MessageDigest> factory =
+        EngineFactory.getCustomMessageDigestProvider(true, "SUN");
+    factory.getInstance("SHA-256");
+    try {
+      factory.getInstance("TinkTestDigest");
+      fail("No provider should implement TinkTestDigest yet");
+    } catch (GeneralSecurityException e) {
+      // expected
+    }
+
+    Provider provider = new Provider("TinkTestProvider", 1.0, "for tests") {};
+    provider.put("MessageDigest.TinkTestDigest", TestDigest.class.getName());
+    Security.addProvider(provider);
+    try {
+      // The installed providers have just been compared, yet the new one is found.
+      MessageDigest digest = factory.getInstance("TinkTestDigest");
+      assertSame(provider, digest.getProvider());
+    } finally {
+      Security.removeProvider(provider.getName());
+    }
+  }
 }
@@ -0,0 +1,68 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.security.GeneralSecurityException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for EnginePool. */
+@RunWith(JUnit4.class)
+public class EnginePoolTest {
+  /** Counts the engines it creates. */
+  private static final class CountingSource implements EnginePool.EngineSource<Object> {
+    int created = 0;
+
+    @Override
+    public Object newEngine() throws GeneralSecurityException {
+      created++;
+      return new Object();
+    }
+  }
+
+  @Test
+  public void testEnginesAreReused() throws Exception {
+    CountingSource source = new CountingSource();
+    EnginePool<Object> pool = new EnginePool<Object>(source);
+    Object engine = pool.take();
+    pool.release(engine);
+    assertSame(engine, pool.take());
+    assertEquals(1, source.created);
+  }
+
+  @Test
+  public void testNewEngineIfTaken() throws Exception {
+    CountingSource source = new CountingSource();
+    EnginePool<Object> pool = new EnginePool<Object>(source);
+    Object first = pool.take();
+    Object second = pool.take();
+    assertNotSame(first, second);
+    assertEquals(2, source.created);
+
+    // The slot can only hold one of them.
+    pool.release(first);
+    pool.release(second);
+    assertSame(first, pool.take());
+    pool.take();
+    assertEquals(3, source.created);
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.crypto.tink.TestUtil;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for GHash and Polyval. */
+@RunWith(JUnit4.class)
+public class GHashTest {
+  /** Multiplies x and y bit by bit, as in NIST SP 800-38D, algorithm 1. */
+  private static long[] referenceMultiply(long xHi, long xLo, long yHi, long yLo) {
+    long zHi = 0;
+    long zLo = 0;
+    long vHi = yHi;
+    long vLo = yLo;
+    for (int i = 0; i < 128; i++) {
+      long bit = i < 64 ? (xHi >>> (63 - i)) & 1 : (xLo >>> (127 - i)) & 1;
+      if (bit == 1) {
+        zHi ^= vHi;
+        zLo ^= vLo;
+      }
+      boolean carry = (vLo & 1) == 1;
+      vLo = (vHi << 63) | (vLo >>> 1);
+      vHi >>>= 1;
+      if (carry) {
+        vHi ^= 0xe100000000000000L;
+      }
+    }
+    return new long[] {zHi, zLo};
+  }
+
+  @Test
+  public void testMultiplyMatchesReference() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      byte[] h = Random.randBytes(16);
+      byte[] x = Random.randBytes(16);
+      long hHi = GHash.loadBigEndian(h, 0);
+      long hLo = GHash.loadBigEndian(h, 8);
+      long[] expected =
+          referenceMultiply(GHash.loadBigEndian(x, 0), GHash.loadBigEndian(x, 8), hHi, hLo);
+      for (int tableBits : new int[] {GHash.SMALL_TABLES, GHash.LARGE_TABLES}) {
+        long[] state = {GHash.loadBigEndian(x, 0), GHash.loadBigEndian(x, 8)};
+        new GHash(hHi, hLo, tableBits).multiply(state);
+        assertArrayEquals(expected, state);
+      }
+    }
+  }
+
+  @Test
+  public void testGhashTestVector() throws Exception {
+    // NIST GCM test case 2: H = AES_0(0^128), and the ciphertext of one zero block.
+    GHash ghash = new GHash(TestUtil.hexDecode("66e94bd4ef8a2c3b884cfa59ca342b2e"));
+    byte[] input =
+        TestUtil.hexDecode(
+            "0388dace60b6a392f328c2b971b2fe78" + "00000000000000000000000000000080");
+    long[] state = new long[2];
+    ghash.update(state, input, 0, input.length);
+    byte[] output = new byte[16];
+    GHash.storeBigEndian(state[0], output, 0);
+    GHash.storeBigEndian(state[1], output, 8);
+    assertEquals("f38cbb1ad69223dcc3457ae5b6b0f885", TestUtil.hexEncode(output));
+  }
+
+  @Test
+  public void testPartialBlocksArePadded() throws Exception {
+    GHash ghash = new GHash(Random.randBytes(16));
+    byte[] data = Random.randBytes(40);
+    byte[] padded = new byte[48];
+    System.arraycopy(data, 0, padded, 0, data.length);
+    long[] state = new long[2];
+    ghash.update(state, data, 0, data.length);
+    long[] expected = new long[2];
+    ghash.update(expected, padded, 0, padded.length);
+    assertArrayEquals(expected, state);
+  }
+
+  @Test
+  public void testPolyvalTestVector() throws Exception {
+    // RFC 8452, section 7.
+    byte[] h = TestUtil.hexDecode("25629347589242761d31f826ba4b757b");
+    byte[] input =
+        TestUtil.hexDecode(
+            "4f4f95668c83dfb6401762bb2d01a262" + "d1a24ddd2721d006bbe45f20d3c9f362");
+    for (int tableBits : new int[] {GHash.SMALL_TABLES, GHash.LARGE_TABLES}) {
+      Polyval polyval = new Polyval(h, tableBits);
+      polyval.update(input, 0, input.length);
+      byte[] output = new byte[16];
+      polyval.doFinal(output, 0);
+      assertEquals("f7a3b47b846119fae5b7866cf5e5b77e", TestUtil.hexEncode(output));
+    }
+  }
+}
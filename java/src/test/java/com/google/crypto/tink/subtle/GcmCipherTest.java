@@ -0,0 +1,299 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for GcmCipher. */
+@RunWith(JUnit4.class)
+public class GcmCipherTest {
+  private static class TestVector {
+    final SecretKey key;
+    final byte[] iv;
+    final byte[] aad;
+    final byte[] plaintext;
+    final byte[] ciphertextAndTag;
+
+    TestVector(String key, String iv, String aad, String plaintext, String ciphertextAndTag) {
+      this.key = new SecretKeySpec(Hex.decode(key), "AES");
+      this.iv = Hex.decode(iv);
+      this.aad = Hex.decode(aad);
+      this.plaintext = Hex.decode(plaintext);
+      this.ciphertextAndTag = Hex.decode(ciphertextAndTag);
+    }
+  }
+
+  // The Galois/Counter Mode of Operation (GCM), test cases 1 to 4.
+  private static final TestVector[] TEST_VECTORS = {
+    new TestVector(
+        "00000000000000000000000000000000",
+        "000000000000000000000000",
+        "",
+        "",
+        "58e2fccefa7e3061367f1d57a4e7455a"),
+    new TestVector(
+        "00000000000000000000000000000000",
+        "000000000000000000000000",
+        "",
+        "00000000000000000000000000000000",
+        "0388dace60b6a392f328c2b971b2fe78ab6e47d42cec13bdf53a67b21257bddf"),
+    new TestVector(
+        "feffe9928665731c6d6a8f9467308308",
+        "cafebabefacedbaddecaf888",
+        "",
+        "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+            + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b391aafd255",
+        "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+            + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091473f5985"
+            + "4d5c2af327cd64a62cf35abd2ba6fab4"),
+    new TestVector(
+        "feffe9928665731c6d6a8f9467308308",
+        "cafebabefacedbaddecaf888",
+        "feedfacedeadbeeffeedfacedeadbeefabaddad2",
+        "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+            + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b39",
+        "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+            + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091"
+            + "5bc94fbc3221a5db94fae95ae7121a47"),
+  };
+
+  private static byte[] encrypt(GcmCipher cipher, SecretKey key, byte[] iv, byte[] aad, byte[] pt)
+      throws Exception {
+    cipher.init(true, key, iv, 0);
+    cipher.updateAad(aad);
+    return cipher.doFinal(pt, 0, pt.length);
+  }
+
+  private static byte[] decrypt(GcmCipher cipher, SecretKey key, byte[] iv, byte[] aad, byte[] ct)
+      throws Exception {
+    cipher.init(false, key, iv, 0);
+    cipher.updateAad(aad);
+    return cipher.doFinal(ct, 0, ct.length);
+  }
+
+  @Test
+  public void testVectors() throws Exception {
+    for (TestVector t : TEST_VECTORS) {
+      // New engines, since the platform refuses to encrypt twice with the same key and IV.
+      for (GcmCipher cipher :
+          new GcmCipher[] {GcmCipher.newJavaInstance(), GcmCipher.newPlatformInstance()}) {
+        assertArrayEquals(t.ciphertextAndTag, encrypt(cipher, t.key, t.iv, t.aad, t.plaintext));
+        assertArrayEquals(t.plaintext, decrypt(cipher, t.key, t.iv, t.aad, t.ciphertextAndTag));
+      }
+    }
+  }
+
+  @Test
+  public void testSameCiphertextsAsPlatform() throws Exception {
+    GcmCipher java = GcmCipher.newJavaInstance();
+    GcmCipher platform = GcmCipher.newPlatformInstance();
+    for (int keySize : new int[] {16, 32}) {
+      SecretKey key = new SecretKeySpec(Random.randBytes(keySize), "AES");
+      for (int length = 0; length < 100; length++) {
+        byte[] iv = Random.randBytes(GcmCipher.IV_SIZE_IN_BYTES);
+        byte[] aad = Random.randBytes(length % 37);
+        byte[] plaintext = Random.randBytes(length * 7);
+        byte[] ciphertext = encrypt(java, key, iv, aad, plaintext);
+        assertArrayEquals(ciphertext, encrypt(platform, key, iv, aad, plaintext));
+        assertArrayEquals(plaintext, decrypt(java, key, iv, aad, ciphertext));
+      }
+    }
+  }
+
+  @Test
+  public void testEncryptInParts() throws Exception {
+    GcmCipher cipher = GcmCipher.newJavaInstance();
+    SecretKey key = new SecretKeySpec(Random.randBytes(16), "AES");
+    byte[] iv = Random.randBytes(GcmCipher.IV_SIZE_IN_BYTES);
+    byte[] aad = Random.randBytes(5);
+    byte[] plaintext = Random.randBytes(100);
+    byte[] expected = encrypt(GcmCipher.newPlatformInstance(), key, iv, aad, plaintext);
+    for (int split1 = 0; split1 <= 40; split1 += 3) {
+      for (int split2 = split1; split2 <= 60; split2 += 5) {
+        cipher.init(true, key, iv, 0);
+        cipher.updateAad(ByteBuffer.wrap(aad));
+        ByteBuffer output = ByteBuffer.allocate(expected.length);
+        cipher.update(ByteBuffer.wrap(plaintext, 0, split1), output);
+        cipher.update(ByteBuffer.wrap(plaintext, split1, split2 - split1), output);
+        cipher.doFinal(ByteBuffer.wrap(plaintext, split2, plaintext.length - split2), output);
+        assertEquals(expected.length, output.position());
+        assertArrayEquals(expected, output.array());
+      }
+    }
+  }
+
+  @Test
+  public void testOverlappingAndDirectBuffers() throws Exception {
+    GcmCipher cipher = GcmCipher.newJavaInstance();
+    SecretKey key = new SecretKeySpec(Random.randBytes(16), "AES");
+    byte[] iv = Random.randBytes(GcmCipher.IV_SIZE_IN_BYTES);
+    byte[] plaintext = Random.randBytes(1000);
+    byte[] expected = encrypt(GcmCipher.newPlatformInstance(), key, iv, new byte[0], plaintext);
+
+    // The plaintext starts a few bytes before its ciphertext, in the same array.
+    byte[] buffer = new byte[plaintext.length + 40];
+    System.arraycopy(plaintext, 0, buffer, 0, plaintext.length);
+    cipher.init(true, key, iv, 0);
+    int written =
+        cipher.doFinal(
+            ByteBuffer.wrap(buffer, 0, plaintext.length), ByteBuffer.wrap(buffer, 12, 1028));
+    assertEquals(expected.length, written);
+    assertArrayEquals(expected, Arrays.copyOfRange(buffer, 12, 12 + expected.length));
+
+    // Decrypts in place.
+    cipher.init(false, key, iv, 0);
+    written =
+        cipher.doFinal(
+            ByteBuffer.wrap(buffer, 12, expected.length), ByteBuffer.wrap(buffer, 12, 1028));
+    assertEquals(plaintext.length, written);
+    assertArrayEquals(plaintext, Arrays.copyOfRange(buffer, 12, 12 + plaintext.length));
+
+    ByteBuffer input = ByteBuffer.allocateDirect(expected.length);
+    input.put(expected);
+    input.flip();
+    ByteBuffer output = ByteBuffer.allocateDirect(plaintext.length);
+    cipher.init(false, key, iv, 0);
+    cipher.doFinal(input, output);
+    assertEquals(0, input.remaining());
+    assertEquals(0, output.remaining());
+    output.flip();
+    byte[] decrypted = new byte[plaintext.length];
+    output.get(decrypted);
+    assertArrayEquals(plaintext, decrypted);
+  }
+
+  @Test
+  public void testModifiedCiphertext() throws Exception {
+    GcmCipher cipher = GcmCipher.newJavaInstance();
+    SecretKey key = new SecretKeySpec(Random.randBytes(16), "AES");
+    byte[] iv = Random.randBytes(GcmCipher.IV_SIZE_IN_BYTES);
+    byte[] aad = Random.randBytes(10);
+    byte[] plaintext = Random.randBytes(33);
+    byte[] ciphertext = encrypt(cipher, key, iv, aad, plaintext);
+    for (int i = 0; i < ciphertext.length; i++) {
+      byte[] modified = Arrays.copyOf(ciphertext, ciphertext.length);
+      modified[i] ^= 1;
+      byte[] output = new byte[plaintext.length];
+      try {
+        cipher.init(false, key, iv, 0);
+        cipher.updateAad(aad);
+        cipher.doFinal(modified, 0, modified.length, output, 0);
+        fail("Decrypting a modified ciphertext should fail");
+      } catch (AEADBadTagException ex) {
+        // This is expected, and no plaintext has been released.
+        assertArrayEquals(new byte[plaintext.length], output);
+      }
+    }
+    try {
+      decrypt(cipher, key, iv, new byte[0], ciphertext);
+      fail("Decrypting with a modified aad should fail");
+    } catch (AEADBadTagException ex) {
+      // This is expected.
+    }
+    try {
+      decrypt(cipher, key, iv, aad, Arrays.copyOf(ciphertext, 15));
+      fail("Decrypting a truncated ciphertext should fail");
+    } catch (AEADBadTagException ex) {
+      // This is expected.
+    }
+  }
+
+  @Test
+  public void testKeysAndMessagesAlternate() throws Exception {
+    GcmCipher java = GcmCipher.newJavaInstance();
+    GcmCipher platform = GcmCipher.newPlatformInstance();
+    SecretKey[] keys = {
+      new SecretKeySpec(Random.randBytes(16), "AES"), new SecretKeySpec(Random.randBytes(32), "AES")
+    };
+    for (int i = 0; i < 10; i++) {
+      SecretKey key = keys[i % 2];
+      byte[] iv = Random.randBytes(GcmCipher.IV_SIZE_IN_BYTES);
+      byte[] plaintext = Random.randBytes(i * 10);
+      assertArrayEquals(
+          encrypt(platform, key, iv, new byte[0], plaintext),
+          encrypt(java, key, iv, new byte[0], plaintext));
+    }
+  }
+
+  @Test
+  public void testMessageMustBeStarted() throws Exception {
+    GcmCipher cipher = GcmCipher.newJavaInstance();
+    SecretKey key = new SecretKeySpec(Random.randBytes(16), "AES");
+    byte[] plaintext = Random.randBytes(20);
+    try {
+      cipher.doFinal(plaintext, 0, plaintext.length);
+      fail("Encrypting without an IV should fail");
+    } catch (IllegalStateException ex) {
+      // This is expected.
+    }
+    byte[] iv = Random.randBytes(GcmCipher.IV_SIZE_IN_BYTES);
+    byte[] unusedCiphertext = encrypt(cipher, key, iv, new byte[0], plaintext);
+    try {
+      cipher.doFinal(plaintext, 0, plaintext.length);
+      fail("Encrypting twice with the same IV should fail");
+    } catch (IllegalStateException ex) {
+      // This is expected.
+    }
+  }
+
+  @Test
+  public void testPropertySelectsEngine() throws Exception {
+    assertFalse(GcmCipher.usePlatform(GcmCipher.JAVA));
+    assertTrue(GcmCipher.usePlatform(GcmCipher.PLATFORM));
+    // Without a valid value, the platform cipher is used here, since it passes its test and this
+    // is not Android.
+    assertTrue(GcmCipher.usePlatform(null));
+    assertTrue(GcmCipher.usePlatform("true"));
+  }
+
+  @Test
+  public void testNewInstanceHonorsProperty() throws Exception {
+    String property = System.getProperty(GcmCipher.PROPERTY);
+    String expected = GcmCipher.JAVA.equals(property) ? "JavaGcm" : "PlatformGcm";
+    assertEquals(expected, GcmCipher.newInstance().getClass().getSimpleName());
+    TestVector t = TEST_VECTORS[3];
+    assertArrayEquals(
+        t.ciphertextAndTag, encrypt(GcmCipher.newInstance(), t.key, t.iv, t.aad, t.plaintext));
+  }
+
+  @Test
+  public void testIndependentOfPlatformEnginesProperty() throws Exception {
+    String property = System.setProperty(PlatformEngines.PROPERTY, "false");
+    try {
+      assertTrue(GcmCipher.usePlatform(null));
+    } finally {
+      if (property == null) {
+        System.clearProperty(PlatformEngines.PROPERTY);
+      } else {
+        System.setProperty(PlatformEngines.PROPERTY, property);
+      }
+    }
+  }
+}
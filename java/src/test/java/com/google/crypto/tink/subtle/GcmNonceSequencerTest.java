@@ -0,0 +1,115 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for GcmNonceSequencer. */
+@RunWith(JUnit4.class)
+public class GcmNonceSequencerTest {
+  @Test
+  public void testNoncesAreDistinctAcrossThreads() throws Exception {
+    final int threadCount = 8;
+    final int nonceCount = 5000;
+    final GcmNonceSequencer nonces = new GcmNonceSequencer(Long.MAX_VALUE);
+    final Set<String> seen = Collections.synchronizedSet(new HashSet<String>());
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threads[i] =
+          new Thread() {
+            @Override
+            public void run() {
+              byte[] nonce = new byte[GcmNonceSequencer.NONCE_SIZE_IN_BYTES];
+              try {
+                for (int j = 0; j < nonceCount; j++) {
+                  nonces.next(nonce, 0);
+                  if (!seen.add(Hex.encode(nonce))) {
+                    failures.incrementAndGet();
+                  }
+                }
+              } catch (GeneralSecurityException e) {
+                failures.incrementAndGet();
+              }
+            }
+          };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+    assertEquals(threadCount * nonceCount, seen.size());
+    assertTrue(nonces.getUsage() >= threadCount * nonceCount);
+  }
+
+  @Test
+  public void testMaxMessagesAndListener() throws Exception {
+    final long[] calls = new long[2];
+    GcmNonceSequencer nonces =
+        new GcmNonceSequencer(
+            1000,
+            700,
+            new GcmNonceSequencer.UsageListener() {
+              @Override
+              public void thresholdReached(long threshold, long maxMessages) {
+                calls[0]++;
+                calls[1] = threshold;
+              }
+            });
+    byte[] output = new byte[20];
+    for (int i = 0; i < 1000; i++) {
+      nonces.next(output, 4);
+    }
+    assertEquals(1, calls[0]);
+    assertEquals(700, calls[1]);
+    assertEquals(1000, nonces.getUsage());
+    // The counter of the last nonce, big-endian after the 4 byte prefix.
+    assertEquals(999 >> 8, output[14] & 0xff);
+    assertEquals(999 & 0xff, output[15] & 0xff);
+    try {
+      nonces.next(output, 4);
+      fail("Expected GeneralSecurityException");
+    } catch (GeneralSecurityException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testInvalidBounds() throws Exception {
+    long[][] bounds = {{0, 0}, {-1, 1}, {10, 0}, {10, 11}};
+    for (long[] bound : bounds) {
+      try {
+        new GcmNonceSequencer(bound[0], bound[1], null);
+        fail("Expected IllegalArgumentException");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
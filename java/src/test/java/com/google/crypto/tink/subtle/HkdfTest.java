@@ -18,10 +18,13 @@ package com.google.crypto.tink.subtle;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.TestUtil;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -56,6 +59,46 @@ public class HkdfTest {
     }
   }
 
+  @Test
+  public void testPrkMatchesComputeHkdf() throws Exception {
+    for (String macAlgorithm : new String[] {"HmacSha1", "HmacSha256", "HmacSha512"}) {
+      byte[] ikm = Random.randBytes(20);
+      byte[] salt = Random.randBytes(20);
+      HkdfPrk prk = HkdfPrk.extract(macAlgorithm, ikm, salt);
+      for (int size = 0; size < 150; size += 7) {
+        byte[] info = Random.randBytes(size % 20);
+        byte[] expected = Hkdf.computeHkdf(macAlgorithm, ikm, salt, info, size);
+        assertArrayEquals(expected, prk.expand(info, size));
+        byte[] output = new byte[size + 5];
+        prk.expand(info, output, 3, size);
+        assertArrayEquals(expected, Arrays.copyOfRange(output, 3, size + 3));
+      }
+      assertArrayEquals(
+          Hkdf.computeHkdf(macAlgorithm, ikm, null, null, 32),
+          HkdfPrk.extract(macAlgorithm, ikm, null).expand(null, 32));
+    }
+  }
+
+  @Test
+  public void testEciesExtractorMatchesComputeEciesHkdfSymmetricKey() throws Exception {
+    byte[] salt = Random.randBytes(20);
+    Hkdf.EciesExtractor extractor = new Hkdf.EciesExtractor("HmacSha256", salt);
+    assertTrue(extractor.matches("HmacSha256", salt.clone()));
+    assertFalse(extractor.matches("HmacSha256", new byte[0]));
+    assertFalse(extractor.matches("HmacSha1", salt));
+    for (int i = 0; i < 10; i++) {
+      byte[] kemBytes = Random.randBytes(65);
+      byte[] sharedSecret = Random.randBytes(32);
+      byte[] info = Random.randBytes(i);
+      assertArrayEquals(
+          Hkdf.computeHkdf("HmacSha256", Bytes.concat(kemBytes, sharedSecret), salt, info, 48),
+          extractor.computeSymmetricKey(kemBytes, sharedSecret, info, 48));
+      assertArrayEquals(
+          Hkdf.computeHkdf("HmacSha256", Bytes.concat(kemBytes, sharedSecret), salt, info, 48),
+          Hkdf.computeEciesHkdfSymmetricKey(kemBytes, sharedSecret, "HmacSha256", salt, info, 48));
+    }
+  }
+
   /**
    * Tests the implementation against the test vectors from RFC 5869.
    */
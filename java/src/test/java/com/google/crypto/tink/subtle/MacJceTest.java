@@ -20,7 +20,9 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.fail;
 
 import com.google.crypto.tink.Mac;
+import com.google.crypto.tink.StreamingMac;
 import com.google.crypto.tink.TestUtil;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import javax.crypto.spec.SecretKeySpec;
@@ -87,6 +89,43 @@ public class MacJceTest {
     }
   }
 
+  @Test
+  public void testStreamingNistVectors() throws Exception {
+    for (int i = 0; i < nistTestVectors.length; i++) {
+      NISTTestVector t = nistTestVectors[i];
+      SecretKeySpec keySpec = new SecretKeySpec(t.key, "HMAC");
+      StreamingMac mac = new MacJce(t.algName, keySpec, t.tag.length);
+      int half = t.message.length / 2;
+
+      StreamingMac.Computation computation = mac.newComputation();
+      computation.update(t.message, 0, half);
+      ByteBuffer rest = ByteBuffer.allocateDirect(t.message.length - half);
+      rest.put(t.message, half, t.message.length - half).flip();
+      computation.update(rest);
+      assertArrayEquals(t.tag, computation.doFinal());
+      try {
+        computation.update(t.message);
+        fail("Finished computation, should have thrown exception");
+      } catch (IllegalStateException expected) {
+        // Expected
+      }
+
+      StreamingMac.Verification verification = mac.newVerification(t.tag);
+      verification.update(Arrays.copyOf(t.message, half));
+      verification.update(ByteBuffer.wrap(t.message, half, t.message.length - half));
+      verification.verify();
+
+      verification = mac.newVerification(t.tag);
+      verification.update(Arrays.copyOf(t.message, half));
+      try {
+        verification.verify();
+        fail("Invalid MAC, should have thrown exception");
+      } catch (GeneralSecurityException expected) {
+        // Expected
+      }
+    }
+  }
+
   @Test
   public void testTagTruncation() throws Exception {
     for (int i = 0; i < nistTestVectors.length; i++) {
@@ -0,0 +1,89 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.GeneralSecurityException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for PlatformEngines. */
+@RunWith(JUnit4.class)
+public class PlatformEnginesTest {
+  /** Returns a fixed result, or throws if it is null. */
+  private static final class FixedTest implements PlatformEngines.KnownAnswerTest {
+    private final Boolean result;
+    int runs = 0;
+
+    FixedTest(Boolean result) {
+      this.result = result;
+    }
+
+    @Override
+    public boolean passes() throws GeneralSecurityException {
+      runs++;
+      if (result == null) {
+        throw new GeneralSecurityException("no such algorithm");
+      }
+      return result;
+    }
+  }
+
+  private String property;
+
+  @Before
+  public void setUp() {
+    property = System.clearProperty(PlatformEngines.PROPERTY);
+  }
+
+  @After
+  public void tearDown() {
+    if (property == null) {
+      System.clearProperty(PlatformEngines.PROPERTY);
+    } else {
+      System.setProperty(PlatformEngines.PROPERTY, property);
+    }
+  }
+
+  @Test
+  public void testKnownAnswerTestDecidesByDefault() throws Exception {
+    assertTrue(PlatformEngines.use("A", true, new FixedTest(true)));
+    assertFalse(PlatformEngines.use("A", true, new FixedTest(false)));
+    assertFalse(PlatformEngines.use("A", true, new FixedTest(null)));
+
+    FixedTest test = new FixedTest(true);
+    assertFalse(PlatformEngines.use("A", false, test));
+    assertEquals(0, test.runs);
+  }
+
+  @Test
+  public void testPropertyForcesEitherPath() throws Exception {
+    System.setProperty(PlatformEngines.PROPERTY, "true");
+    FixedTest test = new FixedTest(false);
+    assertTrue(PlatformEngines.use("A", false, test));
+    assertEquals(0, test.runs);
+
+    System.setProperty(PlatformEngines.PROPERTY, "false");
+    assertFalse(PlatformEngines.use("A", true, new FixedTest(true)));
+  }
+}
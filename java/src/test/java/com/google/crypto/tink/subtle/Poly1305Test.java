@@ -22,6 +22,7 @@ import static org.junit.Assert.fail;
 
 import com.google.common.truth.Truth;
 import com.google.crypto.tink.TestUtil;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import org.junit.Test;
@@ -316,4 +317,57 @@ public class Poly1305Test {
     Truth.assertThat(Poly1305.computeMac(key, in)).isEqualTo(TestUtil.hexDecode(""
         + "13000000000000000000000000000000"));
   }
+
+  @Test
+  public void testIncrementalUpdateMatchesComputeMac() throws GeneralSecurityException {
+    byte[] key = Random.randBytes(MAC_KEY_SIZE_IN_BYTES);
+    for (int length : new int[] {0, 1, 15, 16, 17, 31, 32, 33, 100, 1000}) {
+      byte[] in = Random.randBytes(length);
+      byte[] expected = Poly1305.computeMac(key, in);
+      for (int split = 0; split <= length; split += 7) {
+        Poly1305 mac = new Poly1305(key);
+        mac.update(in, 0, split);
+        mac.update(in, split, length - split);
+        Truth.assertThat(mac.doFinal()).isEqualTo(expected);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(length);
+        direct.put(in);
+        direct.flip();
+        direct.limit(split);
+        mac = new Poly1305(key).update(direct);
+        direct.limit(length);
+        mac.update(direct).verify(expected);
+        Truth.assertThat(direct.hasRemaining()).isFalse();
+      }
+    }
+  }
+
+  @Test
+  public void testPadToBlockSize() throws GeneralSecurityException {
+    byte[] key = Random.randBytes(MAC_KEY_SIZE_IN_BYTES);
+    byte[] padded = new byte[48];
+    System.arraycopy(Random.randBytes(5), 0, padded, 0, 5);
+    System.arraycopy(Random.randBytes(20), 0, padded, 16, 20);
+    Truth.assertThat(
+            new Poly1305(key)
+                .update(padded, 0, 5)
+                .padToBlockSize()
+                .padToBlockSize()
+                .update(padded, 16, 20)
+                .padToBlockSize()
+                .doFinal())
+        .isEqualTo(Poly1305.computeMac(key, padded));
+  }
+
+  @Test
+  public void testCannotUpdateAfterDoFinal() {
+    Poly1305 mac = new Poly1305(new byte[MAC_KEY_SIZE_IN_BYTES]);
+    mac.doFinal();
+    try {
+      mac.update(new byte[1], 0, 1);
+      fail("Expected IllegalStateException.");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
 }
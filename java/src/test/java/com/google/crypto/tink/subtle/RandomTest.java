@@ -0,0 +1,94 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.crypto.tink.subtle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for Random. */
+@RunWith(JUnit4.class)
+public class RandomTest {
+  @Test
+  public void testDrawsAreDistinctAcrossThreads() throws Exception {
+    final int threadCount = 4;
+    final int drawCount = 1000;
+    // Sizes below and above the buffered draws.
+    final int[] sizes = {12, 16, 64, 65, 1000};
+    final Set<String> draws = Collections.synchronizedSet(new HashSet<String>());
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threads[i] =
+          new Thread() {
+            @Override
+            public void run() {
+              for (int j = 0; j < drawCount; j++) {
+                int size = sizes[j % sizes.length];
+                byte[] rand = Random.randBytes(size);
+                assertEquals(size, rand.length);
+                draws.add(Hex.encode(rand));
+              }
+            }
+          };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(threadCount * drawCount, draws.size());
+  }
+
+  @Test
+  public void testRandBytesWithOffset() throws Exception {
+    for (int length : new int[] {0, 1, 12, 64, 65, 300}) {
+      byte[] output = new byte[length + 20];
+      Arrays.fill(output, (byte) 0x55);
+      Random.randBytes(output, 10, length);
+      for (int i = 0; i < 10; i++) {
+        assertEquals((byte) 0x55, output[i]);
+        assertEquals((byte) 0x55, output[length + 10 + i]);
+      }
+      if (length >= 12) {
+        byte[] drawn = Arrays.copyOfRange(output, 10, length + 10);
+        byte[] filler = new byte[length];
+        Arrays.fill(filler, (byte) 0x55);
+        assertTrue(!Arrays.equals(filler, drawn));
+      }
+    }
+  }
+
+  @Test
+  public void testRandBytesWithInvalidBounds() throws Exception {
+    int[][] bounds = {{-1, 4}, {0, -1}, {0, 17}, {10, 7}, {17, 0}};
+    for (int[] bound : bounds) {
+      try {
+        Random.randBytes(new byte[16], bound[0], bound[1]);
+        fail("Expected IndexOutOfBoundsException");
+      } catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -30,7 +30,12 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Test;
@@ -94,6 +99,73 @@ public class SnuffleCipherPoly1305Test {
       Truth.assertThat(cipher.decrypt(ciphertext, aad)).isEqualTo(new byte[0]);
     }
 
+    @Test
+    public void testByteBufferEncryptDecrypt() throws GeneralSecurityException {
+      byte[] aad = Random.randBytes(MAC_TAG_SIZE_IN_BYTES);
+      SnuffleCipherPoly1305 cipher = createInstance(Random.randBytes(KEY_SIZE_IN_BYTES));
+      int overhead = cipher.nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES;
+      for (int length = 0; length < 150; length += 7) {
+        byte[] plaintext = Random.randBytes(length);
+        ByteBuffer ciphertext = ByteBuffer.allocateDirect(length + overhead + 3);
+        ciphertext.position(3);
+        cipher.encrypt(ByteBuffer.wrap(plaintext), ByteBuffer.wrap(aad), ciphertext);
+        assertEquals(length + overhead + 3, ciphertext.position());
+        ciphertext.flip();
+        ciphertext.position(3);
+        byte[] ciphertextBytes = new byte[ciphertext.remaining()];
+        ciphertext.duplicate().get(ciphertextBytes);
+        Truth.assertThat(cipher.decrypt(ciphertextBytes, aad)).isEqualTo(plaintext);
+
+        ByteBuffer decrypted = ByteBuffer.allocate(length);
+        cipher.decrypt(ciphertext, ByteBuffer.wrap(aad), decrypted);
+        Truth.assertThat(decrypted.array()).isEqualTo(plaintext);
+      }
+    }
+
+    @Test
+    public void testEncryptDecryptInPlace() throws GeneralSecurityException {
+      byte[] aad = Random.randBytes(MAC_TAG_SIZE_IN_BYTES);
+      SnuffleCipherPoly1305 cipher = createInstance(Random.randBytes(KEY_SIZE_IN_BYTES));
+      int overhead = cipher.nonceSizeInBytes() + MAC_TAG_SIZE_IN_BYTES;
+      byte[] plaintext = Random.randBytes(200);
+      // Plaintext at the start of the buffer, and right after the space for the nonce.
+      for (int offset : new int[] {0, cipher.nonceSizeInBytes()}) {
+        byte[] buffer = new byte[plaintext.length + overhead + offset];
+        System.arraycopy(plaintext, 0, buffer, offset, plaintext.length);
+        int ciphertextLength = cipher.encrypt(buffer, offset, plaintext.length, aad, buffer, 0);
+        assertEquals(plaintext.length + overhead, ciphertextLength);
+        byte[] ciphertext = Arrays.copyOf(buffer, ciphertextLength);
+        Truth.assertThat(cipher.decrypt(ciphertext, aad)).isEqualTo(plaintext);
+
+        int plaintextLength = cipher.decrypt(buffer, 0, ciphertextLength, aad, buffer, offset);
+        assertEquals(plaintext.length, plaintextLength);
+        Truth.assertThat(Arrays.copyOfRange(buffer, offset, offset + plaintextLength))
+            .isEqualTo(plaintext);
+      }
+    }
+
+    @Test
+    public void testEncryptDecryptBatch() throws GeneralSecurityException {
+      SnuffleCipherPoly1305 cipher = createInstance(Random.randBytes(KEY_SIZE_IN_BYTES));
+      List<byte[]> plaintexts = new ArrayList<byte[]>();
+      List<byte[]> aads = new ArrayList<byte[]>();
+      for (int i = 0; i < 40; i++) {
+        plaintexts.add(Random.randBytes(i * 3));
+        aads.add(Random.randBytes(MAC_TAG_SIZE_IN_BYTES));
+      }
+      List<byte[]> ciphertexts = cipher.encryptBatch(plaintexts, aads);
+      for (int i = 0; i < plaintexts.size(); i++) {
+        Truth.assertThat(cipher.decrypt(ciphertexts.get(i), aads.get(i)))
+            .isEqualTo(plaintexts.get(i));
+      }
+
+      ciphertexts.get(5)[ciphertexts.get(5).length - 1] ^= 1;
+      List<byte[]> decrypted = cipher.decryptBatch(ciphertexts, aads);
+      for (int i = 0; i < plaintexts.size(); i++) {
+        Truth.assertThat(decrypted.get(i)).isEqualTo(i == 5 ? null : plaintexts.get(i));
+      }
+    }
+
     @Test
     public void testSnuffleCipherPoly1305ThrowsIllegalArgExpWhenKeyLenIsGreaterThan32() {
       try {
@@ -147,6 +219,45 @@ public class SnuffleCipherPoly1305Test {
       return SnuffleCipherPoly1305.constructChaCha20Poly1305Ietf(key);
     }
 
+    /**
+     * The AAD in a ByteBuffer, heap or direct, must be authenticated like the AAD in an array of
+     * the platform cipher, also if it is longer than a block, on the Java or the platform path.
+     */
+    @Test
+    public void testByteBufferAadMatchesPlatformArrayAad() throws GeneralSecurityException {
+      Cipher platform;
+      try {
+        platform = EngineFactory.CIPHER.getInstance("ChaCha20-Poly1305");
+      } catch (GeneralSecurityException ex) {
+        // The platform has no ChaCha20-Poly1305, e.g., before Java 11.
+        return;
+      }
+      byte[] key = Random.randBytes(KEY_SIZE_IN_BYTES);
+      SnuffleCipherPoly1305 cipher = createInstance(key);
+      byte[] plaintext = Random.randBytes(50);
+      int nonceSize = cipher.nonceSizeInBytes();
+      for (int aadLength : new int[] {0, 5, 16, 17, 33}) {
+        byte[] aad = Random.randBytes(aadLength);
+        ByteBuffer directAad = ByteBuffer.allocateDirect(aadLength);
+        directAad.put(aad);
+        directAad.flip();
+        for (ByteBuffer aadBuffer : new ByteBuffer[] {ByteBuffer.wrap(aad), directAad}) {
+          ByteBuffer ciphertext =
+              ByteBuffer.allocate(nonceSize + plaintext.length + MAC_TAG_SIZE_IN_BYTES);
+          cipher.encrypt(ByteBuffer.wrap(plaintext), aadBuffer, ciphertext);
+          assertEquals(0, aadBuffer.remaining());
+          byte[] output = ciphertext.array();
+          platform.init(
+              Cipher.DECRYPT_MODE,
+              new SecretKeySpec(key, "ChaCha20"),
+              new IvParameterSpec(Arrays.copyOf(output, nonceSize)));
+          platform.updateAAD(aad);
+          Truth.assertThat(platform.doFinal(output, nonceSize, output.length - nonceSize))
+              .isEqualTo(plaintext);
+        }
+      }
+    }
+
     /**
      * Tests against the test vectors in Section 2.6.2 of RFC 7539.
      * https://tools.ietf.org/html/rfc7539#section-2.6.2
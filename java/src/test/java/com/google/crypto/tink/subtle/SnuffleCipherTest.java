@@ -171,6 +171,37 @@ public class SnuffleCipherTest {
       }
     }
 
+    @Test
+    public void testXorMatchesNext() {
+      byte[] nonce = new byte[16];
+      nonce[0] = 2;
+      for (int skip : new int[] {0, 20}) {
+        for (int length : new int[] {0, 1, 7, 8, 63, 64, 65, 255, 256, 257, 1000}) {
+          KeyStream expected = new KeyStream(new MockSnuffleCipher(new byte[32]), nonce, 3);
+          KeyStream actual = new KeyStream(new MockSnuffleCipher(new byte[32]), nonce, 3);
+          if (skip > 0) {
+            expected.first(skip);
+            actual.first(skip);
+          }
+          ByteBuffer keyStreamBytes =
+              ByteBuffer.allocate(length + SnuffleCipher.BLOCK_SIZE_IN_BYTES)
+                  .order(ByteOrder.LITTLE_ENDIAN);
+          while (keyStreamBytes.position() < length) {
+            for (int word : expected.next()) {
+              keyStreamBytes.putInt(word);
+            }
+          }
+          byte[] input = Random.randBytes(length);
+          ByteBuffer output = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+          actual.xor(output, ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN));
+          assertThat(output.hasRemaining()).isFalse();
+          for (int i = 0; i < length; i++) {
+            assertThat(output.get(i)).isEqualTo((byte) (input[i] ^ keyStreamBytes.get(i)));
+          }
+        }
+      }
+    }
+
     @Test
     public void testEncryptWithOutputArgThrowsWhenOutputIsTooShort()
         throws GeneralSecurityException {